@@ -35,6 +35,8 @@ public class Activator implements BundleActivator {
 
     private static final String OBR_RESOLVE_OPTIONAL_IMPORTS = "obr.resolve.optional.imports";
     private static final String RESOLVE_OPTIONAL_IMPORTS = "resolve.optional.imports";
+    private static final String START_THREADS = "start.threads";
+    private static final String DOWNLOAD_THREADS = "download.threads";
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(Activator.class);
 
     private DeploymentAgent agent;
@@ -46,6 +48,12 @@ public class Activator implements BundleActivator {
         agent.setBundleContext(context);
         Dictionary<String, Object> config = getConfig(context);
         agent.setResolveOptionalImports(getResolveOptionalImports(config));
+        if (config != null && config.get(START_THREADS) != null) {
+            agent.setStartThreads(Integer.parseInt(config.get(START_THREADS).toString()));
+        }
+        if (config != null && config.get(DOWNLOAD_THREADS) != null) {
+            agent.setDownloadThreads(Integer.parseInt(config.get(DOWNLOAD_THREADS).toString()));
+        }
         agent.setFabricService(getFabricService(context));
         agent.start();
         Hashtable<String, String> props = new Hashtable<String, String>();
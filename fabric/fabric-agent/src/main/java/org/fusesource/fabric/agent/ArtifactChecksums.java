@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent;
+
+import org.apache.felix.utils.properties.Properties;
+import org.fusesource.fabric.utils.ChecksumUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The checksums of the artifacts files, keyed by their path, length and last modification time
+ * so that a file is only read again when it changed.
+ * <p>
+ * The checksums are persisted with {@link #save()} so that they survive restarts of the agent.
+ */
+public class ArtifactChecksums {
+
+    private final Properties properties;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean dirty;
+
+    public ArtifactChecksums(File file) throws IOException {
+        this.properties = new Properties(file);
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            Entry entry = Entry.parse(property.getValue());
+            if (entry != null) {
+                entries.put(property.getKey(), entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the checksum of the given file, computing it only if the file changed since the last call.
+     */
+    public long checksum(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(path);
+        if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+            entry = new Entry(length, lastModified, ChecksumUtils.checksum(new FileInputStream(file)));
+            entries.put(path, entry);
+            dirty = true;
+        }
+        return entry.checksum;
+    }
+
+    /**
+     * Saves the checksums of the files that still exist.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        properties.clear();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (new File(entry.getKey()).exists()) {
+                properties.put(entry.getKey(), entry.getValue().toString());
+            } else {
+                entries.remove(entry.getKey());
+            }
+        }
+        properties.save();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final long length;
+        final long lastModified;
+        final long checksum;
+
+        Entry(long length, long lastModified, long checksum) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return length + "," + lastModified + "," + checksum;
+        }
+    }
+}
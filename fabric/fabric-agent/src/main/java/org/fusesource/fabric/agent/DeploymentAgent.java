@@ -51,10 +51,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
@@ -84,10 +89,16 @@ public class DeploymentAgent implements ManagedService {
     private volatile boolean shutdownDownloadExecutor;
     private DownloadManager manager;
     private boolean resolveOptionalImports = false;
+    private int startThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int downloadThreads;
+    private ExecutorService startExecutor;
 
     private final RequirementSort requirementSort = new RequirementSort();
 
     private Properties checksums;
+    private ResolutionCache resolutionCache;
+    private ArtifactChecksums artifactChecksums;
+    private final DeploymentBuilder.ManifestCache manifests = new DeploymentBuilder.ManifestCache();
 
     public DeploymentAgent() throws MalformedURLException {
         final MavenConfigurationImpl config = new MavenConfigurationImpl(new PropertiesPropertyResolver(System.getProperties()), "org.ops4j.pax.url.mvn");
@@ -119,6 +130,28 @@ public class DeploymentAgent implements ManagedService {
         this.resolveOptionalImports = resolveOptionalImports;
     }
 
+    public int getStartThreads() {
+        return startThreads;
+    }
+
+    /**
+     * Sets the maximum number of bundles started concurrently, 1 to start them one after the other
+     */
+    public void setStartThreads(int startThreads) {
+        this.startThreads = startThreads;
+    }
+
+    public int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    /**
+     * Sets the number of concurrent downloads, or 0 to use the Felix thread pool when available and 5 threads otherwise
+     */
+    public void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
     public void start() throws IOException {
         LOGGER.info("Starting DeploymentAgent");
         systemBundleContext = bundleContext.getBundle(0).getBundleContext();
@@ -126,6 +159,12 @@ public class DeploymentAgent implements ManagedService {
             File file = bundleContext.getDataFile("checksums.properties");
             checksums = new Properties(file);
         }
+        if (resolutionCache == null) {
+            resolutionCache = new ResolutionCache(bundleContext.getDataFile("resolution.properties"));
+        }
+        if (artifactChecksums == null) {
+            artifactChecksums = new ArtifactChecksums(bundleContext.getDataFile("artifact-checksums.properties"));
+        }
         for (Bundle bundle : systemBundleContext.getBundles()) {
             try {
                 if (isUpdateable(bundle)) {
@@ -136,12 +175,12 @@ public class DeploymentAgent implements ManagedService {
                     long systemChecksum = 0;
                     long agentChecksum = 0;
                     try {
-                        systemChecksum = ChecksumUtils.checksum(new FileInputStream(systemPath));
+                        systemChecksum = artifactChecksums.checksum(new File(systemPath));
                     } catch (Exception e) {
                         LOGGER.debug("Error calculating checksum for file: %s", systemPath, e);
                     }
                     try {
-                        agentChecksum = ChecksumUtils.checksum(new FileInputStream(agentDownloadsPath));
+                        agentChecksum = artifactChecksums.checksum(new File(agentDownloadsPath));
                     } catch (Exception e) {
                         LOGGER.debug("Error calculating checksum for file: %s", agentDownloadsPath, e);
                     }
@@ -153,6 +192,7 @@ public class DeploymentAgent implements ManagedService {
             }
         }
         checksums.save();
+        artifactChecksums.save();
     }
 
     public void stop() throws InterruptedException {
@@ -160,6 +200,12 @@ public class DeploymentAgent implements ManagedService {
         // We can't wait for the threads to finish because the agent needs to be able to
         // update itself and this would cause a deadlock
         executor.shutdown();
+        synchronized (this) {
+            if (startExecutor != null) {
+                startExecutor.shutdown();
+                startExecutor = null;
+            }
+        }
         if (shutdownDownloadExecutor && downloadExecutor != null) {
             downloadExecutor.shutdown();
             downloadExecutor = null;
@@ -247,7 +293,9 @@ public class DeploymentAgent implements ManagedService {
         DictionaryPropertyResolver propertyResolver = new DictionaryPropertyResolver(props, syspropsResolver);
         final MavenConfigurationImpl config = new MavenConfigurationImpl(new DictionaryPropertyResolver(props, syspropsResolver), "org.ops4j.pax.url.mvn");
         config.setSettings(new MavenSettingsImpl(config.getSettingsFileUrl(), config.useFallbackRepositories()));
+        DownloadManager previous = manager;
         manager = new DownloadManager(config, getDownloadExecutor());
+        previous.shutdown();
         Map<String, String> properties = new HashMap<String, String>();
         for (Enumeration e = props.keys(); e.hasMoreElements();) {
             Object key = e.nextElement();
@@ -292,6 +340,19 @@ public class DeploymentAgent implements ManagedService {
         // Compute deployment
         final Map<String, Repository> repositories = loadRepositories(manager, getPrefixedProperties(properties, "repository."));
 
+        // Skip the download and the resolution if nothing changed since the last deployment
+        List<URI> repositoryUris = new ArrayList<URI>();
+        for (Repository repository : repositories.values()) {
+            repositoryUris.add(repository.getURI());
+        }
+        String deploymentHash = ResolutionCache.hash(properties, repositoryUris, resolveOptionalImports);
+        List<String> deployed = resolutionCache != null ? resolutionCache.getBundles(deploymentHash) : null;
+        if (deployed != null && isDeployed(deployed)) {
+            LOGGER.info("Deployment unchanged since the last update, skipping resolution");
+            startBundles(deployed);
+            return true;
+        }
+
         // Update bundles
         FabResolverFactoryImpl fabResolverFactory = new FabResolverFactoryImpl();
         fabResolverFactory.setConfiguration(new FabricFabConfiguration(config, propertyResolver));
@@ -306,7 +367,8 @@ public class DeploymentAgent implements ManagedService {
         DeploymentBuilder builder = new DeploymentBuilder(
                 manager,
                 fabResolverFactory,
-                repositories.values()
+                repositories.values(),
+                manifests
         );
         updateStatus("downloading", null);
         builder.download(
@@ -330,10 +392,45 @@ public class DeploymentAgent implements ManagedService {
         Collection<Resource> allResources = builder.resolve(systemBundle, resolveOptionalImports);
 
         Map<String, StreamProvider> providers = builder.getProviders();
-        install(allResources, providers);
+        install(allResources, providers, deploymentHash);
         return true;
     }
 
+    /**
+     * Checks that the installed bundles are still exactly those of the given deployment
+     */
+    private boolean isDeployed(List<String> locations) {
+        Set<String> installed = new HashSet<String>();
+        for (Bundle bundle : systemBundleContext.getBundles()) {
+            if (bundle.getSymbolicName() != null && bundle.getBundleId() != 0) {
+                installed.add(bundle.getLocation());
+            }
+        }
+        return installed.equals(new HashSet<String>(locations));
+    }
+
+    /**
+     * Starts the bundles of an unchanged deployment that are not active, in the order of the deployment
+     */
+    private void startBundles(List<String> locations) throws MultiException {
+        List<Throwable> exceptions = new ArrayList<Throwable>();
+        for (String location : locations) {
+            Bundle bundle = systemBundleContext.getBundle(location);
+            String hostHeader = bundle.getHeaders().get(Constants.FRAGMENT_HOST);
+            if (hostHeader == null && bundle.getState() != Bundle.ACTIVE) {
+                LOGGER.info("  " + bundle.getSymbolicName() + " / " + bundle.getVersion());
+                try {
+                    bundle.start();
+                } catch (BundleException e) {
+                    exceptions.add(e);
+                }
+            }
+        }
+        if (!exceptions.isEmpty()) {
+            throw new MultiException("Error updating agent", exceptions);
+        }
+    }
+
     private Set<String> getPrefixedProperties(Map<String, String> properties, String prefix) {
         Set<String> result = new HashSet<String>();
         for (String key : properties.keySet()) {
@@ -350,7 +447,7 @@ public class DeploymentAgent implements ManagedService {
         return result;
     }
 
-    private void install(Collection<Resource> allResources, Map<String, StreamProvider> providers) throws Exception {
+    private void install(Collection<Resource> allResources, final Map<String, StreamProvider> providers, String deploymentHash) throws Exception {
 
         updateStatus("installing", null, allResources, false);
         Map<Resource, Bundle> resToBnd = new HashMap<Resource, Bundle>();
@@ -363,52 +460,39 @@ public class DeploymentAgent implements ManagedService {
         LOGGER.info(sb.toString());
 
         Map<String, String> newCheckums = new HashMap<String, String>();
-        List<Resource> toDeploy = new ArrayList<Resource>(allResources);
+        Set<Resource> toDeploy = new LinkedHashSet<Resource>(allResources);
         List<Resource> toInstall = new ArrayList<Resource>();
-        List<Bundle> toDelete = new ArrayList<Bundle>();
+        Set<Bundle> toDelete = new LinkedHashSet<Bundle>();
         Map<Bundle, Resource> toUpdate = new HashMap<Bundle, Resource>();
 
+        // Index the resources by symbolic name and version
+        Map<String, LinkedList<Resource>> resourcesByIdentity = new HashMap<String, LinkedList<Resource>>();
+        for (Resource res : allResources) {
+            String identity = getSymbolicName(res) + "/" + getVersion(res);
+            LinkedList<Resource> resources = resourcesByIdentity.get(identity);
+            if (resources == null) {
+                resources = new LinkedList<Resource>();
+                resourcesByIdentity.put(identity, resources);
+            }
+            resources.add(res);
+        }
+
         // First pass: go through all installed bundles and mark them
         // as either to ignore or delete
         if (checksums == null) {
             File file = bundleContext.getDataFile("checksums.properties");
             checksums = new Properties(file);
         }
+        Map<Bundle, Resource> updateables = new LinkedHashMap<Bundle, Resource>();
         for (Bundle bundle : systemBundleContext.getBundles()) {
             if (bundle.getSymbolicName() != null && bundle.getBundleId() != 0) {
-                Resource resource = null;
-                boolean update = false;
-                for (Resource res : toDeploy) {
-                    if (bundle.getSymbolicName().equals(getSymbolicName(res))) {
-                        if (bundle.getVersion().equals(getVersion(res))) {
-                            if (isUpdateable(res)) {
-                                // if the checksum are different
-                                InputStream is = null;
-                                try {
-                                    is = getBundleInputStream(res, providers);
-                                    long newCrc = ChecksumUtils.checksum(is);
-                                    long oldCrc = checksums.containsKey(bundle.getLocation()) ? Long.parseLong(checksums.get(bundle.getLocation())) : 0l;
-                                    if (newCrc != oldCrc) {
-                                        LOGGER.debug("New snapshot available for " + bundle.getLocation());
-                                        update = true;
-                                        newCheckums.put(bundle.getLocation(), Long.toString(newCrc));
-                                    }
-                                } finally {
-                                    if (is != null) {
-                                        is.close();
-                                    }
-                                }
-                            }
-                            resource = res;
-                            break;
-                        }
-                    }
-                }
+                LinkedList<Resource> resources = resourcesByIdentity.get(bundle.getSymbolicName() + "/" + bundle.getVersion());
+                Resource resource = resources != null ? resources.poll() : null;
                 if (resource != null) {
                     toDeploy.remove(resource);
                     resToBnd.put(resource, bundle);
-                    if (update) {
-                        toUpdate.put(bundle, resource);
+                    if (isUpdateable(resource)) {
+                        updateables.put(bundle, resource);
                     }
                 } else {
                     toDelete.add(bundle);
@@ -416,25 +500,69 @@ public class DeploymentAgent implements ManagedService {
             }
         }
 
+        // Update the snapshots whose checksum changed, the checksums being computed concurrently
+        Map<Bundle, Future<Long>> newCrcs = new LinkedHashMap<Bundle, Future<Long>>();
+        for (final Map.Entry<Bundle, Resource> entry : updateables.entrySet()) {
+            newCrcs.put(entry.getKey(), getDownloadExecutor().submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return checksum(entry.getValue(), providers);
+                }
+            }));
+        }
+        for (Map.Entry<Bundle, Future<Long>> entry : newCrcs.entrySet()) {
+            Bundle bundle = entry.getKey();
+            long newCrc;
+            try {
+                newCrc = entry.getValue().get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            long oldCrc = checksums.containsKey(bundle.getLocation()) ? Long.parseLong(checksums.get(bundle.getLocation())) : 0l;
+            if (newCrc != oldCrc) {
+                LOGGER.debug("New snapshot available for " + bundle.getLocation());
+                toUpdate.put(bundle, updateables.get(bundle));
+                newCheckums.put(bundle.getLocation(), Long.toString(newCrc));
+            }
+        }
+
         // Second pass on remaining resources
+        Map<String, List<Bundle>> toDeleteByName = new HashMap<String, List<Bundle>>();
+        for (Bundle bundle : toDelete) {
+            List<Bundle> bundles = toDeleteByName.get(bundle.getSymbolicName());
+            if (bundles == null) {
+                bundles = new ArrayList<Bundle>();
+                toDeleteByName.put(bundle.getSymbolicName(), bundles);
+            }
+            bundles.add(bundle);
+        }
         for (Resource resource : toDeploy) {
             TreeMap<Version, Bundle> matching = new TreeMap<Version, Bundle>();
             VersionRange range = getMicroVersionRange(getVersion(resource));
-            for (Bundle bundle : toDelete) {
-                if (bundle.getSymbolicName().equals(getSymbolicName(resource)) && range.contains(bundle.getVersion())) {
-                    matching.put(bundle.getVersion(), bundle);
+            List<Bundle> candidates = toDeleteByName.get(getSymbolicName(resource));
+            if (candidates != null) {
+                for (Bundle bundle : candidates) {
+                    if (range.contains(bundle.getVersion())) {
+                        matching.put(bundle.getVersion(), bundle);
+                    }
                 }
             }
             if (!matching.isEmpty()) {
                 Bundle bundle = matching.lastEntry().getValue();
                 toUpdate.put(bundle, resource);
                 toDelete.remove(bundle);
+                candidates.remove(bundle);
                 resToBnd.put(resource, bundle);
             } else {
                 toInstall.add(resource);
             }
         }
 
+        // The installed bundles are about to change
+        if (resolutionCache != null) {
+            resolutionCache.invalidate();
+        }
+
         // Check if an update of the agent is needed
         Resource agentResource = toUpdate.get(bundleContext.getBundle());
         if (agentResource != null) {
@@ -508,7 +636,7 @@ public class DeploymentAgent implements ManagedService {
             resToBnd.put(resource, bundle);
             // save a checksum of installed snapshot bundle
             if (bundle.getVersion().getQualifier().endsWith(SNAPSHOT) && !newCheckums.containsKey(bundle.getLocation())) {
-                newCheckums.put(bundle.getLocation(), Long.toString(ChecksumUtils.checksum(getBundleInputStream(resource, providers))));
+                newCheckums.put(bundle.getLocation(), Long.toString(checksum(resource, providers)));
             }
         }
 
@@ -518,6 +646,9 @@ public class DeploymentAgent implements ManagedService {
             }
             checksums.save();
         }
+        if (artifactChecksums != null) {
+            artifactChecksums.save();
+        }
 
         findBundlesWithOptionalPackagesToRefresh(toRefresh);
         findBundlesWithFragmentsToRefresh(toRefresh);
@@ -533,32 +664,121 @@ public class DeploymentAgent implements ManagedService {
         }
 
         // We hit FELIX-2949 if we don't use the correct order as Felix resolver isn't greedy.
-        // In order to minimize that, we make sure we resolve the bundles in the order they
-        // are given back by the resolution, meaning that all root bundles (i.e. those that were
-        // not flagged as dependencies in features) are started before the others.   This should
-        // make sure those important bundles are started first and minimize the problem.
+        // In order to minimize that, we start the bundles in waves computed from their requirements,
+        // so that the bundles are only started once those providing their requirements are.
+        // The bundles of a wave do not depend on each other, so they are started concurrently.
         List<Throwable> exceptions = new ArrayList<Throwable>();
+        List<String> startOrder = new ArrayList<String>();
+        Map<Bundle, Long> startTimes = new ConcurrentHashMap<Bundle, Long>();
+        boolean cacheable = true;
         LOGGER.info("Starting bundles:");
         // TODO: use wiring here instead of sorting
-        for (Resource resource : requirementSort.sort(allResources)) {
-            Bundle bundle = resToBnd.get(resource);
-            String hostHeader = bundle.getHeaders().get(Constants.FRAGMENT_HOST);
-            if (hostHeader == null && bundle.getState() != Bundle.ACTIVE) {
-                LOGGER.info("  " + bundle.getSymbolicName() + " / " + bundle.getVersion());
-                try {
-                    bundle.start();
-                } catch (BundleException e) {
-                    exceptions.add(e);
+        for (List<Resource> wave : requirementSort.sortInWaves(allResources)) {
+            List<Bundle> toStart = new ArrayList<Bundle>();
+            for (Resource resource : wave) {
+                Bundle bundle = resToBnd.get(resource);
+                startOrder.add(bundle.getLocation());
+                // the content of snapshots may change without any change of the deployment
+                cacheable &= !isUpdateable(resource);
+                String hostHeader = bundle.getHeaders().get(Constants.FRAGMENT_HOST);
+                if (hostHeader == null && bundle.getState() != Bundle.ACTIVE) {
+                    toStart.add(bundle);
                 }
             }
+            exceptions.addAll(startWave(toStart, startTimes));
         }
+        updateStartTimes(startTimes);
         if (!exceptions.isEmpty()) {
             throw new MultiException("Error updating agent", exceptions);
         }
 
+        if (cacheable && resolutionCache != null) {
+            resolutionCache.store(deploymentHash, startOrder);
+        }
+
         LOGGER.info("Done.");
     }
 
+    /**
+     * Starts the given bundles concurrently and waits for them, returning the errors
+     */
+    private List<Throwable> startWave(List<Bundle> bundles, final Map<Bundle, Long> startTimes) throws InterruptedException {
+        List<Throwable> exceptions = new ArrayList<Throwable>();
+        if (bundles.size() == 1 || startThreads <= 1) {
+            for (Bundle bundle : bundles) {
+                Throwable t = startBundle(bundle, startTimes);
+                if (t != null) {
+                    exceptions.add(t);
+                }
+            }
+            return exceptions;
+        }
+        List<Future<Throwable>> futures = new ArrayList<Future<Throwable>>();
+        for (final Bundle bundle : bundles) {
+            futures.add(getStartExecutor().submit(new Callable<Throwable>() {
+                @Override
+                public Throwable call() throws Exception {
+                    return startBundle(bundle, startTimes);
+                }
+            }));
+        }
+        for (Future<Throwable> future : futures) {
+            try {
+                Throwable t = future.get();
+                if (t != null) {
+                    exceptions.add(t);
+                }
+            } catch (ExecutionException e) {
+                exceptions.add(e.getCause());
+            }
+        }
+        return exceptions;
+    }
+
+    private Throwable startBundle(Bundle bundle, Map<Bundle, Long> startTimes) {
+        LOGGER.info("  " + bundle.getSymbolicName() + " / " + bundle.getVersion());
+        long start = System.currentTimeMillis();
+        try {
+            bundle.start();
+            return null;
+        } catch (BundleException e) {
+            return e;
+        } finally {
+            startTimes.put(bundle, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Publishes how long each bundle took to start, slowest first
+     */
+    private void updateStartTimes(final Map<Bundle, Long> startTimes) {
+        List<Bundle> bundles = new ArrayList<Bundle>(startTimes.keySet());
+        Collections.sort(bundles, new Comparator<Bundle>() {
+            public int compare(Bundle b1, Bundle b2) {
+                return startTimes.get(b2).compareTo(startTimes.get(b1));
+            }
+        });
+        List<String> report = new ArrayList<String>();
+        for (Bundle bundle : bundles) {
+            report.add(bundle.getSymbolicName() + " / " + bundle.getVersion() + ": " + startTimes.get(bundle) + " ms");
+        }
+        try {
+            FabricService fs = fabricService.getService();
+            if (fs != null) {
+                fs.getCurrentContainer().setProvisionStartTimes(report);
+            }
+        } catch (Throwable e) {
+            LOGGER.warn("Unable to set the bundles start times");
+        }
+    }
+
+    protected synchronized ExecutorService getStartExecutor() {
+        if (startExecutor == null) {
+            startExecutor = Executors.newFixedThreadPool(startThreads, new NamedThreadFactory("fabric-agent-start"));
+        }
+        return startExecutor;
+    }
+
     protected InputStream getBundleInputStream(Resource resource, Map<String, StreamProvider> providers) throws IOException {
         String uri = getUri(resource);
         if (uri == null) {
@@ -575,6 +795,17 @@ public class DeploymentAgent implements ManagedService {
         return provider.open();
     }
 
+    /**
+     * Computes the checksum of the artifact of the resource, only reading it if it changed since the last time
+     */
+    protected long checksum(Resource resource, Map<String, StreamProvider> providers) throws IOException {
+        StreamProvider provider = providers.get(getUri(resource));
+        if (provider instanceof StreamProvider.File && artifactChecksums != null) {
+            return artifactChecksums.checksum(((StreamProvider.File) provider).getFile());
+        }
+        return ChecksumUtils.checksum(getBundleInputStream(resource, providers));
+    }
+
     private List<Bundle> getBundlesToDestroy(List<Bundle> bundles) {
         List<Bundle> bundlesToDestroy = new ArrayList<Bundle>();
         for (Bundle bundle : bundles) {
@@ -755,14 +986,17 @@ public class DeploymentAgent implements ManagedService {
         }
         ExecutorService downloadExecutor = null;
         boolean shutdownDownloadExecutor;
-        try {
-            downloadExecutor = new FelixExecutorServiceFinder().find(bundleContext.getBundle());
-        } catch (Throwable t) {
-            LOGGER.warn("Cannot find reference to MonitoringService. This exception will be ignored.", t);
+        if (downloadThreads <= 0) {
+            try {
+                downloadExecutor = new FelixExecutorServiceFinder().find(bundleContext.getBundle());
+            } catch (Throwable t) {
+                LOGGER.warn("Cannot find reference to MonitoringService. This exception will be ignored.", t);
+            }
         }
         if (downloadExecutor == null) {
-            LOGGER.info("Creating a new fixed thread pool for download manager.");
-            downloadExecutor = Executors.newFixedThreadPool(5);
+            int threads = downloadThreads > 0 ? downloadThreads : 5;
+            LOGGER.info("Creating a new fixed thread pool of " + threads + " threads for download manager.");
+            downloadExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("fabric-agent-download"));
             // we created our own thread pool, so we should shutdown when stopping
             shutdownDownloadExecutor = true;
         } else {
@@ -69,6 +69,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -91,6 +92,7 @@ public class DeploymentBuilder {
     private final Collection<Repository> repositories;
 
     private final List<org.osgi.service.repository.Repository> resourceRepos;
+    private final ManifestCache manifests;
 
     String featureRange = "${version;==}";
 
@@ -104,10 +106,18 @@ public class DeploymentBuilder {
     public DeploymentBuilder(DownloadManager manager,
                              FabResolverFactory fabResolverFactory,
                              Collection<Repository> repositories) {
+        this(manager, fabResolverFactory, repositories, new ManifestCache());
+    }
+
+    public DeploymentBuilder(DownloadManager manager,
+                             FabResolverFactory fabResolverFactory,
+                             Collection<Repository> repositories,
+                             ManifestCache manifests) {
         this.manager = manager;
         this.fabResolverFactory = fabResolverFactory;
         this.repositories = repositories;
         this.resourceRepos = new ArrayList<org.osgi.service.repository.Repository>();
+        this.manifests = manifests;
     }
 
     public void addResourceRepository(org.osgi.service.repository.Repository repository) {
@@ -411,11 +421,53 @@ public class DeploymentBuilder {
     }
 
     protected Attributes getAttributes(String uri, File file) throws Exception {
-        Manifest man = Manifests.getManifest(file);
-        if (man == null) {
-            throw new IllegalArgumentException("Resource " + uri + " does not contain a manifest");
+        Attributes attributes = manifests.get(file);
+        if (attributes == null) {
+            Manifest man = Manifests.getManifest(file);
+            if (man == null) {
+                throw new IllegalArgumentException("Resource " + uri + " does not contain a manifest");
+            }
+            attributes = man.getMainAttributes();
+            manifests.put(file, attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * The main attributes of the manifests of the downloaded artifacts, kept across deployments
+     * so that only the artifacts that changed since the previous deployment are read again.
+     */
+    public static class ManifestCache {
+
+        private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+        public Attributes get(File file) {
+            Entry entry = entries.get(file.getAbsolutePath());
+            if (entry != null && entry.length == file.length() && entry.lastModified == file.lastModified()) {
+                return entry.attributes;
+            }
+            return null;
+        }
+
+        public void put(File file, Attributes attributes) {
+            entries.put(file.getAbsolutePath(), new Entry(file.length(), file.lastModified(), attributes));
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        private static class Entry {
+            final long length;
+            final long lastModified;
+            final Attributes attributes;
+
+            Entry(long length, long lastModified, Attributes attributes) {
+                this.length = length;
+                this.lastModified = lastModified;
+                this.attributes = attributes;
+            }
         }
-        return man.getMainAttributes();
     }
 
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent;
+
+import org.apache.felix.utils.properties.Properties;
+import org.fusesource.fabric.utils.ChecksumUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Remembers the inputs of the last successful deployment along with the bundles it installed,
+ * so that the agent can skip the download and the resolution when it is updated with the same
+ * deployment again, which is the case for most of the configuration changes and restarts.
+ * <p>
+ * The inputs are identified by a hash of the agent configuration and of the content of the
+ * feature repositories. Deployments with snapshots are never cached as their content may change
+ * with the same inputs.
+ */
+public class ResolutionCache {
+
+    private static final String HASH = "hash";
+    private static final String BUNDLE_PREFIX = "bundle.";
+    private static final String ATTRIBUTE_PREFIX = "attribute.";
+
+    private final Properties properties;
+
+    public ResolutionCache(File file) throws IOException {
+        this.properties = new Properties(file);
+    }
+
+    /**
+     * Computes the hash of the inputs of a deployment, profile attributes are ignored as they
+     * do not change what is deployed.
+     */
+    public static String hash(Map<String, String> configuration, Collection<URI> repositories, boolean resolveOptionalImports) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(configuration).entrySet()) {
+                if (!entry.getKey().startsWith(ATTRIBUTE_PREFIX)) {
+                    update(digest, entry.getKey());
+                    update(digest, entry.getValue());
+                }
+            }
+            for (String repository : toSortedStrings(repositories)) {
+                update(digest, repository);
+                URI uri = URI.create(repository);
+                if ("file".equals(uri.getScheme())) {
+                    update(digest, Long.toString(ChecksumUtils.checksum(new FileInputStream(new File(uri)))));
+                }
+            }
+            update(digest, Boolean.toString(resolveOptionalImports));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the locations of the bundles of the last deployment, in their start order, if it
+     * has been done with the given inputs, or null otherwise.
+     */
+    public synchronized List<String> getBundles(String hash) {
+        if (hash == null || !hash.equals(properties.get(HASH))) {
+            return null;
+        }
+        List<String> bundles = new ArrayList<String>();
+        for (int i = 0; properties.containsKey(BUNDLE_PREFIX + i); i++) {
+            bundles.add(properties.get(BUNDLE_PREFIX + i));
+        }
+        return bundles;
+    }
+
+    /**
+     * Records a successful deployment of the given bundles, in their start order.
+     */
+    public synchronized void store(String hash, List<String> bundles) throws IOException {
+        properties.clear();
+        properties.put(HASH, hash);
+        for (int i = 0; i < bundles.size(); i++) {
+            properties.put(BUNDLE_PREFIX + i, bundles.get(i));
+        }
+        properties.save();
+    }
+
+    /**
+     * Forgets the last deployment, before changing the installed bundles.
+     */
+    public synchronized void invalidate() throws IOException {
+        if (!properties.isEmpty()) {
+            properties.clear();
+            properties.save();
+        }
+    }
+
+    private static Collection<String> toSortedStrings(Collection<URI> uris) {
+        Collection<String> answer = new TreeSet<String>();
+        for (URI uri : uris) {
+            answer.add(uri.toString());
+        }
+        return answer;
+    }
+
+    private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+        digest.update(value.getBytes("UTF-8"));
+        // separates the values so that their boundaries are part of the hash
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A content addressed store of artifacts, where each artifact is kept once under its SHA-1
+ * whatever its maven coordinates.
+ * <p>
+ * The store is meant to be shared by all the containers of a host: blobs are written to a
+ * partial file under an exclusive file lock, so a container asking for an artifact being
+ * downloaded by another one waits for it instead of downloading it again, and an interrupted
+ * download is resumed from the partial file.
+ */
+public class ArtifactStore {
+
+    private static final int STRIPES = 32;
+
+    // file locks are held by the whole jvm, so threads are serialized beforehand whatever store they use
+    private static final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // how long to wait before trying again when the file is locked by another class loader of this jvm
+    private static final long OVERLAP_RETRY_DELAY = 100;
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private final File directory;
+
+    public ArtifactStore(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the stored artifact with the given checksum, or null if not stored yet
+     */
+    public File get(String sha1) {
+        File file = getBlob(sha1);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * @return the partial file to download the artifact with the given checksum to
+     */
+    public File getPartFile(String sha1) {
+        return new File(getBlob(sha1).getPath() + ".part");
+    }
+
+    /**
+     * Locks the given checksum for this thread and process, waiting for the current owner if any.
+     */
+    public Lock lock(String sha1) throws IOException {
+        File blob = getBlob(sha1);
+        File parent = blob.getParentFile();
+        parent.mkdirs();
+        if (!parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent.toString());
+        }
+        ReentrantLock stripe = stripes[(sha1.hashCode() & 0x7fffffff) % STRIPES];
+        stripe.lock();
+        RandomAccessFile raf = null;
+        try {
+            for (;;) {
+                raf = new RandomAccessFile(new File(blob.getPath() + ".lock"), "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    return new Lock(stripe, raf, lock);
+                } catch (OverlappingFileLockException e) {
+                    // a previous instance of this bundle still holds it
+                    close(raf);
+                    raf = null;
+                    Thread.sleep(OVERLAP_RETRY_DELAY);
+                }
+            }
+        } catch (InterruptedException e) {
+            close(raf);
+            stripe.unlock();
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while waiting for the lock of " + sha1).initCause(e);
+        } catch (IOException e) {
+            close(raf);
+            stripe.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            close(raf);
+            stripe.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the fully downloaded partial file of the given checksum into the store.
+     * The checksum must be locked by the caller.
+     */
+    public File commit(String sha1) throws IOException {
+        File blob = getBlob(sha1);
+        File part = getPartFile(sha1);
+        if (!blob.isFile() && !part.renameTo(blob)) {
+            throw new IOException("Unable to rename file " + part.toString() + " to " + blob.toString());
+        }
+        part.delete();
+        return blob;
+    }
+
+    /**
+     * Copies the stored artifact to the given file, replacing it atomically.
+     */
+    public static void copy(File blob, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        if (!file.getParentFile().isDirectory()) {
+            throw new IOException("Unable to create directory " + file.getParentFile().toString());
+        }
+        File tmp = File.createTempFile("fabric-agent-", null, file.getParentFile());
+        FileChannel in = null;
+        FileChannel out = null;
+        boolean copied = false;
+        try {
+            in = new FileInputStream(blob).getChannel();
+            out = new FileOutputStream(tmp).getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            copied = true;
+        } finally {
+            close(in);
+            close(out);
+            if (!copied) {
+                tmp.delete();
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            tmp.delete();
+            throw new IOException("Unable to delete file: " + file.toString());
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename file " + tmp.toString() + " to " + file.toString());
+        }
+    }
+
+    /**
+     * Parses the content of a maven <code>.sha1</code> file, which may be followed by the file name.
+     *
+     * @return the lower case checksum, or null if the content is not a checksum
+     */
+    public static String parseChecksum(String content) {
+        String sha1 = content.trim();
+        int space = indexOfWhitespace(sha1);
+        if (space >= 0) {
+            sha1 = sha1.substring(0, space);
+        }
+        if (sha1.length() != 40) {
+            return null;
+        }
+        for (int i = 0; i < sha1.length(); i++) {
+            if (Character.digit(sha1.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        return sha1.toLowerCase();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the content of the given file to the digest.
+     */
+    public static void update(MessageDigest digest, File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            close(is);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private File getBlob(String sha1) {
+        return new File(new File(directory, sha1.substring(0, 2)), sha1);
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * The ownership of a checksum, to be released once the artifact is stored.
+     */
+    public static class Lock {
+        private final ReentrantLock stripe;
+        private final RandomAccessFile file;
+        private final FileLock lock;
+
+        Lock(ReentrantLock stripe, RandomAccessFile file, FileLock lock) {
+            this.stripe = stripe;
+            this.file = file;
+            this.lock = lock;
+        }
+
+        public void release() {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // closing the file releases it anyway
+            }
+            close(file);
+            stripe.unlock();
+        }
+    }
+
+}
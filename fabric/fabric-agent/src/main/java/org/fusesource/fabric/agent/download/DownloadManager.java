@@ -20,6 +20,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fusesource.fabric.agent.mvn.MavenConfiguration;
 import org.fusesource.fabric.agent.mvn.MavenRepositoryURL;
@@ -27,6 +32,12 @@ import static org.fusesource.fabric.agent.download.DownloadManagerHelper.stripUr
 
 public class DownloadManager {
 
+    /**
+     * System property holding the directory of the artifact store shared by the containers of the host
+     */
+    public static final String STORE_PROPERTY = "fabric.agent.store";
+
+    private static final int PROBE_THREADS = 8;
 
     /**
      * Thread pool for downloads
@@ -42,6 +53,13 @@ public class DownloadManager {
 
     private final MavenRepositoryURL system;
 
+    private final ArtifactStore store;
+
+    /**
+     * Thread pool probing the repositories, separate from the download one as downloads wait for the probes
+     */
+    private final ThreadPoolExecutor probeExecutor;
+
     public DownloadManager(MavenConfiguration configuration) throws MalformedURLException {
         this(configuration, null);
     }
@@ -51,21 +69,30 @@ public class DownloadManager {
         this.executor = executor;
         this.cache = new MavenRepositoryURL("file://" + System.getProperty("karaf.data") + "/maven/agent" + "@snapshots");
         this.system = new MavenRepositoryURL("file://" + System.getProperty("karaf.home") + "/system" + "@snapshots");
+        this.store = new ArtifactStore(new File(System.getProperty(STORE_PROPERTY, System.getProperty("karaf.home") + "/store")));
+        this.probeExecutor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ProbeThreadFactory());
+        // probes only happen while deploying, so idle threads must not linger in between
+        this.probeExecutor.allowCoreThreadTimeOut(true);
     }
 
     public ExecutorService getExecutor() {
         return executor;
     }
 
+    public ArtifactStore getStore() {
+        return store;
+    }
+
     public void shutdown() {
-        // noop
+        probeExecutor.shutdownNow();
     }
 
     public DownloadFuture download(final String url) throws MalformedURLException {
         String mvnUrl = stripUrl(url);
 
         if (mvnUrl.startsWith("mvn:")) {
-            MavenDownloadTask task = new MavenDownloadTask(mvnUrl, cache, system, configuration, executor);
+            MavenDownloadTask task = new MavenDownloadTask(mvnUrl, cache, system, configuration, store, probeExecutor, executor);
             executor.submit(task);
             if (!mvnUrl.equals(url)) {
                 final DummyDownloadTask download = new DummyDownloadTask(url, executor);
@@ -105,6 +132,16 @@ public class DownloadManager {
     }
 
 
+    static class ProbeThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fabric-agent-probe-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     static class DummyDownloadTask extends AbstractDownloadTask {
         DummyDownloadTask(String url, ExecutorService executor) {
             super(url, executor);
@@ -16,15 +16,25 @@
  */
 package org.fusesource.fabric.agent.download;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.fusesource.fabric.agent.mvn.DownloadableArtifact;
@@ -59,18 +69,33 @@ public class MavenDownloadTask extends AbstractDownloadTask implements Runnable
     private final MavenRepositoryURL cache;
     private final MavenRepositoryURL system;
     private final MavenConfiguration configuration;
+    private final ArtifactStore store;
+    private final ExecutorService probeExecutor;
 
     public MavenDownloadTask(String url, MavenRepositoryURL cache, MavenRepositoryURL system, MavenConfiguration configuration, ExecutorService executor) {
+        this(url, cache, system, configuration, null, null, executor);
+    }
+
+    /**
+     * @param store         the store shared by the containers of the host, or null to download each artifact
+     *                      from the first repository holding it
+     * @param probeExecutor the executor used to probe the repositories concurrently, required along with the store
+     */
+    public MavenDownloadTask(String url, MavenRepositoryURL cache, MavenRepositoryURL system, MavenConfiguration configuration,
+                             ArtifactStore store, ExecutorService probeExecutor, ExecutorService executor) {
         super(url, executor);
         this.cache = cache;
         this.system = system;
         this.configuration = configuration;
+        this.store = store;
+        this.probeExecutor = probeExecutor;
     }
 
     protected File download() throws Exception {
         Parser parser = new Parser(url.substring("mvn:".length()));
         Set<DownloadableArtifact> downloadables;
-        if (!parser.getVersion().contains("SNAPSHOT")) {
+        boolean release = !parser.getVersion().contains("SNAPSHOT");
+        if (release) {
             downloadables = doCollectPossibleDownloads(parser, Arrays.asList(cache, system, configuration.getLocalRepository()));
             for (DownloadableArtifact artifact : downloadables) {
                 URL url = artifact.getArtifactURL();
@@ -87,16 +112,22 @@ public class MavenDownloadTask extends AbstractDownloadTask implements Runnable
                 LOG.trace("  " + artifact);
             }
         }
+        String repository = cache.getFile().getAbsolutePath();
+        if (!repository.endsWith(Parser.FILE_SEPARATOR)) {
+            repository = repository + Parser.FILE_SEPARATOR;
+        }
+        File file = new File(repository + parser.getArtifactPath());
+        if (release && store != null && isExactVersion(parser)) {
+            // released artifacts never change, so they can be shared by checksum
+            if (downloadToStore(downloadables, file)) {
+                return file;
+            }
+        }
         for (DownloadableArtifact artifact : downloadables) {
             LOG.trace("Downloading [" + artifact + "]");
             try {
                 configuration.enableProxy(artifact.getArtifactURL());
-                String repository = cache.getFile().getAbsolutePath();
-                if (!repository.endsWith(Parser.FILE_SEPARATOR)) {
-                    repository = repository + Parser.FILE_SEPARATOR;
-                }
                 InputStream is = artifact.getInputStream();
-                File file = new File(repository + parser.getArtifactPath());
                 file.getParentFile().mkdirs();
                 if (!file.getParentFile().isDirectory()) {
                     throw new IOException("Unable to create directory " + file.getParentFile().toString());
@@ -123,6 +154,161 @@ public class MavenDownloadTask extends AbstractDownloadTask implements Runnable
         throw new IOException("URL [" + url + "] could not be resolved.");
     }
 
+    /**
+     * Copies a released artifact from the store to the given file, downloading it into the store first if needed.
+     * The remote repositories are probed concurrently for the checksum of the artifact and the first one answering
+     * is used, if none publishes it the artifact is downloaded the usual way. If the download from that repository
+     * fails, the other remote repositories are tried in turn, resuming the partial file when possible.
+     *
+     * @return true if the artifact has been copied
+     * @throws IOException if the artifact with the published checksum could not be downloaded from any repository
+     */
+    private boolean downloadToStore(final Set<DownloadableArtifact> downloadables, final File file)
+            throws IOException, InterruptedException {
+        ChecksumProbe probe = probeChecksum(downloadables);
+        if (probe == null) {
+            return false;
+        }
+        File blob = store.get(probe.sha1);
+        if (blob == null) {
+            ArtifactStore.Lock lock = store.lock(probe.sha1);
+            try {
+                // another container may have stored it while we were waiting for the lock
+                blob = store.get(probe.sha1);
+                if (blob == null) {
+                    fetch(downloadables, probe);
+                    blob = store.commit(probe.sha1);
+                }
+            } finally {
+                lock.release();
+            }
+        } else {
+            LOG.debug(Ix2 + "Found [" + probe.artifact + "] in the artifact store");
+        }
+        ArtifactStore.copy(blob, file);
+        return true;
+    }
+
+    /**
+     * Fetches the SHA-1 published along the artifact in all the remote repositories at once.
+     *
+     * @return the first checksum found, or null if none of the repositories publishes it
+     */
+    private ChecksumProbe probeChecksum(final Set<DownloadableArtifact> downloadables)
+            throws InterruptedException {
+        CompletionService<ChecksumProbe> completion = new ExecutorCompletionService<ChecksumProbe>(probeExecutor);
+        List<Future<ChecksumProbe>> futures = new ArrayList<Future<ChecksumProbe>>();
+        for (final DownloadableArtifact artifact : downloadables) {
+            if ("file".equals(artifact.getArtifactURL().getProtocol())) {
+                // local repositories have already been looked at
+                continue;
+            }
+            futures.add(completion.submit(new Callable<ChecksumProbe>() {
+                public ChecksumProbe call() throws Exception {
+                    configuration.enableProxy(artifact.getArtifactURL());
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    copy(artifact.getChecksumInputStream(), baos);
+                    String sha1 = ArtifactStore.parseChecksum(new String(baos.toByteArray(), "US-ASCII"));
+                    if (sha1 == null) {
+                        throw new IOException("Invalid checksum");
+                    }
+                    return new ChecksumProbe(artifact, sha1);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    ChecksumProbe probe = completion.take().get();
+                    LOG.trace(Ix2 + "Checksum of [" + probe.artifact + "] is " + probe.sha1);
+                    return probe;
+                } catch (ExecutionException e) {
+                    LOG.trace(Ix2 + "No checksum found, reason [" + e.getCause().getClass().getName() + ": " + e.getCause().getMessage() + "]");
+                }
+            }
+            return null;
+        } finally {
+            for (Future<ChecksumProbe> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Downloads the artifact from the repository which published its checksum, falling back to the other remote
+     * repositories in order if that download fails.
+     */
+    private void fetch(final Set<DownloadableArtifact> downloadables, final ChecksumProbe probe)
+            throws IOException {
+        List<DownloadableArtifact> artifacts = new ArrayList<DownloadableArtifact>();
+        artifacts.add(probe.artifact);
+        for (DownloadableArtifact artifact : downloadables) {
+            if (artifact != probe.artifact && !"file".equals(artifact.getArtifactURL().getProtocol())) {
+                artifacts.add(artifact);
+            }
+        }
+        IOException failure = null;
+        for (DownloadableArtifact artifact : artifacts) {
+            try {
+                fetch(artifact, probe.sha1);
+                return;
+            } catch (IOException e) {
+                // go on with next repository
+                LOG.debug(Ix2 + "Could not download [" + artifact + "]");
+                LOG.trace(Ix2 + "Reason [" + e.getClass().getName() + ": " + e.getMessage() + "]");
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Downloads the artifact to the partial file of the store, resuming a previous attempt with an HTTP range
+     * request when possible, and checks the checksum of the result.
+     */
+    private void fetch(final DownloadableArtifact artifact, final String sha1)
+            throws IOException {
+        LOG.trace("Downloading [" + artifact + "]");
+        File part = store.getPartFile(sha1);
+        long offset = part.length();
+        configuration.enableProxy(artifact.getArtifactURL());
+        URLConnection conn = artifact.openConnection();
+        boolean http = conn instanceof HttpURLConnection;
+        if (offset > 0 && http) {
+            conn.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+        if (offset > 0 && http && ((HttpURLConnection) conn).getResponseCode() == 416) {
+            part.delete();
+            throw new IOException("Unable to resume the download of [" + artifact + "]");
+        }
+        InputStream is = conn.getInputStream();
+        MessageDigest digest = ArtifactStore.newDigest();
+        boolean append = offset > 0 && http && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+        if (append) {
+            LOG.debug(Ix2 + "Resuming the download of [" + artifact + "] at byte " + offset);
+            ArtifactStore.update(digest, part);
+        }
+        copy(is, new DigestOutputStream(new FileOutputStream(part, append), digest));
+        String actual = ArtifactStore.toHex(digest.digest());
+        if (!sha1.equals(actual)) {
+            part.delete();
+            throw new IOException("Checksum mismatch for [" + artifact + "], expected " + sha1 + " but got " + actual);
+        }
+    }
+
+    private static boolean isExactVersion(final Parser parser) {
+        String version = parser.getVersion();
+        if (version.contains("LATEST") || version.endsWith("SNAPSHOT")) {
+            return false;
+        }
+        try {
+            new VersionRange(version);
+            return false;
+        } catch (Exception ignore) {
+            return true;
+        }
+    }
+
     /**
      * Searches all available repositories for possible artifacts to download. The returned set of downloadable
      * artifacts (never null, but maybe empty) will be sorted descending by version of the artifact and by positon of
@@ -480,4 +666,15 @@ public class MavenDownloadTask extends AbstractDownloadTask implements Runnable
         }
 
     }
+
+    private static class ChecksumProbe {
+        final DownloadableArtifact artifact;
+        final String sha1;
+
+        ChecksumProbe(DownloadableArtifact artifact, String sha1) {
+            this.artifact = artifact;
+            this.sha1 = sha1;
+        }
+    }
+
 }
@@ -19,6 +19,7 @@ package org.fusesource.fabric.agent.mvn;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 
 import org.fusesource.fabric.agent.utils.NullArgumentException;
 import org.fusesource.fabric.agent.utils.URLUtils;
@@ -100,6 +101,28 @@ public class DownloadableArtifact {
         return URLUtils.prepareInputStream(m_artifactURL, !m_checkCertificate);
     }
 
+    /**
+     * Returns a prepared but not yet connected connection to the artifact, so request headers can still be set.
+     *
+     * @return connection to the artifact
+     * @throws IOException re-thrown
+     */
+    public URLConnection openConnection()
+            throws IOException {
+        return URLUtils.prepareConnection(m_artifactURL, !m_checkCertificate);
+    }
+
+    /**
+     * Returns an input stream to the SHA-1 checksum published next to the artifact.
+     *
+     * @return an input stream to the checksum
+     * @throws IOException re-thrown
+     */
+    public InputStream getChecksumInputStream()
+            throws IOException {
+        return URLUtils.prepareInputStream(new URL(m_artifactURL.toExternalForm() + ".sha1"), !m_checkCertificate);
+    }
+
     /**
      * Getter.
      *
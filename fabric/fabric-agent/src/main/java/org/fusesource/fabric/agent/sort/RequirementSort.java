@@ -26,9 +26,13 @@ import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class RequirementSort  {
@@ -47,6 +51,44 @@ public class RequirementSort  {
 		return sorted;
 	}
 
+	/**
+	 * Groups {@link Resource}s in waves, so that each {@link Resource} only depends on
+	 * {@link Resource}s of the previous waves and those of a wave can be started together.
+	 * Dependency cycles are broken at the first {@link Resource} of the cycle that is visited.
+	 * @param resources
+	 * @return
+	 */
+	public List<List<Resource>> sortInWaves(Collection<Resource> resources) {
+		Map<Resource, Integer> waveOf = new HashMap<Resource, Integer>();
+		Set<Resource> visiting = new HashSet<Resource>();
+		List<List<Resource>> waves = new ArrayList<List<Resource>>();
+		for (Resource r : resources) {
+			int wave = computeWave(r, resources, waveOf, visiting);
+			while (waves.size() <= wave) {
+				waves.add(new ArrayList<Resource>());
+			}
+			waves.get(wave).add(r);
+		}
+		return waves;
+	}
+
+	private int computeWave(Resource resource, Collection<Resource> resources, Map<Resource, Integer> waveOf, Set<Resource> visiting) {
+		Integer wave = waveOf.get(resource);
+		if (wave != null) {
+			return wave;
+		}
+		visiting.add(resource);
+		int answer = 0;
+		for (Resource r : collectDependencies(resource, resources)) {
+			if (r != resource && !visiting.contains(r)) {
+				answer = Math.max(answer, computeWave(r, resources, waveOf, visiting) + 1);
+			}
+		}
+		visiting.remove(resource);
+		waveOf.put(resource, answer);
+		return answer;
+	}
+
 
 	private void visit(Resource resource, Collection<Resource> resources, Set<Resource> visited, Set<Resource> sorted) {
 		if (visited.contains(resource)) {
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent;
+
+import org.fusesource.fabric.utils.ChecksumUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ArtifactChecksumsTest {
+
+    @Test
+    public void testChecksums() throws Exception {
+        File store = File.createTempFile("checksums", ".properties");
+        store.deleteOnExit();
+        File artifact = File.createTempFile("artifact", ".jar");
+        artifact.deleteOnExit();
+        write(artifact, "first");
+
+        ArtifactChecksums checksums = new ArtifactChecksums(store);
+        long first = checksums.checksum(artifact);
+        assertEquals(checksum("first"), first);
+
+        // same length and modification time, so the file is not read again
+        long lastModified = artifact.lastModified();
+        write(artifact, "other");
+        artifact.setLastModified(lastModified);
+        assertEquals(first, checksums.checksum(artifact));
+
+        artifact.setLastModified(lastModified - 10000);
+        assertEquals(checksum("other"), checksums.checksum(artifact));
+
+        // the checksums survive restarts
+        checksums.save();
+        checksums = new ArtifactChecksums(store);
+        assertEquals(1, checksums.size());
+        write(artifact, "third");
+        artifact.setLastModified(lastModified - 10000);
+        assertEquals(checksum("other"), checksums.checksum(artifact));
+
+        // the checksums of deleted files are not saved
+        artifact.setLastModified(lastModified);
+        checksums.checksum(artifact);
+        artifact.delete();
+        checksums.save();
+        assertEquals(0, new ArtifactChecksums(store).size());
+    }
+
+    private static long checksum(String content) throws Exception {
+        return ChecksumUtils.checksum(new ByteArrayInputStream(content.getBytes("UTF-8")));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+}
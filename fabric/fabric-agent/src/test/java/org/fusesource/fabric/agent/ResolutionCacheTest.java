@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ResolutionCacheTest {
+
+    @Test
+    public void testHash() throws Exception {
+        File repository = File.createTempFile("features", ".xml");
+        repository.deleteOnExit();
+        write(repository, "<features/>");
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put("feature.karaf", "karaf");
+        configuration.put("repository.karaf", "mvn:org.apache.karaf/features/2.3.0/xml/features");
+        String hash = ResolutionCache.hash(configuration, Collections.singleton(repository.toURI()), false);
+
+        // profile attributes do not change the deployment
+        configuration.put("attribute.parents", "default");
+        assertEquals(hash, ResolutionCache.hash(configuration, Collections.singleton(repository.toURI()), false));
+
+        assertFalse(hash.equals(ResolutionCache.hash(configuration, Collections.singleton(repository.toURI()), true)));
+        configuration.put("bundle.foo", "mvn:foo/bar/1.0");
+        String hashWithBundle = ResolutionCache.hash(configuration, Collections.singleton(repository.toURI()), false);
+        assertFalse(hash.equals(hashWithBundle));
+
+        // the content of the repositories is part of the hash
+        write(repository, "<features><feature name='foo'/></features>");
+        assertFalse(hashWithBundle.equals(ResolutionCache.hash(configuration, Collections.singleton(repository.toURI()), false)));
+    }
+
+    @Test
+    public void testStore() throws Exception {
+        File file = File.createTempFile("resolution", ".properties");
+        file.deleteOnExit();
+        ResolutionCache cache = new ResolutionCache(file);
+        assertNull(cache.getBundles("abc"));
+
+        cache.store("abc", Arrays.asList("mvn:foo/bar/1.0", "wrap:mvn:foo/baz/1.0$Export-Package=a,b"));
+        assertNull(cache.getBundles("def"));
+        assertEquals(Arrays.asList("mvn:foo/bar/1.0", "wrap:mvn:foo/baz/1.0$Export-Package=a,b"), cache.getBundles("abc"));
+
+        // survives restarts
+        cache = new ResolutionCache(file);
+        assertEquals(2, cache.getBundles("abc").size());
+
+        cache.invalidate();
+        assertNull(cache.getBundles("abc"));
+        assertNull(new ResolutionCache(file).getBundles("abc"));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent.download;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactStoreTest {
+
+    @Test
+    public void testParseChecksum() {
+        String sha1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+        assertEquals(sha1, ArtifactStore.parseChecksum(sha1));
+        assertEquals(sha1, ArtifactStore.parseChecksum(sha1.toUpperCase() + "  artifact-1.0.jar\n"));
+        assertNull(ArtifactStore.parseChecksum("<html>Not found</html>"));
+        assertNull(ArtifactStore.parseChecksum("zz39a3ee5e6b4b0d3255bfef95601890afd80709"));
+    }
+
+    @Test
+    public void testCommitAndCopy() throws Exception {
+        ArtifactStore store = new ArtifactStore(createDirectory());
+        String sha1 = sha1("content");
+        assertNull(store.get(sha1));
+
+        ArtifactStore.Lock lock = store.lock(sha1);
+        try {
+            write(store.getPartFile(sha1), "content");
+            File blob = store.commit(sha1);
+            assertEquals(blob, store.get(sha1));
+            assertFalse(store.getPartFile(sha1).exists());
+        } finally {
+            lock.release();
+        }
+
+        File target = new File(createDirectory(), "org/foo/bar/1.0/bar-1.0.jar");
+        ArtifactStore.copy(store.get(sha1), target);
+        assertEquals("content", read(target));
+        // replaced atomically
+        write(target, "stale");
+        ArtifactStore.copy(store.get(sha1), target);
+        assertEquals("content", read(target));
+    }
+
+    @Test
+    public void testLockIsExclusive() throws Exception {
+        final ArtifactStore store = new ArtifactStore(createDirectory());
+        final String sha1 = sha1("content");
+        ArtifactStore.Lock lock = store.lock(sha1);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicBoolean stored = new AtomicBoolean();
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    ArtifactStore.Lock lock = store.lock(sha1);
+                    stored.set(store.get(sha1) != null);
+                    lock.release();
+                    acquired.countDown();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        try {
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+            write(store.getPartFile(sha1), "content");
+            store.commit(sha1);
+        } finally {
+            lock.release();
+        }
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        // the waiting thread sees the artifact stored by the lock owner
+        assertTrue(stored.get());
+    }
+
+    @Test
+    public void testLockIsExclusiveAcrossStores() throws Exception {
+        File directory = createDirectory();
+        final ArtifactStore first = new ArtifactStore(directory);
+        final ArtifactStore second = new ArtifactStore(directory);
+        final String sha1 = sha1("content");
+        ArtifactStore.Lock lock = first.lock(sha1);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    second.lock(sha1).release();
+                    acquired.countDown();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        try {
+            // waits for the other store instead of failing on the lock held by this jvm
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.release();
+        }
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    private static File createDirectory() throws IOException {
+        File dir = File.createTempFile("store", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static String sha1(String content) throws Exception {
+        MessageDigest digest = ArtifactStore.newDigest();
+        return ArtifactStore.toHex(digest.digest(content.getBytes("UTF-8")));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[(int) file.length()];
+            int len = 0;
+            while (len < buffer.length) {
+                len += is.read(buffer, len, buffer.length - len);
+            }
+            return new String(buffer, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.agent.sort;
+
+import org.fusesource.fabric.agent.resolver.ResourceBuilder;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.resource.Resource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class RequirementSortTest {
+
+    @Test
+    public void testSortInWaves() throws Exception {
+        Resource api = bundle("api", "org.acme.api", null);
+        Resource impl = bundle("impl", "org.acme.impl", "org.acme.api");
+        Resource other = bundle("other", "org.acme.other", null);
+        Resource web = bundle("web", null, "org.acme.api,org.acme.impl");
+        // a cycle between two bundles
+        Resource first = bundle("first", "org.acme.first", "org.acme.second");
+        Resource second = bundle("second", "org.acme.second", "org.acme.first");
+
+        List<List<Resource>> waves = new RequirementSort().sortInWaves(Arrays.asList(web, impl, other, api, first, second));
+        assertEquals(3, waves.size());
+        assertEquals(Arrays.asList(other, api, second), waves.get(0));
+        assertEquals(Arrays.asList(impl, first), waves.get(1));
+        assertEquals(Arrays.asList(web), waves.get(2));
+    }
+
+    private static Resource bundle(String name, String exports, String imports) throws Exception {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, name);
+        headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+        if (exports != null) {
+            headers.put(Constants.EXPORT_PACKAGE, exports);
+        }
+        if (imports != null) {
+            headers.put(Constants.IMPORT_PACKAGE, imports);
+        }
+        return ResourceBuilder.build("mvn:org.acme/" + name + "/1.0.0", headers);
+    }
+}
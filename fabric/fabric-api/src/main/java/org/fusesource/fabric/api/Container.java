@@ -142,6 +142,12 @@ public interface Container extends HasId {
     List<String> getProvisionList();
     void setProvisionList(List<String> bundles);
 
+    /**
+     * Returns how long each bundle took to start during the last provisioning, slowest first
+     */
+    List<String> getProvisionStartTimes();
+    void setProvisionStartTimes(List<String> startTimes);
+
     String getProvisionStatus();
 
     CreateContainerMetadata<?> getMetadata();
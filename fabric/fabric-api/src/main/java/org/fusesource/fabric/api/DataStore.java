@@ -51,6 +51,12 @@ public interface DataStore {
     void trackConfiguration(Runnable callback);
     void untrackConfiguration(Runnable callback);
 
+    /**
+     * Returns a number that changes whenever the data of the store is changed, so that
+     * data derived from it can be cached until the next change.
+     */
+    long getChangeStamp();
+
     //
     // Container management
     //
@@ -88,6 +94,7 @@ public interface DataStore {
         ProvisionStatus,
         ProvisionException,
         ProvisionList,
+        ProvisionStartTimes,
         Location,
         GeoLocation,
         Resolver,
@@ -51,6 +51,7 @@ public class ContainerDTO {
     public Set<String> children;
     public List<String> jmxDomains;
     public List<String> provisionList;
+    public List<String> provisionStartTimes;
     public Map<Object, Object> metaData;
 
     @Override
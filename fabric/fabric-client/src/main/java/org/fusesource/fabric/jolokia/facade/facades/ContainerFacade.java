@@ -354,6 +354,16 @@ public class ContainerFacade implements Container, HasId {
         throw new UnsupportedOperationException("This cannot be set from a remote process");
     }
 
+    @Override
+    public List<String> getProvisionStartTimes() {
+        return getFieldValue("provisionStartTimes");
+    }
+
+    @Override
+    public void setProvisionStartTimes(List<String> strings) {
+        throw new UnsupportedOperationException("This cannot be set from a remote process");
+    }
+
     @Override
     public String getProvisionStatus() {
         return getFieldValue("provisionStatus");
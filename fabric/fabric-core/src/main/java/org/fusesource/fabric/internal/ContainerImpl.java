@@ -590,6 +590,24 @@ public class ContainerImpl implements Container {
         setAttribute(DataStore.ContainerAttribute.ProvisionList, str.toString());
     }
 
+    @Override
+    public List<String> getProvisionStartTimes() {
+        String str = getOptionalAttribute(DataStore.ContainerAttribute.ProvisionStartTimes, null);
+        return str != null ? Arrays.asList(str.split("\n")) : null;
+    }
+
+    @Override
+    public void setProvisionStartTimes(List<String> startTimes) {
+        StringBuilder str = new StringBuilder();
+        for (String s : startTimes) {
+            if (str.length() > 0) {
+                str.append("\n");
+            }
+            str.append(s);
+        }
+        setAttribute(DataStore.ContainerAttribute.ProvisionStartTimes, str.toString());
+    }
+
     @Override
     public CreateContainerMetadata<?> getMetadata() {
         try {
@@ -237,7 +237,7 @@ public class ProfileImpl implements Profile {
     }
 
     public Profile getOverlay() {
-        return new ProfileOverlayImpl(this, getService().getEnvironment());
+        return new ProfileOverlayImpl(this, false, getService().getDataStore(), getService().getEnvironment());
     }
 
     public Profile getOverlay(boolean substitute) {
@@ -351,7 +351,7 @@ public class ProfileImpl implements Profile {
      * @return
      */
     public boolean agentConfigurationEquals(Profile other) {
-        ProfileOverlayImpl selfOverlay = new ProfileOverlayImpl(this, getService().getEnvironment());
+        ProfileOverlayImpl selfOverlay = new ProfileOverlayImpl(this, false, getService().getDataStore(), getService().getEnvironment());
         return selfOverlay.agentConfigurationEquals(other);
     }
 
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.fusesource.fabric.api.DataStore;
+import org.fusesource.fabric.api.Profile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of the aggregated configurations of the {@link ProfileOverlayImpl} instances,
+ * shared by all the overlays of a class loader.
+ * <p>
+ * Entries are stamped with the {@link DataStore#getChangeStamp()} they have been computed with,
+ * so that any change of the data store makes them stale.
+ */
+final class ProfileOverlayCache {
+
+    static final int MAXIMUM_SIZE = 512;
+
+    private static final Cache<Key, Aggregate> CACHE = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+    private ProfileOverlayCache() {
+        //Utility Class
+    }
+
+    /**
+     * Returns the cached aggregate of the overlay of the given profile if it is still current.
+     */
+    static Aggregate get(DataStore dataStore, Profile profile, String environment, long stamp) {
+        Aggregate aggregate = CACHE.getIfPresent(new Key(dataStore, profile, environment));
+        return aggregate != null && aggregate.stamp == stamp ? aggregate : null;
+    }
+
+    static void put(DataStore dataStore, Profile profile, String environment, Aggregate aggregate) {
+        CACHE.put(new Key(dataStore, profile, environment), aggregate);
+    }
+
+    /**
+     * The file configurations and the configurations, before substitution, of an overlay.
+     */
+    static class Aggregate {
+        final long stamp;
+        final Map<String, byte[]> fileConfigurations;
+        final Map<String, Map<String, String>> configurations;
+
+        Aggregate(long stamp, Map<String, byte[]> fileConfigurations, Map<String, Map<String, String>> configurations) {
+            this.stamp = stamp;
+            this.fileConfigurations = Collections.unmodifiableMap(fileConfigurations);
+            this.configurations = Collections.unmodifiableMap(configurations);
+        }
+    }
+
+    /**
+     * The parents are part of the key as those of the container profiles are not
+     * stored along with the profiles.
+     */
+    private static class Key {
+        private final DataStore dataStore;
+        private final String version;
+        private final String id;
+        private final String environment;
+        private final List<String> parents;
+        private final int hashCode;
+
+        private Key(DataStore dataStore, Profile profile, String environment) {
+            this.dataStore = dataStore;
+            this.version = profile.getVersion();
+            this.id = profile.getId();
+            this.environment = environment;
+            this.parents = new ArrayList<String>();
+            for (Profile parent : profile.getParents()) {
+                parents.add(parent.getId());
+            }
+            int result = System.identityHashCode(dataStore);
+            result = 31 * result + (version != null ? version.hashCode() : 0);
+            result = 31 * result + (id != null ? id.hashCode() : 0);
+            result = 31 * result + (environment != null ? environment.hashCode() : 0);
+            this.hashCode = 31 * result + parents.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return dataStore == key.dataStore
+                    && Objects.equal(version, key.version)
+                    && Objects.equal(id, key.id)
+                    && Objects.equal(environment, key.environment)
+                    && parents.equals(key.parents);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.fusesource.fabric.api.DataStore;
 import org.fusesource.fabric.api.FabricException;
 import org.fusesource.fabric.api.Profile;
 import org.fusesource.fabric.api.Profiles;
+import org.fusesource.fabric.internal.ProfileOverlayCache.Aggregate;
 import org.fusesource.fabric.utils.DataStoreUtils;
 
 import java.util.ArrayList;
@@ -33,12 +34,19 @@ import java.util.Properties;
 import static org.fusesource.fabric.internal.ProfileImpl.ConfigListType;
 import static org.fusesource.fabric.internal.ProfileImpl.getContainerConfigList;
 
+/**
+ * The read-only view of a {@link Profile} merged with all its parents.
+ * <p>
+ * When the overlay knows its {@link DataStore}, the merged configurations are computed once and
+ * shared through the {@link ProfileOverlayCache} until the data store changes.
+ */
 public class ProfileOverlayImpl implements Profile {
 
     private final Profile self;
     private final boolean substitute;
     private final DataStore dataStore;
     private final String environment;
+    private volatile Aggregate cached;
 
     public ProfileOverlayImpl(Profile self, String environment) {
         this(self, false, null, environment);
@@ -108,7 +116,15 @@ public class ProfileOverlayImpl implements Profile {
 
     @Override
     public Map<String, String> getContainerConfiguration() {
-        Map<String, String> map = getConfigurations().get(Constants.AGENT_PID);
+        Map<String, String> map;
+        if (substitute && dataStore != null) {
+            map = getConfigurations().get(Constants.AGENT_PID);
+        } else {
+            map = getAggregate().configurations.get(Constants.AGENT_PID);
+            if (map != null) {
+                map = new HashMap<String, String>(map);
+            }
+        }
         if (map == null) {
             map = new HashMap<String, String>();
         }
@@ -175,15 +191,13 @@ public class ProfileOverlayImpl implements Profile {
      */
     @Override
     public boolean agentConfigurationEquals(Profile other) {
-        ProfileOverlayImpl otherOverlay = new ProfileOverlayImpl(other, environment);
-        if (!getConfigurations().containsKey(Constants.AGENT_PID) && !otherOverlay.getConfigurations().containsKey(Constants.AGENT_PID)) {
-            return true;
-        } else if (getConfigurations().containsKey(Constants.AGENT_PID) != otherOverlay.getConfigurations().containsKey(Constants.AGENT_PID)) {
-            return false;
-        } else if (getConfigurations().containsKey(Constants.AGENT_PID) && !getConfigurations().get(Constants.AGENT_PID).equals(otherOverlay.getConfigurations().get(Constants.AGENT_PID))) {
-            return false;
+        ProfileOverlayImpl otherOverlay = new ProfileOverlayImpl(other, false, dataStore, environment);
+        Map<String, String> agentConfiguration = getAggregate().configurations.get(Constants.AGENT_PID);
+        Map<String, String> otherAgentConfiguration = otherOverlay.getAggregate().configurations.get(Constants.AGENT_PID);
+        if (agentConfiguration == null || otherAgentConfiguration == null) {
+            return agentConfiguration == otherAgentConfiguration;
         } else {
-            return true;
+            return agentConfiguration.equals(otherAgentConfiguration);
         }
     }
 
@@ -208,7 +222,7 @@ public class ProfileOverlayImpl implements Profile {
 
     @Override
     public Profile getOverlay(boolean substitute) {
-        return new ProfileOverlayImpl(this.self, substitute, environment);
+        return new ProfileOverlayImpl(this.self, substitute, dataStore, environment);
     }
 
     @Override
@@ -303,45 +317,60 @@ public class ProfileOverlayImpl implements Profile {
 
     @Override
     public Map<String, byte[]> getFileConfigurations() {
-        try {
-            Map<String, SupplementControl> aggregate = new HashMap<String, SupplementControl>();
-            for (Profile profile : getInheritedProfiles()) {
-                supplement(profile, aggregate);
-            }
+        return new HashMap<String, byte[]>(getAggregate().fileConfigurations);
+    }
 
-            Map<String, byte[]> rc = new HashMap<String, byte[]>();
-            for (Map.Entry<String, SupplementControl> entry : aggregate.entrySet()) {
-                SupplementControl ctrl = entry.getValue();
-                if (ctrl.props != null) {
-                    ctrl.data = DataStoreUtils.toBytes(ctrl.props);
-                }
-                rc.put(entry.getKey(), ctrl.data);
+    @Override
+    public Map<String, Map<String, String>> getConfigurations() {
+        Map<String, Map<String, String>> rc = new HashMap<String, Map<String, String>>();
+        for (Map.Entry<String, Map<String, String>> entry : getAggregate().configurations.entrySet()) {
+            rc.put(entry.getKey(), new HashMap<String, String>(entry.getValue()));
+        }
+        if (substitute && dataStore != null) {
+            dataStore.substituteConfigurations(rc);
+        }
+        return rc;
+    }
+
+    /**
+     * Returns the merged configurations, from this overlay, the shared cache or computed
+     * if the data store changed since.
+     */
+    private Aggregate getAggregate() {
+        if (dataStore == null) {
+            return computeAggregate(0);
+        }
+        long stamp = dataStore.getChangeStamp();
+        Aggregate answer = cached;
+        if (answer == null || answer.stamp != stamp) {
+            answer = ProfileOverlayCache.get(dataStore, self, environment, stamp);
+            if (answer == null) {
+                answer = computeAggregate(stamp);
+                ProfileOverlayCache.put(dataStore, self, environment, answer);
             }
-            return rc;
-        } catch (Exception e) {
-            throw FabricException.launderThrowable(e);
+            cached = answer;
         }
+        return answer;
     }
 
-    @Override
-    public Map<String, Map<String, String>> getConfigurations() {
+    private Aggregate computeAggregate(long stamp) {
         try {
             Map<String, SupplementControl> aggregate = new HashMap<String, SupplementControl>();
             for (Profile profile : getInheritedProfiles()) {
                 supplement(profile, aggregate);
             }
 
-            Map<String, Map<String, String>> rc = new HashMap<String, Map<String, String>>();
+            Map<String, byte[]> files = new HashMap<String, byte[]>();
+            Map<String, Map<String, String>> configs = new HashMap<String, Map<String, String>>();
             for (Map.Entry<String, SupplementControl> entry : aggregate.entrySet()) {
                 SupplementControl ctrl = entry.getValue();
                 if (ctrl.props != null) {
-                    rc.put(DataStoreUtils.stripSuffix(entry.getKey(), ".properties"), DataStoreUtils.toMap(ctrl.props));
+                    ctrl.data = DataStoreUtils.toBytes(ctrl.props);
+                    configs.put(DataStoreUtils.stripSuffix(entry.getKey(), ".properties"), DataStoreUtils.toMap(ctrl.props));
                 }
+                files.put(entry.getKey(), ctrl.data);
             }
-            if (substitute && dataStore != null) {
-                dataStore.substituteConfigurations(rc);
-            }
-            return rc;
+            return new Aggregate(stamp, files, configs);
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         }
@@ -44,6 +44,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
@@ -95,6 +96,7 @@ public abstract class AbstractDataStore<T extends DataStore> extends AbstractCom
 
     private final ConcurrentMap<String, DynamicReference<PlaceholderResolver>> placeholderResolvers = new ConcurrentHashMap<String, DynamicReference<PlaceholderResolver>>();
     private final CopyOnWriteArrayList<Runnable> callbacks = new CopyOnWriteArrayList<Runnable>();
+    private final AtomicLong changeStamp = new AtomicLong();
     private Map<String, String> dataStoreProperties;
     private TreeCache treeCache;
 
@@ -184,9 +186,10 @@ public abstract class AbstractDataStore<T extends DataStore> extends AbstractCom
     }
 
     /**
-     * Allow derived classes to cache stuff
+     * Allow derived classes to cache stuff, overriding methods must call this one
      */
     protected void clearCaches() {
+        changeStamp.incrementAndGet();
     }
 
     protected void fireChangeNotifications() {
@@ -248,6 +251,11 @@ public abstract class AbstractDataStore<T extends DataStore> extends AbstractCom
         callbacks.remove(callback);
     }
 
+    @Override
+    public long getChangeStamp() {
+        return changeStamp.get();
+    }
+
     // PlaceholderResolver stuff
     //-------------------------------------------------------------------------
 
@@ -653,6 +661,8 @@ public abstract class AbstractDataStore<T extends DataStore> extends AbstractCom
             return ZkPath.CONTAINER_PROVISION_EXCEPTION.getPath(containerId);
         case ProvisionList:
             return ZkPath.CONTAINER_PROVISION_LIST.getPath(containerId);
+        case ProvisionStartTimes:
+            return ZkPath.CONTAINER_PROVISION_START_TIMES.getPath(containerId);
         case Location:
             return ZkPath.CONTAINER_LOCATION.getPath(containerId);
         case GeoLocation:
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.internal;
+
+import org.easymock.IAnswer;
+import org.fusesource.fabric.api.Constants;
+import org.fusesource.fabric.api.DataStore;
+import org.fusesource.fabric.api.Profile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileOverlayImplTest {
+
+    private final AtomicLong changeStamp = new AtomicLong();
+    private final AtomicInteger reads = new AtomicInteger();
+    private DataStore dataStore;
+    private Profile parent;
+    private Profile child;
+
+    @Before
+    public void setUp() throws Exception {
+        dataStore = createMock(DataStore.class);
+        expect(dataStore.getChangeStamp()).andStubAnswer(new IAnswer<Long>() {
+            @Override
+            public Long answer() throws Throwable {
+                return changeStamp.get();
+            }
+        });
+        replay(dataStore);
+
+        parent = mockProfile("parent", new Profile[0], "bundle.a=a\nfeature.b=b\n");
+        child = mockProfile("child", new Profile[]{parent}, "feature.c=c\n");
+    }
+
+    @Test
+    public void testConfigurationsAreComputedOncePerChange() throws Exception {
+        Profile overlay = new ProfileOverlayImpl(child, false, dataStore, null);
+        assertEquals(2, overlay.getFeatures().size());
+        assertEquals(1, overlay.getBundles().size());
+        assertEquals("c", overlay.getConfigurations().get(Constants.AGENT_PID).get("feature.c"));
+        assertEquals(2, reads.get());
+
+        // another overlay of the same profile shares the cached result
+        Profile other = new ProfileOverlayImpl(child, false, dataStore, null);
+        assertEquals(2, other.getFeatures().size());
+        assertEquals(2, reads.get());
+
+        // the returned maps are copies
+        overlay.getContainerConfiguration().put("feature.d", "d");
+        overlay.getConfigurations().get(Constants.AGENT_PID).put("feature.d", "d");
+        assertEquals(2, overlay.getFeatures().size());
+
+        changeStamp.incrementAndGet();
+        assertEquals(2, overlay.getFeatures().size());
+        assertEquals(4, reads.get());
+    }
+
+    @Test
+    public void testAgentConfigurationEquals() throws Exception {
+        Profile overlay = new ProfileOverlayImpl(child, false, dataStore, null);
+        assertTrue(overlay.agentConfigurationEquals(child));
+        assertFalse(overlay.agentConfigurationEquals(parent));
+    }
+
+    private Profile mockProfile(String id, Profile[] parents, final String agentConfiguration) {
+        Profile profile = createMock(Profile.class);
+        expect(profile.getId()).andStubReturn(id);
+        expect(profile.getVersion()).andStubReturn("1.0");
+        expect(profile.getParents()).andStubReturn(parents);
+        expect(profile.getFileConfigurations()).andStubAnswer(new IAnswer<Map<String, byte[]>>() {
+            @Override
+            public Map<String, byte[]> answer() throws Throwable {
+                reads.incrementAndGet();
+                Map<String, byte[]> answer = new HashMap<String, byte[]>();
+                answer.put(Constants.AGENT_PID + ".properties", agentConfiguration.getBytes("UTF-8"));
+                return answer;
+            }
+        });
+        replay(profile);
+        return profile;
+    }
+}
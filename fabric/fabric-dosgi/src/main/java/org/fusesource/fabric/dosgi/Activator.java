@@ -23,6 +23,8 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.fusesource.fabric.dosgi.impl.Manager;
+import org.fusesource.fabric.dosgi.tcp.ClientInvokerImpl;
+import org.fusesource.fabric.dosgi.tcp.TransportPool;
 import org.osgi.framework.BundleContext;
 
 public class Activator implements ConnectionStateListener {
@@ -32,6 +34,11 @@ public class Activator implements ConnectionStateListener {
     private String uri;
     private String exportedAddress;
     private long timeout = TimeUnit.MINUTES.toMillis(5);
+    private int poolSize = TransportPool.DEFAULT_POOL_SIZE;
+    private int maxInflight = TransportPool.DEFAULT_MAX_INFLIGHT;
+    private int batchSize;
+    private long batchLinger = ClientInvokerImpl.DEFAULT_BATCH_LINGER;
+    private boolean metrics;
     private CuratorFramework curator;
 
     public void setBundleContext(BundleContext bundleContext) {
@@ -50,6 +57,26 @@ public class Activator implements ConnectionStateListener {
         this.timeout = timeout;
     }
 
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setMaxInflight(int maxInflight) {
+        this.maxInflight = maxInflight;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchLinger(long batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
     public void destroy() {
         destroyManager();
         curator = null;
@@ -83,7 +110,10 @@ public class Activator implements ConnectionStateListener {
     public void onConnected() {
         destroyManager();
         try {
-            manager = new Manager(this.bundleContext, curator, uri, exportedAddress, timeout);
+            manager = new Manager(this.bundleContext, curator, uri, exportedAddress, timeout, poolSize, maxInflight);
+            manager.setBatchSize(batchSize);
+            manager.setBatchLinger(batchLinger);
+            manager.setMetricsEnabled(metrics);
             manager.init();
         } catch (Exception e) {
             throw new RuntimeException("Unable to start DOSGi service: " + e.getMessage(), e);
@@ -0,0 +1,702 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.api;
+
+import org.fusesource.fabric.dosgi.util.ClassLoaderObjectInputStream;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.WeakHashMap;
+
+/**
+ * A compact, tagged binary serialization.
+ * <p>
+ * Primitives, Strings, dates, enums, arrays, the java.util collections and maps
+ * (but enum sets and maps) and bean-style classes (serializable, a no-arg constructor,
+ * no JDK super class and no custom serialization methods) are encoded natively.
+ * Class names and bean field layouts are written once per message and back referenced
+ * afterwards, and shared or cyclic references are preserved.  Throwables and anything
+ * else are encoded with java serialization.
+ * <p>
+ * Unlike the {@link ObjectSerializationStrategy} this is not the default, an exported
+ * service opts in using the {@link org.fusesource.fabric.dosgi.impl.EndpointDescription#SERIALIZATION}
+ * property and importers which know about it use it for methods without a
+ * {@link Serialization} annotation.
+ */
+public class CompactSerializationStrategy implements SerializationStrategy {
+
+    public static final CompactSerializationStrategy INSTANCE = new CompactSerializationStrategy();
+
+    public static final String NAME = "compact";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte BYTE = 3;
+    static final byte SHORT = 4;
+    static final byte CHAR = 5;
+    static final byte INT = 6;
+    static final byte LONG = 7;
+    static final byte FLOAT = 8;
+    static final byte DOUBLE = 9;
+    static final byte STRING = 10;
+    static final byte DATE = 11;
+    static final byte ENUM = 12;
+    static final byte ARRAY = 13;
+    static final byte BYTES = 14;
+    static final byte COLLECTION = 15;
+    static final byte MAP = 16;
+    static final byte BEAN = 17;
+    static final byte JAVA = 18;
+    static final byte REF = 19;
+
+    private static final HashMap<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> c : new Class<?>[] {boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(c.getName(), c);
+        }
+    }
+
+    // values are soft references as a BeanInfo strongly refers to its class, or
+    // Boolean.FALSE for classes which are not beans
+    private static final WeakHashMap<Class<?>, Object> BEANS = new WeakHashMap<Class<?>, Object>();
+
+    public String name() {
+        return NAME;
+    }
+
+    public void encodeRequest(ClassLoader loader, Class<?>[] types, Object[] args, DataByteArrayOutputStream target) throws Exception {
+        Encoder encoder = new Encoder(target);
+        for (int i = 0; i < types.length; i++) {
+            encoder.writeValue(types[i], args[i]);
+        }
+    }
+
+    public void decodeRequest(ClassLoader loader, Class<?>[] types, DataByteArrayInputStream source, Object[] target) throws Exception {
+        Decoder decoder = new Decoder(loader, source);
+        for (int i = 0; i < types.length; i++) {
+            target[i] = decoder.readValue(types[i]);
+        }
+    }
+
+    public void encodeResponse(ClassLoader loader, Class<?> type, Object value, Throwable error, DataByteArrayOutputStream target) throws Exception {
+        Encoder encoder = new Encoder(target);
+        if (error != null) {
+            target.writeBoolean(true);
+            encoder.writeObject(error);
+        } else {
+            target.writeBoolean(false);
+            encoder.writeValue(type, value);
+        }
+    }
+
+    public void decodeResponse(ClassLoader loader, Class<?> type, DataByteArrayInputStream source, AsyncCallback result) throws Exception {
+        Decoder decoder = new Decoder(loader, source);
+        if (source.readBoolean()) {
+            result.onFailure((Throwable) decoder.readObject());
+        } else {
+            result.onSuccess(decoder.readValue(type));
+        }
+    }
+
+    /**
+     * The reflective layout of a bean class, computed once per class.
+     */
+    static class BeanInfo {
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final char[] codes;
+        final Map<String, Field> byName = new HashMap<String, Field>();
+
+        BeanInfo(Class<?> clazz) throws NoSuchMethodException {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !byName.containsKey(field.getName())) {
+                        field.setAccessible(true);
+                        list.add(field);
+                        byName.put(field.getName(), field);
+                    }
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            codes = new char[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                codes[i] = typeCode(fields[i].getType());
+            }
+        }
+    }
+
+    /**
+     * @return the bean layout of the given class, or null if it can't be encoded as a bean
+     */
+    @SuppressWarnings("unchecked")
+    static BeanInfo getBeanInfo(Class<?> clazz) {
+        Object cached;
+        synchronized (BEANS) {
+            cached = BEANS.get(clazz);
+        }
+        if (cached == Boolean.FALSE) {
+            return null;
+        }
+        BeanInfo rc = cached != null ? ((SoftReference<BeanInfo>) cached).get() : null;
+        if (rc == null) {
+            if (isBeanClass(clazz)) {
+                try {
+                    rc = new BeanInfo(clazz);
+                } catch (Exception e) {
+                    // not a bean, will use java serialization
+                }
+            }
+            synchronized (BEANS) {
+                BEANS.put(clazz, rc != null ? new SoftReference<BeanInfo>(rc) : Boolean.FALSE);
+            }
+        }
+        return rc;
+    }
+
+    private static boolean isBeanClass(Class<?> clazz) {
+        if (clazz.isInterface() || clazz.isArray() || Modifier.isAbstract(clazz.getModifiers()) || Throwable.class.isAssignableFrom(clazz)) {
+            return false;
+        }
+        // only classes which java serialization would rebuild from their fields alone
+        if (!Serializable.class.isAssignableFrom(clazz) || Externalizable.class.isAssignableFrom(clazz)) {
+            return false;
+        }
+        for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+            if (isPlatformClass(c) || hasSerializationMethods(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasSerializationMethods(Class<?> clazz) {
+        return hasMethod(clazz, "writeReplace") || hasMethod(clazz, "readResolve") || hasMethod(clazz, "readObjectNoData")
+                || hasMethod(clazz, "writeObject", ObjectOutputStream.class) || hasMethod(clazz, "readObject", ObjectInputStream.class);
+    }
+
+    private static boolean hasMethod(Class<?> clazz, String name, Class<?>... types) {
+        try {
+            clazz.getDeclaredMethod(name, types);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the collection or map is rebuilt as the same class by the decoder
+     */
+    private static boolean isNativeContainer(Object value) {
+        if (!isPlatformClass(value.getClass()) || value instanceof EnumSet || value instanceof EnumMap) {
+            return false;
+        }
+        return !(value instanceof SortedSet && ((SortedSet) value).comparator() != null)
+                && !(value instanceof SortedMap && ((SortedMap) value).comparator() != null);
+    }
+
+    private static boolean isPlatformClass(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    static char typeCode(Class<?> type) {
+        if (type == boolean.class) {
+            return 'Z';
+        } else if (type == byte.class) {
+            return 'B';
+        } else if (type == char.class) {
+            return 'C';
+        } else if (type == short.class) {
+            return 'S';
+        } else if (type == int.class) {
+            return 'I';
+        } else if (type == long.class) {
+            return 'J';
+        } else if (type == float.class) {
+            return 'F';
+        } else if (type == double.class) {
+            return 'D';
+        } else {
+            return 'L';
+        }
+    }
+
+    static class Encoder {
+
+        final DataByteArrayOutputStream out;
+        final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+        final Map<Class<?>, Integer> beans = new HashMap<Class<?>, Integer>();
+        final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+
+        Encoder(DataByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Class<?> type, Object value) throws IOException {
+            if (type == void.class) {
+                return;
+            }
+            char code = typeCode(type);
+            if (code == 'L') {
+                writeObject(value);
+            } else {
+                writePrimitive(code, value);
+            }
+        }
+
+        void writePrimitive(char code, Object value) throws IOException {
+            switch (code) {
+                case 'Z': out.writeBoolean((Boolean) value); break;
+                case 'B': out.writeByte((Byte) value); break;
+                case 'C': out.writeVarInt((Character) value); break;
+                case 'S': out.writeVarSignedInt((Short) value); break;
+                case 'I': out.writeVarSignedInt((Integer) value); break;
+                case 'J': out.writeVarSignedLong((Long) value); break;
+                case 'F': out.writeFloat((Float) value); break;
+                case 'D': out.writeDouble((Double) value); break;
+                default: throw new IllegalArgumentException("Unknown primitive type code: " + code);
+            }
+        }
+
+        void writeObject(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeVarSignedInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeVarSignedLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeVarSignedInt((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHAR);
+                out.writeVarInt((Character) value);
+            } else if (value.getClass() == Date.class) {
+                out.writeByte(DATE);
+                out.writeVarSignedLong(((Date) value).getTime());
+            } else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum) value).getDeclaringClass());
+                writeString(((Enum) value).name());
+            } else if (!writeReference(value)) {
+                Class<?> clazz = value.getClass();
+                if (value instanceof byte[]) {
+                    byte[] bytes = (byte[]) value;
+                    out.writeByte(BYTES);
+                    out.writeVarInt(bytes.length);
+                    out.write(bytes);
+                } else if (clazz.isArray()) {
+                    writeArray(clazz.getComponentType(), value);
+                } else if (value instanceof Collection && isNativeContainer(value)) {
+                    Collection<?> collection = (Collection<?>) value;
+                    out.writeByte(COLLECTION);
+                    writeClass(clazz);
+                    out.writeVarInt(collection.size());
+                    for (Object element : collection) {
+                        writeObject(element);
+                    }
+                } else if (value instanceof Map && isNativeContainer(value)) {
+                    Map<?, ?> map = (Map<?, ?>) value;
+                    out.writeByte(MAP);
+                    writeClass(clazz);
+                    out.writeVarInt(map.size());
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        writeObject(entry.getKey());
+                        writeObject(entry.getValue());
+                    }
+                } else {
+                    BeanInfo info = getBeanInfo(clazz);
+                    if (info != null) {
+                        writeBean(info, clazz, value);
+                    } else {
+                        writeJava(value);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a back reference if the object has already been written, or
+         * assigns it a handle otherwise.
+         */
+        private boolean writeReference(Object value) throws IOException {
+            Integer handle = handles.get(value);
+            if (handle != null) {
+                out.writeByte(REF);
+                out.writeVarInt(handle);
+                return true;
+            }
+            handles.put(value, handles.size());
+            return false;
+        }
+
+        private void writeArray(Class<?> component, Object value) throws IOException {
+            out.writeByte(ARRAY);
+            writeClass(component);
+            int length = Array.getLength(value);
+            out.writeVarInt(length);
+            char code = typeCode(component);
+            for (int i = 0; i < length; i++) {
+                if (code == 'L') {
+                    writeObject(Array.get(value, i));
+                } else {
+                    writePrimitive(code, Array.get(value, i));
+                }
+            }
+        }
+
+        private void writeBean(BeanInfo info, Class<?> clazz, Object value) throws IOException {
+            out.writeByte(BEAN);
+            Integer index = beans.get(clazz);
+            if (index != null) {
+                out.writeVarInt(index + 1);
+            } else {
+                beans.put(clazz, beans.size());
+                out.writeVarInt(0);
+                writeString(clazz.getName());
+                out.writeVarInt(info.fields.length);
+                for (int i = 0; i < info.fields.length; i++) {
+                    writeString(info.fields[i].getName());
+                    out.writeByte(info.codes[i]);
+                }
+            }
+            try {
+                for (int i = 0; i < info.fields.length; i++) {
+                    Object fieldValue = info.fields[i].get(value);
+                    if (info.codes[i] == 'L') {
+                        writeObject(fieldValue);
+                    } else {
+                        writePrimitive(info.codes[i], fieldValue);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e.toString());
+            }
+        }
+
+        void writeJava(Object value) throws IOException {
+            if (!(value instanceof Serializable)) {
+                throw new NotSerializableException(value.getClass().getName());
+            }
+            DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(value);
+            oos.flush();
+            out.writeByte(JAVA);
+            out.writeVarInt(baos.position());
+            out.write(baos.getData(), 0, baos.position());
+        }
+
+        private void writeClass(Class<?> clazz) throws IOException {
+            Integer index = classes.get(clazz);
+            if (index != null) {
+                out.writeVarInt(index + 1);
+            } else {
+                classes.put(clazz, classes.size());
+                out.writeVarInt(0);
+                writeString(clazz.getName());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * A bean layout as received on the wire, mapped to the local fields.
+     */
+    static class BeanDescriptor {
+        final BeanInfo info;
+        final Field[] fields;
+        final char[] codes;
+
+        BeanDescriptor(BeanInfo info, Field[] fields, char[] codes) {
+            this.info = info;
+            this.fields = fields;
+            this.codes = codes;
+        }
+    }
+
+    static class Decoder {
+
+        final ClassLoader loader;
+        final DataByteArrayInputStream in;
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+        final List<BeanDescriptor> beans = new ArrayList<BeanDescriptor>();
+        final List<Object> handles = new ArrayList<Object>();
+
+        Decoder(ClassLoader loader, DataByteArrayInputStream in) {
+            this.loader = loader;
+            this.in = in;
+        }
+
+        Object readValue(Class<?> type) throws IOException, ClassNotFoundException {
+            if (type == void.class) {
+                return null;
+            }
+            char code = typeCode(type);
+            if (code == 'L') {
+                return readObject();
+            } else {
+                return readPrimitive(code);
+            }
+        }
+
+        Object readPrimitive(char code) throws IOException {
+            switch (code) {
+                case 'Z': return in.readBoolean();
+                case 'B': return in.readByte();
+                case 'C': return (char) in.readVarInt();
+                case 'S': return (short) in.readVarSignedInt();
+                case 'I': return in.readVarSignedInt();
+                case 'J': return in.readVarSignedLong();
+                case 'F': return in.readFloat();
+                case 'D': return in.readDouble();
+                default: throw new StreamCorruptedException("Unknown primitive type code: " + code);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Object readObject() throws IOException, ClassNotFoundException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL: return null;
+                case TRUE: return Boolean.TRUE;
+                case FALSE: return Boolean.FALSE;
+                case BYTE: return in.readByte();
+                case SHORT: return (short) in.readVarSignedInt();
+                case CHAR: return (char) in.readVarInt();
+                case INT: return in.readVarSignedInt();
+                case LONG: return in.readVarSignedLong();
+                case FLOAT: return in.readFloat();
+                case DOUBLE: return in.readDouble();
+                case STRING: return readString();
+                case DATE: return new Date(in.readVarSignedLong());
+                case ENUM: {
+                    Class clazz = readClass();
+                    return Enum.valueOf(clazz, readString());
+                }
+                case REF: return handles.get(in.readVarInt());
+                case BYTES: {
+                    byte[] bytes = new byte[in.readVarInt()];
+                    in.readFully(bytes);
+                    handles.add(bytes);
+                    return bytes;
+                }
+                case ARRAY: return readArray();
+                case COLLECTION: {
+                    Class<?> clazz = readClass();
+                    int size = in.readVarInt();
+                    Collection<Object> collection = (Collection<Object>) newContainer(clazz, Collection.class, Set.class.isAssignableFrom(clazz) ? LinkedHashSet.class : ArrayList.class);
+                    handles.add(collection);
+                    for (int i = 0; i < size; i++) {
+                        collection.add(readObject());
+                    }
+                    return collection;
+                }
+                case MAP: {
+                    Class<?> clazz = readClass();
+                    int size = in.readVarInt();
+                    Map<Object, Object> map = (Map<Object, Object>) newContainer(clazz, Map.class, LinkedHashMap.class);
+                    handles.add(map);
+                    for (int i = 0; i < size; i++) {
+                        Object key = readObject();
+                        map.put(key, readObject());
+                    }
+                    return map;
+                }
+                case BEAN: return readBean();
+                case JAVA: {
+                    int length = in.readVarInt();
+                    Buffer buffer = in.readBuffer(length);
+                    if (buffer == null || buffer.length != length) {
+                        throw new EOFException();
+                    }
+                    ClassLoaderObjectInputStream ois = new ClassLoaderObjectInputStream(new DataByteArrayInputStream(buffer));
+                    ois.setClassLoader(loader);
+                    Object rc = ois.readObject();
+                    handles.add(rc);
+                    return rc;
+                }
+                default:
+                    throw new StreamCorruptedException("Unknown type tag: " + tag);
+            }
+        }
+
+        /**
+         * Creates an instance of the same collection class when possible, or of
+         * the given default class otherwise (for private or immutable implementations).
+         * Only JDK collections are instantiated, whatever class name the stream holds.
+         */
+        private Object newContainer(Class<?> clazz, Class<?> type, Class<?> defaultClass) {
+            if (type.isAssignableFrom(clazz) && isPlatformClass(clazz)
+                    && Modifier.isPublic(clazz.getModifiers()) && !Modifier.isAbstract(clazz.getModifiers())) {
+                try {
+                    return clazz.newInstance();
+                } catch (Exception e) {
+                    // fallback to the default class
+                }
+            }
+            try {
+                return defaultClass.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object readArray() throws IOException, ClassNotFoundException {
+            Class<?> component = readClass();
+            int length = in.readVarInt();
+            Object array = Array.newInstance(component, length);
+            handles.add(array);
+            char code = typeCode(component);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, code == 'L' ? readObject() : readPrimitive(code));
+            }
+            return array;
+        }
+
+        private Object readBean() throws IOException, ClassNotFoundException {
+            int index = in.readVarInt();
+            BeanDescriptor descriptor;
+            if (index == 0) {
+                Class<?> clazz = loadClass(readString());
+                BeanInfo info = getBeanInfo(clazz);
+                if (info == null) {
+                    throw new NotSerializableException(clazz.getName());
+                }
+                int count = in.readVarInt();
+                Field[] fields = new Field[count];
+                char[] codes = new char[count];
+                for (int i = 0; i < count; i++) {
+                    // fields unknown locally are read and ignored
+                    fields[i] = info.byName.get(readString());
+                    codes[i] = (char) in.readByte();
+                }
+                descriptor = new BeanDescriptor(info, fields, codes);
+                beans.add(descriptor);
+            } else {
+                descriptor = beans.get(index - 1);
+            }
+            try {
+                Object bean = descriptor.info.constructor.newInstance();
+                handles.add(bean);
+                for (int i = 0; i < descriptor.fields.length; i++) {
+                    Object value = descriptor.codes[i] == 'L' ? readObject() : readPrimitive(descriptor.codes[i]);
+                    Field field = descriptor.fields[i];
+                    if (field != null && (value != null || !field.getType().isPrimitive())) {
+                        field.set(bean, value);
+                    }
+                }
+                return bean;
+            } catch (IOException e) {
+                throw e;
+            } catch (ClassNotFoundException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.toString());
+            }
+        }
+
+        private Class<?> readClass() throws IOException, ClassNotFoundException {
+            int index = in.readVarInt();
+            if (index == 0) {
+                Class<?> clazz = loadClass(readString());
+                classes.add(clazz);
+                return clazz;
+            }
+            return classes.get(index - 1);
+        }
+
+        private Class<?> loadClass(String name) throws ClassNotFoundException {
+            Class<?> rc = PRIMITIVES.get(name);
+            if (rc == null) {
+                rc = Class.forName(name, false, loader);
+            }
+            return rc;
+        }
+
+        private String readString() throws IOException {
+            int length = in.readVarInt();
+            Buffer buffer = in.readBuffer(length);
+            if (length == 0) {
+                return "";
+            }
+            if (buffer == null || buffer.length != length) {
+                throw new EOFException();
+            }
+            return new String(buffer.data, buffer.offset, buffer.length, UTF8);
+        }
+    }
+
+}
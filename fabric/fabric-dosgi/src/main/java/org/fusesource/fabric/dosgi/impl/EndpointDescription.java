@@ -68,6 +68,13 @@ import static org.osgi.service.remoteserviceadmin.RemoteConstants.*;
 
 public class EndpointDescription implements Capability {
 
+	/**
+	 * Endpoint property listing, by order of preference, the serializations
+	 * the exported service accepts for methods without a
+	 * {@link org.fusesource.fabric.dosgi.api.Serialization} annotation.
+	 */
+	public static final String	SERIALIZATION	= "fabric.dosgi.serialization";
+
 	private final Map<String, Object>	properties;
 	private final List<String>			interfaces;
 	private final long					serviceId;
@@ -452,6 +459,19 @@ public class EndpointDescription implements Capability {
 		return getStringPlusProperty(SERVICE_INTENTS);
 	}
 
+	/**
+	 * Return the serializations accepted by the endpoint by order of
+	 * preference.
+	 * 
+	 * This value is stored in the {@link #SERIALIZATION} endpoint property.
+	 * 
+	 * @return An unmodifiable list of serialization strategy names, empty
+	 *         when only the default java serialization is accepted.
+	 */
+	public List<String> getSerializations() {
+		return getStringPlusProperty(SERIALIZATION);
+	}
+
 	/**
 	 * Reads a 'String+' property from the properties map, which may be of type
 	 * String, String[] or Collection&lt;String&gt; and returns it as an
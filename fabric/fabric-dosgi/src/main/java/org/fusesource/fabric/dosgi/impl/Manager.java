@@ -22,14 +22,18 @@ import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.fusesource.fabric.dosgi.api.CompactSerializationStrategy;
 import org.fusesource.fabric.dosgi.api.Dispatched;
 import org.fusesource.fabric.dosgi.api.SerializationStrategy;
 import org.fusesource.fabric.dosgi.capset.CapabilitySet;
 import org.fusesource.fabric.dosgi.capset.SimpleFilter;
 import org.fusesource.fabric.dosgi.io.ClientInvoker;
+import org.fusesource.fabric.dosgi.io.ExecutionPolicy;
 import org.fusesource.fabric.dosgi.io.ServerInvoker;
+import org.fusesource.fabric.dosgi.metrics.DosgiMetrics;
 import org.fusesource.fabric.dosgi.tcp.ClientInvokerImpl;
 import org.fusesource.fabric.dosgi.tcp.ServerInvokerImpl;
+import org.fusesource.fabric.dosgi.tcp.TransportPool;
 import org.fusesource.fabric.dosgi.util.AriesFrameworkUtil;
 import org.fusesource.fabric.dosgi.util.Utils;
 import org.fusesource.fabric.dosgi.util.UuidGenerator;
@@ -51,6 +55,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.net.URI;
@@ -122,6 +127,18 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     private final long timeout;
 
+    private final int poolSize;
+
+    private final int maxInflight;
+
+    private int batchSize;
+
+    private long batchLinger = ClientInvokerImpl.DEFAULT_BATCH_LINGER;
+
+    private boolean metricsEnabled;
+
+    private DosgiMetrics metrics;
+
     private ClientInvoker client;
 
     private ServerInvoker server;
@@ -131,11 +148,16 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
     }
 
     public Manager(BundleContext context, CuratorFramework curator, String uri, String exportedAddress, long timeout) throws Exception {
+        this(context, curator, uri, exportedAddress, timeout, TransportPool.DEFAULT_POOL_SIZE, TransportPool.DEFAULT_MAX_INFLIGHT);
+    }
+
+    public Manager(BundleContext context, CuratorFramework curator, String uri, String exportedAddress, long timeout, int poolSize, int maxInflight) throws Exception {
         this.queue = Dispatch.createQueue();
         this.importedServices = new ConcurrentHashMap<EndpointDescription, Map<Long, ImportRegistration>>();
         this.exportedServices = new ConcurrentHashMap<ServiceReference, ExportRegistration>();
         this.listeners = new ConcurrentHashMap<ListenerInfo, SimpleFilter>();
         this.serializationStrategies = new ConcurrentHashMap<String, SerializationStrategy>();
+        this.serializationStrategies.put(CompactSerializationStrategy.NAME, CompactSerializationStrategy.INSTANCE);
         this.remoteEndpoints = new CapabilitySet<EndpointDescription>(
                 Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID), false);
         this.bundleContext = context;
@@ -143,12 +165,37 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         this.uri = uri;
         this.exportedAddress = exportedAddress;
         this.timeout = timeout;
+        this.poolSize = poolSize;
+        this.maxInflight = maxInflight;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchLinger(long batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+
+    /**
+     * Enables the invocation metrics, they can also be toggled later on through JMX.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
     }
 
     public void init() throws Exception {
         // Create client and server
-        this.client = new ClientInvokerImpl(queue, timeout, serializationStrategies);
-        this.server = new ServerInvokerImpl(uri, queue, serializationStrategies);
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, timeout, serializationStrategies, poolSize, maxInflight);
+        client.setBatchSize(batchSize);
+        client.setBatchLinger(batchLinger);
+        this.client = client;
+        ServerInvokerImpl server = new ServerInvokerImpl(uri, queue, serializationStrategies);
+        this.server = server;
+        // Metrics
+        this.metrics = new DosgiMetrics(client, server);
+        this.metrics.setEnabled(metricsEnabled);
+        this.metrics.registerMBeanServer(ManagementFactory.getPlatformMBeanServer());
         this.client.start();
         this.server.start();
         // ZooKeeper tracking
@@ -188,6 +235,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         }
         this.server.stop();
         this.client.stop();
+        this.metrics.unregisterMBeanServer(ManagementFactory.getPlatformMBeanServer());
         this.tree.close();
         if (registration != null) {
             this.registration.unregister();
@@ -366,6 +414,20 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         URI connectUri = new URI(this.server.getConnectAddress());
         String fabricAddress = connectUri.getScheme() + "://" + exportedAddress + ":" + connectUri.getPort();
 
+        // Only advertise the serializations we know about
+        Object serializations = properties.get(EndpointDescription.SERIALIZATION);
+        if (serializations != null) {
+            List<String> supported = new ArrayList<String>();
+            for (String name : Utils.normalize(serializations)) {
+                if (serializationStrategies.containsKey(name)) {
+                    supported.add(name);
+                } else {
+                    LOGGER.warn("Unknown serialization {} for service {}", name, reference);
+                }
+            }
+            properties.put(EndpointDescription.SERIALIZATION, supported.toArray(new String[supported.size()]));
+        }
+
         properties.remove(SERVICE_EXPORTED_CONFIGS);
         properties.put(SERVICE_IMPORTED_CONFIGS, new String[] { CONFIG });
         properties.put(ENDPOINT_FRAMEWORK_UUID, this.uuid);
@@ -374,6 +436,8 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         String uuid = UuidGenerator.getUUID();
         properties.put(ENDPOINT_ID, uuid);
 
+        ExecutionPolicy policy = ExecutionPolicy.fromProperties(properties);
+
         // Now, export the service
         EndpointDescription description = new EndpointDescription(properties);
 
@@ -385,7 +449,7 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
             public void unget() {
                 reference.getBundle().getBundleContext().ungetService(reference);
             }
-        }, AriesFrameworkUtil.getClassLoader(reference.getBundle()));
+        }, AriesFrameworkUtil.getClassLoader(reference.getBundle()), policy);
 
         String descStr = Utils.getEndpointDescriptionXML(description);
         // Publish in ZooKeeper
@@ -481,13 +545,26 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
                 }
             }
             String address = (String) description.getProperties().get(FABRIC_ADDRESS);
-            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader);
+            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader, negotiateSerialization(description));
             return Proxy.newProxyInstance(classLoader, interfaces.toArray(new Class[interfaces.size()]), handler);
         }
 
         public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
         }
 
+        /**
+         * @return the first serialization advertised by the exporter that we also know about,
+         * or null to fall back to java serialization
+         */
+        private String negotiateSerialization(EndpointDescription description) {
+            for (String name : description.getSerializations()) {
+                if (serializationStrategies.containsKey(name)) {
+                    return name;
+                }
+            }
+            return null;
+        }
+
     }
 
 }
\ No newline at end of file
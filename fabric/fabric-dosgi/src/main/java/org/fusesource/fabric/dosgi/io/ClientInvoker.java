@@ -22,4 +22,11 @@ public interface ClientInvoker extends Service {
 
     InvocationHandler getProxy(String address, String service, ClassLoader classLoader);
 
+    /**
+     * @param serialization the name of the serialization strategy negotiated with the
+     *                      exporter for methods without a serialization annotation, or
+     *                      null to use java serialization
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, String serialization);
+
 }
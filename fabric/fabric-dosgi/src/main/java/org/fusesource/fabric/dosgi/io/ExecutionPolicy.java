@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.io;
+
+import java.util.Map;
+
+/**
+ * Describes how the invocations of an exported service are executed.
+ * <p>
+ * The policy is read from the properties of the exported service:
+ * <ul>
+ *     <li>{@link #EXECUTION}: <code>shared</code> (the default) runs the invocations on a
+ *     pool shared by all the exported services, <code>dedicated</code> runs them on a pool
+ *     owned by the service and <code>inline</code> runs them directly on the I/O queue, which
+ *     should only be used for trivial non blocking methods. Unless inline, the invocations of
+ *     {@link org.fusesource.fabric.dosgi.api.Dispatched} services run on the service queue</li>
+ *     <li>{@link #MAX_CONCURRENCY}: the maximum number of invocations executed at the same
+ *     time, also the size of the dedicated pool</li>
+ *     <li>{@link #MAX_QUEUE}: the maximum number of invocations waiting for a slot, further
+ *     invocations are rejected right away. Without a concurrency limit the invocations of a
+ *     <code>shared</code> service are limited to the size of the shared pool, so that they
+ *     wait in the bounded queue rather than in the pool</li>
+ *     <li>{@link #ASYNC_TIMEOUT}: the number of milliseconds after which an asynchronous
+ *     invocation which has not answered yet frees its slot, or 0 to wait forever</li>
+ * </ul>
+ */
+public class ExecutionPolicy {
+
+    public static final String EXECUTION = "fabric.dosgi.execution";
+    public static final String MAX_CONCURRENCY = "fabric.dosgi.maxConcurrency";
+    public static final String MAX_QUEUE = "fabric.dosgi.maxQueue";
+    public static final String ASYNC_TIMEOUT = "fabric.dosgi.asyncTimeout";
+
+    public static final int DEFAULT_DEDICATED_THREADS = 8;
+    public static final int SHARED_THREADS = 8;
+    public static final long DEFAULT_ASYNC_TIMEOUT = 5 * 60 * 1000L;
+
+    public static final ExecutionPolicy DEFAULT = new ExecutionPolicy(Mode.SHARED, 0, -1);
+
+    public enum Mode {
+        SHARED, DEDICATED, INLINE
+    }
+
+    private final Mode mode;
+    private final int maxConcurrency;
+    private final int maxQueue;
+    private final long asyncTimeout;
+
+    /**
+     * @param maxConcurrency the maximum number of concurrent invocations, or 0 for no limit
+     * @param maxQueue       the maximum number of waiting invocations, or a negative value for no limit
+     */
+    public ExecutionPolicy(Mode mode, int maxConcurrency, int maxQueue) {
+        this(mode, maxConcurrency, maxQueue, DEFAULT_ASYNC_TIMEOUT);
+    }
+
+    /**
+     * @param asyncTimeout the milliseconds after which an unanswered asynchronous invocation frees its slot,
+     *                     or 0 for no timeout
+     */
+    public ExecutionPolicy(Mode mode, int maxConcurrency, int maxQueue, long asyncTimeout) {
+        this.mode = mode;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueue = maxQueue;
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public static ExecutionPolicy fromProperties(Map<String, Object> properties) {
+        Object execution = properties.get(EXECUTION);
+        Mode mode = execution != null ? Mode.valueOf(execution.toString().trim().toUpperCase()) : Mode.SHARED;
+        return new ExecutionPolicy(mode, toInt(properties.get(MAX_CONCURRENCY), 0), toInt(properties.get(MAX_QUEUE), -1),
+                toLong(properties.get(ASYNC_TIMEOUT), DEFAULT_ASYNC_TIMEOUT));
+    }
+
+    private static int toInt(Object value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static long toLong(Object value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString().trim());
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionPolicy[" + mode + ", maxConcurrency=" + maxConcurrency + ", maxQueue=" + maxQueue + ", asyncTimeout=" + asyncTimeout + "]";
+    }
+
+}
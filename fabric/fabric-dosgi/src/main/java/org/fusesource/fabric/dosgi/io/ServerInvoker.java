@@ -22,6 +22,8 @@ public interface ServerInvoker extends Service {
 
     void registerService(String id, ServiceFactory service, ClassLoader classLoader);
 
+    void registerService(String id, ServiceFactory service, ClassLoader classLoader, ExecutionPolicy policy);
+
     void unregisterService(String id);
 
 
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.metrics;
+
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.fusesource.fabric.dosgi.tcp.ClientInvokerImpl;
+import org.fusesource.fabric.dosgi.tcp.ServerInvokerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DosgiMetrics implements DosgiMetricsMXBean {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(DosgiMetrics.class);
+
+    private final ClientInvokerImpl client;
+    private final ServerInvokerImpl server;
+    private ObjectName objectName;
+
+    public DosgiMetrics(ClientInvokerImpl client, ServerInvokerImpl server) {
+        this.client = client;
+        this.server = server;
+    }
+
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        if (objectName == null) {
+            objectName = new ObjectName("org.fusesource.fabric:type=DOSGi");
+        }
+        return objectName;
+    }
+
+    public void setObjectName(ObjectName objectName) {
+        this.objectName = objectName;
+    }
+
+    public void registerMBeanServer(MBeanServer mbeanServer) {
+        try {
+            ObjectName name = getObjectName();
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            LOG.warn("An error occured during mbean server registration: " + e, e);
+        }
+    }
+
+    public void unregisterMBeanServer(MBeanServer mbeanServer) {
+        if (mbeanServer != null) {
+            try {
+                ObjectName name = getObjectName();
+                if (mbeanServer.isRegistered(name)) {
+                    mbeanServer.unregisterMBean(name);
+                }
+            } catch (Exception e) {
+                LOG.warn("An error occured during mbean server unregistration: " + e, e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return client.getMetrics().isEnabled() && server.getMetrics().isEnabled();
+    }
+
+    public void setEnabled(boolean enabled) {
+        client.getMetrics().setEnabled(enabled);
+        server.getMetrics().setEnabled(enabled);
+    }
+
+    public int getPendingRequests() {
+        return client.getPendingRequests();
+    }
+
+    public int getInflightRequests() {
+        return client.getInflightRequests();
+    }
+
+    public List<MethodStatistics> getImportedMethods() {
+        return client.getMetrics().getStatistics();
+    }
+
+    public List<MethodStatistics> getExportedMethods() {
+        return server.getMetrics().getStatistics();
+    }
+
+    public void reset() {
+        client.getMetrics().reset();
+        server.getMetrics().reset();
+    }
+
+}
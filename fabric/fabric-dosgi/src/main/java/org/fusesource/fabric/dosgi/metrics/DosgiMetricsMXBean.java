@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.metrics;
+
+import java.util.List;
+
+/**
+ * Invocation statistics of the remote services imported and exported by DOSGi,
+ * durations are in microseconds.
+ */
+public interface DosgiMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the number of requests waiting for a connection with room in its window
+     */
+    int getPendingRequests();
+
+    /**
+     * @return the number of requests sent and waiting for their response
+     */
+    int getInflightRequests();
+
+    List<MethodStatistics> getImportedMethods();
+
+    List<MethodStatistics> getExportedMethods();
+
+    void reset();
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link MethodMetrics} of one side of the invocations, indexed by service
+ * id and method signature.
+ * <p>
+ * Invokers check {@link #isEnabled()} before doing anything else, so when
+ * disabled the only cost is a volatile read per invocation.
+ */
+public class InvocationMetrics {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, MethodMetrics>> services = new ConcurrentHashMap<String, ConcurrentMap<String, MethodMetrics>>();
+    private volatile boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public MethodMetrics getMethodMetrics(String service, String method) {
+        ConcurrentMap<String, MethodMetrics> methods = services.get(service);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<String, MethodMetrics>();
+            ConcurrentMap<String, MethodMetrics> existing = services.putIfAbsent(service, methods);
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+        MethodMetrics rc = methods.get(method);
+        if (rc == null) {
+            rc = new MethodMetrics(service, method);
+            MethodMetrics existing = methods.putIfAbsent(method, rc);
+            if (existing != null) {
+                rc = existing;
+            }
+        }
+        return rc;
+    }
+
+    public List<MethodStatistics> getStatistics() {
+        List<MethodStatistics> rc = new ArrayList<MethodStatistics>();
+        for (ConcurrentMap<String, MethodMetrics> methods : services.values()) {
+            for (MethodMetrics metrics : methods.values()) {
+                rc.add(metrics.getStatistics());
+            }
+        }
+        return rc;
+    }
+
+    public void reset() {
+        for (ConcurrentMap<String, MethodMetrics> methods : services.values()) {
+            for (MethodMetrics metrics : methods.values()) {
+                metrics.reset();
+            }
+        }
+    }
+
+}
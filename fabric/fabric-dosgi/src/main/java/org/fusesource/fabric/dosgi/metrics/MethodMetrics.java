@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters and histograms of a single remote method, durations are
+ * recorded in nanoseconds.
+ */
+public class MethodMetrics {
+
+    private final String service;
+    private final String method;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serialization = new LatencyHistogram();
+    private final LatencyHistogram queueing = new LatencyHistogram();
+
+    public MethodMetrics(String service, String method) {
+        this.service = service;
+        this.method = method;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Records a completed invocation, from the time the request was
+     * issued (client side) or received (server side).
+     */
+    public void recordInvocation(long latencyNanos, int sent, int received) {
+        invocations.incrementAndGet();
+        bytesSent.addAndGet(sent);
+        bytesReceived.addAndGet(received);
+        latency.record(latencyNanos);
+    }
+
+    public void recordFailure(long latencyNanos) {
+        failures.incrementAndGet();
+        latency.record(latencyNanos);
+    }
+
+    public void recordSerialization(long nanos) {
+        serialization.record(nanos);
+    }
+
+    /**
+     * Records the time a request waited for a thread before being executed.
+     */
+    public void recordQueueing(long nanos) {
+        queueing.record(nanos);
+    }
+
+    public MethodStatistics getStatistics() {
+        return new MethodStatistics(service, method,
+                invocations.get(), failures.get(), bytesSent.get(), bytesReceived.get(),
+                micros(latency.getMean()), micros(latency.getValueAtPercentile(50)),
+                micros(latency.getValueAtPercentile(90)), micros(latency.getValueAtPercentile(99)),
+                micros(latency.getMax()),
+                micros(serialization.getMean()), micros(serialization.getValueAtPercentile(99)),
+                micros(queueing.getMean()), micros(queueing.getValueAtPercentile(99)));
+    }
+
+    public void reset() {
+        invocations.set(0);
+        failures.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        latency.reset();
+        serialization.reset();
+        queueing.reset();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the {@link MethodMetrics} of a remote method as exposed over JMX,
+ * durations are in microseconds.
+ */
+public class MethodStatistics {
+
+    private final String service;
+    private final String method;
+    private final long invocations;
+    private final long failures;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long meanLatency;
+    private final long latency50;
+    private final long latency90;
+    private final long latency99;
+    private final long maxLatency;
+    private final long meanSerialization;
+    private final long serialization99;
+    private final long meanQueueing;
+    private final long queueing99;
+
+    @ConstructorProperties({"service", "method", "invocations", "failures", "bytesSent", "bytesReceived",
+            "meanLatency", "latency50", "latency90", "latency99", "maxLatency",
+            "meanSerialization", "serialization99", "meanQueueing", "queueing99"})
+    public MethodStatistics(String service, String method, long invocations, long failures, long bytesSent, long bytesReceived,
+                            long meanLatency, long latency50, long latency90, long latency99, long maxLatency,
+                            long meanSerialization, long serialization99, long meanQueueing, long queueing99) {
+        this.service = service;
+        this.method = method;
+        this.invocations = invocations;
+        this.failures = failures;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.meanLatency = meanLatency;
+        this.latency50 = latency50;
+        this.latency90 = latency90;
+        this.latency99 = latency99;
+        this.maxLatency = maxLatency;
+        this.meanSerialization = meanSerialization;
+        this.serialization99 = serialization99;
+        this.meanQueueing = meanQueueing;
+        this.queueing99 = queueing99;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getMeanLatency() {
+        return meanLatency;
+    }
+
+    public long getLatency50() {
+        return latency50;
+    }
+
+    public long getLatency90() {
+        return latency90;
+    }
+
+    public long getLatency99() {
+        return latency99;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public long getMeanSerialization() {
+        return meanSerialization;
+    }
+
+    public long getSerialization99() {
+        return serialization99;
+    }
+
+    public long getMeanQueueing() {
+        return meanQueueing;
+    }
+
+    public long getQueueing99() {
+        return queueing99;
+    }
+
+    @Override
+    public String toString() {
+        return service + "#" + method + "[invocations=" + invocations + ", failures=" + failures
+                + ", latency50=" + latency50 + "us, latency99=" + latency99 + "us]";
+    }
+
+}
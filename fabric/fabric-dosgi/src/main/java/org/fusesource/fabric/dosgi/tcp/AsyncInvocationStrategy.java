@@ -187,4 +187,8 @@ public class AsyncInvocationStrategy implements InvocationStrategy {
 
     }
 
+    public void reject(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Throwable error, DataByteArrayOutputStream responseStream) throws Exception {
+        serializationStrategy.encodeResponse(loader, getResultType(method), null, error, responseStream);
+    }
+
 }
@@ -125,4 +125,8 @@ public class BlockingInvocationStrategy implements InvocationStrategy {
         }
     }
 
+    public void reject(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Throwable error, DataByteArrayOutputStream responseStream) throws Exception {
+        serializationStrategy.encodeResponse(loader, method.getReturnType(), null, error, responseStream);
+    }
+
 }
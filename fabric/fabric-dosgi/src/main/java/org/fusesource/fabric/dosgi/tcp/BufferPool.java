@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * A slab based pool of byte arrays used to encode frames.
+ * <p>
+ * Arrays are handed out in power of two size classes, from {@link #MIN_SIZE} up to
+ * {@link #MAX_SIZE}.  Bigger requests are simply allocated and never pooled.  Arrays
+ * are typically acquired on the caller thread and released on the transport dispatch
+ * queue once written, which is why the slabs are shared rather than thread local.
+ */
+public class BufferPool {
+
+    public static final int MIN_SIZE = 256;
+
+    public static final int MAX_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_SLAB_CAPACITY = 64;
+
+    public static final BufferPool DEFAULT = new BufferPool(DEFAULT_SLAB_CAPACITY);
+
+    private final Slab[] slabs;
+
+    public BufferPool(int slabCapacity) {
+        int count = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        slabs = new Slab[count];
+        for (int i = 0; i < count; i++) {
+            slabs[i] = new Slab(MIN_SIZE << i, slabCapacity);
+        }
+    }
+
+    /**
+     * @return an array of at least the given size, its content is undefined
+     */
+    public byte[] acquire(int size) {
+        Slab slab = slabFor(size);
+        if (slab == null) {
+            return new byte[size];
+        }
+        byte[] rc = slab.arrays.poll();
+        if (rc == null) {
+            return new byte[slab.size];
+        }
+        slab.count.decrementAndGet();
+        return rc;
+    }
+
+    /**
+     * Gives back an array to the pool.  Arrays which do not match a size class
+     * (for example those grown by an output stream) are left to the garbage collector.
+     */
+    public void release(byte[] data) {
+        Slab slab = slabFor(data.length);
+        if (slab != null && slab.size == data.length) {
+            if (slab.count.incrementAndGet() <= slab.capacity) {
+                slab.arrays.offer(data);
+            } else {
+                slab.count.decrementAndGet();
+            }
+        }
+    }
+
+    private Slab slabFor(int size) {
+        if (size > MAX_SIZE) {
+            return null;
+        }
+        if (size <= MIN_SIZE) {
+            return slabs[0];
+        }
+        int index = 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+        return slabs[index];
+    }
+
+    static class Slab {
+        final int size;
+        final int capacity;
+        final AtomicInteger count = new AtomicInteger();
+        final ConcurrentLinkedQueue<byte[]> arrays = new ConcurrentLinkedQueue<byte[]>();
+
+        Slab(int size, int capacity) {
+            this.size = size;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * A buffer whose backing array is given back to its pool by the
+     * {@link LengthPrefixedCodec} once it has been fully written.
+     */
+    public static class PooledBuffer extends Buffer {
+
+        final BufferPool pool;
+
+        public PooledBuffer(BufferPool pool, byte[] data, int offset, int length) {
+            super(data, offset, length);
+            this.pool = pool;
+        }
+
+        public void release() {
+            pool.release(data);
+        }
+    }
+
+}
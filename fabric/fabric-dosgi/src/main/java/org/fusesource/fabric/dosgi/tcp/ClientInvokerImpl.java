@@ -19,10 +19,14 @@ package org.fusesource.fabric.dosgi.tcp;
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -34,6 +38,8 @@ import org.fusesource.fabric.dosgi.api.SerializationStrategy;
 import org.fusesource.fabric.dosgi.io.ClientInvoker;
 import org.fusesource.fabric.dosgi.io.ProtocolCodec;
 import org.fusesource.fabric.dosgi.io.Transport;
+import org.fusesource.fabric.dosgi.metrics.InvocationMetrics;
+import org.fusesource.fabric.dosgi.metrics.MethodMetrics;
 import org.fusesource.hawtbuf.Buffer;
 import org.fusesource.hawtbuf.BufferEditor;
 import org.fusesource.hawtbuf.DataByteArrayInputStream;
@@ -47,6 +53,8 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
 
+    public static final long DEFAULT_BATCH_LINGER = 1;
+
     protected static final Logger LOGGER = LoggerFactory.getLogger(ClientInvokerImpl.class);
 
     private final static HashMap<Class,String> CLASS_TO_PRIMITIVE = new HashMap<Class, String>(8, 1.0F);
@@ -64,26 +72,80 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     protected final AtomicLong correlationGenerator = new AtomicLong();
     protected final DispatchQueue queue;
-    protected final Map<String, TransportPool> transports = new HashMap<String, TransportPool>();
+    // only updated on the queue, concurrent so that the metrics can be read from any thread
+    protected final Map<String, InvokerTransportPool> transports = new ConcurrentHashMap<String, InvokerTransportPool>();
     protected final AtomicBoolean running = new AtomicBoolean(false);
     protected final Map<Long, ResponseFuture> requests = new HashMap<Long, ResponseFuture>();
     protected final long timeout;
     protected final Map<String, SerializationStrategy> serializationStrategies;
+    protected final int poolSize;
+    protected final int maxInflight;
+    protected final BufferPool bufferPool = BufferPool.DEFAULT;
+    protected final InvocationMetrics metrics = new InvocationMetrics();
+    protected int batchSize;
+    protected long batchLinger = DEFAULT_BATCH_LINGER;
 
     public ClientInvokerImpl(DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies) {
         this(queue, DEFAULT_TIMEOUT, serializationStrategies);
     }
 
     public ClientInvokerImpl(DispatchQueue queue, long timeout, Map<String, SerializationStrategy> serializationStrategies) {
+        this(queue, timeout, serializationStrategies, TransportPool.DEFAULT_POOL_SIZE, TransportPool.DEFAULT_MAX_INFLIGHT);
+    }
+
+    /**
+     * @param poolSize    the maximum number of connections opened to a given address
+     * @param maxInflight the maximum number of requests multiplexed on each connection
+     */
+    public ClientInvokerImpl(DispatchQueue queue, long timeout, Map<String, SerializationStrategy> serializationStrategies, int poolSize, int maxInflight) {
         this.queue = queue;
         this.timeout = timeout;
         this.serializationStrategies = serializationStrategies;
+        this.poolSize = poolSize;
+        this.maxInflight = maxInflight;
     }
 
     public DispatchQueue queue() {
         return queue;
     }
 
+    /**
+     * Sets the maximum number of asynchronous requests to the same address
+     * which are gathered before being written together.  Batching is disabled
+     * with a value lower than 2.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a batch which is not full waits for
+     * more requests before being written.
+     */
+    public void setBatchLinger(long batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getPendingRequests() {
+        int rc = 0;
+        for (TransportPool pool : transports.values()) {
+            rc += pool.getPendingCount();
+        }
+        return rc;
+    }
+
+    public int getInflightRequests() {
+        int rc = 0;
+        for (TransportPool pool : transports.values()) {
+            rc += pool.getInflightCount();
+        }
+        return rc;
+    }
+
     public void start() throws Exception {
         start(null);
     }
@@ -126,7 +188,18 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     public InvocationHandler getProxy(String address, String service, ClassLoader classLoader) {
-        return new ProxyInvocationHandler(address, service, classLoader);
+        return getProxy(address, service, classLoader, null);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, String serialization) {
+        SerializationStrategy defaultStrategy = null;
+        if (serialization != null) {
+            defaultStrategy = serializationStrategies.get(serialization);
+            if (defaultStrategy == null) {
+                throw new IllegalArgumentException("Could not find the serialization strategy named: " + serialization);
+            }
+        }
+        return new ProxyInvocationHandler(address, service, classLoader, defaultStrategy);
     }
 
     protected void onCommand(TransportPool pool, Object data) {
@@ -151,24 +224,48 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         }
     }
 
+    /**
+     * Separates the method signature from the name of the serialization strategy
+     * used for methods without a {@link Serialization} annotation.
+     */
+    static final char SERIALIZATION_SEPARATOR = '|';
+
     static final WeakHashMap<Method, MethodData> method_cache = new WeakHashMap<Method, MethodData>();
 
     static class MethodData {
         private final SerializationStrategy serializationStrategy;
         final Buffer signature;
+        // the signature without the serialization, used to name the metrics
+        final String name;
+        // the signature already prefixed by its length, as written on the wire
+        final Buffer signatureHeader;
         final InvocationStrategy invocationStrategy;
 
-        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature) {
+        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Buffer signature, String name) {
             this.invocationStrategy = invocationStrategy;
             this.serializationStrategy = serializationStrategy;
             this.signature = signature;
+            this.name = name;
+            this.signatureHeader = encodeHeader(signature);
         }
     }
 
-    private MethodData getMethodData(Method method) throws IOException {
+    static Buffer encodeHeader(Buffer value) {
+        try {
+            DataByteArrayOutputStream baos = new DataByteArrayOutputStream(value.length + 5);
+            baos.writeVarInt(value.length);
+            baos.write(value);
+            return baos.toBuffer();
+        } catch (IOException e) { // should not happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    private MethodData getMethodData(ProxyInvocationHandler handler, Method method) throws IOException {
+        Map<Method, MethodData> cache = handler.methodCache;
         MethodData rc = null;
-        synchronized (method_cache) {
-            rc = method_cache.get(method);
+        synchronized (cache) {
+            rc = cache.get(method);
         }
         if( rc==null ) {
             StringBuilder sb = new StringBuilder();
@@ -181,7 +278,8 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                 }
                 sb.append(encodeClassName(types[i]));
             }
-            Buffer signature = new UTF8Buffer(sb.toString()).buffer();
+
+            String name = sb.toString();
 
             Serialization annotation = method.getAnnotation(Serialization.class);
             SerializationStrategy serializationStrategy;
@@ -190,9 +288,15 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                 if( serializationStrategy==null ) {
                     throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                 }
+            } else if( handler.serialization!=null ) {
+                // let the server know which strategy was negotiated with the exporter
+                serializationStrategy = handler.serialization;
+                sb.append(SERIALIZATION_SEPARATOR);
+                sb.append(serializationStrategy.name());
             } else {
                 serializationStrategy = ObjectSerializationStrategy.INSTANCE;
             }
+            Buffer signature = new UTF8Buffer(sb.toString()).buffer();
 
             final InvocationStrategy strategy;
             if( AsyncInvocationStrategy.isAsyncMethod(method) ) {
@@ -201,9 +305,9 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
                 strategy = BlockingInvocationStrategy.INSTANCE;
             }
 
-            rc = new MethodData(strategy, serializationStrategy, signature);
-            synchronized (method_cache) {
-                method_cache.put(method, rc);
+            rc = new MethodData(strategy, serializationStrategy, signature, name);
+            synchronized (cache) {
+                cache.put(method, rc);
             }
         }
         return rc;
@@ -232,19 +336,28 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         // and #2 reduce CPU load done in the execution queue since it's
         // serially executed.
 
-        DataByteArrayOutputStream baos = new DataByteArrayOutputStream((int) (handler.lastRequestSize*1.10));
+        // The array comes from the pool and is given back by the codec once written,
+        // the size class rounding leaves some room for the request to grow.
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream(bufferPool.acquire(handler.lastRequestSize));
         baos.writeInt(0); // we don't know the size yet...
         baos.writeVarLong(correlation);
-        writeBuffer(baos, service);
+        baos.write(handler.serviceHeader);
 
-        MethodData methodData = getMethodData(method);
-        writeBuffer(baos, methodData.signature);
+        MethodData methodData = getMethodData(handler, method);
+        baos.write(methodData.signatureHeader);
+
+        MethodMetrics methodMetrics = null;
+        long start = 0;
+        if (metrics.isEnabled()) {
+            methodMetrics = metrics.getMethodMetrics(handler.serviceId, methodData.name);
+            start = System.nanoTime();
+        }
 
-        final ResponseFuture future = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
+        ResponseFuture response = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
 
-        // toBuffer() is better than toByteArray() since it avoids an
+        // Wrap the array rather than calling toByteArray() to avoid an
         // array copy.
-        final Buffer command = baos.toBuffer();
+        final Buffer command = new BufferPool.PooledBuffer(bufferPool, baos.getData(), 0, baos.position());
 
 
         // Update the field size.
@@ -252,17 +365,30 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         editor.writeInt(command.length);
         handler.lastRequestSize = command.length;
 
+        if (methodMetrics != null) {
+            methodMetrics.recordSerialization(System.nanoTime() - start);
+            response = new MeteredResponseFuture(response, methodMetrics, start, command.length);
+        }
+        final ResponseFuture future = response;
+
+        // Only one way (async) calls are worth delaying to batch them
+        final boolean batch = batchSize > 1 && methodData.invocationStrategy == AsyncInvocationStrategy.INSTANCE;
+
         queue().execute(new Runnable() {
             public void run() {
                 try {
-                    TransportPool pool = transports.get(address);
+                    InvokerTransportPool pool = transports.get(address);
                     if (pool == null) {
                         pool = new InvokerTransportPool(address, queue());
                         transports.put(address, pool);
                         pool.start();
                     }
                     requests.put(correlation, future);
-                    pool.offer(command, correlation);
+                    if (batch) {
+                        pool.batch(command, correlation);
+                    } else {
+                        pool.offer(command, correlation);
+                    }
                 } catch (Exception e) {
                     LOGGER.info("Error while sending request", e);
                     future.fail(e);
@@ -274,22 +400,31 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         return future.get(timeout, TimeUnit.MILLISECONDS);
     }
 
-    private void writeBuffer(DataByteArrayOutputStream baos, Buffer value) throws IOException {
-        baos.writeVarInt(value.length);
-        baos.write(value);
-    }
-
     protected class ProxyInvocationHandler implements InvocationHandler {
 
         final String address;
+        final String serviceId;
         final UTF8Buffer service;
+        final Buffer serviceHeader;
         final ClassLoader classLoader;
+        final SerializationStrategy serialization;
+        final Map<Method, MethodData> methodCache;
         int lastRequestSize = 250;
 
         public ProxyInvocationHandler(String address, String service, ClassLoader classLoader) {
+            this(address, service, classLoader, null);
+        }
+
+        public ProxyInvocationHandler(String address, String service, ClassLoader classLoader, SerializationStrategy serialization) {
             this.address = address;
+            this.serviceId = service;
             this.service = new UTF8Buffer(service);
+            this.serviceHeader = encodeHeader(this.service);
             this.classLoader = classLoader;
+            this.serialization = serialization;
+            // the method data depends on the negotiated serialization, so the shared cache
+            // can only be used with the default one
+            this.methodCache = serialization != null ? new WeakHashMap<Method, MethodData>() : method_cache;
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -298,10 +433,61 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     }
 
+    /**
+     * Records the latency of a request once its response has been received, or its failure.
+     * Only the first outcome is recorded: a response arriving after the caller timed out is not
+     * counted as a success on top of the failure.
+     */
+    static class MeteredResponseFuture implements ResponseFuture {
+
+        private final ResponseFuture next;
+        private final MethodMetrics metrics;
+        private final long start;
+        private final int requestSize;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        MeteredResponseFuture(ResponseFuture next, MethodMetrics metrics, long start, int requestSize) {
+            this.next = next;
+            this.metrics = metrics;
+            this.start = start;
+            this.requestSize = requestSize;
+        }
+
+        public void set(DataByteArrayInputStream responseStream) throws Exception {
+            if (recorded.compareAndSet(false, true)) {
+                metrics.recordInvocation(System.nanoTime() - start, requestSize, responseStream.available());
+            }
+            next.set(responseStream);
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws Exception {
+            try {
+                return next.get(timeout, unit);
+            } catch (TimeoutException e) {
+                recordFailure();
+                throw e;
+            }
+        }
+
+        public void fail(Throwable throwable) {
+            recordFailure();
+            next.fail(throwable);
+        }
+
+        private void recordFailure() {
+            if (recorded.compareAndSet(false, true)) {
+                metrics.recordFailure(System.nanoTime() - start);
+            }
+        }
+    }
+
     protected class InvokerTransportPool extends TransportPool {
 
+        // asynchronous requests waiting to be offered together, only accessed on the queue
+        List<Pair> batch;
+
         public InvokerTransportPool(String uri, DispatchQueue queue) {
-            super(uri, queue, TransportPool.DEFAULT_POOL_SIZE, timeout << 1);
+            super(uri, queue, ClientInvokerImpl.this.poolSize, ClientInvokerImpl.this.maxInflight, timeout << 1);
         }
 
         @Override
@@ -323,6 +509,47 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         protected void onFailure(Object id, Throwable throwable) {
             ClientInvokerImpl.this.onFailure(id, throwable);
         }
+
+        @Override
+        public void stop(Runnable onComplete) {
+            if (batch != null) {
+                for (Pair pair : batch) {
+                    onFailure(pair.id, new IOException("Transport stopped"));
+                }
+                batch = null;
+            }
+            super.stop(onComplete);
+        }
+
+        void batch(Object command, Object id) {
+            if (batch == null) {
+                final List<Pair> current = new ArrayList<Pair>(batchSize);
+                batch = current;
+                queue.executeAfter(batchLinger, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        if (batch == current) {
+                            flushBatch();
+                        }
+                    }
+                });
+            }
+            batch.add(new Pair(command, id));
+            if (batch.size() >= batchSize) {
+                flushBatch();
+            }
+        }
+
+        void flushBatch() {
+            List<Pair> current = batch;
+            batch = null;
+            try {
+                offer(current);
+            } catch (Exception e) {
+                for (Pair pair : current) {
+                    onFailure(pair.id, e);
+                }
+            }
+        }
     }
 
 }
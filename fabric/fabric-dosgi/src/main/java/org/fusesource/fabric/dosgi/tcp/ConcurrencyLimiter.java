@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of tasks running at the same time, tasks over the limit
+ * wait in a bounded queue and are refused once that queue is full.
+ * <p>
+ * A task holds its slot until {@link #release()} is called, which lets the
+ * slot span an asynchronous invocation until its response is sent. A task
+ * which throws, for instance because the executor it hands the work to has
+ * been shut down, does not hold a slot: it must report its own failure.
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxConcurrency;
+    private final int maxQueue;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * @param maxConcurrency the maximum number of running tasks, or 0 for no limit
+     * @param maxQueue       the maximum number of waiting tasks, or a negative value for no limit,
+     *                       only used along with a concurrency limit as tasks never wait otherwise
+     */
+    public ConcurrencyLimiter(int maxConcurrency, int maxQueue) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Runs the task on the caller thread if a slot is available, or queues it
+     * until one is released.
+     *
+     * @return false if the task was refused because the queue is full
+     */
+    public boolean offer(Runnable task) {
+        if (maxConcurrency <= 0) {
+            running.incrementAndGet();
+            run(task);
+            return true;
+        }
+        int queued = waiting.incrementAndGet();
+        if (maxQueue >= 0 && queued > maxQueue + Math.max(0, maxConcurrency - running.get())) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        tasks.add(task);
+        drain();
+        return true;
+    }
+
+    public void release() {
+        running.decrementAndGet();
+        if (maxConcurrency > 0) {
+            drain();
+        }
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private void drain() {
+        for (;;) {
+            int current = running.get();
+            if (current >= maxConcurrency) {
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Runnable task = tasks.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                // a task may have been queued after the poll but before the decrement
+                if (tasks.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            waiting.decrementAndGet();
+            run(task);
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // the task did not start, so it gives its slot back
+            running.decrementAndGet();
+        }
+    }
+
+}
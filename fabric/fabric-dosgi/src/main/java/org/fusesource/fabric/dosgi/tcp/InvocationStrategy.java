@@ -33,4 +33,9 @@ public interface InvocationStrategy {
     public ResponseFuture request(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object[] args, DataByteArrayOutputStream requestStream) throws Exception;
 
     void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, DataByteArrayOutputStream responseStream, Runnable onComplete);
+
+    /**
+     * Encodes an error response for a request which is not executed at all.
+     */
+    void reject(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Throwable error, DataByteArrayOutputStream responseStream) throws Exception;
 }
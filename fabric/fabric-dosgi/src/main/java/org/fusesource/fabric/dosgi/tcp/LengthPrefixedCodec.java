@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
@@ -39,6 +40,8 @@ public class LengthPrefixedCodec implements ProtocolCodec {
     WritableByteChannel write_channel;
 
     final Queue<ByteBuffer> next_write_buffers = new LinkedList<ByteBuffer>();
+    // the buffers backing next_write_buffers, kept so that pooled ones can be released once written
+    final Queue<Buffer> next_write_sources = new LinkedList<Buffer>();
     int next_write_size = 0;
 
     public boolean full() {
@@ -78,6 +81,7 @@ public class LengthPrefixedCodec implements ProtocolCodec {
             Buffer buffer = (Buffer) value;
             next_write_size += buffer.length;
             next_write_buffers.add(buffer.toByteBuffer());
+            next_write_sources.add(buffer);
             return wasEmpty ? BufferState.WAS_EMPTY : BufferState.NOT_EMPTY;
         }
     }
@@ -88,9 +92,16 @@ public class LengthPrefixedCodec implements ProtocolCodec {
             final ByteBuffer nextBuffer = next_write_buffers.peek();
             if (nextBuffer.remaining() < 1) {
                 next_write_buffers.remove();
+                release(next_write_sources.remove());
                 continue;
             }
-            int bytesWritten = write_channel.write(nextBuffer);
+            long bytesWritten;
+            if (next_write_buffers.size() > 1 && write_channel instanceof GatheringByteChannel) {
+                // write all the queued frames with a single call
+                bytesWritten = ((GatheringByteChannel) write_channel).write(next_write_buffers.toArray(new ByteBuffer[next_write_buffers.size()]));
+            } else {
+                bytesWritten = write_channel.write(nextBuffer);
+            }
             write_counter += bytesWritten;
             next_write_size -= bytesWritten;
             if (nextBuffer.remaining() > 0) {
@@ -107,6 +118,12 @@ public class LengthPrefixedCodec implements ProtocolCodec {
         return BufferState.NOT_EMPTY;
     }
 
+    private void release(Buffer buffer) {
+        if (buffer instanceof BufferPool.PooledBuffer) {
+            ((BufferPool.PooledBuffer) buffer).release();
+        }
+    }
+
     public long getWriteCounter() {
         return write_counter;
     }
@@ -114,7 +131,9 @@ public class LengthPrefixedCodec implements ProtocolCodec {
     long read_counter = 0L;
     int read_buffer_size = 1024 * 64;
     ReadableByteChannel read_channel = null;
-    ByteBuffer read_buffer = ByteBuffer.allocate(4);
+    // reused for the size prefix of every frame
+    final ByteBuffer read_header = ByteBuffer.allocate(4);
+    ByteBuffer read_buffer = read_header;
 
 
     public void setReadableByteChannel(ReadableByteChannel channel) {
@@ -143,16 +162,17 @@ public class LengthPrefixedCodec implements ProtocolCodec {
                 //read buffer is full.. interpret it..
                 read_buffer.flip();
 
-                if( read_buffer.capacity() == 4 ) {
+                if( read_buffer == read_header ) {
                     // Finding out the
                     int size = read_buffer.getInt(0);
+                    read_header.clear();
                     if( size < 4 ) {
                         throw new ProtocolException("Expecting a size greater than 3");
                     }
                     if( size == 4 ) {
                         // weird.. empty frame.. guess it could happen.
-                        Buffer rc = new Buffer(read_buffer);
-                        read_buffer = ByteBuffer.allocate(4);
+                        Buffer rc = new Buffer(4);
+                        rc.bigEndianEditor().writeInt(size);
                         return rc;
                     } else {
                         // Resize to the right size.. this resumes the reads..
@@ -163,7 +183,7 @@ public class LengthPrefixedCodec implements ProtocolCodec {
                 } else {
                     // finish loading the rest of the buffer..
                     Buffer rc = new Buffer(read_buffer);
-                    read_buffer = ByteBuffer.allocate(4);
+                    read_buffer = read_header;
                     return rc;
                 }
             }
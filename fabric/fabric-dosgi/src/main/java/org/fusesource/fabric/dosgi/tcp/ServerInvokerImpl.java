@@ -22,6 +22,8 @@ import org.fusesource.fabric.dosgi.api.Serialization;
 import org.fusesource.fabric.dosgi.api.SerializationStrategy;
 import org.fusesource.fabric.dosgi.impl.Manager;
 import org.fusesource.fabric.dosgi.io.*;
+import org.fusesource.fabric.dosgi.metrics.InvocationMetrics;
+import org.fusesource.fabric.dosgi.metrics.MethodMetrics;
 import org.fusesource.hawtbuf.*;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.slf4j.Logger;
@@ -34,9 +36,13 @@ import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
@@ -53,44 +59,139 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         PRIMITIVE_TO_CLASS.put("D", double.class);
     }
 
-    protected final ExecutorService blockingExecutor = Executors.newFixedThreadPool(8);
+    protected final ExecutorService blockingExecutor = Executors.newFixedThreadPool(ExecutionPolicy.SHARED_THREADS);
     protected final DispatchQueue queue;
     private final Map<String, SerializationStrategy> serializationStrategies;
     protected final TransportServer server;
     protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new HashMap<UTF8Buffer, ServiceFactoryHolder>();
+    protected final BufferPool bufferPool = BufferPool.DEFAULT;
+    protected final InvocationMetrics metrics = new InvocationMetrics();
 
     static class MethodData {
 
         private final SerializationStrategy serializationStrategy;
         final InvocationStrategy invocationStrategy;
         final Method method;
+        // the signature without the serialization, used to name the metrics
+        final String name;
+        // only used as a sizing hint, so racy updates are fine
+        int lastResponseSize = 250;
 
-        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Method method) {
+        MethodData(InvocationStrategy invocationStrategy, SerializationStrategy serializationStrategy, Method method, String name) {
             this.invocationStrategy = invocationStrategy;
             this.serializationStrategy = serializationStrategy;
             this.method = method;
+            this.name = name;
         }
     }
 
     class ServiceFactoryHolder {
 
+        private final String id;
         private final ServiceFactory factory;
         private final ClassLoader loader;
         private final Class clazz;
+        private final ExecutionPolicy policy;
+        // null when the invocations are executed inline
+        private final ConcurrencyLimiter limiter;
+        // only used by the dedicated execution
+        private final ExecutorService executor;
         private HashMap<Buffer, MethodData> method_cache = new HashMap<Buffer, MethodData>();
 
-        public ServiceFactoryHolder(ServiceFactory factory, ClassLoader loader) {
+        public ServiceFactoryHolder(String id, ServiceFactory factory, ClassLoader loader, ExecutionPolicy policy) {
+            this.id = id;
             this.factory = factory;
             this.loader = loader;
+            this.policy = policy;
             Object o = factory.get();
             clazz = o.getClass();
             factory.unget();
+            switch (policy.getMode()) {
+                case INLINE:
+                    limiter = null;
+                    executor = null;
+                    break;
+                case DEDICATED:
+                    int threads = policy.getMaxConcurrency() > 0 ? policy.getMaxConcurrency() : ExecutionPolicy.DEFAULT_DEDICATED_THREADS;
+                    // the limiter keeps the extra invocations, so the pool queue never grows
+                    limiter = new ConcurrencyLimiter(threads, policy.getMaxQueue());
+                    executor = Executors.newFixedThreadPool(threads);
+                    break;
+                default:
+                    int concurrency = policy.getMaxConcurrency();
+                    if (concurrency <= 0 && policy.getMaxQueue() >= 0) {
+                        // the invocations over the pool size would wait in its unbounded queue
+                        concurrency = ExecutionPolicy.SHARED_THREADS;
+                    }
+                    limiter = new ConcurrencyLimiter(concurrency, policy.getMaxQueue());
+                    executor = null;
+            }
+        }
+
+        /**
+         * Executes the invocation according to the policy of the service, the
+         * invocation must call {@link #release()} once its response is ready.
+         *
+         * @param rejected run instead of the invocation if its executor has been shut down meanwhile
+         * @return false if the invocation was rejected because the service is saturated
+         */
+        boolean execute(Object svc, final Runnable task, final Runnable rejected) {
+            if (limiter == null) {
+                task.run();
+                return true;
+            }
+            final Executor target;
+            if (svc instanceof Dispatched) {
+                // the service relies on its queue to serialize the invocations
+                target = ((Dispatched) svc).queue();
+            } else if (executor != null) {
+                target = executor;
+            } else {
+                target = blockingExecutor;
+            }
+            return limiter.offer(new Runnable() {
+                public void run() {
+                    try {
+                        target.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        rejected.run();
+                        // lets the limiter take the slot back
+                        throw e;
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return true if a slot held by an asynchronous invocation is freed when it does not answer in time
+         */
+        boolean isAsyncTimeout() {
+            return limiter != null && policy.getAsyncTimeout() > 0;
+        }
+
+        void release() {
+            if (limiter != null) {
+                limiter.release();
+            }
+        }
+
+        void shutdown() {
+            if (executor != null) {
+                executor.shutdown();
+            }
         }
 
         private MethodData getMethodData(Buffer data) throws IOException, NoSuchMethodException, ClassNotFoundException {
             MethodData rc = method_cache.get(data);
             if( rc == null ) {
-                String[] parts = data.utf8().toString().split(",");
+                String signature = data.utf8().toString();
+                String serialization = null;
+                int separator = signature.indexOf(ClientInvokerImpl.SERIALIZATION_SEPARATOR);
+                if( separator >= 0 ) {
+                    serialization = signature.substring(separator + 1);
+                    signature = signature.substring(0, separator);
+                }
+                String[] parts = signature.split(",");
                 String name = parts[0];
                 Class params[] = new Class[parts.length-1];
                 for( int  i=0; i < params.length; i++) {
@@ -106,6 +207,12 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
                     if( serializationStrategy==null ) {
                         throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                     }
+                } else if( serialization!=null ) {
+                    // negotiated by the client from the exported endpoint description
+                    serializationStrategy = serializationStrategies.get(serialization);
+                    if( serializationStrategy==null ) {
+                        throw new RuntimeException("Could not find the serialization strategy named: "+serialization);
+                    }
                 } else {
                     serializationStrategy = ObjectSerializationStrategy.INSTANCE;
                 }
@@ -118,8 +225,9 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
                     invocationStrategy = BlockingInvocationStrategy.INSTANCE;
                 }
 
-                rc = new MethodData(invocationStrategy, serializationStrategy, method);
-                method_cache.put(data, rc);
+                rc = new MethodData(invocationStrategy, serializationStrategy, method, signature);
+                // the key is a slice of the request frame, don't keep the whole frame around
+                method_cache.put(data.deepCopy(), rc);
             }
             return rc;
         }
@@ -162,9 +270,16 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     }
 
     public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader) {
+        registerService(id, service, classLoader, ExecutionPolicy.DEFAULT);
+    }
+
+    public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader, final ExecutionPolicy policy) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.put(new UTF8Buffer(id), new ServiceFactoryHolder(service, classLoader));
+                ServiceFactoryHolder previous = holders.put(new UTF8Buffer(id), new ServiceFactoryHolder(id, service, classLoader, policy));
+                if (previous != null) {
+                    previous.shutdown();
+                }
             }
         });
     }
@@ -172,11 +287,18 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void unregisterService(final String id) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.remove(new UTF8Buffer(id));
+                ServiceFactoryHolder holder = holders.remove(new UTF8Buffer(id));
+                if (holder != null) {
+                    holder.shutdown();
+                }
             }
         });
     }
 
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+
     public void start() throws Exception {
         start(null);
     }
@@ -193,6 +315,9 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         this.server.stop(new Runnable() {
             public void run() {
                 blockingExecutor.shutdown();
+                for (ServiceFactoryHolder holder : holders.values()) {
+                    holder.shutdown();
+                }
                 if (onComplete != null) {
                     onComplete.run();
                 }
@@ -201,7 +326,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     }
 
 
-    protected void onCommand(final Transport transport, Object data) {
+    protected void onCommand(final InvokerTransportListener listener, final Transport transport, Object data) {
         try {
             final DataByteArrayInputStream bais = new DataByteArrayInputStream((Buffer) data);
             final int size = bais.readInt();
@@ -217,10 +342,36 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
             final Object svc = holder.factory.get();
 
+            final MethodMetrics methodMetrics = metrics.isEnabled() ? metrics.getMethodMetrics(holder.id, methodData.name) : null;
+            final long start = methodMetrics != null ? System.nanoTime() : 0L;
+
+            // the slot of an asynchronous invocation may be freed by its timeout before it answers
+            final AtomicBoolean released = new AtomicBoolean(false);
+            final Runnable release = new Runnable() {
+                public void run() {
+                    if (released.compareAndSet(false, true)) {
+                        holder.release();
+                    }
+                }
+            };
+
             Runnable task = new Runnable() {
                 public void run() {
+                    if (methodMetrics != null) {
+                        methodMetrics.recordQueueing(System.nanoTime() - start);
+                    }
+                    if (methodData.invocationStrategy == AsyncInvocationStrategy.INSTANCE && holder.isAsyncTimeout()) {
+                        queue().executeAfter(holder.policy.getAsyncTimeout(), TimeUnit.MILLISECONDS, new Runnable() {
+                            public void run() {
+                                if (!released.get()) {
+                                    LOGGER.warn("Invocation of " + methodData.name + " on service " + holder.id + " did not answer in time, freeing its slot");
+                                    release.run();
+                                }
+                            }
+                        });
+                    }
 
-                    final DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+                    final DataByteArrayOutputStream baos = new DataByteArrayOutputStream(bufferPool.acquire(methodData.lastResponseSize));
                     try {
                         baos.writeInt(0); // make space for the size field.
                         baos.writeVarLong(correlation);
@@ -233,39 +384,71 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
                     methodData.invocationStrategy.service(methodData.serializationStrategy, holder.loader, methodData.method, svc, bais, baos, new Runnable() {
                         public void run() {
                             holder.factory.unget();
-                            final Buffer command = baos.toBuffer();
+                            release.run();
+                            final Buffer command = new BufferPool.PooledBuffer(bufferPool, baos.getData(), 0, baos.position());
+                            methodData.lastResponseSize = command.length;
 
                             // Update the size field.
                             BufferEditor editor = command.buffer().bigEndianEditor();
                             editor.writeInt(command.length);
 
-                            queue().execute(new Runnable() {
-                                public void run() {
-                                    transport.offer(command);
-                                }
-                            });
+                            if (methodMetrics != null) {
+                                methodMetrics.recordInvocation(System.nanoTime() - start, command.length, size);
+                            }
+                            listener.send(transport, command);
                         }
                     });
                 }
             };
 
-            Executor executor;
-            if( svc instanceof Dispatched ) {
-                executor = ((Dispatched)svc).queue();
-            } else {
-                executor = blockingExecutor;
+            Runnable rejected = new Runnable() {
+                public void run() {
+                    reject(listener, transport, correlation, holder, methodData, methodMetrics, start, "Service " + holder.id + " has been shut down");
+                }
+            };
+
+            if( !holder.execute(svc, task, rejected) ) {
+                reject(listener, transport, correlation, holder, methodData, methodMetrics, start, "Too many concurrent invocations of service " + holder.id);
             }
-            executor.execute(task);
 
         } catch (Exception e) {
             LOGGER.info("Error while reading request", e);
         }
     }
 
+    /**
+     * Answers right away with an error when the service is saturated or shut down, so
+     * that the caller does not wait for a slot which may take long to be available.
+     */
+    private void reject(InvokerTransportListener listener, Transport transport, long correlation, ServiceFactoryHolder holder,
+                        MethodData methodData, MethodMetrics methodMetrics, long start, String message) {
+        holder.factory.unget();
+        if (methodMetrics != null) {
+            methodMetrics.recordFailure(System.nanoTime() - start);
+        }
+        try {
+            DataByteArrayOutputStream baos = new DataByteArrayOutputStream(bufferPool.acquire(methodData.lastResponseSize));
+            baos.writeInt(0); // make space for the size field.
+            baos.writeVarLong(correlation);
+            RejectedExecutionException error = new RejectedExecutionException(message);
+            methodData.invocationStrategy.reject(methodData.serializationStrategy, holder.loader, methodData.method, error, baos);
+            Buffer command = new BufferPool.PooledBuffer(bufferPool, baos.getData(), 0, baos.position());
+            command.buffer().bigEndianEditor().writeInt(command.length);
+            listener.send(transport, command);
+        } catch (Exception e) {
+            LOGGER.info("Error while rejecting request", e);
+        }
+    }
+
     private Buffer readBuffer(DataByteArrayInputStream bais) throws IOException {
-        byte b[] = new byte[bais.readVarInt()];
-        bais.readFully(b);
-        return new Buffer(b);
+        // slice the frame rather than copying it, the holders and method caches
+        // are looked up by content
+        int length = bais.readVarInt();
+        Buffer rc = bais.readBuffer(length);
+        if (rc == null || rc.length != length) {
+            throw new EOFException();
+        }
+        return rc;
     }
 
     class InvokerAcceptListener implements TransportAcceptListener {
@@ -284,8 +467,31 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
     class InvokerTransportListener implements TransportListener {
 
+        // responses completed on the service executors, waiting to be written
+        final ConcurrentLinkedQueue<Buffer> responses = new ConcurrentLinkedQueue<Buffer>();
+        final AtomicBoolean draining = new AtomicBoolean(false);
+
         public void onTransportCommand(Transport transport, Object command) {
-            ServerInvokerImpl.this.onCommand(transport, command);
+            ServerInvokerImpl.this.onCommand(this, transport, command);
+        }
+
+        /**
+         * Queues a response, the responses completed while a drain is pending
+         * are all offered by that same drain so they get written together.
+         */
+        void send(final Transport transport, Buffer response) {
+            responses.add(response);
+            if (draining.compareAndSet(false, true)) {
+                queue().execute(new Runnable() {
+                    public void run() {
+                        draining.set(false);
+                        Buffer next;
+                        while ((next = responses.poll()) != null) {
+                            transport.offer(next);
+                        }
+                    }
+                });
+            }
         }
 
         public void onRefill(Transport transport) {
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -40,15 +41,23 @@ public abstract class TransportPool implements Service {
 
     public static final int DEFAULT_POOL_SIZE = 2;
 
+    /**
+     * Default number of requests which may be in flight on a single transport
+     * before the pool spreads them on another one or queues them.
+     */
+    public static final int DEFAULT_MAX_INFLIGHT = 256;
+
     public static final long DEFAULT_EVICTION_DELAY = TimeUnit.MINUTES.toMillis(5);
 
     protected final String uri;
     protected final DispatchQueue queue;
     protected final LinkedList<Pair> pending = new LinkedList<Pair>();
     protected final Map<Transport, TransportState> transports = new HashMap<Transport, TransportState>();
+    protected final Map<Object, Transport> inflightTransports = new HashMap<Object, Transport>();
     protected AtomicBoolean running = new AtomicBoolean(false);
 
     protected int poolSize;
+    protected int maxInflight;
     protected long evictionDelay;
 
     public TransportPool(String uri, DispatchQueue queue) {
@@ -56,12 +65,37 @@ public abstract class TransportPool implements Service {
     }
 
     public TransportPool(String uri, DispatchQueue queue, int poolSize, long evictionDelay) {
+        this(uri, queue, poolSize, DEFAULT_MAX_INFLIGHT, evictionDelay);
+    }
+
+    /**
+     * @param maxInflight the maximum number of requests multiplexed on a single transport,
+     *                    or a value lower than 1 for no limit
+     */
+    public TransportPool(String uri, DispatchQueue queue, int poolSize, int maxInflight, long evictionDelay) {
         this.uri = uri;
         this.queue = queue;
         this.poolSize = poolSize;
+        this.maxInflight = maxInflight;
         this.evictionDelay = evictionDelay;
     }
 
+    /**
+     * @return the number of requests waiting for a transport, this is a racy
+     *         read which may be called from any thread
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of requests waiting for their response, this is a racy
+     *         read which may be called from any thread
+     */
+    public int getInflightCount() {
+        return inflightTransports.size();
+    }
+
     protected abstract Transport createTransport(String uri) throws Exception;
 
     protected abstract ProtocolCodec createCodec();
@@ -71,9 +105,18 @@ public abstract class TransportPool implements Service {
     protected abstract void onFailure(Object id, Throwable throwable);
 
     protected void onDone(Object id) {
-        for (TransportState state : transports.values()) {
-            if (state.inflight.remove(id)) {
-                break;
+        Transport transport = inflightTransports.remove(id);
+        if (transport != null) {
+            TransportState state = transports.get(transport);
+            if (state != null) {
+                state.inflight.remove(id);
+                if (state.inflight.isEmpty()) {
+                    state.idle = System.currentTimeMillis();
+                }
+                // A slot has been freed in the window, use it for pending requests
+                if (state.time > 0) {
+                    drainPending(transport, state);
+                }
             }
         }
     }
@@ -84,30 +127,76 @@ public abstract class TransportPool implements Service {
         }
         queue.execute(new Runnable() {
             public void run() {
-                Transport transport = getIdleTransport();
-                if (transport != null) {
-                    doOffer(transport, data, id);
-                    if( transport.full() ) {
-                        transports.get(transport).time = 0L;
-                    }
-                } else {
-                    pending.add(new Pair(data, id));
+                offerOrQueue(data, id);
+            }
+        });
+    }
+
+    /**
+     * Offers several commands at once so that they end up being written
+     * together by the transport.
+     */
+    public void offer(final List<Pair> batch) {
+        if (!running.get()) {
+            throw new IllegalStateException("Transport pool stopped");
+        }
+        queue.execute(new Runnable() {
+            public void run() {
+                for (Pair pair : batch) {
+                    offerOrQueue(pair.command, pair.id);
                 }
             }
         });
     }
 
+    protected void offerOrQueue(Object data, Object id) {
+        Transport transport = getIdleTransport();
+        if (transport != null) {
+            doOffer(transport, data, id);
+            if( transport.full() ) {
+                transports.get(transport).time = 0L;
+            }
+        } else {
+            pending.add(new Pair(data, id));
+        }
+    }
+
     protected boolean doOffer(Transport transport, Object command, Object id) {
         transports.get(transport).inflight.add(id);
+        inflightTransports.put(id, transport);
         return transport.offer(command);
     }
 
+    protected boolean hasCapacity(TransportState state) {
+        return maxInflight < 1 || state.inflight.size() < maxInflight;
+    }
+
+    protected void drainPending(Transport transport, TransportState state) {
+        while (!pending.isEmpty() && !transport.full() && hasCapacity(state)) {
+            Pair pair = pending.removeFirst();
+            boolean accepted = doOffer(transport, pair.command, pair.id);
+            assert accepted: "Should have been accepted since the transport was not full";
+        }
+    }
+
+    /**
+     * Returns the least loaded connected transport which still has room in its
+     * window, or null if none is available.  A new transport is started
+     * when none is available and the pool is not yet at its maximum size.
+     */
     protected Transport getIdleTransport() {
+        Transport idle = null;
+        int load = Integer.MAX_VALUE;
         for (Map.Entry<Transport, TransportState> entry : transports.entrySet()) {
-            if (entry.getValue().time > 0) {
-                return entry.getKey();
+            TransportState state = entry.getValue();
+            if (state.time > 0 && hasCapacity(state) && state.inflight.size() < load) {
+                idle = entry.getKey();
+                load = state.inflight.size();
             }
         }
+        if (idle != null) {
+            return idle;
+        }
         if (transports.size() < poolSize) {
             try {
                 startNewTransport();
@@ -151,6 +240,7 @@ public abstract class TransportPool implements Service {
                         TransportState state = transports.remove(transport);
                         if (state != null) {
                             for (Object id : state.inflight) {
+                                inflightTransports.remove(id);
                                 onFailure(id, new IOException("Transport stopped"));
                             }
                         }
@@ -173,6 +263,31 @@ public abstract class TransportPool implements Service {
         transport.start();
     }
 
+    /**
+     * Stops the transport once it has had no request in flight for the eviction delay,
+     * checking again later while it is still in use.  The check is dropped when the
+     * transport gets full or refilled in the meantime, as that schedules a new one.
+     */
+    protected void scheduleEviction(final Transport transport, final long time, long delay) {
+        queue.executeAfter(delay, TimeUnit.MILLISECONDS, new Runnable() {
+            public void run() {
+                TransportState state = transports.get(transport);
+                if (state == null || state.time != time) {
+                    return;
+                }
+                long idle = System.currentTimeMillis() - Math.max(time, state.idle);
+                if (!state.inflight.isEmpty()) {
+                    scheduleEviction(transport, time, evictionDelay);
+                } else if (idle < evictionDelay) {
+                    scheduleEviction(transport, time, evictionDelay - idle);
+                } else {
+                    transports.remove(transport);
+                    transport.stop();
+                }
+            }
+        });
+    }
+
     protected static class Pair {
         Object command;
         Object id;
@@ -185,6 +300,8 @@ public abstract class TransportPool implements Service {
 
     protected static class TransportState {
         long time;
+        // when the last request in flight completed
+        long idle;
         final Set<Object> inflight;
 
         public TransportState() {
@@ -200,11 +317,11 @@ public abstract class TransportPool implements Service {
         }
 
         public void onRefill(final Transport transport) {
-            while (pending.size() > 0 &&  !transport.full()) {
-                Pair pair = pending.removeFirst();
-                boolean accepted = doOffer(transport, pair.command, pair.id);
-                assert accepted: "Should have been accepted since the transport was not full";
+            TransportState current = transports.get(transport);
+            if (current == null) {
+                return;
             }
+            drainPending(transport, current);
 
             if( transport.full() ) {
                 transports.get(transport).time = 0L;
@@ -212,15 +329,7 @@ public abstract class TransportPool implements Service {
                 final long time = System.currentTimeMillis();
                 transports.get(transport).time = time;
                 if (evictionDelay > 0) {
-                    queue.executeAfter(evictionDelay, TimeUnit.MILLISECONDS, new Runnable() {
-                        public void run() {
-                            TransportState state = transports.get(transport);
-                            if (state != null && state.time == time) {
-                                transports.remove(transport);
-                                transport.stop();
-                            }
-                        }
-                    });
+                    scheduleEviction(transport, time, evictionDelay);
                 }
             }
 
@@ -232,6 +341,7 @@ public abstract class TransportPool implements Service {
                 TransportState state = transports.remove(transport);
                 if (state != null) {
                     for (Object id : state.inflight) {
+                        inflightTransports.remove(id);
                         onFailure(id, error);
                     }
                 }
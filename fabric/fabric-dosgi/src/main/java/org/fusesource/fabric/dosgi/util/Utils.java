@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,7 +57,7 @@ public class Utils {
     }
 
     public static Set<String> normalize(Object object) {
-        Set<String> strings = new HashSet<String>();
+        Set<String> strings = new LinkedHashSet<String>();
         if (object instanceof String) {
             strings.add((String) object);
         } else if (object instanceof String[]) {
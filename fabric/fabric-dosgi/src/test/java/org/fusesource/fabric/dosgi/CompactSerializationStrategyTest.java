@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.fabric.dosgi.api.AsyncCallbackFuture;
+import org.fusesource.fabric.dosgi.api.CompactSerializationStrategy;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactSerializationStrategyTest {
+
+    private final CompactSerializationStrategy strategy = CompactSerializationStrategy.INSTANCE;
+    private final ClassLoader loader = getClass().getClassLoader();
+
+    @Test
+    public void testPrimitivesAndStrings() throws Exception {
+        Class<?>[] types = new Class<?>[] { int.class, long.class, boolean.class, double.class, String.class, Object.class, Object.class };
+        Object[] args = new Object[] { -5, Long.MAX_VALUE, true, 1.5d, "h\u00e9llo", null, 'c' };
+        assertArrayEquals(args, roundTrip(types, args));
+    }
+
+    @Test
+    public void testArraysAndCollections() throws Exception {
+        Map<String, Object> map = new TreeMap<String, Object>();
+        map.put("a", Arrays.asList(1, 2, 3));
+        map.put("b", new int[][] { { 1 }, { 2, 3 } });
+        Class<?>[] types = new Class<?>[] { byte[].class, List.class, Map.class, Date.class, TimeUnit.class };
+        Object[] args = new Object[] { new byte[] { 1, 2 }, Collections.unmodifiableList(Arrays.asList("x", "y")), map, new Date(), TimeUnit.SECONDS };
+
+        Object[] result = roundTrip(types, args);
+        assertArrayEquals((byte[]) args[0], (byte[]) result[0]);
+        assertEquals(args[1], result[1]);
+        assertTrue(result[2] instanceof TreeMap);
+        assertEquals(Arrays.asList(1, 2, 3), ((Map) result[2]).get("a"));
+        assertArrayEquals(new int[] { 2, 3 }, ((int[][]) ((Map) result[2]).get("b"))[1]);
+        assertEquals(args[3], result[3]);
+        assertSame(TimeUnit.SECONDS, result[4]);
+    }
+
+    @Test
+    public void testBeans() throws Exception {
+        Node first = new Node("first", 1);
+        Node second = new Node("second", 2);
+        first.next = second;
+        second.next = first;
+        second.attributes.put("zone", TimeZone.getTimeZone("UTC"));
+
+        Object[] result = roundTrip(new Class<?>[] { Node.class, Node.class }, new Object[] { first, second });
+        Node copy = (Node) result[0];
+        assertEquals("first", copy.name);
+        assertEquals(1, copy.weight);
+        assertEquals("second", copy.next.name);
+        // cycles and shared references are preserved
+        assertSame(copy, copy.next.next);
+        assertSame(copy.next, result[1]);
+        assertEquals(TimeZone.getTimeZone("UTC"), copy.next.attributes.get("zone"));
+    }
+
+    @Test
+    public void testEnumContainers() throws Exception {
+        EnumMap<TimeUnit, String> map = new EnumMap<TimeUnit, String>(TimeUnit.class);
+        map.put(TimeUnit.DAYS, "day");
+        Object[] args = new Object[] { EnumSet.of(TimeUnit.SECONDS, TimeUnit.HOURS), map };
+
+        Object[] result = roundTrip(new Class<?>[] { Set.class, Map.class }, args);
+        assertTrue(result[0] instanceof EnumSet);
+        assertEquals(args[0], result[0]);
+        assertTrue(result[1] instanceof EnumMap);
+        assertEquals(args[1], result[1]);
+    }
+
+    @Test
+    public void testSerializationMethods() throws Exception {
+        // encoded with java serialization, which honours readResolve
+        Object[] result = roundTrip(new Class<?>[] { Singleton.class }, new Object[] { Singleton.INSTANCE });
+        assertSame(Singleton.INSTANCE, result[0]);
+
+        try {
+            roundTrip(new Class<?>[] { Object.class }, new Object[] { new NotSerializable() });
+            fail("Expected the non serializable class to be refused");
+        } catch (NotSerializableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        strategy.encodeResponse(loader, int.class, 42, null, baos);
+        AsyncCallbackFuture<Object> future = new AsyncCallbackFuture<Object>();
+        strategy.decodeResponse(loader, int.class, new DataByteArrayInputStream(baos.toBuffer()), future);
+        assertEquals(42, future.get(1, TimeUnit.SECONDS));
+
+        baos = new DataByteArrayOutputStream();
+        strategy.encodeResponse(loader, int.class, null, new IOException("boom"), baos);
+        future = new AsyncCallbackFuture<Object>();
+        strategy.decodeResponse(loader, int.class, new DataByteArrayInputStream(baos.toBuffer()), future);
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected the remote exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("boom", e.getCause().getMessage());
+        }
+    }
+
+    private Object[] roundTrip(Class<?>[] types, Object[] args) throws Exception {
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        strategy.encodeRequest(loader, types, args, baos);
+        Object[] result = new Object[types.length];
+        strategy.decodeRequest(loader, types, new DataByteArrayInputStream(baos.toBuffer()), result);
+        return result;
+    }
+
+    public static class Node implements Serializable {
+        String name;
+        int weight;
+        Node next;
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        transient List<String> ignored = new ArrayList<String>();
+
+        public Node() {
+        }
+
+        Node(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    public static class Singleton implements Serializable {
+        static final Singleton INSTANCE = new Singleton();
+
+        public Singleton() {
+        }
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
+    }
+
+    public static class NotSerializable {
+        String name = "bean";
+    }
+
+}
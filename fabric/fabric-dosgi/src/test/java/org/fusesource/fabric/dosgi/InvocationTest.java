@@ -23,12 +23,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fusesource.fabric.dosgi.api.*;
+import org.fusesource.fabric.dosgi.io.ExecutionPolicy;
 import org.fusesource.fabric.dosgi.io.ServerInvoker;
+import org.fusesource.fabric.dosgi.metrics.MethodStatistics;
 import org.fusesource.fabric.dosgi.tcp.ClientInvokerImpl;
 import org.fusesource.fabric.dosgi.tcp.ServerInvokerImpl;
 import org.fusesource.hawtdispatch.Dispatch;
@@ -37,6 +41,8 @@ import org.junit.Test;
 
 import static org.fusesource.hawtdispatch.Dispatch.createQueue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class InvocationTest {
     final static long MILLIS_IN_A_NANO = TimeUnit.MILLISECONDS.toNanos(1);
@@ -101,6 +107,56 @@ public class InvocationTest {
         }
     }
 
+    @Test
+    public void testInvokeCompactSerialization() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+        map.put("protobuf", new ProtobufSerializationStrategy());
+        map.put(CompactSerializationStrategy.NAME, CompactSerializationStrategy.INSTANCE);
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader(), CompactSerializationStrategy.NAME);
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            assertEquals("Hello Fabric!", hello.hello("Fabric"));
+            assertEquals("Hello World!", hello.helloworld());
+
+            assertEquals('a', hello.mix(0));
+            assertEquals('b', hello.mix(new int[]{0}));
+            assertEquals('c', hello.mix(new Integer(0)));
+            assertEquals('d', hello.mix(new Integer[]{new Integer(0)}));
+            assertEquals('e', hello.mix(new int[0][0]));
+            assertEquals('f', hello.mix(new Integer[0][0]));
+
+            AsyncCallbackFuture<String> future1 = new AsyncCallbackFuture<String>();
+            hello.hello("Hiram", future1);
+            assertEquals("Hello Hiram!", future1.get(2, TimeUnit.SECONDS));
+
+            // annotated methods keep their own serialization
+            assertEquals("Hello Hiram!", hello.protobuf(stringValue("Hiram")).getValue());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
     @Test
     public void testOverflowAsync() throws Exception {
 
@@ -259,6 +315,284 @@ public class InvocationTest {
     	}
     }
 
+    @Test
+    public void testSmallInflightWindow() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        // a single connection which only accepts two requests in flight at a time
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, ClientInvokerImpl.DEFAULT_TIMEOUT, map, 1, 2);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            final List<AsyncCallbackFuture<String>> futures = new ArrayList<AsyncCallbackFuture<String>>();
+            for (int i = 0; i < 100; i++) {
+                AsyncCallbackFuture<String> future = new AsyncCallbackFuture<String>();
+                hello.hello("Fabric " + i, future);
+                futures.add(future);
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Hello Fabric " + i + "!", futures.get(i).get(2, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testBatchedAsync() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.setBatchSize(16);
+        client.setBatchLinger(5);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // the last requests don't fill a batch and are only sent after the linger delay
+            final List<AsyncCallbackFuture<String>> futures = new ArrayList<AsyncCallbackFuture<String>>();
+            for (int i = 0; i < 100; i++) {
+                AsyncCallbackFuture<String> future = new AsyncCallbackFuture<String>();
+                hello.hello("Fabric " + i, future);
+                futures.add(future);
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Hello Fabric " + i + "!", futures.get(i).get(2, TimeUnit.SECONDS));
+            }
+
+            // blocking calls are not batched
+            assertEquals("Hello World!", hello.helloworld());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.getMetrics().setEnabled(true);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.getMetrics().setEnabled(true);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Hello World!", hello.helloworld());
+            }
+
+            List<MethodStatistics> imported = client.getMetrics().getStatistics();
+            assertEquals(1, imported.size());
+            MethodStatistics stats = imported.get(0);
+            assertEquals("service-id", stats.getService());
+            assertEquals("helloworld,", stats.getMethod());
+            assertEquals(10, stats.getInvocations());
+            assertEquals(0, stats.getFailures());
+            assertTrue(stats.getBytesSent() > 0);
+            assertTrue(stats.getBytesReceived() > 0);
+            assertTrue(stats.getLatency50() <= stats.getLatency99());
+            assertTrue(stats.getLatency99() <= stats.getMaxLatency());
+
+            List<MethodStatistics> exported = server.getMetrics().getStatistics();
+            assertEquals(1, exported.size());
+            assertEquals(10, exported.get(0).getInvocations());
+            assertEquals(0, client.getInflightRequests());
+            assertEquals(0, client.getPendingRequests());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            final HelloImpl service = new HelloImpl();
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return service;
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader(), new ExecutionPolicy(ExecutionPolicy.Mode.SHARED, 1, 0));
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // the first invocation holds the only slot while the service queue is suspended
+            service.queue.suspend();
+            AsyncCallbackFuture<String> first = new AsyncCallbackFuture<String>();
+            hello.hello("first", first);
+            Thread.sleep(200);
+
+            AsyncCallbackFuture<String> second = new AsyncCallbackFuture<String>();
+            hello.hello("second", second);
+            try {
+                second.get(2, TimeUnit.SECONDS);
+                fail("Expected the invocation to be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            service.queue.resume();
+            assertEquals("Hello first!", first.get(2, TimeUnit.SECONDS));
+
+            // the slot has been released
+            AsyncCallbackFuture<String> third = new AsyncCallbackFuture<String>();
+            hello.hello("third", third);
+            assertEquals("Hello third!", third.get(2, TimeUnit.SECONDS));
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testDedicatedAndInlineExecution() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            ServerInvoker.ServiceFactory factory = new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            };
+            server.registerService("dedicated-id", factory, HelloImpl.class.getClassLoader(), new ExecutionPolicy(ExecutionPolicy.Mode.DEDICATED, 2, -1));
+            server.registerService("inline-id", factory, HelloImpl.class.getClassLoader(), new ExecutionPolicy(ExecutionPolicy.Mode.INLINE, 0, -1));
+
+            for (String id : new String[] { "dedicated-id", "inline-id" }) {
+                InvocationHandler handler = client.getProxy(server.getConnectAddress(), id, HelloImpl.class.getClassLoader());
+                Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+                for (int i = 0; i < 10; i++) {
+                    assertEquals("Hello World!", hello.helloworld());
+                }
+            }
+
+            // still executed on the queue of the dispatched service
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "dedicated-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+            assertEquals("Hello dedicated!", hello.hello("dedicated"));
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testAsyncTimeoutReleasesSlot() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            final HelloImpl service = new HelloImpl();
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return service;
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader(), new ExecutionPolicy(ExecutionPolicy.Mode.SHARED, 1, 0, 200));
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // never answers, so it would hold the only slot forever
+            hello.ignore("first", new AsyncCallbackFuture<String>());
+            Thread.sleep(500);
+
+            AsyncCallbackFuture<String> second = new AsyncCallbackFuture<String>();
+            hello.hello("second", second);
+            assertEquals("Hello second!", second.get(2, TimeUnit.SECONDS));
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
     @Test
     public void testUnderLoadSyncObject() throws Exception {
         HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
@@ -480,6 +814,9 @@ public class InvocationTest {
         // async version of the hello method.
         void hello(String name, AsyncCallback<String> callback);
 
+        // async method which never answers.
+        void ignore(String name, AsyncCallback<String> callback);
+
         String helloworld();
 
         char mix(int value);
@@ -541,6 +878,9 @@ public class InvocationTest {
             callback.onSuccess(hello(name));
         }
 
+        public void ignore(String name, AsyncCallback<String> callback) {
+        }
+
         public char mix(int value) {
             queueCheck();
             return 'a';
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() throws Exception {
+		BufferPool pool = new BufferPool(4);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).length);
+		assertEquals(BufferPool.MIN_SIZE * 2, pool.acquire(BufferPool.MIN_SIZE + 1).length);
+		assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).length);
+		assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+	}
+
+	@Test
+	public void testRelease() throws Exception {
+		BufferPool pool = new BufferPool(1);
+		byte[] first = pool.acquire(1000);
+		byte[] second = pool.acquire(1000);
+		pool.release(first);
+		// over the slab capacity
+		pool.release(second);
+		// not a size class
+		pool.release(new byte[1000]);
+
+		assertSame(first, pool.acquire(1000));
+		assertNotSame(second, pool.acquire(1000));
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void testLimits() throws Exception {
+		final AtomicInteger executed = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() {
+				executed.incrementAndGet();
+			}
+		};
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1);
+		assertTrue(limiter.offer(task));
+		assertTrue(limiter.offer(task));
+		assertEquals(2, executed.get());
+		// waits for a slot
+		assertTrue(limiter.offer(task));
+		assertEquals(2, executed.get());
+		assertEquals(1, limiter.getWaiting());
+		// the queue is full
+		assertFalse(limiter.offer(task));
+
+		limiter.release();
+		assertEquals(3, executed.get());
+		assertEquals(0, limiter.getWaiting());
+		assertEquals(2, limiter.getRunning());
+	}
+
+	@Test
+	public void testFailedTaskReleasesSlot() throws Exception {
+		final AtomicInteger executed = new AtomicInteger();
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+		assertTrue(limiter.offer(new Runnable() {
+			public void run() {
+				executed.incrementAndGet();
+			}
+		}));
+		assertTrue(limiter.offer(new Runnable() {
+			public void run() {
+				throw new RejectedExecutionException();
+			}
+		}));
+		assertEquals(1, limiter.getWaiting());
+
+		// the queued task fails to start, so the slot is free again
+		limiter.release();
+		assertEquals(0, limiter.getWaiting());
+		assertEquals(0, limiter.getRunning());
+		assertTrue(limiter.offer(new Runnable() {
+			public void run() {
+				executed.incrementAndGet();
+			}
+		}));
+		assertEquals(2, executed.get());
+		assertEquals(1, limiter.getRunning());
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(0, 0);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.offer(new Runnable() {
+				public void run() {
+				}
+			}));
+		}
+		assertEquals(10, limiter.getRunning());
+	}
+
+}
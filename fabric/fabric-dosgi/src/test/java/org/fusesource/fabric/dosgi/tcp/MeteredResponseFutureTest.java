@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.fusesource.fabric.dosgi.metrics.MethodMetrics;
+import org.fusesource.fabric.dosgi.metrics.MethodStatistics;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.junit.Test;
+
+public class MeteredResponseFutureTest {
+
+	@Test
+	public void testLateResponseAfterTimeout() throws Exception {
+		MethodMetrics metrics = new MethodMetrics("service", "method");
+		ResponseFuture future = new ClientInvokerImpl.MeteredResponseFuture(new TimingOutFuture(), metrics, System.nanoTime(), 10);
+		try {
+			future.get(1, TimeUnit.MILLISECONDS);
+			fail("Expected a timeout");
+		} catch (TimeoutException e) {
+			// expected
+		}
+		// the response arrives after the caller gave up
+		future.set(new DataByteArrayInputStream(new byte[5]));
+		future.fail(new Exception("too late"));
+
+		MethodStatistics stats = metrics.getStatistics();
+		assertEquals(0, stats.getInvocations());
+		assertEquals(1, stats.getFailures());
+		assertEquals(0, stats.getBytesReceived());
+	}
+
+	@Test
+	public void testFailureAfterResponse() throws Exception {
+		MethodMetrics metrics = new MethodMetrics("service", "method");
+		ResponseFuture future = new ClientInvokerImpl.MeteredResponseFuture(new TimingOutFuture(), metrics, System.nanoTime(), 10);
+		future.set(new DataByteArrayInputStream(new byte[5]));
+		future.fail(new Exception("transport closed"));
+
+		MethodStatistics stats = metrics.getStatistics();
+		assertEquals(1, stats.getInvocations());
+		assertEquals(0, stats.getFailures());
+		assertEquals(5, stats.getBytesReceived());
+	}
+
+	static class TimingOutFuture implements ResponseFuture {
+		public void set(DataByteArrayInputStream responseStream) {
+		}
+
+		public Object get(long timeout, TimeUnit unit) throws Exception {
+			throw new TimeoutException();
+		}
+
+		public void fail(Throwable throwable) {
+		}
+	}
+}
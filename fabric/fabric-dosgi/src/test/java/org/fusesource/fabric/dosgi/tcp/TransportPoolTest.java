@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.fabric.dosgi.tcp;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.fabric.dosgi.io.ProtocolCodec;
+import org.fusesource.fabric.dosgi.io.Transport;
+import org.fusesource.fabric.dosgi.io.TransportListener;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.junit.Test;
+
+public class TransportPoolTest {
+
+	@Test
+	public void testBusyTransportIsEvictedOnceIdle() throws Exception {
+		final DispatchQueue queue = Dispatch.createQueue();
+		final FakeTransport transport = new FakeTransport();
+		final TransportPool pool = new TransportPool("fake://", queue, 1, 100) {
+			protected Transport createTransport(String uri) {
+				return transport;
+			}
+
+			protected ProtocolCodec createCodec() {
+				return null;
+			}
+
+			protected void onCommand(Object command) {
+			}
+
+			protected void onFailure(Object id, Throwable throwable) {
+			}
+		};
+		pool.start();
+		pool.offer("request", 1L);
+
+		// the request is still in flight long after the eviction delay
+		assertFalse(transport.stopped.await(500, TimeUnit.MILLISECONDS));
+
+		queue.execute(new Runnable() {
+			public void run() {
+				pool.onDone(1L);
+			}
+		});
+		assertTrue(transport.stopped.await(2, TimeUnit.SECONDS));
+	}
+
+	static class FakeTransport implements Transport {
+		final CountDownLatch stopped = new CountDownLatch(1);
+		TransportListener listener;
+		DispatchQueue queue;
+		ProtocolCodec codec;
+
+		public void start() {
+			start(null);
+		}
+
+		public void start(Runnable onComplete) {
+			queue.execute(new Runnable() {
+				public void run() {
+					listener.onTransportConnected(FakeTransport.this);
+				}
+			});
+		}
+
+		public void stop() {
+			stop(null);
+		}
+
+		public void stop(Runnable onComplete) {
+			stopped.countDown();
+		}
+
+		public boolean full() {
+			return false;
+		}
+
+		public boolean offer(Object command) {
+			return true;
+		}
+
+		public TransportListener getTransportListener() {
+			return listener;
+		}
+
+		public void setTransportListener(TransportListener listener) {
+			this.listener = listener;
+		}
+
+		public void setDispatchQueue(DispatchQueue queue) {
+			this.queue = queue;
+		}
+
+		public DispatchQueue queue() {
+			return queue;
+		}
+
+		public void suspendRead() {
+		}
+
+		public void resumeRead() {
+		}
+
+		public String getRemoteAddress() {
+			return "fake";
+		}
+
+		public boolean isDisposed() {
+			return stopped.getCount() == 0;
+		}
+
+		public boolean isConnected() {
+			return true;
+		}
+
+		public ProtocolCodec getProtocolCodec() {
+			return codec;
+		}
+
+		public void setProtocolCodec(ProtocolCodec codec) {
+			this.codec = codec;
+		}
+	}
+}
@@ -16,14 +16,15 @@
  */
 package org.fusesource.fabric.git.internal;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.felix.scr.annotations.Activate;
@@ -35,7 +36,13 @@ import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.References;
 import org.apache.felix.scr.annotations.Service;
-import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.fusesource.fabric.api.Constants;
 import org.fusesource.fabric.api.DataStore;
 import org.fusesource.fabric.api.DataStoreRegistrationHandler;
@@ -46,6 +53,8 @@ import org.fusesource.fabric.api.jcip.GuardedBy;
 import org.fusesource.fabric.api.jcip.ThreadSafe;
 import org.fusesource.fabric.git.GitService;
 import org.fusesource.fabric.utils.DataStoreUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -67,6 +76,7 @@ import com.google.common.cache.LoadingCache;
 )
 @Service(DataStore.class)
 public final class CachingGitDataStore extends GitDataStore {
+    private static final transient Logger LOG = LoggerFactory.getLogger(CachingGitDataStore.class);
 
     public static final String TYPE = "caching-git";
 
@@ -74,17 +84,35 @@ public final class CachingGitDataStore extends GitDataStore {
             .build(new CacheLoader<String, VersionData>() {
                 @Override
                 public VersionData load(final String version) throws Exception {
-                    return gitOperation(new GitOperation<VersionData>() {
-                        public VersionData call(Git git, GitContext context) throws Exception {
-                            VersionData data = new VersionData();
-                            pouplateVersionData(git, version, data);
-                            pouplateVersionData(git, "master", data);
-                            return data;
-                        }
-                    }, !hasVersion(version));
+                    // read before the repository so that a clear during the load invalidates the result
+                    long loadGeneration = generation.get();
+                    if (!hasVersion(version)) {
+                        pull();
+                    }
+                    // the profiles are read from the object database, so there is no need to
+                    // checkout the version or to wait for other git operations
+                    Repository repository = getGit().getRepository();
+                    VersionData data = new VersionData(loadGeneration);
+                    pouplateVersionData(repository, version, data);
+                    pouplateVersionData(repository, "master", data);
+                    return data;
                 }
             });
 
+    /**
+     * Incremented whenever the caches are cleared, a version loaded in a previous generation may
+     * have been read before the change which cleared the caches and must be loaded again.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The profiles of each branch as of the commit they were read from, which are kept when the version
+     * caches are cleared so that only the profiles whose tree changed since have to be read again.
+     * The profiles are also shared between the branches which have the same tree for them.
+     * A {@link BranchData} is never modified once cached.
+     */
+    private final Map<String, BranchData> cachedBranches = new ConcurrentHashMap<String, BranchData>();
+
     @Activate
     void activate(Map<String, ?> configuration) throws Exception {
         protectedActivate(configuration);
@@ -100,56 +128,123 @@ public final class CachingGitDataStore extends GitDataStore {
         VersionData data = null;
         try {
             data = cachedVersions.get(version);
+            while (data.generation != generation.get()) {
+                // the load raced with a clear of the caches
+                cachedVersions.asMap().remove(version, data);
+                data = cachedVersions.get(version);
+            }
         } catch (ExecutionException e) {
             FabricException.launderThrowable(e);
         }
         return data;
     }
 
-    protected void pouplateVersionData(Git git, String branch, VersionData data) throws Exception {
+    protected void pouplateVersionData(Repository repository, String branch, VersionData data) throws Exception {
         assertValid();
-        checkoutVersion(git, branch);
-        File profilesDir = getProfilesDirectory(git);
-        if (profilesDir.exists()) {
-            File[] files = profilesDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        addProfileData(git, data, file, "");
-                    }
+        BranchData branchData = getBranchData(repository, branch);
+        data.profiles.putAll(branchData.profiles);
+    }
+
+    /**
+     * Returns the profiles of the given branch, only reading the profiles whose git tree
+     * changed since the last time the branch was read
+     */
+    private BranchData getBranchData(Repository repository, String branch) throws IOException {
+        ObjectId commitId = repository.resolve("refs/heads/" + branch);
+        if (commitId == null) {
+            return new BranchData(null);
+        }
+        BranchData cached = cachedBranches.get(branch);
+        if (cached != null && commitId.equals(cached.commitId)) {
+            return cached;
+        }
+
+        BranchData answer = new BranchData(commitId);
+        int read = 0;
+        ObjectReader reader = repository.newObjectReader();
+        try {
+            RevCommit commit = new RevWalk(reader).parseCommit(commitId);
+            // the profiles first seen in this commit are considered modified when it was committed
+            long lastModified = commit.getCommitTime() * 1000L;
+            readProfileTrees(reader, commit.getTree(), answer.profileTrees);
+            for (Map.Entry<String, ObjectId> entry : answer.profileTrees.entrySet()) {
+                ObjectId tree = entry.getValue();
+                ProfileData profileData = findProfileData(cached, tree);
+                if (profileData == null) {
+                    profileData = loadProfileData(reader, tree, lastModified);
+                    read++;
                 }
+                answer.profiles.put(entry.getKey(), profileData);
+                answer.profilesByTree.put(tree, profileData);
             }
+        } finally {
+            reader.release();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Read " + read + " of the " + answer.profiles.size() + " profiles of branch " + branch);
         }
+        cachedBranches.put(branch, answer);
+        return answer;
     }
 
-    private void addProfileData(Git git, VersionData data, File file, String prefix) throws IOException {
-        // TODO we could recursively scan for magic ".profile" files or something
-        // then we could put profiles into nicer tree structure?
-        String profile = file.getName();
-        if (useDirectoriesForProfiles) {
-            if (profile.endsWith(PROFILE_FOLDER_SUFFIX)) {
-                profile = prefix + profile.substring(0, profile.length() - PROFILE_FOLDER_SUFFIX.length());
+    private ProfileData findProfileData(BranchData cached, ObjectId tree) {
+        ProfileData answer = cached != null ? cached.getProfileData(tree) : null;
+        if (answer == null) {
+            for (BranchData branchData : cachedBranches.values()) {
+                answer = branchData.getProfileData(tree);
+                if (answer != null) {
+                    break;
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Finds the id of the tree of every profile directory in the given commit tree, which changes
+     * whenever anything in the profile changes
+     */
+    private void readProfileTrees(ObjectReader reader, ObjectId commitTree, Map<String, ObjectId> profileTrees) throws IOException {
+        TreeWalk profilesWalk = TreeWalk.forPath(reader, CONFIGS_PROFILES.substring(1), commitTree);
+        if (profilesWalk == null || !profilesWalk.isSubtree()) {
+            return;
+        }
+        TreeWalk walk = new TreeWalk(reader);
+        walk.addTree(profilesWalk.getObjectId(0));
+        walk.setRecursive(false);
+        while (walk.next()) {
+            if (!walk.isSubtree()) {
+                continue;
+            }
+            // TODO we could recursively scan for magic ".profile" files or something
+            // then we could put profiles into nicer tree structure?
+            String path = walk.getPathString();
+            if (!useDirectoriesForProfiles) {
+                profileTrees.put(path, walk.getObjectId(0));
+            } else if (path.endsWith(PROFILE_FOLDER_SUFFIX)) {
+                String profile = path.substring(0, path.length() - PROFILE_FOLDER_SUFFIX.length()).replace('/', '-');
+                profileTrees.put(profile, walk.getObjectId(0));
             } else {
                 // lets recurse all children
-                File[] files = file.listFiles();
-                if (files != null) {
-                    for (File child : files) {
-                        if (child.isDirectory()) {
-                            addProfileData(git, data, child, prefix + file.getName() + "-");
-                        }
-                    }
-                }
-                return;
+                walk.enterSubtree();
             }
         }
+    }
 
-        long lastModified = file.lastModified();
-        File metadataFile = new File(file, AGENT_METADATA_FILE);
-        if (metadataFile.exists()) {
-            long modified = metadataFile.lastModified();
-            lastModified = Math.max(lastModified, modified);
+    /**
+     * Reads all the files of the given profile tree, including the ones in sub directories
+     */
+    private ProfileData loadProfileData(ObjectReader reader, ObjectId profileTree, long lastModified) throws IOException {
+        Map<String, byte[]> configurations = new HashMap<String, byte[]>();
+        TreeWalk walk = new TreeWalk(reader);
+        walk.addTree(profileTree);
+        walk.setRecursive(true);
+        while (walk.next()) {
+            FileMode mode = walk.getFileMode(0);
+            if (mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE) {
+                configurations.put(walk.getPathString(), reader.open(walk.getObjectId(0)).getBytes(Integer.MAX_VALUE));
+            }
         }
-        Map<String, byte[]> configurations = doGetFileConfigurations(git, profile);
         Map<String, Map<String, String>> substituted = new HashMap<String, Map<String, String>>();
         for (Map.Entry<String, byte[]> entry : configurations.entrySet()) {
             if (entry.getKey().endsWith(".properties")) {
@@ -157,8 +252,7 @@ public final class CachingGitDataStore extends GitDataStore {
                 substituted.put(pid, DataStoreUtils.toMap(DataStoreUtils.toProperties(entry.getValue())));
             }
         }
-        ProfileData profileData = new ProfileData(lastModified, configurations, substituted);
-        data.profiles.put(profile, profileData);
+        return new ProfileData(lastModified, configurations, substituted);
     }
 
     public List<String> getProfiles(String version) {
@@ -218,6 +312,8 @@ public final class CachingGitDataStore extends GitDataStore {
     @Override
     protected void clearCaches() {
         assertValid();
+        super.clearCaches();
+        generation.incrementAndGet();
         cachedVersions.invalidateAll();
     }
 
@@ -227,7 +323,24 @@ public final class CachingGitDataStore extends GitDataStore {
     }
 
     private static class VersionData {
+        final long generation;
         final Map<String, ProfileData> profiles = new HashMap<String, ProfileData>();
+        VersionData(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    private static class BranchData {
+        final ObjectId commitId;
+        final Map<String, ObjectId> profileTrees = new HashMap<String, ObjectId>();
+        final Map<String, ProfileData> profiles = new HashMap<String, ProfileData>();
+        final Map<ObjectId, ProfileData> profilesByTree = new HashMap<ObjectId, ProfileData>();
+        BranchData(ObjectId commitId) {
+            this.commitId = commitId;
+        }
+        ProfileData getProfileData(ObjectId tree) {
+            return profilesByTree.get(tree);
+        }
     }
 
     private static class ProfileData {
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) FuseSource, Inc.
+ *   http://fusesource.com
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.fusesource.fabric.maven.impl;
+
+/**
+ * A single range of bytes requested with the HTTP <code>Range</code> header.
+ */
+public class ByteRange {
+
+    /**
+     * The range of requests none of the bytes of which exist
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header against a file of the given length.
+     *
+     * @return the range to send, {@link #UNSATISFIABLE} or null if the whole file should be sent, which
+     *         is the case without header, with an invalid one or with several ranges
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            String start = spec.substring(0, dash).trim();
+            String end = spec.substring(dash + 1).trim();
+            if (start.length() == 0) {
+                // suffix range, the last bytes of the file
+                if (end.length() == 0) {
+                    return null;
+                }
+                long suffix = Long.parseLong(end);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long first = Long.parseLong(start);
+            long last = end.length() == 0 ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+            if (first < 0 || (end.length() > 0 && Long.parseLong(end) < first)) {
+                return null;
+            }
+            if (first >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(first, last);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the value of the <code>Content-Range</code> header of this range of a file of the given length
+     */
+    public String toContentRange(long length) {
+        if (this == UNSATISFIABLE) {
+            return "bytes */" + length;
+        }
+        return "bytes " + first + "-" + last + "/" + length;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRange[" + first + "-" + last + "]";
+    }
+}
@@ -14,21 +14,23 @@
  *   See the License for the specific language governing permissions and
  *   limitations under the License.
  */
-
 package org.fusesource.fabric.maven.impl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.fusesource.fabric.internal.FabricConstants;
 import org.fusesource.fabric.utils.Closeables;
-import org.fusesource.fabric.utils.Files;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -36,20 +38,69 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 
 public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
 
+    public static final long DEFAULT_NEGATIVE_CACHE_TIMEOUT = 30;
+
+    private static final int NEGATIVE_CACHE_SIZE = 10000;
+
     private ConcurrentMap<String, ArtifactDownloadFuture> requestMap = new ConcurrentHashMap<String, ArtifactDownloadFuture>();
     private ExecutorService executorService = Executors.newCachedThreadPool();
+    private long negativeCacheTimeout = DEFAULT_NEGATIVE_CACHE_TIMEOUT;
+    private volatile Cache<String, Boolean> missingArtifacts;
 
 
     public MavenDownloadProxyServlet(String localRepository, String remoteRepositories, boolean appendSystemRepos, String updatePolicy, String checksumPolicy, String proxyProtocol, String proxyHost, int proxyPort, String proxyUsername, String proxyPassword, String proxyNonProxyHosts) {
         super(localRepository, remoteRepositories, appendSystemRepos, updatePolicy, checksumPolicy, proxyProtocol, proxyHost, proxyPort, proxyUsername, proxyPassword, proxyNonProxyHosts);
     }
 
+    @Override
+    public synchronized void start() throws IOException {
+        super.start();
+        if (missingArtifacts == null) {
+            missingArtifacts = CacheBuilder.newBuilder()
+                    .maximumSize(NEGATIVE_CACHE_SIZE)
+                    .expireAfterWrite(negativeCacheTimeout, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
+    public long getNegativeCacheTimeout() {
+        return negativeCacheTimeout;
+    }
+
+    /**
+     * Sets for how many seconds a request for a missing artifact is answered without looking for it again
+     */
+    public void setNegativeCacheTimeout(long negativeCacheTimeout) {
+        this.negativeCacheTimeout = negativeCacheTimeout;
+    }
+
+    public Cache<String, Boolean> getMissingArtifacts() {
+        return missingArtifacts;
+    }
+
+    /**
+     * Shares the paths known to be missing with another servlet, so that uploads are seen by both
+     */
+    public void setMissingArtifacts(Cache<String, Boolean> missingArtifacts) {
+        this.missingArtifacts = missingArtifacts;
+    }
+
+    @Override
+    public boolean upload(InputStream is, String path) throws InvalidMavenArtifactRequest {
+        boolean success = super.upload(is, path);
+        if (success && missingArtifacts != null) {
+            // the metadata and checksums of the artifact are missing no more either
+            missingArtifacts.invalidateAll();
+        }
+        return success;
+    }
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         super.doPost(req, resp);
@@ -62,80 +113,148 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        InputStream is = null;
-        BufferedInputStream bis = null;
-        File artifactFile = null;
-        ArtifactDownloadFuture masterFuture = null;
-
         try {
             String path = req.getPathInfo();
             if (path != null && path.startsWith("/")) {
                 path = path.substring(1);
             }
+            if (path == null || (missingArtifacts != null && missingArtifacts.getIfPresent(path) != null)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
 
-            try {
-                ArtifactDownloadFuture future = new ArtifactDownloadFuture(path);
-                masterFuture = requestMap.putIfAbsent(path, future);
-                if (masterFuture == null) {
-                    masterFuture = future;
-                    executorService.submit(future);
-                    artifactFile = masterFuture.get();
-                } else {
-                    artifactFile = masterFuture.get();
+            File artifactFile = resolve(path);
+            if (artifactFile == null || !artifactFile.isFile()) {
+                if (missingArtifacts != null) {
+                    missingArtifacts.put(path, Boolean.TRUE);
                 }
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            LOGGER.log(Level.INFO, String.format("Writing response for file : %s", path));
+            send(req, resp, artifactFile);
+        } catch (Exception ex) {
+            LOGGER.warning("Error while downloading artifact:" + ex.getMessage());
+            if (!resp.isCommitted()) {
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
 
-                requestMap.remove(path);
-                if (artifactFile == null) {
-                    resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                    return;
-                }
+    /**
+     * Resolves the artifact of the given path, concurrent requests for the same path sharing the same resolution.
+     */
+    protected File resolve(String path) throws InterruptedException, ExecutionException {
+        ArtifactDownloadFuture future = new ArtifactDownloadFuture(path);
+        ArtifactDownloadFuture masterFuture = requestMap.putIfAbsent(path, future);
+        if (masterFuture == null) {
+            masterFuture = future;
+            executorService.submit(future);
+        }
+        try {
+            return masterFuture.get();
+        } finally {
+            requestMap.remove(path, masterFuture);
+        }
+    }
 
-                is = new FileInputStream(artifactFile);
-                LOGGER.log(Level.INFO, String.format("Writing response for file : %s", path));
+    /**
+     * Sends the file straight from the repository, honouring the conditional and range headers of the request.
+     * The file is opened first, so its content remains the same even if the repository replaces it meanwhile.
+     */
+    protected void send(HttpServletRequest req, HttpServletResponse resp, File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            FileChannel channel = is.getChannel();
+            long length = channel.size();
+            long lastModified = file.lastModified();
+            String etag = etag(length, lastModified);
+
+            resp.setDateHeader("Date", System.currentTimeMillis());
+            resp.setHeader("Server", "MavenProxy Proxy/" + FabricConstants.FABRIC_VERSION);
+            resp.setHeader("ETag", etag);
+            resp.setDateHeader("Last-Modified", lastModified);
+            resp.setHeader("Accept-Ranges", "bytes");
+            if (isNotModified(req, etag, lastModified)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            ByteRange range = null;
+            String ifRange = req.getHeader("If-Range");
+            if (ifRange == null || ifRange.equals(etag)) {
+                range = ByteRange.parse(req.getHeader("Range"), length);
+            }
+            if (range == ByteRange.UNSATISFIABLE) {
+                resp.setHeader("Content-Range", range.toContentRange(length));
+                resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            long position = 0;
+            long count = length;
+            if (range != null) {
+                position = range.getFirst();
+                count = range.getLength();
+                resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                resp.setHeader("Content-Range", range.toContentRange(length));
+            } else {
                 resp.setStatus(HttpServletResponse.SC_OK);
-                resp.setContentType("application/octet-stream");
-                resp.setDateHeader("Date", System.currentTimeMillis());
-                resp.setHeader("Connection", "close");
-                resp.setContentLength(is.available());
-                resp.setHeader("Server", "MavenProxy Proxy/" + FabricConstants.FABRIC_VERSION);
-                byte buffer[] = new byte[8192];
-                int length;
-                while ((length = is.read(buffer)) != -1) {
-                    resp.getOutputStream().write(buffer, 0, length);
+            }
+            resp.setContentType("application/octet-stream");
+            if (count <= Integer.MAX_VALUE) {
+                resp.setContentLength((int) count);
+            } else {
+                resp.setHeader("Content-Length", Long.toString(count));
+            }
+
+            WritableByteChannel out = Channels.newChannel(resp.getOutputStream());
+            while (count > 0) {
+                long written = channel.transferTo(position, count, out);
+                if (written <= 0) {
+                    // the file has been truncated
+                    break;
                 }
-                resp.getOutputStream().flush();
-            } catch (Exception ex) {
-                LOGGER.warning("Error while downloading artifact:" + ex.getMessage());
-            } finally {
-                Closeables.closeQuitely(is);
-                if (masterFuture != null && artifactFile != null) {
-                    masterFuture.release(artifactFile);
+                position += written;
+                count -= written;
+            }
+            resp.getOutputStream().flush();
+        } finally {
+            Closeables.closeQuitely(is);
+        }
+    }
+
+    static String etag(long length, long lastModified) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    static boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
                 }
             }
-        } catch (Exception ex) {
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return false;
+        }
+        try {
+            long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+            // http dates have a one second precision
+            return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
     private class ArtifactDownloadFuture extends FutureTask<File> {
 
-        private final AtomicInteger paritcipans = new AtomicInteger();
-
         public ArtifactDownloadFuture(String path) {
             super(new ArtifactDownloadTask(path));
         }
-
-        @Override
-        public File get() throws InterruptedException, ExecutionException {
-            paritcipans.incrementAndGet();
-            return super.get();
-        }
-
-        public synchronized void release(File f) {
-            if (paritcipans.decrementAndGet() == 0) {
-                f.delete();
-            }
-        }
     }
 
     private class ArtifactDownloadTask implements Callable<File> {
@@ -148,15 +267,7 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
 
         @Override
         public File call() throws Exception {
-            File download = download(path);
-            if (download != null)  {
-            File tmpFile = Files.createTempFile();
-            Files.copy(download, tmpFile);
-            return tmpFile;
-            } else {
-                return null;
-            }
+            return download(path);
         }
     }
 }
-
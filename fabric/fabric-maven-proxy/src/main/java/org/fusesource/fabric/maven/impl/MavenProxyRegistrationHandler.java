@@ -72,6 +72,7 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
     private static final String PROXY_USERNAME_PROPERTY = "proxy.username";
     private static final String PROXY_PASSWORD_PROPERTY = "proxy.password";
     private static final String NON_PROXY_HOSTS_PROPERTY = "proxy.nonProxyHosts";
+    private static final String NEGATIVE_CACHE_TIMEOUT_PROPERTY = "negativeCacheTimeout";
 
     private static final String REQUIRED_ROLE = "role";
     private static final String REQUIRED_REALM = "realm";
@@ -118,12 +119,15 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
         String proxyUsername = readProperty(configuration, PROXY_USERNAME_PROPERTY, "");
         String proxyPassword = readProperty(configuration, PROXY_PASSWORD_PROPERTY, "");
         String nonProxyHosts = readProperty(configuration, NON_PROXY_HOSTS_PROPERTY, "");
+        long negativeCacheTimeout = Long.parseLong(readProperty(configuration, NEGATIVE_CACHE_TIMEOUT_PROPERTY, String.valueOf(MavenDownloadProxyServlet.DEFAULT_NEGATIVE_CACHE_TIMEOUT)));
 
         this.role = readProperty(configuration, REQUIRED_ROLE, DEFAULT_ROLE);
         this.realm = readProperty(configuration, REQUIRED_REALM, DEFAULT_REALM);
         this.mavenDownloadProxyServlet = new MavenDownloadProxyServlet(localRepository, remoteRepositories, appendSystemRepos, updatePolicy, checksumPolicy, proxyProtocol, proxyHost, proxyPort, proxyUsername, proxyPassword, nonProxyHosts);
+        this.mavenDownloadProxyServlet.setNegativeCacheTimeout(negativeCacheTimeout);
         this.mavenDownloadProxyServlet.start();
         this.mavenUploadProxyServlet = new MavenUploadProxyServlet(localRepository, remoteRepositories, appendSystemRepos, updatePolicy, checksumPolicy, proxyProtocol, proxyHost, proxyPort, proxyUsername, proxyPassword, nonProxyHosts);
+        this.mavenUploadProxyServlet.setMissingArtifacts(mavenDownloadProxyServlet.getMissingArtifacts());
         this.mavenUploadProxyServlet.start();
         try {
             HttpContext base = httpService.get().createDefaultHttpContext();
@@ -0,0 +1,47 @@
+package org.fusesource.fabric.maven.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testRanges() {
+        ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+        assertEquals(0, range.getFirst());
+        assertEquals(99, range.getLast());
+        assertEquals(100, range.getLength());
+        assertEquals("bytes 0-99/1000", range.toContentRange(1000));
+
+        range = ByteRange.parse("bytes=500-", 1000);
+        assertEquals(500, range.getFirst());
+        assertEquals(999, range.getLast());
+
+        range = ByteRange.parse("bytes=-200", 1000);
+        assertEquals(800, range.getFirst());
+        assertEquals(999, range.getLast());
+
+        // the end is capped to the length of the file
+        range = ByteRange.parse("bytes=900-5000", 1000);
+        assertEquals(999, range.getLast());
+    }
+
+    @Test
+    public void testIgnoredRanges() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() {
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+        assertEquals("bytes */1000", ByteRange.UNSATISFIABLE.toContentRange(1000));
+    }
+}
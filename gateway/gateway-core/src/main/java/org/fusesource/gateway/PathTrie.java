@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable radix trie used to find the longest registered prefix of a request path.
+ * <p>
+ * Lookups walk the path once and do not allocate, whatever the number of prefixes.
+ * A prefix ending with a <code>/</code> also matches the path without that trailing
+ * slash, so <code>/foo/</code> matches <code>/foo</code>.
+ */
+public final class PathTrie<V> {
+
+    private static final PathTrie EMPTY = new PathTrie(new Builder().compress(""));
+
+    private final Node<V> root;
+
+    private PathTrie(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PathTrie<V> empty() {
+        return EMPTY;
+    }
+
+    public static <V> PathTrie<V> build(Map<String, V> prefixes) {
+        Builder<V> builder = new Builder<V>();
+        for (Map.Entry<String, V> entry : prefixes.entrySet()) {
+            Builder<V> node = builder;
+            String prefix = entry.getKey();
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.value = entry.getValue();
+        }
+        return new PathTrie<V>(builder.compress(""));
+    }
+
+    /**
+     * @return the value of the longest prefix of the given path, or null if none matches
+     */
+    public V match(String path) {
+        Node<V> node = root;
+        V answer = node.value;
+        int length = path.length();
+        int pos = 0;
+        while (true) {
+            // past the end of the path, only an implicit trailing slash can still match
+            char next = pos < length ? path.charAt(pos) : '/';
+            Node<V> child = node.child(next);
+            if (child == null) {
+                return answer;
+            }
+            String label = child.label;
+            int i = 0;
+            while (i < label.length() && pos + i < length && path.charAt(pos + i) == label.charAt(i)) {
+                i++;
+            }
+            if (i < label.length()) {
+                if (pos + i == length && i == label.length() - 1 && label.charAt(i) == '/' && child.value != null) {
+                    answer = child.value;
+                }
+                return answer;
+            }
+            pos += i;
+            node = child;
+            if (node.value != null) {
+                answer = node.value;
+            }
+        }
+    }
+
+    private static final class Node<V> {
+        final String label;
+        final V value;
+        // sorted by the first character of their labels
+        final char[] firsts;
+        final Node<V>[] children;
+
+        Node(String label, V value, char[] firsts, Node<V>[] children) {
+            this.label = label;
+            this.value = value;
+            this.firsts = firsts;
+            this.children = children;
+        }
+
+        Node<V> child(char c) {
+            int idx = Arrays.binarySearch(firsts, c);
+            return idx >= 0 ? children[idx] : null;
+        }
+    }
+
+    private static final class Builder<V> {
+        final TreeMap<Character, Builder<V>> children = new TreeMap<Character, Builder<V>>();
+        V value;
+
+        Builder<V> child(char c) {
+            Builder<V> answer = children.get(c);
+            if (answer == null) {
+                answer = new Builder<V>();
+                children.put(c, answer);
+            }
+            return answer;
+        }
+
+        /**
+         * Creates the immutable node, merging the chains of nodes having a single child and no value
+         */
+        @SuppressWarnings("unchecked")
+        Node<V> compress(String label) {
+            Builder<V> builder = this;
+            StringBuilder buffer = new StringBuilder(label);
+            while (builder.value == null && builder.children.size() == 1 && buffer.length() > 0) {
+                Map.Entry<Character, Builder<V>> entry = builder.children.firstEntry();
+                buffer.append(entry.getKey());
+                builder = entry.getValue();
+            }
+            char[] firsts = new char[builder.children.size()];
+            Node<V>[] children = new Node[firsts.length];
+            int i = 0;
+            for (Map.Entry<Character, Builder<V>> entry : builder.children.entrySet()) {
+                firsts[i] = entry.getKey();
+                children[i] = entry.getValue().compress(String.valueOf(entry.getKey()));
+                i++;
+            }
+            return new Node<V>(buffer.toString(), builder.value, firsts, children);
+        }
+    }
+}
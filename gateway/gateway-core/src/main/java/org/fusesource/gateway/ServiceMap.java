@@ -17,9 +17,12 @@
 package org.fusesource.gateway;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Maintains a mapping of services which is then use by the proxy to update in process
@@ -27,20 +30,43 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ServiceMap {
     private ConcurrentHashMap<String, Map<String, ServiceDetails>> map = new ConcurrentHashMap<String, Map<String, ServiceDetails>>();
+    private volatile PathTrie<ServiceRoute> routes = PathTrie.empty();
+    private volatile Map<String, List<ServiceDetails>> services = Collections.emptyMap();
+    private volatile List<String> paths = Collections.emptyList();
+    private final List<ServiceMapListener> listeners = new CopyOnWriteArrayList<ServiceMapListener>();
+
+    public void addListener(ServiceMapListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ServiceMapListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the route of the longest path prefix matching the given request URI
+     * or null if there is none
+     */
+    public ServiceRoute route(String uri) {
+        return routes.match(uri);
+    }
 
     /**
-     * Returns a list of all the current services for the given path
+     * Returns an immutable list of all the current services for the given path
      */
     public List<ServiceDetails> getServices(String path) {
-        Map<String, ServiceDetails> pathMap = getPathMap(path);
-        return new ArrayList<ServiceDetails>(pathMap.values());
+        List<ServiceDetails> answer = services.get(path);
+        if (answer == null) {
+            answer = Collections.emptyList();
+        }
+        return answer;
     }
 
     /**
-     * Returns a list of all the current paths for the services
+     * Returns an immutable list of all the current paths which have services
      */
     public List<String> getPaths() {
-        return new ArrayList<String>(map.keySet());
+        return paths;
     }
 
     /**
@@ -50,6 +76,10 @@ public class ServiceMap {
         // ignore services with empty services
         if (!service.getServices().isEmpty()) {
             getPathMap(path).put(service.getId(), service);
+            rebuildRoutes();
+            for (ServiceMapListener listener : listeners) {
+                listener.serviceUpdated(path, service);
+            }
         }
     }
 
@@ -58,8 +88,53 @@ public class ServiceMap {
      */
     public void serviceRemoved(String path, ServiceDetails service) {
         getPathMap(path).remove(service.getId());
+        rebuildRoutes();
 
         // lets update any in progress proxy handlers using this service
+        for (ServiceMapListener listener : listeners) {
+            listener.serviceRemoved(path, service);
+        }
+    }
+
+    /**
+     * Returns the prefix of the request URIs handled by the services of the given path,
+     * the last segment of the path being the container name
+     */
+    public static String getPathPrefix(String path) {
+        int idx = path.lastIndexOf('/');
+        if (idx > 0) {
+            return path.substring(0, idx + 1);
+        }
+        return path;
+    }
+
+    /**
+     * Creates a new routing trie and snapshot of the paths from the current services, the paths sharing
+     * the same prefix are merged into a single route
+     */
+    protected synchronized void rebuildRoutes() {
+        Map<String, List<ServiceDetails>> prefixes = new HashMap<String, List<ServiceDetails>>();
+        Map<String, List<ServiceDetails>> pathServices = new HashMap<String, List<ServiceDetails>>();
+        for (Map.Entry<String, Map<String, ServiceDetails>> entry : map.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            pathServices.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<ServiceDetails>(entry.getValue().values())));
+            String prefix = getPathPrefix(entry.getKey());
+            List<ServiceDetails> services = prefixes.get(prefix);
+            if (services == null) {
+                services = new ArrayList<ServiceDetails>();
+                prefixes.put(prefix, services);
+            }
+            services.addAll(entry.getValue().values());
+        }
+        Map<String, ServiceRoute> answer = new HashMap<String, ServiceRoute>();
+        for (Map.Entry<String, List<ServiceDetails>> entry : prefixes.entrySet()) {
+            answer.put(entry.getKey(), new ServiceRoute(entry.getKey(), Collections.unmodifiableList(entry.getValue())));
+        }
+        routes = PathTrie.build(answer);
+        services = pathServices;
+        paths = Collections.unmodifiableList(new ArrayList<String>(pathServices.keySet()));
     }
 
     protected synchronized Map<String, ServiceDetails> getPathMap(String path) {
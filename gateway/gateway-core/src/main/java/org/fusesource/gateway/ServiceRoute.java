@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway;
+
+import java.util.List;
+
+/**
+ * The services which can handle the requests starting with a given prefix
+ */
+public class ServiceRoute {
+    private final String prefix;
+    private final List<ServiceDetails> services;
+
+    public ServiceRoute(String prefix, List<ServiceDetails> services) {
+        this.prefix = prefix;
+        this.services = services;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceRoute(" + prefix + " services: " + services.size() + ")";
+    }
+
+    /**
+     * Returns the prefix of the request URIs, including the trailing slash if any
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the immutable list of the services of all the paths sharing the prefix
+     */
+    public List<ServiceDetails> getServices() {
+        return services;
+    }
+}
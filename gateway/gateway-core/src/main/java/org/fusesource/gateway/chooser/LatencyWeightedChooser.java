@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.gateway.ServiceDetails;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses the service with the lowest expected wait, its average latency times the number of
+ * requests in flight on it, counting the new one.
+ * <p>
+ * Services whose latency has not been measured yet are given the mean latency of the others, and
+ * failures count as slow requests, so that an unreachable service does not draw all the traffic.
+ */
+public class LatencyWeightedChooser implements Chooser<ServiceDetails> {
+    private final ServiceLoadTracker tracker;
+    private final Random random = new Random();
+
+    public LatencyWeightedChooser(ServiceLoadTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public ServiceDetails choose(List<ServiceDetails> services) {
+        int size = services.size();
+        if (size == 0) {
+            return null;
+        } else if (size == 1) {
+            return services.get(0);
+        }
+        ServiceLoad[] loads = new ServiceLoad[size];
+        for (int i = 0; i < size; i++) {
+            loads[i] = tracker.getLoad(services.get(i));
+        }
+        double mean = ServiceLoad.getMeanLatency(loads);
+        int start = random.nextInt(size);
+        ServiceDetails answer = null;
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            ServiceDetails service = services.get(index);
+            ServiceLoad load = loads[index];
+            double score = load.getLatency(mean) * (load.getInflight() + 1);
+            if (score < lowest) {
+                lowest = score;
+                answer = service;
+            }
+        }
+        return answer;
+    }
+}
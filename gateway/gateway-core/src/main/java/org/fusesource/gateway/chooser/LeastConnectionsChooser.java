@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.gateway.ServiceDetails;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses the service with the fewest requests or connections in flight,
+ * starting from a random service so that ties are spread evenly
+ */
+public class LeastConnectionsChooser implements Chooser<ServiceDetails> {
+    private final ServiceLoadTracker tracker;
+    private final Random random = new Random();
+
+    public LeastConnectionsChooser(ServiceLoadTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public ServiceDetails choose(List<ServiceDetails> services) {
+        int size = services.size();
+        if (size == 0) {
+            return null;
+        } else if (size == 1) {
+            return services.get(0);
+        }
+        int start = random.nextInt(size);
+        ServiceDetails answer = null;
+        int lowest = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            ServiceDetails service = services.get((start + i) % size);
+            int inflight = tracker.getLoad(service).getInflight();
+            if (inflight < lowest) {
+                lowest = inflight;
+                answer = service;
+            }
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.gateway.ServiceDetails;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks two services at random and chooses the least loaded of them, comparing the requests or connections
+ * in flight and then the average latency.
+ * <p>
+ * This avoids both the herding of all gateways onto the same least loaded service and the cost of scanning
+ * every service on each request.
+ */
+public class PowerOfTwoChoicesChooser implements Chooser<ServiceDetails> {
+    private final ServiceLoadTracker tracker;
+    private final Random random = new Random();
+
+    public PowerOfTwoChoicesChooser(ServiceLoadTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public ServiceDetails choose(List<ServiceDetails> services) {
+        int size = services.size();
+        if (size == 0) {
+            return null;
+        } else if (size == 1) {
+            return services.get(0);
+        }
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceDetails a = services.get(first);
+        ServiceDetails b = services.get(second);
+        ServiceLoad loadA = tracker.getLoad(a);
+        ServiceLoad loadB = tracker.getLoad(b);
+        if (loadA.getInflight() != loadB.getInflight()) {
+            return loadA.getInflight() < loadB.getInflight() ? a : b;
+        }
+        double latencyA = loadA.getLatency(guessLatency(loadB));
+        double latencyB = loadB.getLatency(guessLatency(loadA));
+        if (latencyA != latencyB) {
+            return latencyA < latencyB ? a : b;
+        }
+        return random.nextBoolean() ? a : b;
+    }
+
+    /**
+     * Unmeasured services are assumed to be as fast as the other one, unless it has been failing
+     */
+    private static double guessLatency(ServiceLoad other) {
+        return other.getFailures() > 0 ? 0 : other.getLatency();
+    }
+}
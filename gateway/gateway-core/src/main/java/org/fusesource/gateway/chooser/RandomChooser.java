@@ -29,7 +29,7 @@ public class RandomChooser<T> implements Chooser<T> {
         if (size == 1) {
             return things.get(0);
         } else if (size > 1) {
-            int idx = (int) Math.round(Math.random() * size);
+            int idx = (int) (Math.random() * size);
             if (idx >= 0 && idx < size) {
                 return things.get(idx);
             }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The load of a service as seen by the gateway: the number of requests or connections in flight
+ * and an exponentially weighted moving average of its response latency
+ */
+public class ServiceLoad {
+    /**
+     * The weight of a new latency sample in the moving average
+     */
+    public static final double LATENCY_WEIGHT = 0.3;
+
+    /**
+     * The lowest latency in nanoseconds recorded for a failed request or connection, so that
+     * a service which fails fast does not look faster than the others
+     */
+    public static final long FAILURE_PENALTY = 5000000000L;
+
+    private final String key;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong latencyBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong failures = new AtomicLong();
+
+    public ServiceLoad(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceLoad{" +
+                "key='" + key + '\'' +
+                ", inflight=" + inflight +
+                ", latency=" + getLatency() +
+                ", failures=" + failures +
+                '}';
+    }
+
+    public void begin() {
+        inflight.incrementAndGet();
+    }
+
+    public void end() {
+        inflight.decrementAndGet();
+    }
+
+    public void recordLatency(long nanos) {
+        while (true) {
+            long bits = latencyBits.get();
+            double current = Double.longBitsToDouble(bits);
+            double updated = current == 0 ? nanos : current + LATENCY_WEIGHT * (nanos - current);
+            if (latencyBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records a failed request or connection as a slow one
+     */
+    public void recordFailure(long nanos) {
+        failures.incrementAndGet();
+        recordLatency(Math.max(nanos, FAILURE_PENALTY));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * Returns the average latency in nanoseconds, or 0 if none has been measured yet
+     */
+    public double getLatency() {
+        return Double.longBitsToDouble(latencyBits.get());
+    }
+
+    public boolean isMeasured() {
+        return getLatency() > 0;
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the mean latency of the measured services, which is the best guess for the others,
+     * or 0 if none has been measured
+     */
+    public static double getMeanLatency(ServiceLoad[] loads) {
+        double total = 0;
+        int measured = 0;
+        for (ServiceLoad load : loads) {
+            if (load.isMeasured()) {
+                total += load.getLatency();
+                measured++;
+            }
+        }
+        return measured > 0 ? total / measured : 0;
+    }
+
+    /**
+     * Returns the latency of this service, or the given default if it has not been measured yet
+     */
+    public double getLatency(double unmeasured) {
+        return isMeasured() ? getLatency() : unmeasured;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.common.util.Strings;
+import org.fusesource.gateway.ServiceDetails;
+import org.fusesource.gateway.ServiceMapListener;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the {@link ServiceLoad} of the services of a {@link org.fusesource.gateway.ServiceMap},
+ * which the gateway handlers update and the load aware choosers read.
+ * <p>
+ * Services are identified by their first endpoint URL, the one the gateways connect to, since
+ * the {@link ServiceDetails} instances are recreated whenever the registry changes.
+ */
+public class ServiceLoadTracker implements ServiceMapListener {
+    private final ConcurrentMap<String, ServiceLoad> loads = new ConcurrentHashMap<String, ServiceLoad>();
+
+    public ServiceLoad getLoad(ServiceDetails service) {
+        String key = keyOf(service);
+        ServiceLoad load = loads.get(key);
+        if (load == null) {
+            load = new ServiceLoad(key);
+            ServiceLoad existing = loads.putIfAbsent(key, load);
+            if (existing != null) {
+                load = existing;
+            }
+        }
+        return load;
+    }
+
+    public int size() {
+        return loads.size();
+    }
+
+    @Override
+    public void serviceUpdated(String path, ServiceDetails service) {
+    }
+
+    @Override
+    public void serviceRemoved(String path, ServiceDetails service) {
+        String key = keyOf(service);
+        ServiceLoad load = loads.get(key);
+        if (load != null && load.getInflight() <= 0) {
+            loads.remove(key, load);
+        }
+    }
+
+    public static String keyOf(ServiceDetails service) {
+        List<String> urls = service.getServices();
+        if (urls != null) {
+            for (String url : urls) {
+                if (Strings.notEmpty(url)) {
+                    return url;
+                }
+            }
+        }
+        return service.getId();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.common.util.Strings;
+import org.fusesource.gateway.ServiceDetails;
+import org.vertx.java.core.http.HttpServerRequest;
+
+import java.util.List;
+
+/**
+ * An {@link HttpChooser} which sends all the requests of a session to the same service, the session being
+ * identified by the value of a header or of a cookie, typically the one holding the session id of the services.
+ * <p>
+ * The session is mapped to a service by rendezvous hashing, so no state is kept in the gateway and only the
+ * sessions of a service which goes away move to another one. Requests without a session are
+ * given to the delegate chooser.
+ */
+public class StickyHttpChooser implements HttpChooser {
+    private final HttpChooser delegate;
+    private final String cookieName;
+    private final String headerName;
+
+    public StickyHttpChooser(HttpChooser delegate, String cookieName, String headerName) {
+        this.delegate = delegate;
+        this.cookieName = cookieName;
+        this.headerName = headerName;
+    }
+
+    @Override
+    public ServiceDetails chooseService(HttpServerRequest request, List<ServiceDetails> services) {
+        String session = getSession(request);
+        if (session == null || services.size() <= 1) {
+            return delegate.chooseService(request, services);
+        }
+        ServiceDetails answer = null;
+        long highest = Long.MIN_VALUE;
+        int sessionHash = session.hashCode();
+        for (ServiceDetails service : services) {
+            long weight = mix(sessionHash * 31L + ServiceLoadTracker.keyOf(service).hashCode());
+            if (answer == null || weight > highest) {
+                highest = weight;
+                answer = service;
+            }
+        }
+        return answer;
+    }
+
+    protected String getSession(HttpServerRequest request) {
+        if (headerName != null) {
+            String value = request.headers().get(headerName);
+            if (Strings.notEmpty(value)) {
+                return value;
+            }
+        }
+        if (cookieName != null) {
+            return getCookie(request.headers().getAll("Cookie"), cookieName);
+        }
+        return null;
+    }
+
+    static String getCookie(List<String> headers, String name) {
+        for (String header : headers) {
+            for (String cookie : header.split(";")) {
+                int idx = cookie.indexOf('=');
+                if (idx > 0 && cookie.substring(0, idx).trim().equals(name)) {
+                    String value = cookie.substring(idx + 1).trim();
+                    if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    return value.length() > 0 ? value : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The 64 bit finalizer of MurmurHash3, so that close keys get unrelated weights
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
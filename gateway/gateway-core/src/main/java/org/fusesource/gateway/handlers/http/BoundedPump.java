@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.http;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.streams.WriteStream;
+
+/**
+ * Pumps a {@link ReadStream} into a {@link WriteStream} like vert.x's {@link org.vertx.java.core.streams.Pump}
+ * but never lets more than a given number of bytes pile up in memory.
+ * <p>
+ * The read stream is paused when the write queue is full, and also once the given number of bytes have been
+ * written since the write stream last drained: an {@link org.vertx.java.core.http.HttpClientRequest} buffers
+ * everything written before its connection is established and reports a non full queue meanwhile, so the
+ * drain is polled until it is connected.
+ */
+public class BoundedPump {
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    private static final long DRAIN_RETRY_DELAY = 10;
+
+    private final Vertx vertx;
+    private final ReadStream<?> readStream;
+    private final WriteStream<?> writeStream;
+    private final int maxBufferedBytes;
+    private long buffered;
+    private long pumped;
+    private boolean paused;
+    private long retryTimer = -1;
+
+    private final Handler<Buffer> dataHandler = new Handler<Buffer>() {
+        public void handle(Buffer data) {
+            writeStream.write(data);
+            pumped += data.length();
+            buffered += data.length();
+            if (buffered >= maxBufferedBytes || writeStream.writeQueueFull()) {
+                pause();
+            }
+        }
+    };
+
+    private final Handler<Void> drainHandler = new Handler<Void>() {
+        public void handle(Void event) {
+            buffered = 0;
+            if (paused) {
+                paused = false;
+                cancelRetry();
+                readStream.resume();
+            }
+        }
+    };
+
+    private final Handler<Buffer> discardHandler = new Handler<Buffer>() {
+        public void handle(Buffer data) {
+        }
+    };
+
+    private final Handler<Long> retryHandler = new Handler<Long>() {
+        public void handle(Long timerId) {
+            retryTimer = -1;
+            if (paused) {
+                awaitDrain();
+            }
+        }
+    };
+
+    public BoundedPump(Vertx vertx, ReadStream<?> readStream, WriteStream<?> writeStream, int maxBufferedBytes) {
+        this.vertx = vertx;
+        this.readStream = readStream;
+        this.writeStream = writeStream;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public BoundedPump start() {
+        writeStream.setWriteQueueMaxSize(maxBufferedBytes);
+        readStream.dataHandler(dataHandler);
+        return this;
+    }
+
+    /**
+     * Stops pumping, typically when either side of the exchange failed or was closed.
+     * <p>
+     * The rest of the read stream is discarded rather than left paused: a paused upstream response
+     * would never end, so its keep-alive connection would never go back to the client pool.
+     */
+    public BoundedPump stop() {
+        cancelRetry();
+        readStream.dataHandler(discardHandler);
+        writeStream.drainHandler(null);
+        if (paused) {
+            paused = false;
+            readStream.resume();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the total number of bytes pumped
+     */
+    public long getBytesPumped() {
+        return pumped;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    protected void pause() {
+        paused = true;
+        readStream.pause();
+        awaitDrain();
+    }
+
+    /**
+     * Registers the drain handler, which is called straight away if the write stream can already take more data
+     */
+    protected void awaitDrain() {
+        writeStream.drainHandler(drainHandler);
+        if (paused && !writeStream.writeQueueFull() && retryTimer == -1) {
+            // not connected yet so no drain event is coming
+            retryTimer = vertx.setTimer(DRAIN_RETRY_DELAY, retryHandler);
+        }
+    }
+
+    protected void cancelRetry() {
+        if (retryTimer != -1) {
+            vertx.cancelTimer(retryTimer);
+            retryTimer = -1;
+        }
+    }
+}
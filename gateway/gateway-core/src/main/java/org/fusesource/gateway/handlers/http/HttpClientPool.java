@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.http;
+
+import org.fusesource.gateway.ServiceDetails;
+import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.ServiceMapListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps one keep-alive {@link HttpClient}, and so its pool of connections, per upstream
+ * host and port so that proxied requests reuse the connections of the previous ones.
+ * <p>
+ * Clients unused for longer than the idle timeout are closed, as are those of the
+ * upstream servers no longer referenced by any service of the {@link ServiceMap}.
+ */
+public class HttpClientPool implements ServiceMapListener {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpClientPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    private final Vertx vertx;
+    private final ServiceMap serviceMap;
+    private final ConcurrentHashMap<String, Upstream> upstreams = new ConcurrentHashMap<String, Upstream>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private boolean keepAlive = true;
+    private int connectTimeout;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long timerId = -1;
+
+    public HttpClientPool(Vertx vertx, ServiceMap serviceMap) {
+        this.vertx = vertx;
+        this.serviceMap = serviceMap;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientPool{" +
+                "upstreams=" + upstreams.keySet() +
+                ", maxConnections=" + maxConnections +
+                ", keepAlive=" + keepAlive +
+                ", idleTimeout=" + idleTimeout +
+                '}';
+    }
+
+    /**
+     * Returns the upstream of the given URL, its {@link Upstream#release()} method must be
+     * called once the proxied exchange is over
+     */
+    public Upstream acquire(URL url) {
+        String key = key(url.getHost(), url.getPort());
+        Upstream answer;
+        while (true) {
+            answer = upstreams.get(key);
+            if (answer == null) {
+                answer = new Upstream(key, createClient(url));
+                Upstream existing = upstreams.putIfAbsent(key, answer);
+                if (existing != null) {
+                    answer.client.close();
+                    answer = existing;
+                }
+            }
+            if (answer.begin()) {
+                break;
+            }
+            // the upstream has just been closed
+            upstreams.remove(key, answer);
+        }
+        if (idleTimeout > 0 && evicting.compareAndSet(false, true)) {
+            // started from the first request so the timer runs on the same context as the clients
+            timerId = vertx.setPeriodic(Math.max(1000L, idleTimeout / 2), new Handler<Long>() {
+                @Override
+                public void handle(Long event) {
+                    evictIdle(System.currentTimeMillis());
+                }
+            });
+        }
+        return answer;
+    }
+
+    /**
+     * Closes all the clients
+     */
+    public void close() {
+        if (timerId != -1) {
+            vertx.cancelTimer(timerId);
+        }
+        for (Upstream upstream : upstreams.values()) {
+            upstreams.remove(upstream.key, upstream);
+            upstream.retire();
+        }
+    }
+
+    public int size() {
+        return upstreams.size();
+    }
+
+    protected HttpClient createClient(URL url) {
+        LOG.debug("Creating a client for " + url.getHost() + ":" + url.getPort());
+        HttpClient client = vertx.createHttpClient();
+        client.setHost(url.getHost());
+        client.setPort(url.getPort());
+        client.setKeepAlive(keepAlive);
+        client.setMaxPoolSize(maxConnections);
+        if (connectTimeout > 0) {
+            client.setConnectTimeout(connectTimeout);
+        }
+        return client;
+    }
+
+    protected void evictIdle(long now) {
+        for (Iterator<Upstream> iter = upstreams.values().iterator(); iter.hasNext(); ) {
+            Upstream upstream = iter.next();
+            if (upstream.isIdle(now - idleTimeout)) {
+                LOG.debug("Closing the idle client of " + upstream.key);
+                iter.remove();
+                upstream.retire();
+            }
+        }
+    }
+
+    // ServiceMapListener
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void serviceUpdated(String path, ServiceDetails service) {
+    }
+
+    @Override
+    public void serviceRemoved(String path, ServiceDetails service) {
+        for (String urlText : service.getServices()) {
+            try {
+                URL url = new URL(urlText);
+                String key = key(url.getHost(), url.getPort());
+                Upstream upstream = upstreams.get(key);
+                if (upstream != null && !isReferenced(key)) {
+                    LOG.debug("Closing the client of the removed upstream " + key);
+                    upstreams.remove(key, upstream);
+                    upstream.retire();
+                }
+            } catch (MalformedURLException e) {
+                // never used by the gateway either
+            }
+        }
+    }
+
+    protected boolean isReferenced(String key) {
+        for (String path : serviceMap.getPaths()) {
+            for (ServiceDetails details : serviceMap.getServices(path)) {
+                List<String> urls = details.getServices();
+                for (String urlText : urls) {
+                    try {
+                        URL url = new URL(urlText);
+                        if (key.equals(key(url.getHost(), url.getPort()))) {
+                            return true;
+                        }
+                    } catch (MalformedURLException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    protected static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections opened to each upstream server
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connection timeout in milliseconds, the vert.x default is used if not positive
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets how long in milliseconds a client is kept without any request, or 0 to keep them forever
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * The client of an upstream server along with the number of exchanges using it
+     */
+    public static class Upstream {
+        private final String key;
+        private final HttpClient client;
+        // the number of active exchanges, or -1 once closed
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean retired;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Upstream(String key, HttpClient client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        @Override
+        public String toString() {
+            return "Upstream(" + key + ")";
+        }
+
+        public HttpClient getClient() {
+            return client;
+        }
+
+        boolean begin() {
+            while (true) {
+                int current = active.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (active.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Gives back the client once the exchange is over
+         */
+        public void release() {
+            lastUsed = System.currentTimeMillis();
+            if (active.decrementAndGet() == 0 && retired) {
+                closeIfInactive();
+            }
+        }
+
+        boolean isIdle(long since) {
+            return active.get() == 0 && lastUsed < since;
+        }
+
+        /**
+         * Closes the client right away if it is not used, or after the last exchange otherwise
+         */
+        void retire() {
+            retired = true;
+            closeIfInactive();
+        }
+
+        private void closeIfInactive() {
+            if (active.compareAndSet(0, -1)) {
+                client.close();
+            }
+        }
+    }
+}
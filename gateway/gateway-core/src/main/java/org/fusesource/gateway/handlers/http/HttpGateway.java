@@ -17,6 +17,8 @@
 package org.fusesource.gateway.handlers.http;
 
 import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.chooser.HttpChooser;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
 import org.fusesource.gateway.handlers.Gateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,10 @@ public class HttpGateway implements Gateway {
     private String host;
     private HttpServer server;
     private HttpGatewayHandler handler;
+    private HttpClientPool clientPool;
+    private HttpChooser chooser;
+    private ServiceLoadTracker loadTracker;
+    private int maxBufferedBytes = BoundedPump.DEFAULT_MAX_BUFFERED_BYTES;
 
     public HttpGateway(Vertx vertx, ServiceMap serviceMap, int port) {
         this.vertx = vertx;
@@ -54,8 +60,14 @@ public class HttpGateway implements Gateway {
     @Override
     public void init() {
         if (handler == null) {
-            handler = new HttpGatewayHandler(vertx, serviceMap);
+            handler = new HttpGatewayHandler(vertx, serviceMap, getClientPool());
+            handler.setMaxBufferedBytes(maxBufferedBytes);
+            handler.setLoadTracker(loadTracker);
+            if (chooser != null) {
+                handler.setChooser(chooser);
+            }
         }
+        serviceMap.addListener(getClientPool());
         server = vertx.createHttpServer().requestHandler(handler);
         if (host != null) {
             LOG.info("Listening on port " + port + " and host " + host);
@@ -69,6 +81,20 @@ public class HttpGateway implements Gateway {
     @Override
     public void destroy() {
         server.close();
+        if (clientPool != null) {
+            serviceMap.removeListener(clientPool);
+            clientPool.close();
+        }
+    }
+
+    /**
+     * Returns the pool of clients to the upstream servers, which may be configured before {@link #init()}
+     */
+    public HttpClientPool getClientPool() {
+        if (clientPool == null) {
+            clientPool = new HttpClientPool(vertx, serviceMap);
+        }
+        return clientPool;
     }
 
     public int getPort() {
@@ -83,6 +109,30 @@ public class HttpGateway implements Gateway {
         this.host = host;
     }
 
+    public HttpChooser getChooser() {
+        return chooser;
+    }
+
+    public void setChooser(HttpChooser chooser) {
+        this.chooser = chooser;
+    }
+
+    public ServiceLoadTracker getLoadTracker() {
+        return loadTracker;
+    }
+
+    public void setLoadTracker(ServiceLoadTracker loadTracker) {
+        this.loadTracker = loadTracker;
+    }
+
+    public int getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public void setMaxBufferedBytes(int maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
     public Vertx getVertx() {
         return vertx;
     }
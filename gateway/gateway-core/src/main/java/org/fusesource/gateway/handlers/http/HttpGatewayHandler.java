@@ -19,15 +19,16 @@ package org.fusesource.gateway.handlers.http;
 import org.fusesource.common.util.Strings;
 import org.fusesource.gateway.ServiceDetails;
 import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.ServiceRoute;
 import org.fusesource.gateway.chooser.DefaultHttpChooser;
 import org.fusesource.gateway.chooser.HttpChooser;
+import org.fusesource.gateway.chooser.ServiceLoad;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.VoidHandler;
-import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServerRequest;
@@ -37,6 +38,7 @@ import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  */
@@ -45,11 +47,19 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
 
     private final Vertx vertx;
     private final ServiceMap serviceMap;
+    private final HttpClientPool clientPool;
     private HttpChooser chooser = new DefaultHttpChooser();
+    private ServiceLoadTracker loadTracker;
+    private int maxBufferedBytes = BoundedPump.DEFAULT_MAX_BUFFERED_BYTES;
 
     public HttpGatewayHandler(Vertx vertx, ServiceMap serviceMap) {
+        this(vertx, serviceMap, new HttpClientPool(vertx, serviceMap));
+    }
+
+    public HttpGatewayHandler(Vertx vertx, ServiceMap serviceMap, HttpClientPool clientPool) {
         this.vertx = vertx;
         this.serviceMap = serviceMap;
+        this.clientPool = clientPool;
     }
 
     @Override
@@ -61,52 +71,58 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
 
         // lets map the request URI to map to the service URI and then the renaming URI
         // using mapping rules...
-        HttpClient client = null;
+        HttpClientPool.Upstream upstream = null;
+        ServiceDetails serviceDetails = null;
 
         String remaining = null;
         String prefix = null;
 
         try {
-            List<String> paths = serviceMap.getPaths();
-            for (String path : paths) {
-                // lets remove the container name
-                int idx = path.lastIndexOf('/');
-                String pathPrefix = path;
-                if (idx > 0) {
-                    pathPrefix = pathPrefix.substring(0, idx + 1);
+            ServiceRoute route = serviceMap.route(uri);
+            if (route != null) {
+                int pathPrefixLength = route.getPrefix().length();
+                if (pathPrefixLength < uri.length()) {
+                    remaining = uri.substring(pathPrefixLength);
                 }
-                if (uri.startsWith(pathPrefix) || (uri + "/").startsWith(pathPrefix)) {
-                    int pathPrefixLength = pathPrefix.length();
-                    if (pathPrefixLength < uri.length()) {
-                        remaining = uri.substring(pathPrefixLength);
-                    }
 
-                    // now lets pick a service for this path
-                    List<ServiceDetails> services = serviceMap.getServices(path);
-                    if (!services.isEmpty()) {
-                        ServiceDetails serviceDetails = chooser.chooseService(request, services);
-                        if (serviceDetails != null) {
-                            List<String> urlStrings = serviceDetails.getServices();
-                            if (urlStrings.size() > 0) {
-                                String urlText = urlStrings.get(0);
-                                if (Strings.notEmpty(urlText)) {
-                                    // lets create a client for this request...
-                                    try {
-                                        URL url = new URL(urlText);
-                                        client = createClient(url);
-                                        prefix = url.getPath();
-                                        break;
-                                    } catch (MalformedURLException e) {
-                                        LOG.warn("Failed to parse URL: " + urlText + ". " + e, e);
-                                    }
-                                }
+                // now lets pick a service for this path
+                serviceDetails = chooser.chooseService(request, route.getServices());
+                if (serviceDetails != null) {
+                    List<String> urlStrings = serviceDetails.getServices();
+                    if (urlStrings.size() > 0) {
+                        String urlText = urlStrings.get(0);
+                        if (Strings.notEmpty(urlText)) {
+                            // lets create a client for this request...
+                            try {
+                                URL url = new URL(urlText);
+                                upstream = acquireClient(url);
+                                prefix = url.getPath();
+                            } catch (MalformedURLException e) {
+                                LOG.warn("Failed to parse URL: " + urlText + ". " + e, e);
                             }
                         }
                     }
                 }
             }
 
-            if (client != null) {
+            if (upstream != null) {
+                final HttpClientPool.Upstream exchangeUpstream = upstream;
+                final ServiceLoad load = loadTracker != null ? loadTracker.getLoad(serviceDetails) : null;
+                final long start = System.nanoTime();
+                if (load != null) {
+                    load.begin();
+                }
+                final AtomicBoolean released = new AtomicBoolean(false);
+                final Runnable release = new Runnable() {
+                    public void run() {
+                        if (released.compareAndSet(false, true)) {
+                            exchangeUpstream.release();
+                            if (load != null) {
+                                load.end();
+                            }
+                        }
+                    }
+                };
                 String actualUrl = prefix != null ? prefix : "";
                 if (remaining != null) {
                     if (actualUrl.length() > 0 && !actualUrl.endsWith("/")) {
@@ -114,24 +130,23 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                     }
                     actualUrl += remaining;
                 }
-                final HttpClientRequest clientRequest = client.request(request.method(), actualUrl, new Handler<HttpClientResponse>() {
+                // the response pump is only known once the upstream answered
+                final BoundedPump[] responsePump = new BoundedPump[1];
+                final HttpClientRequest clientRequest = upstream.getClient().request(request.method(), actualUrl, new Handler<HttpClientResponse>() {
                     public void handle(HttpClientResponse clientResponse) {
                         if (LOG.isDebugEnabled()) {
                             LOG.debug("Proxying response: " + clientResponse.statusCode());
                         }
+                        if (load != null) {
+                            load.recordLatency(System.nanoTime() - start);
+                        }
                         request.response().setStatusCode(clientResponse.statusCode());
                         request.response().headers().set(clientResponse.headers());
                         request.response().setChunked(true);
-                        clientResponse.dataHandler(new Handler<Buffer>() {
-                            public void handle(Buffer data) {
-                                if (LOG.isDebugEnabled()) {
-                                    LOG.debug("Proxying response body:" + data);
-                                }
-                                request.response().write(data);
-                            }
-                        });
+                        responsePump[0] = new BoundedPump(vertx, clientResponse, request.response(), maxBufferedBytes).start();
                         clientResponse.endHandler(new VoidHandler() {
                             public void handle() {
+                                release.run();
                                 request.response().end();
                             }
                         });
@@ -139,12 +154,27 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                 });
                 clientRequest.headers().set(request.headers());
                 clientRequest.setChunked(true);
-                request.dataHandler(new Handler<Buffer>() {
-                    public void handle(Buffer data) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Proxying request body:" + data);
+                final BoundedPump requestPump = new BoundedPump(vertx, request, clientRequest, maxBufferedBytes).start();
+                clientRequest.exceptionHandler(new Handler<Throwable>() {
+                    public void handle(Throwable e) {
+                        LOG.warn("Failed to proxy request to " + exchangeUpstream + ". " + e, e);
+                        if (load != null && responsePump[0] == null) {
+                            load.recordFailure(System.nanoTime() - start);
+                        }
+                        requestPump.stop();
+                        release.run();
+                        request.response().setStatusCode(502);
+                        request.response().close();
+                    }
+                });
+                request.response().closeHandler(new VoidHandler() {
+                    public void handle() {
+                        // the client went away so stop reading from the upstream
+                        requestPump.stop();
+                        if (responsePump[0] != null) {
+                            responsePump[0].stop();
                         }
-                        clientRequest.write(data);
+                        release.run();
                     }
                 });
                 request.endHandler(new VoidHandler() {
@@ -158,7 +188,7 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
 
             } else {
                 //  lets return a 404
-                LOG.info("Could not find matching proxy path for " + uri + " from paths: " + paths);
+                LOG.info("Could not find matching proxy path for " + uri + " from paths: " + serviceMap.getPaths());
                 request.response().setStatusCode(404);
                 request.response().close();
             }
@@ -172,13 +202,42 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
         }
     }
 
-    protected HttpClient createClient(URL url) throws MalformedURLException {
-        // lets create a client
-        HttpClient client = vertx.createHttpClient();
-        client.setHost(url.getHost());
-        client.setPort(url.getPort());
-        return client;
+    public HttpChooser getChooser() {
+        return chooser;
+    }
+
+    public void setChooser(HttpChooser chooser) {
+        this.chooser = chooser;
+    }
+
+    public ServiceLoadTracker getLoadTracker() {
+        return loadTracker;
+    }
+
+    /**
+     * Sets the tracker of the requests in flight and latencies of the services used by load aware choosers
+     */
+    public void setLoadTracker(ServiceLoadTracker loadTracker) {
+        this.loadTracker = loadTracker;
+    }
+
+    public int getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of a request or response body buffered in memory
+     * before reading from the other side is paused
+     */
+    public void setMaxBufferedBytes(int maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
 
+    /**
+     * Returns the pooled client of the upstream server of the given URL
+     */
+    protected HttpClientPool.Upstream acquireClient(URL url) throws MalformedURLException {
+        return clientPool.acquire(url);
     }
 
 }
@@ -17,19 +17,31 @@
 package org.fusesource.gateway.handlers.tcp;
 
 import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.chooser.NetChooser;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
 import org.fusesource.gateway.handlers.Gateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.net.NetClient;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  */
 public class TcpGateway implements Gateway {
     private static final transient Logger LOG = LoggerFactory.getLogger(TcpGateway.class);
 
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
     private final Vertx vertx;
     private final ServiceMap serviceMap;
     private final int port;
@@ -37,6 +49,16 @@ public class TcpGateway implements Gateway {
     private String host;
     private NetServer server;
     private Handler<NetSocket> handler;
+    private NetChooser serviceChooser;
+    private ServiceLoadTracker loadTracker;
+    private NetClient client;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private boolean tcpNoDelay = true;
+    private boolean tcpKeepAlive = true;
+    private int sendBufferSize = -1;
+    private int receiveBufferSize = -1;
+    private boolean usePooledBuffers = true;
+    private final ConcurrentMap<String, TcpRouteStatistics> routeStatistics = new ConcurrentHashMap<String, TcpRouteStatistics>();
 
     public TcpGateway(Vertx vertx, ServiceMap serviceMap, int port, String protocol) {
         this.vertx = vertx;
@@ -73,6 +95,68 @@ public class TcpGateway implements Gateway {
     @Override
     public void destroy() {
         server.close();
+        synchronized (this) {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the client connecting to the services, shared by all the connections of this gateway
+     */
+    public synchronized NetClient getClient() {
+        if (client == null) {
+            client = vertx.createNetClient();
+            client.setConnectTimeout(connectTimeout);
+            client.setTCPNoDelay(tcpNoDelay);
+            client.setTCPKeepAlive(tcpKeepAlive);
+            client.setUsePooledBuffers(usePooledBuffers);
+            if (sendBufferSize > 0) {
+                client.setSendBufferSize(sendBufferSize);
+            }
+            if (receiveBufferSize > 0) {
+                client.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns the statistics of the given host:port route, creating them if need be
+     */
+    public TcpRouteStatistics getRouteStatistics(String route) {
+        TcpRouteStatistics answer = routeStatistics.get(route);
+        if (answer == null) {
+            answer = new TcpRouteStatistics(route);
+            TcpRouteStatistics existing = routeStatistics.putIfAbsent(route, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Drops the statistics of the routes which no longer belong to any service,
+     * keeping those which still have connections open
+     */
+    public void retainRouteStatistics(Set<String> routes) {
+        Iterator<TcpRouteStatistics> iter = routeStatistics.values().iterator();
+        while (iter.hasNext()) {
+            TcpRouteStatistics statistics = iter.next();
+            if (!routes.contains(statistics.getRoute()) && statistics.getActiveConnections() == 0) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of all the routes this gateway has forwarded connections to
+     */
+    public Collection<TcpRouteStatistics> getRouteStatistics() {
+        return Collections.unmodifiableCollection(routeStatistics.values());
     }
 
     @Override
@@ -104,4 +188,71 @@ public class TcpGateway implements Gateway {
     public String getProtocol() {
         return protocol;
     }
+
+    public NetChooser getServiceChooser() {
+        return serviceChooser;
+    }
+
+    public void setServiceChooser(NetChooser serviceChooser) {
+        this.serviceChooser = serviceChooser;
+    }
+
+    public ServiceLoadTracker getLoadTracker() {
+        return loadTracker;
+    }
+
+    public void setLoadTracker(ServiceLoadTracker loadTracker) {
+        this.loadTracker = loadTracker;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public boolean isUsePooledBuffers() {
+        return usePooledBuffers;
+    }
+
+    /**
+     * Whether to read into netty's pooled direct buffers, which saves copying the data through the heap
+     */
+    public void setUsePooledBuffers(boolean usePooledBuffers) {
+        this.usePooledBuffers = usePooledBuffers;
+    }
 }
@@ -24,92 +24,293 @@ import org.fusesource.gateway.chooser.Chooser;
 import org.fusesource.gateway.chooser.DefaultNetChooser;
 import org.fusesource.gateway.chooser.NetChooser;
 import org.fusesource.gateway.chooser.RandomChooser;
+import org.fusesource.gateway.chooser.ServiceLoad;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VoidHandler;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.net.NetClient;
 import org.vertx.java.core.net.NetSocket;
-import org.vertx.java.core.streams.Pump;
 
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  */
 public class TcpGatewayHandler implements Handler<NetSocket> {
     private static final transient Logger LOG = LoggerFactory.getLogger(TcpGatewayHandler.class);
 
-    private final Vertx vertx;
+    private final TcpGateway gateway;
     private final ServiceMap serviceMap;
     private final String protocol;
     private Chooser<String> pathChooser = new RandomChooser<String>();
     private NetChooser serviceChooser = new DefaultNetChooser();
+    private final ServiceLoadTracker loadTracker;
+    private volatile Endpoints endpoints;
 
     public TcpGatewayHandler(TcpGateway gateway) {
-        this.vertx = gateway.getVertx();
+        this.gateway = gateway;
         this.serviceMap = gateway.getServiceMap();
         this.protocol = gateway.getProtocol();
+        this.loadTracker = gateway.getLoadTracker();
+        if (gateway.getServiceChooser() != null) {
+            this.serviceChooser = gateway.getServiceChooser();
+        }
     }
 
     @Override
     public void handle(final NetSocket socket) {
-        NetClient client = null;
         List<String> paths = serviceMap.getPaths();
         String path = pathChooser.choose(paths);
+        List<Endpoint> endpoints = null;
         if (path != null) {
             List<ServiceDetails> services = serviceMap.getServices(path);
             if (!services.isEmpty()) {
                 ServiceDetails serviceDetails = serviceChooser.chooseService(socket, services);
                 if (serviceDetails != null) {
-                    List<String> urlStrings = serviceDetails.getServices();
-                    for (String urlString : urlStrings) {
-                        if (Strings.notEmpty(urlString)) {
-                            // lets create a client for this request...
-                            try {
-                                URI uri = new URI(urlString);
-                                //URL url = new URL(urlString);
-                                String urlProtocol = uri.getScheme();
-                                if (Objects.equal(protocol, urlProtocol)) {
-                                    Handler<AsyncResult<NetSocket>> handler = new Handler<AsyncResult<NetSocket>>() {
-                                        public void handle(final AsyncResult<NetSocket> asyncSocket) {
-                                            NetSocket clientSocket = asyncSocket.result();
-                                            Pump.createPump(clientSocket, socket).start();
-                                            Pump.createPump(socket, clientSocket).start();
-                                        }
-                                    };
-                                    client = createClient(socket, uri, handler);
-                                    break;
-                                }
-                            } catch (MalformedURLException e) {
-                                LOG.warn("Failed to parse URL: " + urlString + ". " + e, e);
-                            } catch (URISyntaxException e) {
-                                LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
-                            }
-                        }
-                    }
+                    endpoints = getEndpoints(serviceDetails, paths);
                 }
             }
         }
-        if (client == null) {
+        if (endpoints == null || endpoints.isEmpty()) {
             // fail to route
             LOG.info("No service available for protocol " + protocol + " for paths " + paths);
             socket.close();
+        } else {
+            // don't lose any data sent by the client while connecting
+            socket.pause();
+            final AtomicBoolean closed = new AtomicBoolean(false);
+            socket.closeHandler(new VoidHandler() {
+                public void handle() {
+                    closed.set(true);
+                }
+            });
+            connect(socket, closed, endpoints, 0);
+        }
+    }
+
+    /**
+     * Returns the endpoints to try in order: those of the chosen service first,
+     * then those of the services of all the paths to fail over to
+     */
+    protected List<Endpoint> getEndpoints(ServiceDetails chosen, List<String> paths) {
+        Endpoints current = endpoints;
+        if (current == null || current.paths != paths) {
+            // the service map changed so parse the endpoints again and forget the routes which went away
+            current = new Endpoints(paths);
+            endpoints = current;
+            gateway.retainRouteStatistics(current.routes);
+        }
+        return current.getEndpoints(chosen);
+    }
+
+    protected void addEndpoints(List<Endpoint> endpoints, ServiceDetails service) {
+        for (String urlString : service.getServices()) {
+            if (Strings.notEmpty(urlString)) {
+                try {
+                    URI uri = new URI(urlString);
+                    if (Objects.equal(protocol, uri.getScheme())) {
+                        endpoints.add(new Endpoint(service, uri));
+                    }
+                } catch (URISyntaxException e) {
+                    LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
+                }
+            }
         }
     }
 
     /**
-     * Creates a new client for the given URL and handler
+     * Connects the socket to the endpoint at the given index, moving on to the next one if the connection fails
      */
-    protected NetClient createClient(NetSocket socket, URI url, Handler<AsyncResult<NetSocket>> handler) throws MalformedURLException {
-        NetClient client = vertx.createNetClient();
-        int port = url.getPort();
-        String host = url.getHost();
-        LOG.info("Connecting " + socket.remoteAddress() + " to host " + host + " port " + port);
-        return client.connect(port, host, handler);
+    protected void connect(final NetSocket socket, final AtomicBoolean closed, final List<Endpoint> endpoints, final int index) {
+        final Endpoint endpoint = endpoints.get(index);
+        final TcpRouteStatistics statistics = gateway.getRouteStatistics(endpoint.getRoute());
+        final ServiceLoad load = loadTracker != null ? loadTracker.getLoad(endpoint.getService()) : null;
+        final long start = System.nanoTime();
+        if (load != null) {
+            load.begin();
+        }
+        statistics.connections.incrementAndGet();
+        statistics.activeConnections.incrementAndGet();
+        final AtomicBoolean ended = new AtomicBoolean(false);
+        final Runnable end = new Runnable() {
+            public void run() {
+                if (ended.compareAndSet(false, true)) {
+                    statistics.activeConnections.decrementAndGet();
+                    if (load != null) {
+                        load.end();
+                    }
+                }
+            }
+        };
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Connecting " + socket.remoteAddress() + " to " + endpoint);
+        }
+        getClient().connect(endpoint.getUri().getPort(), endpoint.getUri().getHost(), new Handler<AsyncResult<NetSocket>>() {
+            public void handle(AsyncResult<NetSocket> asyncSocket) {
+                if (asyncSocket.failed()) {
+                    if (load != null) {
+                        load.recordFailure(System.nanoTime() - start);
+                    }
+                    end.run();
+                    statistics.failedConnections.incrementAndGet();
+                    if (closed.get()) {
+                        return;
+                    } else if (index + 1 < endpoints.size()) {
+                        LOG.warn("Failed to connect " + socket.remoteAddress() + " to " + endpoint + " so trying " + endpoints.get(index + 1) + ". " + asyncSocket.cause());
+                        connect(socket, closed, endpoints, index + 1);
+                    } else {
+                        LOG.warn("Failed to connect " + socket.remoteAddress() + " to " + endpoint + ". " + asyncSocket.cause());
+                        socket.close();
+                    }
+                    return;
+                }
+                if (load != null) {
+                    load.recordLatency(System.nanoTime() - start);
+                }
+                final NetSocket clientSocket = asyncSocket.result();
+                if (closed.get()) {
+                    // the client went away while connecting
+                    end.run();
+                    clientSocket.close();
+                    return;
+                }
+                socket.closeHandler(new VoidHandler() {
+                    public void handle() {
+                        end.run();
+                        clientSocket.close();
+                    }
+                });
+                clientSocket.closeHandler(new VoidHandler() {
+                    public void handle() {
+                        end.run();
+                        socket.close();
+                    }
+                });
+                pump(clientSocket, socket, statistics.bytesFromService);
+                pump(socket, clientSocket, statistics.bytesToService);
+                socket.resume();
+            }
+        });
+    }
+
+    /**
+     * Returns the client shared by all the connections of the gateway
+     */
+    protected NetClient getClient() {
+        return gateway.getClient();
+    }
+
+    /**
+     * Writes all the data read from one socket to the other, like a {@link org.vertx.java.core.streams.Pump}
+     * but counting the bytes as they go
+     */
+    protected static void pump(final NetSocket from, final NetSocket to, final AtomicLong bytes) {
+        final Handler<Void> drainHandler = new VoidHandler() {
+            public void handle() {
+                from.resume();
+            }
+        };
+        from.dataHandler(new Handler<Buffer>() {
+            public void handle(Buffer data) {
+                bytes.addAndGet(data.length());
+                to.write(data);
+                if (to.writeQueueFull()) {
+                    from.pause();
+                    to.drainHandler(drainHandler);
+                }
+            }
+        });
+    }
+
+    /**
+     * The endpoints of the services of one version of the service map
+     */
+    private class Endpoints {
+        private final List<String> paths;
+        private final Map<ServiceDetails, List<Endpoint>> serviceEndpoints = new LinkedHashMap<ServiceDetails, List<Endpoint>>();
+        private final Set<String> routes = new HashSet<String>();
+        private final ConcurrentMap<ServiceDetails, List<Endpoint>> failOverEndpoints = new ConcurrentHashMap<ServiceDetails, List<Endpoint>>();
+
+        Endpoints(List<String> paths) {
+            this.paths = paths;
+            for (String path : paths) {
+                for (ServiceDetails service : serviceMap.getServices(path)) {
+                    if (!serviceEndpoints.containsKey(service)) {
+                        List<Endpoint> list = new ArrayList<Endpoint>();
+                        addEndpoints(list, service);
+                        serviceEndpoints.put(service, list);
+                        for (Endpoint endpoint : list) {
+                            routes.add(endpoint.getRoute());
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Endpoint> getEndpoints(ServiceDetails chosen) {
+            List<Endpoint> answer = failOverEndpoints.get(chosen);
+            if (answer == null) {
+                answer = new ArrayList<Endpoint>();
+                List<Endpoint> chosenEndpoints = serviceEndpoints.get(chosen);
+                if (chosenEndpoints != null) {
+                    answer.addAll(chosenEndpoints);
+                } else {
+                    addEndpoints(answer, chosen);
+                }
+                for (Map.Entry<ServiceDetails, List<Endpoint>> entry : serviceEndpoints.entrySet()) {
+                    if (entry.getKey() != chosen) {
+                        answer.addAll(entry.getValue());
+                    }
+                }
+                answer = Collections.unmodifiableList(answer);
+                failOverEndpoints.put(chosen, answer);
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * A service endpoint the gateway can connect to
+     */
+    protected static class Endpoint {
+        private final ServiceDetails service;
+        private final URI uri;
+
+        public Endpoint(ServiceDetails service, URI uri) {
+            this.service = service;
+            this.uri = uri;
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+
+        public ServiceDetails getService() {
+            return service;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public String getRoute() {
+            return uri.getHost() + ":" + uri.getPort();
+        }
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.tcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connection and byte counters of the traffic a {@link TcpGateway} forwards to one service endpoint
+ */
+public class TcpRouteStatistics {
+    private final String route;
+    final AtomicLong connections = new AtomicLong();
+    final AtomicLong activeConnections = new AtomicLong();
+    final AtomicLong failedConnections = new AtomicLong();
+    final AtomicLong bytesToService = new AtomicLong();
+    final AtomicLong bytesFromService = new AtomicLong();
+
+    public TcpRouteStatistics(String route) {
+        this.route = route;
+    }
+
+    @Override
+    public String toString() {
+        return "TcpRouteStatistics{" +
+                "route='" + route + '\'' +
+                ", connections=" + connections +
+                ", activeConnections=" + activeConnections +
+                ", failedConnections=" + failedConnections +
+                ", bytesToService=" + bytesToService +
+                ", bytesFromService=" + bytesFromService +
+                '}';
+    }
+
+    /**
+     * Returns the host:port of the service endpoint
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getFailedConnections() {
+        return failedConnections.get();
+    }
+
+    public long getBytesToService() {
+        return bytesToService.get();
+    }
+
+    public long getBytesFromService() {
+        return bytesFromService.get();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ */
+public class ServiceMapTest {
+
+    @Test
+    public void testLongestPrefixMatch() throws Exception {
+        Map<String, String> prefixes = new HashMap<String, String>();
+        prefixes.put("/", "root");
+        prefixes.put("/foo/", "foo");
+        prefixes.put("/foo/bar/", "bar");
+        prefixes.put("/foobar/", "foobar");
+        PathTrie<String> trie = PathTrie.build(prefixes);
+
+        assertEquals("root", trie.match("/"));
+        assertEquals("root", trie.match("/other"));
+        assertEquals("root", trie.match("/fo"));
+        assertEquals("foo", trie.match("/foo"));
+        assertEquals("foo", trie.match("/foo/"));
+        assertEquals("foo", trie.match("/foo/b"));
+        assertEquals("foo", trie.match("/foo/barb/x"));
+        assertEquals("bar", trie.match("/foo/bar"));
+        assertEquals("bar", trie.match("/foo/bar/x"));
+        assertEquals("foobar", trie.match("/foobar/x"));
+        assertEquals("root", trie.match("/foob"));
+        assertNull(trie.match("foo"));
+        assertNull(PathTrie.<String>empty().match("/foo"));
+    }
+
+    @Test
+    public void testRoutes() throws Exception {
+        ServiceMap serviceMap = new ServiceMap();
+        assertNull(serviceMap.route("/rest/foo/1.0/bar"));
+
+        ServiceDetails first = service("first", "http://localhost:8181/cxf/foo");
+        ServiceDetails second = service("second", "http://localhost:8182/cxf/foo");
+        serviceMap.serviceUpdated("/rest/foo/1.0/container1", first);
+        serviceMap.serviceUpdated("/rest/foo/1.0/container2", second);
+        serviceMap.serviceUpdated("/rest/foo/1.1/container1", service("third", "http://localhost:8181/cxf/foo2"));
+
+        ServiceRoute route = serviceMap.route("/rest/foo/1.0/customers/123");
+        assertEquals("/rest/foo/1.0/", route.getPrefix());
+        assertEquals(2, route.getServices().size());
+        assertEquals("/rest/foo/1.1/", serviceMap.route("/rest/foo/1.1").getPrefix());
+        assertNull(serviceMap.route("/rest/foo/1.2/customers"));
+
+        serviceMap.serviceRemoved("/rest/foo/1.0/container1", first);
+        assertEquals(Arrays.asList(second), serviceMap.route("/rest/foo/1.0/customers/123").getServices());
+        serviceMap.serviceRemoved("/rest/foo/1.0/container2", second);
+        assertNull(serviceMap.route("/rest/foo/1.0/customers/123"));
+    }
+
+    protected static ServiceDetails service(final String id, final String url) {
+        return new ServiceDetails() {
+            public String getId() {
+                return id;
+            }
+
+            public List<String> getServices() {
+                return Arrays.asList(url);
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.chooser;
+
+import org.fusesource.gateway.ServiceDetails;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ */
+public class LoadAwareChooserTest {
+    protected ServiceLoadTracker tracker = new ServiceLoadTracker();
+    protected ServiceDetails a = service("a", "http://localhost:8181/a");
+    protected ServiceDetails b = service("b", "http://localhost:8182/b");
+    protected ServiceDetails c = service("c", "http://localhost:8183/c");
+    protected List<ServiceDetails> services = Arrays.asList(a, b, c);
+
+    @Test
+    public void testLeastConnections() throws Exception {
+        Chooser<ServiceDetails> chooser = new LeastConnectionsChooser(tracker);
+        assertNull(chooser.choose(Arrays.<ServiceDetails>asList()));
+        tracker.getLoad(a).begin();
+        tracker.getLoad(c).begin();
+        for (int i = 0; i < 10; i++) {
+            assertSame(b, chooser.choose(services));
+        }
+        tracker.getLoad(c).end();
+        for (int i = 0; i < 10; i++) {
+            assertNotSame(a, chooser.choose(services));
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() throws Exception {
+        Chooser<ServiceDetails> chooser = new PowerOfTwoChoicesChooser(tracker);
+        for (int i = 0; i < 5; i++) {
+            tracker.getLoad(a).begin();
+        }
+        // the most loaded service never wins a comparison
+        for (int i = 0; i < 50; i++) {
+            assertNotSame(a, chooser.choose(services));
+        }
+        assertSame(b, chooser.choose(Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void testLatencyWeighted() throws Exception {
+        Chooser<ServiceDetails> chooser = new LatencyWeightedChooser(tracker);
+        tracker.getLoad(a).recordLatency(1000);
+        tracker.getLoad(b).recordLatency(5000);
+        tracker.getLoad(c).recordLatency(3000);
+        assertSame(a, chooser.choose(services));
+
+        // a is now expected to take 4 * 1000
+        for (int i = 0; i < 3; i++) {
+            tracker.getLoad(a).begin();
+        }
+        assertSame(c, chooser.choose(services));
+    }
+
+    @Test
+    public void testFailuresAndUnmeasuredServices() throws Exception {
+        tracker.getLoad(a).recordLatency(1000);
+        tracker.getLoad(b).recordFailure(10);
+        assertEquals(1, tracker.getLoad(b).getFailures());
+        assertEquals(ServiceLoad.FAILURE_PENALTY, tracker.getLoad(b).getLatency(), 0.1);
+
+        // c is assumed to take the mean latency, so the fast service still wins
+        Chooser<ServiceDetails> chooser = new LatencyWeightedChooser(tracker);
+        for (int i = 0; i < 10; i++) {
+            assertSame(a, chooser.choose(services));
+        }
+        // and the failing service is never preferred to an unmeasured one
+        chooser = new PowerOfTwoChoicesChooser(tracker);
+        for (int i = 0; i < 10; i++) {
+            assertSame(c, chooser.choose(Arrays.asList(b, c)));
+        }
+    }
+
+    @Test
+    public void testLatencyAverage() throws Exception {
+        ServiceLoad load = tracker.getLoad(a);
+        load.recordLatency(1000);
+        assertEquals(1000, load.getLatency(), 0.1);
+        load.recordLatency(2000);
+        assertEquals(1000 + ServiceLoad.LATENCY_WEIGHT * 1000, load.getLatency(), 0.1);
+        assertSame(load, tracker.getLoad(service("other", "http://localhost:8181/a")));
+    }
+
+    @Test
+    public void testForgetRemovedServices() throws Exception {
+        tracker.getLoad(a).begin();
+        tracker.getLoad(b);
+        tracker.serviceRemoved("/a", a);
+        tracker.serviceRemoved("/b", b);
+        assertEquals(1, tracker.size());
+    }
+
+    @Test
+    public void testStickyCookie() throws Exception {
+        assertEquals("abc", StickyHttpChooser.getCookie(Arrays.asList("foo=bar; JSESSIONID=\"abc\""), "JSESSIONID"));
+        assertNull(StickyHttpChooser.getCookie(Arrays.asList("foo=bar"), "JSESSIONID"));
+        assertNull(StickyHttpChooser.getCookie(Arrays.asList("JSESSIONID="), "JSESSIONID"));
+    }
+
+    public static ServiceDetails service(final String id, final String url) {
+        return new ServiceDetails() {
+            public String getId() {
+                return id;
+            }
+
+            public List<String> getServices() {
+                return Arrays.asList(url);
+            }
+
+            @Override
+            public String toString() {
+                return id;
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.http;
+
+import org.junit.After;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.streams.WriteStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class BoundedPumpTest {
+    protected Vertx vertx = VertxFactory.newVertx();
+    protected MockReadStream readStream = new MockReadStream();
+    protected MockWriteStream writeStream = new MockWriteStream();
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.stop();
+    }
+
+    @Test
+    public void testPauseWhenWriteQueueFull() throws Exception {
+        writeStream.connected = true;
+        BoundedPump pump = new BoundedPump(vertx, readStream, writeStream, 100).start();
+        assertEquals(100, writeStream.maxSize);
+
+        writeStream.full = true;
+        readStream.send(10);
+        assertTrue(pump.isPaused());
+        assertTrue(readStream.paused);
+
+        writeStream.full = false;
+        writeStream.drainHandler.handle(null);
+        assertFalse(pump.isPaused());
+        assertFalse(readStream.paused);
+        assertEquals(10, pump.getBytesPumped());
+    }
+
+    @Test
+    public void testBoundBufferingBeforeConnected() throws Exception {
+        BoundedPump pump = new BoundedPump(vertx, readStream, writeStream, 100).start();
+        readStream.send(60);
+        assertFalse(pump.isPaused());
+        readStream.send(60);
+        assertTrue(pump.isPaused());
+        assertTrue(readStream.paused);
+
+        // no drain event comes on connection so the pump has to look again
+        writeStream.connected = true;
+        for (int i = 0; i < 100 && readStream.paused; i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(readStream.paused);
+        assertEquals(120, writeStream.written);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        BoundedPump pump = new BoundedPump(vertx, readStream, writeStream, 100).start();
+        readStream.send(200);
+        assertTrue(pump.isPaused());
+        pump.stop();
+        assertFalse(pump.isPaused());
+        // the rest of the read stream is discarded so that it can reach its end
+        assertFalse(readStream.paused);
+        assertEquals(null, writeStream.drainHandler);
+        readStream.send(50);
+        assertEquals(200, writeStream.written);
+        assertEquals(200, pump.getBytesPumped());
+    }
+
+    protected static class MockReadStream implements ReadStream<MockReadStream> {
+        volatile boolean paused;
+        Handler<Buffer> dataHandler;
+
+        void send(int size) {
+            dataHandler.handle(new Buffer(new byte[size]));
+        }
+
+        public MockReadStream dataHandler(Handler<Buffer> handler) {
+            this.dataHandler = handler;
+            return this;
+        }
+
+        public MockReadStream pause() {
+            paused = true;
+            return this;
+        }
+
+        public MockReadStream resume() {
+            paused = false;
+            return this;
+        }
+
+        public MockReadStream endHandler(Handler<Void> handler) {
+            return this;
+        }
+
+        public MockReadStream exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+    }
+
+    /**
+     * Behaves like a client request, which only calls the drain handler once connected
+     */
+    protected static class MockWriteStream implements WriteStream<MockWriteStream> {
+        volatile boolean connected;
+        boolean full;
+        int maxSize;
+        int written;
+        Handler<Void> drainHandler;
+
+        public MockWriteStream write(Buffer data) {
+            written += data.length();
+            return this;
+        }
+
+        public MockWriteStream setWriteQueueMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public boolean writeQueueFull() {
+            return full;
+        }
+
+        public MockWriteStream drainHandler(Handler<Void> handler) {
+            this.drainHandler = handler;
+            if (handler != null && connected && !full) {
+                handler.handle(null);
+            }
+            return this;
+        }
+
+        public MockWriteStream exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+    }
+}
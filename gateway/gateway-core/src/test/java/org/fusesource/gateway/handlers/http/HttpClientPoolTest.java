@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.http;
+
+import org.fusesource.gateway.ServiceDetails;
+import org.fusesource.gateway.ServiceMap;
+import org.junit.After;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ */
+public class HttpClientPoolTest {
+    protected Vertx vertx = VertxFactory.newVertx();
+    protected ServiceMap serviceMap = new ServiceMap();
+    protected HttpClientPool pool = new HttpClientPool(vertx, serviceMap);
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        vertx.stop();
+    }
+
+    @Test
+    public void testReuseClientPerUpstream() throws Exception {
+        HttpClientPool.Upstream first = pool.acquire(new URL("http://localhost:8181/cxf/foo"));
+        HttpClientPool.Upstream second = pool.acquire(new URL("http://localhost:8181/cxf/bar"));
+        HttpClientPool.Upstream other = pool.acquire(new URL("http://localhost:8182/cxf/foo"));
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, pool.size());
+        assertEquals(HttpClientPool.DEFAULT_MAX_CONNECTIONS, first.getClient().getMaxPoolSize());
+        first.release();
+        second.release();
+        other.release();
+
+        // only idle upstreams are evicted
+        HttpClientPool.Upstream active = pool.acquire(new URL("http://localhost:8181/cxf/foo"));
+        pool.evictIdle(System.currentTimeMillis() + pool.getIdleTimeout() + 1);
+        assertEquals(1, pool.size());
+        active.release();
+        pool.evictIdle(System.currentTimeMillis() + pool.getIdleTimeout() + 1);
+        assertEquals(0, pool.size());
+        assertNotSame(active, pool.acquire(new URL("http://localhost:8181/cxf/foo")));
+    }
+
+    @Test
+    public void testCloseRemovedUpstreams() throws Exception {
+        serviceMap.addListener(pool);
+        ServiceDetails first = service("first", "http://localhost:8181/cxf/foo");
+        ServiceDetails second = service("second", "http://localhost:8181/cxf/bar");
+        serviceMap.serviceUpdated("/rest/foo/1.0/container1", first);
+        serviceMap.serviceUpdated("/rest/bar/1.0/container1", second);
+        pool.acquire(new URL("http://localhost:8181/cxf/foo")).release();
+
+        // still used by the second service
+        serviceMap.serviceRemoved("/rest/foo/1.0/container1", first);
+        assertEquals(1, pool.size());
+        serviceMap.serviceRemoved("/rest/bar/1.0/container1", second);
+        assertEquals(0, pool.size());
+    }
+
+    protected static ServiceDetails service(final String id, final String url) {
+        return new ServiceDetails() {
+            public String getId() {
+                return id;
+            }
+
+            public List<String> getServices() {
+                return Arrays.asList(url);
+            }
+        };
+    }
+}
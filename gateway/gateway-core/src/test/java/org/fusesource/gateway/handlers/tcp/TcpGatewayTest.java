@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.gateway.handlers.tcp;
+
+import org.fusesource.gateway.ServiceDetails;
+import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.chooser.NetChooser;
+import org.junit.After;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class TcpGatewayTest {
+    protected Vertx vertx = VertxFactory.newVertx();
+    protected ServiceMap serviceMap = new ServiceMap();
+    protected NetServer echoServer;
+    protected TcpGateway gateway;
+
+    @After
+    public void tearDown() throws Exception {
+        if (gateway != null) {
+            gateway.destroy();
+        }
+        if (echoServer != null) {
+            echoServer.close();
+        }
+        vertx.stop();
+    }
+
+    @Test
+    public void testFailOverToNextService() throws Exception {
+        int echoPort = freePort();
+        int deadPort = freePort();
+        int gatewayPort = freePort();
+        echoServer = vertx.createNetServer().connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+                socket.dataHandler(new Handler<Buffer>() {
+                    public void handle(Buffer data) {
+                        socket.write(data);
+                    }
+                });
+            }
+        });
+        listen(echoServer, echoPort);
+
+        final ServiceDetails dead = service("dead", "tcp://localhost:" + deadPort);
+        ServiceDetails echo = service("echo", "tcp://localhost:" + echoPort);
+        serviceMap.serviceUpdated("/fabric/registry/clusters/test/dead", dead);
+        serviceMap.serviceUpdated("/fabric/registry/clusters/test/echo", echo);
+
+        gateway = new TcpGateway(vertx, serviceMap, gatewayPort, "tcp");
+        gateway.setServiceChooser(new NetChooser() {
+            public ServiceDetails chooseService(NetSocket socket, List<ServiceDetails> services) {
+                // always try the dead service first
+                return services.contains(dead) ? dead : services.get(0);
+            }
+        });
+        gateway.init();
+        Thread.sleep(200);
+
+        final CountDownLatch echoed = new CountDownLatch(1);
+        final Buffer received = new Buffer();
+        gateway.getVertx().createNetClient().connect(gatewayPort, "localhost", new Handler<AsyncResult<NetSocket>>() {
+            public void handle(AsyncResult<NetSocket> result) {
+                NetSocket socket = result.result();
+                socket.dataHandler(new Handler<Buffer>() {
+                    public void handle(Buffer data) {
+                        received.appendBuffer(data);
+                        if (received.length() >= 5) {
+                            echoed.countDown();
+                        }
+                    }
+                });
+                socket.write("hello");
+            }
+        });
+        assertTrue("Should have been echoed", echoed.await(10, TimeUnit.SECONDS));
+        assertEquals("hello", received.toString());
+
+        TcpRouteStatistics deadStatistics = gateway.getRouteStatistics("localhost:" + deadPort);
+        TcpRouteStatistics echoStatistics = gateway.getRouteStatistics("localhost:" + echoPort);
+        // the dead service is only tried when its path is picked
+        assertTrue(deadStatistics.getFailedConnections() <= 1);
+        assertEquals(0, deadStatistics.getActiveConnections());
+        assertEquals(1, echoStatistics.getConnections());
+        assertEquals(1, echoStatistics.getActiveConnections());
+        assertEquals(5, echoStatistics.getBytesToService());
+        assertEquals(5, echoStatistics.getBytesFromService());
+    }
+
+    protected void listen(NetServer server, int port) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        server.listen(port, "localhost", new Handler<AsyncResult<NetServer>>() {
+            public void handle(AsyncResult<NetServer> event) {
+                latch.countDown();
+            }
+        });
+        latch.await(10, TimeUnit.SECONDS);
+    }
+
+    protected static int freePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected static ServiceDetails service(final String id, final String url) {
+        return new ServiceDetails() {
+            public String getId() {
+                return id;
+            }
+
+            public List<String> getServices() {
+                return Arrays.asList(url);
+            }
+        };
+    }
+}
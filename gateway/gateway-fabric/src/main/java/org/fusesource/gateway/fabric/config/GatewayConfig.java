@@ -17,10 +17,24 @@
 package org.fusesource.gateway.fabric.config;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.fusesource.gateway.ServiceDetails;
 import org.fusesource.gateway.ServiceMap;
+import org.fusesource.gateway.chooser.Chooser;
+import org.fusesource.gateway.chooser.DefaultHttpChooser;
+import org.fusesource.gateway.chooser.DefaultNetChooser;
+import org.fusesource.gateway.chooser.HttpChooser;
+import org.fusesource.gateway.chooser.LatencyWeightedChooser;
+import org.fusesource.gateway.chooser.LeastConnectionsChooser;
+import org.fusesource.gateway.chooser.PowerOfTwoChoicesChooser;
+import org.fusesource.gateway.chooser.RandomChooser;
+import org.fusesource.gateway.chooser.RoundRobinChooser;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
+import org.fusesource.gateway.chooser.StickyHttpChooser;
 import org.fusesource.gateway.fabric.FabricGateway;
 import org.fusesource.gateway.fabric.GatewayListener;
 import org.fusesource.gateway.handlers.Gateway;
+import org.fusesource.gateway.handlers.http.HttpGateway;
+import org.fusesource.gateway.handlers.tcp.TcpGateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,12 +49,19 @@ public class GatewayConfig {
 
     private String zooKeeperPath;
     private List<ListenConfig> listeners = new ArrayList<ListenConfig>();
+    // one of random, roundrobin, leastconnections, poweroftwo or latency
+    private String loadBalancer;
+    private String stickySessionCookie;
+    private String stickySessionHeader;
 
     @Override
     public String toString() {
         return "GatewayConfig{" +
                 "zooKeeperPath='" + zooKeeperPath + '\'' +
                 ", listeners=" + listeners +
+                ", loadBalancer='" + loadBalancer + '\'' +
+                ", stickySessionCookie='" + stickySessionCookie + '\'' +
+                ", stickySessionHeader='" + stickySessionHeader + '\'' +
                 '}';
     }
 
@@ -54,6 +75,11 @@ public class GatewayConfig {
         if (listeners != null ? !listeners.equals(that.listeners) : that.listeners != null) return false;
         if (zooKeeperPath != null ? !zooKeeperPath.equals(that.zooKeeperPath) : that.zooKeeperPath != null)
             return false;
+        if (loadBalancer != null ? !loadBalancer.equals(that.loadBalancer) : that.loadBalancer != null) return false;
+        if (stickySessionCookie != null ? !stickySessionCookie.equals(that.stickySessionCookie) : that.stickySessionCookie != null)
+            return false;
+        if (stickySessionHeader != null ? !stickySessionHeader.equals(that.stickySessionHeader) : that.stickySessionHeader != null)
+            return false;
 
         return true;
     }
@@ -62,6 +88,9 @@ public class GatewayConfig {
     public int hashCode() {
         int result = zooKeeperPath != null ? zooKeeperPath.hashCode() : 0;
         result = 31 * result + (listeners != null ? listeners.hashCode() : 0);
+        result = 31 * result + (loadBalancer != null ? loadBalancer.hashCode() : 0);
+        result = 31 * result + (stickySessionCookie != null ? stickySessionCookie.hashCode() : 0);
+        result = 31 * result + (stickySessionHeader != null ? stickySessionHeader.hashCode() : 0);
         return result;
     }
 
@@ -88,15 +117,61 @@ public class GatewayConfig {
     }
 
     protected void addGateways(List<Gateway> gateways, FabricGateway owner, ServiceMap serviceMap) {
+        // the load of the services is shared by all the gateways in front of them
+        ServiceLoadTracker loadTracker = new ServiceLoadTracker();
+        serviceMap.addListener(loadTracker);
         List<ListenConfig> list = getListeners();
         for (ListenConfig listenConfig : list) {
             Gateway gateway = listenConfig.createGateway(owner, serviceMap);
             if (gateway != null) {
+                configureLoadBalancing(gateway, loadTracker);
                 gateways.add(gateway);
             }
         }
     }
 
+    protected void configureLoadBalancing(Gateway gateway, ServiceLoadTracker loadTracker) {
+        if (gateway instanceof HttpGateway) {
+            HttpGateway httpGateway = (HttpGateway) gateway;
+            httpGateway.setLoadTracker(loadTracker);
+            httpGateway.setChooser(createHttpChooser(loadTracker));
+        } else if (gateway instanceof TcpGateway) {
+            TcpGateway tcpGateway = (TcpGateway) gateway;
+            tcpGateway.setLoadTracker(loadTracker);
+            tcpGateway.setServiceChooser(new DefaultNetChooser(createChooser(loadTracker)));
+        }
+    }
+
+    /**
+     * Factory method to create the {@link HttpChooser} of the http gateways, sticky if a session cookie or header is configured
+     */
+    public HttpChooser createHttpChooser(ServiceLoadTracker loadTracker) {
+        HttpChooser answer = new DefaultHttpChooser(createChooser(loadTracker));
+        if (stickySessionCookie != null || stickySessionHeader != null) {
+            answer = new StickyHttpChooser(answer, stickySessionCookie, stickySessionHeader);
+        }
+        return answer;
+    }
+
+    /**
+     * Factory method to create the {@link Chooser} of the configured load balancer
+     */
+    public Chooser<ServiceDetails> createChooser(ServiceLoadTracker loadTracker) {
+        if (loadBalancer == null || loadBalancer.equals("random")) {
+            return new RandomChooser<ServiceDetails>();
+        } else if (loadBalancer.equals("roundrobin")) {
+            return new RoundRobinChooser<ServiceDetails>();
+        } else if (loadBalancer.equals("leastconnections")) {
+            return new LeastConnectionsChooser(loadTracker);
+        } else if (loadBalancer.equals("poweroftwo")) {
+            return new PowerOfTwoChoicesChooser(loadTracker);
+        } else if (loadBalancer.equals("latency")) {
+            return new LatencyWeightedChooser(loadTracker);
+        }
+        LOG.warn("Unknown loadBalancer " + loadBalancer + " so using random for " + zooKeeperPath);
+        return new RandomChooser<ServiceDetails>();
+    }
+
 
     // Properties
     //-------------------------------------------------------------------------
@@ -116,4 +191,28 @@ public class GatewayConfig {
     public void setListeners(List<ListenConfig> listeners) {
         this.listeners = listeners;
     }
+
+    public String getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public void setLoadBalancer(String loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    public String getStickySessionCookie() {
+        return stickySessionCookie;
+    }
+
+    public void setStickySessionCookie(String stickySessionCookie) {
+        this.stickySessionCookie = stickySessionCookie;
+    }
+
+    public String getStickySessionHeader() {
+        return stickySessionHeader;
+    }
+
+    public void setStickySessionHeader(String stickySessionHeader) {
+        this.stickySessionHeader = stickySessionHeader;
+    }
 }
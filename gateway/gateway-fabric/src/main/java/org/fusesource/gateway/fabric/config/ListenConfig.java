@@ -23,6 +23,7 @@ import org.fusesource.gateway.ServiceMap;
 import org.fusesource.gateway.fabric.FabricGateway;
 import org.fusesource.gateway.fabric.GatewayListener;
 import org.fusesource.gateway.handlers.Gateway;
+import org.fusesource.gateway.handlers.http.HttpClientPool;
 import org.fusesource.gateway.handlers.http.HttpGateway;
 import org.fusesource.gateway.handlers.tcp.TcpGateway;
 import org.slf4j.Logger;
@@ -42,6 +43,18 @@ public class ListenConfig {
     private String host;
     private String protocol;
     private List<RuleConfig> rules = new ArrayList<RuleConfig>();
+    // upstream client settings of the http gateways, the defaults are used when not set,
+    // the connect timeout also applies to the tcp gateways
+    private Integer maxConnections;
+    private Boolean keepAlive;
+    private Integer connectTimeout;
+    private Long idleTimeout;
+    private Integer maxBufferedBytes;
+    // socket settings of the tcp gateways
+    private Boolean tcpNoDelay;
+    private Boolean tcpKeepAlive;
+    private Integer sendBufferSize;
+    private Integer receiveBufferSize;
 
     @Override
     public String toString() {
@@ -50,6 +63,15 @@ public class ListenConfig {
                 ", port=" + port +
                 ", host='" + host + '\'' +
                 ", rules=" + rules +
+                ", maxConnections=" + maxConnections +
+                ", keepAlive=" + keepAlive +
+                ", connectTimeout=" + connectTimeout +
+                ", idleTimeout=" + idleTimeout +
+                ", maxBufferedBytes=" + maxBufferedBytes +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", tcpKeepAlive=" + tcpKeepAlive +
+                ", sendBufferSize=" + sendBufferSize +
+                ", receiveBufferSize=" + receiveBufferSize +
                 '}';
     }
 
@@ -64,6 +86,15 @@ public class ListenConfig {
         if (host != null ? !host.equals(that.host) : that.host != null) return false;
         if (protocol != null ? !protocol.equals(that.protocol) : that.protocol != null) return false;
         if (rules != null ? !rules.equals(that.rules) : that.rules != null) return false;
+        if (maxConnections != null ? !maxConnections.equals(that.maxConnections) : that.maxConnections != null) return false;
+        if (keepAlive != null ? !keepAlive.equals(that.keepAlive) : that.keepAlive != null) return false;
+        if (connectTimeout != null ? !connectTimeout.equals(that.connectTimeout) : that.connectTimeout != null) return false;
+        if (idleTimeout != null ? !idleTimeout.equals(that.idleTimeout) : that.idleTimeout != null) return false;
+        if (maxBufferedBytes != null ? !maxBufferedBytes.equals(that.maxBufferedBytes) : that.maxBufferedBytes != null) return false;
+        if (tcpNoDelay != null ? !tcpNoDelay.equals(that.tcpNoDelay) : that.tcpNoDelay != null) return false;
+        if (tcpKeepAlive != null ? !tcpKeepAlive.equals(that.tcpKeepAlive) : that.tcpKeepAlive != null) return false;
+        if (sendBufferSize != null ? !sendBufferSize.equals(that.sendBufferSize) : that.sendBufferSize != null) return false;
+        if (receiveBufferSize != null ? !receiveBufferSize.equals(that.receiveBufferSize) : that.receiveBufferSize != null) return false;
 
         return true;
     }
@@ -74,6 +105,15 @@ public class ListenConfig {
         result = 31 * result + (host != null ? host.hashCode() : 0);
         result = 31 * result + (protocol != null ? protocol.hashCode() : 0);
         result = 31 * result + (rules != null ? rules.hashCode() : 0);
+        result = 31 * result + (maxConnections != null ? maxConnections.hashCode() : 0);
+        result = 31 * result + (keepAlive != null ? keepAlive.hashCode() : 0);
+        result = 31 * result + (connectTimeout != null ? connectTimeout.hashCode() : 0);
+        result = 31 * result + (idleTimeout != null ? idleTimeout.hashCode() : 0);
+        result = 31 * result + (maxBufferedBytes != null ? maxBufferedBytes.hashCode() : 0);
+        result = 31 * result + (tcpNoDelay != null ? tcpNoDelay.hashCode() : 0);
+        result = 31 * result + (tcpKeepAlive != null ? tcpKeepAlive.hashCode() : 0);
+        result = 31 * result + (sendBufferSize != null ? sendBufferSize.hashCode() : 0);
+        result = 31 * result + (receiveBufferSize != null ? receiveBufferSize.hashCode() : 0);
         return result;
     }
 
@@ -89,9 +129,16 @@ public class ListenConfig {
         Vertx vertx = owner.getVertx();
         Gateway answer;
         if (isWebProtocol()) {
-            answer = new HttpGateway(vertx, serviceMap, port);
+            HttpGateway httpGateway = new HttpGateway(vertx, serviceMap, port);
+            configureClientPool(httpGateway.getClientPool());
+            if (maxBufferedBytes != null) {
+                httpGateway.setMaxBufferedBytes(maxBufferedBytes);
+            }
+            answer = httpGateway;
         } else {
-            answer = new TcpGateway(vertx, serviceMap, port, protocol);
+            TcpGateway tcpGateway = new TcpGateway(vertx, serviceMap, port, protocol);
+            configureTcpGateway(tcpGateway);
+            answer = tcpGateway;
         }
         if (Strings.isNotBlank(host)) {
             answer.setHost(host);
@@ -99,6 +146,39 @@ public class ListenConfig {
         return answer;
     }
 
+    protected void configureClientPool(HttpClientPool clientPool) {
+        if (maxConnections != null) {
+            clientPool.setMaxConnections(maxConnections);
+        }
+        if (keepAlive != null) {
+            clientPool.setKeepAlive(keepAlive);
+        }
+        if (connectTimeout != null) {
+            clientPool.setConnectTimeout(connectTimeout);
+        }
+        if (idleTimeout != null) {
+            clientPool.setIdleTimeout(idleTimeout);
+        }
+    }
+
+    protected void configureTcpGateway(TcpGateway tcpGateway) {
+        if (connectTimeout != null) {
+            tcpGateway.setConnectTimeout(connectTimeout);
+        }
+        if (tcpNoDelay != null) {
+            tcpGateway.setTcpNoDelay(tcpNoDelay);
+        }
+        if (tcpKeepAlive != null) {
+            tcpGateway.setTcpKeepAlive(tcpKeepAlive);
+        }
+        if (sendBufferSize != null) {
+            tcpGateway.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize != null) {
+            tcpGateway.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
     // Properties
     //-------------------------------------------------------------------------
 
@@ -133,4 +213,76 @@ public class ListenConfig {
     public void setRules(List<RuleConfig> rules) {
         this.rules = rules;
     }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public void setMaxBufferedBytes(Integer maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public Boolean getTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(Boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(Integer sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(Integer receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
 }
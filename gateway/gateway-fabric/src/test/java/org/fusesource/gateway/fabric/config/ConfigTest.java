@@ -16,11 +16,16 @@
  */
 package org.fusesource.gateway.fabric.config;
 
+import org.fusesource.gateway.chooser.PowerOfTwoChoicesChooser;
+import org.fusesource.gateway.chooser.RandomChooser;
+import org.fusesource.gateway.chooser.ServiceLoadTracker;
+import org.fusesource.gateway.chooser.StickyHttpChooser;
 import org.junit.Test;
 
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  */
@@ -39,9 +44,17 @@ public class ConfigTest {
         List<GatewayConfig> gateways = config.getGateways();
         assertEquals("size", 2, gateways.size());
         GatewayConfig gateway1 = gateways.get(0);
+        assertEquals("gateway1.getLoadBalancer()", "poweroftwo", gateway1.getLoadBalancer());
+        assertEquals("gateway1.getStickySessionCookie()", "JSESSIONID", gateway1.getStickySessionCookie());
+        assertTrue(gateway1.createChooser(new ServiceLoadTracker()) instanceof PowerOfTwoChoicesChooser);
+        assertTrue(gateway1.createHttpChooser(new ServiceLoadTracker()) instanceof StickyHttpChooser);
+        assertTrue(gateways.get(1).createChooser(new ServiceLoadTracker()) instanceof RandomChooser);
         ListenConfig listener = gateway1.getListeners().get(0);
         assertEquals("listener.getPort()", 9000, listener.getPort());
         assertEquals("listener.getProtocol()", "http", listener.getProtocol());
+        assertEquals("listener.getMaxConnections()", Integer.valueOf(32), listener.getMaxConnections());
+        assertEquals("listener.getIdleTimeout()", Long.valueOf(30000), listener.getIdleTimeout());
+        assertEquals("listener.getKeepAlive()", null, listener.getKeepAlive());
         List<RuleConfig> rules = listener.getRules();
         assertEquals("rules.size()", 2, rules.size());
 
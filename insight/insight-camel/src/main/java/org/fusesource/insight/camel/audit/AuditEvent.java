@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.camel.audit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Message;
+import org.fusesource.insight.camel.profiler.ExchangeData;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A copy of what the audit templates render of an exchange event, taken on the routing thread
+ * so that the rendering can happen later on the auditor threads.
+ * <p>
+ * The getters mirror the ones of {@link Exchange} and {@link Message} used by the templates.
+ */
+public class AuditEvent {
+
+    private final String event;
+    private final Date timestamp;
+    private final ExchangeSnapshot exchange;
+
+    public AuditEvent(String event, Date timestamp, Exchange exchange) {
+        this.event = event;
+        this.timestamp = timestamp;
+        this.exchange = new ExchangeSnapshot(exchange);
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public ExchangeSnapshot getExchange() {
+        return exchange;
+    }
+
+    public static class ExchangeSnapshot {
+        private final String exchangeId;
+        private final String fromRouteId;
+        private final ContextSnapshot context;
+        private final String fromEndpoint;
+        private final ExchangePattern pattern;
+        private final Map<String, Object> properties;
+        private final Exception exception;
+        private final MessageSnapshot in;
+        private final MessageSnapshot out;
+
+        ExchangeSnapshot(Exchange exchange) {
+            this.exchangeId = exchange.getExchangeId();
+            this.fromRouteId = exchange.getFromRouteId();
+            this.context = new ContextSnapshot(exchange.getContext().getName());
+            this.fromEndpoint = String.valueOf(exchange.getFromEndpoint());
+            this.pattern = exchange.getPattern();
+            this.properties = new HashMap<String, Object>(exchange.getProperties());
+            this.properties.remove(ExchangeData.PROPERTY);
+            this.exception = exchange.getException();
+            this.in = new MessageSnapshot(exchange.getIn());
+            this.out = exchange.hasOut() ? new MessageSnapshot(exchange.getOut()) : null;
+        }
+
+        public String getExchangeId() {
+            return exchangeId;
+        }
+
+        public String getFromRouteId() {
+            return fromRouteId;
+        }
+
+        public ContextSnapshot getContext() {
+            return context;
+        }
+
+        public String getFromEndpoint() {
+            return fromEndpoint;
+        }
+
+        public ExchangePattern getPattern() {
+            return pattern;
+        }
+
+        public Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        public MessageSnapshot getIn() {
+            return in;
+        }
+
+        public boolean hasOut() {
+            return out != null;
+        }
+
+        public MessageSnapshot getOut() {
+            return out;
+        }
+    }
+
+    public static class ContextSnapshot {
+        private final String name;
+
+        ContextSnapshot(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class MessageSnapshot {
+        private final String messageId;
+        private final Map<String, Object> headers;
+        // bodies may be mutable or streams, so they are rendered right away
+        private final String body;
+
+        MessageSnapshot(Message message) {
+            this.messageId = message.getMessageId();
+            this.headers = new HashMap<String, Object>(message.getHeaders());
+            Object body = message.getBody();
+            this.body = body != null ? body.toString() : null;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public Map<String, Object> getHeaders() {
+            return headers;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}
@@ -17,7 +17,8 @@
 package org.fusesource.insight.camel.audit;
 
 import org.apache.camel.CamelContext;
-import org.apache.camel.Exchange;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
 import org.apache.camel.api.management.ManagedResource;
 import org.apache.camel.management.event.AbstractExchangeEvent;
 import org.apache.camel.management.event.ExchangeSendingEvent;
@@ -35,21 +36,40 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.EventObject;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- *
+ * Audits the exchange events.
+ * <p>
+ * The routing threads only take an {@link AuditEvent} snapshot of the exchange and queue it, the
+ * rendering of the templates and the storage happen in batches on background threads. When the
+ * queue is full, events are either dropped or the routing threads wait, depending on the overflow policy.
  */
 @ManagedResource(description = "Auditor")
 public class Auditor extends SwitchableContainerStrategy implements EventNotifier, ManagedService, AuditorMBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Auditor.class);
 
+    public static final String OVERFLOW_BLOCK = "block";
+    public static final String OVERFLOW_DROP = "drop";
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_WORKERS = 1;
+
     private StorageService storage;
     private String type = "camel";
 
@@ -66,6 +86,15 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
     private Map<URL, String> sources = new ConcurrentHashMap<URL, String>();
     private URL defaultTemplateUrl = getClass().getResource("default.mvel");
 
+    private volatile String overflowPolicy = OVERFLOW_BLOCK;
+    private volatile int queueSize = DEFAULT_QUEUE_SIZE;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile int workers = DEFAULT_WORKERS;
+    private Pipeline pipeline;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong storedEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+
     public Auditor() {
         this(null);
     }
@@ -107,6 +136,41 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
         this.properties = properties;
     }
 
+    @Override
+    public void update(Map<String, String> properties) {
+        super.update(properties);
+        String overflow = OVERFLOW_BLOCK;
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int workers = DEFAULT_WORKERS;
+        if (properties != null) {
+            if (properties.get("overflow") != null) {
+                overflow = properties.get("overflow");
+            }
+            if (properties.get("queueSize") != null) {
+                queueSize = Integer.parseInt(properties.get("queueSize"));
+            }
+            if (properties.get("batchSize") != null) {
+                batchSize = Integer.parseInt(properties.get("batchSize"));
+            }
+            if (properties.get("workers") != null) {
+                workers = Integer.parseInt(properties.get("workers"));
+            }
+        }
+        if (!OVERFLOW_DROP.equals(overflow) && !OVERFLOW_BLOCK.equals(overflow)) {
+            LOGGER.warn("Unknown overflow policy " + overflow + ", using " + OVERFLOW_BLOCK);
+            overflow = OVERFLOW_BLOCK;
+        }
+        this.overflowPolicy = overflow;
+        this.batchSize = Math.max(1, batchSize);
+        if (queueSize != this.queueSize || workers != this.workers) {
+            this.queueSize = Math.max(1, queueSize);
+            this.workers = Math.max(1, workers);
+            // the next event starts a pipeline with the new settings
+            stop();
+        }
+    }
+
     @Override
     public void notify(EventObject eventObject) throws Exception {
         if (eventObject instanceof AbstractExchangeEvent) {
@@ -115,35 +179,83 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
                 if (aee instanceof ExchangeSendingEvent) {
                     aee.getExchange().getIn().setHeader("AuditCallId", aee.getExchange().getContext().getUuidGenerator().generateUuid());
                 }
-                String json = toJson(aee);
-                storage.store(type, System.currentTimeMillis(), json);
+                enqueue(new AuditEvent(getEventType(aee), new Date(), aee.getExchange()));
             }
         }
     }
 
-    protected String toJson(AbstractExchangeEvent event) {
+    /**
+     * Queues the event for the background threads, moving on to the pipeline which replaced
+     * the current one if it gets stopped in the meantime
+     */
+    protected void enqueue(AuditEvent event) throws InterruptedException {
+        while (!getPipeline().add(event)) {
+            // stop() already replaced the pipeline so the next one takes the event
+        }
+    }
+
+    /**
+     * Stops the background threads once the queued events are stored
+     */
+    public void stop() {
+        Pipeline pipeline;
+        synchronized (this) {
+            pipeline = this.pipeline;
+            this.pipeline = null;
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    protected synchronized Pipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new Pipeline(queueSize, workers);
+        }
+        return pipeline;
+    }
+
+    protected String getEventType(AbstractExchangeEvent event) {
+        String eventType = event.getClass().getSimpleName();
+        eventType = eventType.substring("Exchange".length());
+        return eventType.substring(0, eventType.length() - "Event".length());
+    }
+
+    /**
+     * Renders and stores a batch of events, called from the background threads
+     */
+    protected void process(List<AuditEvent> events) {
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(Auditor.class.getClassLoader());
-            String eventType = event.getClass().getSimpleName();
-            eventType = eventType.substring("Exchange".length());
-            eventType = eventType.substring(0, eventType.length() - "Event".length());
-
-            CompiledTemplate template = getTemplate(eventType, event.getExchange());
-            Map<String, Object> vars = new HashMap<String, Object>();
-            vars.put("event", eventType);
-            vars.put("host", System.getProperty("karaf.name"));
-            vars.put("timestamp", new Date());
-            vars.put("exchange", event.getExchange());
-
-            return TemplateRuntime.execute(template, context, vars).toString();
+            for (AuditEvent event : events) {
+                try {
+                    String json = toJson(event);
+                    storage.store(type, event.getTimestamp().getTime(), json);
+                    storedEvents.incrementAndGet();
+                } catch (Exception e) {
+                    failedEvents.incrementAndGet();
+                    LOGGER.warn("Unable to store the audit of exchange " + event.getExchange().getExchangeId(), e);
+                }
+            }
         } finally {
             Thread.currentThread().setContextClassLoader(cl);
         }
     }
 
-    private CompiledTemplate getTemplate(String event, Exchange exchange) {
-        String source = getTemplateSource(event, exchange);
+    protected String toJson(AuditEvent event) {
+        CompiledTemplate template = getTemplate(event);
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("event", event.getEvent());
+        vars.put("host", System.getProperty("karaf.name"));
+        vars.put("timestamp", event.getTimestamp());
+        vars.put("exchange", event.getExchange());
+
+        return TemplateRuntime.execute(template, context, vars).toString();
+    }
+
+    private CompiledTemplate getTemplate(AuditEvent event) {
+        String source = getTemplateSource(event);
         CompiledTemplate template = templates.get(source);
         if (template == null) {
             template = TemplateCompiler.compileTemplate(source, context);
@@ -152,9 +264,9 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
         return template;
     }
 
-    private String getTemplateSource(String event, Exchange exchange) {
+    private String getTemplateSource(AuditEvent event) {
         String source = null;
-        URL url = getTemplateUrl(event, exchange);
+        URL url = getTemplateUrl(event);
         if (url != null) {
             try {
                 source = loadSource(url);
@@ -172,7 +284,7 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
         return source;
     }
 
-    private URL getTemplateUrl(String event, Exchange exchange) {
+    private URL getTemplateUrl(AuditEvent event) {
         return null;
     }
 
@@ -265,4 +377,136 @@ public class Auditor extends SwitchableContainerStrategy implements EventNotifie
     public void setIgnoreExchangeSentEvents(boolean ignoreExchangeSentEvents) {
         this.ignoreExchangeSentEvents = ignoreExchangeSentEvents;
     }
+
+    @ManagedAttribute(description = "What to do with the events when the queue is full, block or drop")
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @ManagedAttribute(description = "What to do with the events when the queue is full, block or drop")
+    public void setOverflowPolicy(String overflowPolicy) {
+        if (!OVERFLOW_BLOCK.equals(overflowPolicy) && !OVERFLOW_DROP.equals(overflowPolicy)) {
+            throw new IllegalArgumentException("Unknown overflow policy " + overflowPolicy + ", expected " + OVERFLOW_BLOCK + " or " + OVERFLOW_DROP);
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @ManagedAttribute(description = "Number of events waiting to be stored")
+    public int getPendingEvents() {
+        Pipeline pipeline;
+        synchronized (this) {
+            pipeline = this.pipeline;
+        }
+        return pipeline != null ? pipeline.queue.size() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of events dropped because the queue was full")
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    @ManagedAttribute(description = "Number of events stored")
+    public long getStoredEvents() {
+        return storedEvents.get();
+    }
+
+    @ManagedAttribute(description = "Number of events which could not be rendered or stored")
+    public long getFailedEvents() {
+        return failedEvents.get();
+    }
+
+    @ManagedOperation(description = "Resets the event counters")
+    public void resetStatistics() {
+        droppedEvents.set(0);
+        storedEvents.set(0);
+        failedEvents.set(0);
+    }
+
+    /**
+     * The queue of events and the threads draining it
+     */
+    protected class Pipeline {
+        final BlockingQueue<AuditEvent> queue;
+        final List<Thread> threads = new ArrayList<Thread>();
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile boolean running = true;
+
+        Pipeline(int queueSize, int workers) {
+            queue = new ArrayBlockingQueue<AuditEvent>(queueSize);
+            for (int i = 0; i < workers; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                }, "insight-auditor-" + (i + 1));
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        /**
+         * Queues the event, or drops it if the queue is full and the overflow policy says so.
+         * Returns false if the pipeline is stopped, the workers may be gone so the event is not queued.
+         */
+        boolean add(AuditEvent event) throws InterruptedException {
+            lock.readLock().lock();
+            try {
+                if (!running) {
+                    return false;
+                }
+                if (OVERFLOW_DROP.equals(overflowPolicy)) {
+                    if (!queue.offer(event)) {
+                        droppedEvents.incrementAndGet();
+                    }
+                } else {
+                    // the workers keep draining until stop() gets the write lock
+                    queue.put(event);
+                }
+                return true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void drain() {
+            List<AuditEvent> batch = new ArrayList<AuditEvent>();
+            while (running || !queue.isEmpty()) {
+                try {
+                    AuditEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        continue;
+                    }
+                    batch.add(event);
+                    queue.drainTo(batch, batchSize - 1);
+                    process(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable t) {
+                    LOGGER.warn("Error while storing audit events", t);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        void stop() {
+            // wait for the events being added, no other event gets in once running is false
+            lock.writeLock().lock();
+            try {
+                running = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
 }
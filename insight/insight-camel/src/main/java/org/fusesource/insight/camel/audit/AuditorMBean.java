@@ -22,4 +22,19 @@ import org.fusesource.insight.camel.base.SwitchableContainerStrategyMBean;
  *
  */
 public interface AuditorMBean extends SwitchableContainerStrategyMBean {
+
+    String getOverflowPolicy();
+
+    void setOverflowPolicy(String overflowPolicy);
+
+    int getPendingEvents();
+
+    long getDroppedEvents();
+
+    long getStoredEvents();
+
+    long getFailedEvents();
+
+    void resetStatistics();
+
 }
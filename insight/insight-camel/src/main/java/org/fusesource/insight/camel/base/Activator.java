@@ -66,6 +66,7 @@ public class Activator implements BundleActivator, Container, ManagedService {
 
     private final Map<String, ContainerStrategy> strategies = new HashMap<String, ContainerStrategy>();
     private StorageProxy storageProxy = new StorageProxy();
+    private final Auditor auditor = new Auditor(storageProxy);
     private BundleContext bundleContext;
     private MBeanServer mbeanServer;
     private ServiceRegistration<ManagedService> registration;
@@ -75,7 +76,7 @@ public class Activator implements BundleActivator, Container, ManagedService {
         strategies.put(BREADCRUMBS, new Breadcrumbs());
         strategies.put(PROFILER, new Profiler());
         strategies.put(TRACER, new Tracer());
-        strategies.put(AUDITOR, new Auditor(storageProxy));
+        strategies.put(AUDITOR, auditor);
     }
 
     @Override
@@ -120,6 +121,7 @@ public class Activator implements BundleActivator, Container, ManagedService {
                 }
             }
         }
+        auditor.stop();
         storageProxy.destroy();
     }
 
@@ -19,25 +19,50 @@ package org.fusesource.insight.camel.profiler;
 import org.apache.camel.Exchange;
 import org.apache.camel.spi.Synchronization;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- *
+ * The timings of an exchange, kept as an exchange property and indexed by the ordinal of the processors.
  */
 public class ExchangeData implements Synchronization {
-    final Map<Stats, ProcessorData> data = new HashMap<Stats, ProcessorData>();
-    final LinkedList<Stats> queue = new LinkedList<Stats>();
+
+    public static final String PROPERTY = "InsightProfilerData";
+
+    private static final int INITIAL_DEPTH = 8;
+
+    final String exchangeId;
+    long[] time;
+    long[] total;
+    // the processors with timings, by ordinal
+    Stats[] touched;
+    int touchedCount;
+    Stats[] stack = new Stats[INITIAL_DEPTH];
     long last;
-    long level;
+    int level;
     boolean completed;
 
-    public static class ProcessorData {
-        long time;
-        long total;
+    public ExchangeData(String exchangeId, int processors) {
+        this.exchangeId = exchangeId;
+        int size = Math.max(processors, 1);
+        this.time = new long[size];
+        this.total = new long[size];
+        this.touched = new Stats[size];
     }
 
+    /**
+     * Returns the timings of the exchange, creating them on the first call.
+     * Copies of the exchange share its properties but not its timings, hence the id check.
+     */
+    public static ExchangeData get(Exchange exchange, int processors) {
+        Object value = exchange.getProperty(PROPERTY);
+        if (value instanceof ExchangeData && ((ExchangeData) value).exchangeId.equals(exchange.getExchangeId())) {
+            return (ExchangeData) value;
+        }
+        ExchangeData data = new ExchangeData(exchange.getExchangeId(), processors);
+        exchange.setProperty(PROPERTY, data);
+        exchange.addOnCompletion(data);
+        return data;
+    }
 
     @Override
     public void onComplete(Exchange exchange) {
@@ -52,49 +77,69 @@ public class ExchangeData implements Synchronization {
 
     public void start(Stats stats) {
         long cur = System.nanoTime();
-        Stats prev = queue.peek();
-        if (prev != null) {
-            addTime(prev, cur - last);
+        if (level > 0) {
+            addTime(stack[level - 1], cur - last);
         }
-        queue.addFirst(stats);
+        if (level == stack.length) {
+            stack = Arrays.copyOf(stack, level * 2);
+        }
+        stack[level++] = stats;
         last = cur;
-        level++;
     }
 
     public boolean stop(Stats stats) {
         long cur = System.nanoTime();
-        Stats ppd = queue.poll();
+        Stats ppd = stack[--level];
+        stack[level] = null;
         assert stats == ppd;
         addTime(stats, cur - last);
         last = cur;
-        level--;
         return checkCompletedExchange();
     }
 
-    ProcessorData getData(Stats stats) {
-        ProcessorData pd = data.get(stats);
-        if (pd == null) {
-            pd = new ProcessorData();
-            data.put(stats, pd);
+    void addTime(Stats stats, long time) {
+        ensureCapacity(stats.index);
+        this.time[stats.index] += time;
+        for (Stats s = stats; s != null; s = s.parent) {
+            ensureCapacity(s.index);
+            if (touched[s.index] == null) {
+                touched[s.index] = s;
+                touchedCount++;
+            }
+            this.total[s.index] += time;
         }
-        return pd;
     }
 
-    void addTime(Stats stats, long time) {
-        getData(stats).time += time;
-        for (Stats s = stats; s != null; s = s.parent) {
-            getData(s).total += time;
+    private void ensureCapacity(int index) {
+        if (index >= time.length) {
+            // processors created after the exchange started
+            int size = Math.max(index + 1, time.length * 2);
+            time = Arrays.copyOf(time, size);
+            total = Arrays.copyOf(total, size);
+            touched = Arrays.copyOf(touched, size);
         }
     }
 
     boolean checkCompletedExchange() {
-        if (completed && level == 0) {
-            for (Map.Entry<Stats, ProcessorData> e : data.entrySet()) {
-                e.getKey().addTime(e.getValue().time, e.getValue().total);
+        if (completed && level == 0 && touchedCount > 0) {
+            for (int i = 0; i < touched.length && touchedCount > 0; i++) {
+                Stats stats = touched[i];
+                if (stats != null) {
+                    stats.addTime(time[i], total[i]);
+                    touched[i] = null;
+                    time[i] = 0;
+                    total[i] = 0;
+                    touchedCount--;
+                }
             }
             return true;
         }
         return false;
     }
 
+    @Override
+    public String toString() {
+        return "ExchangeData[" + exchangeId + "]";
+    }
+
 }
@@ -32,7 +32,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -41,7 +41,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Profiler extends SwitchableContainerStrategy implements ProfilerMBean {
 
     private final Map<ProcessorDefinition<?>, Stats> statistics = new LinkedHashMap<ProcessorDefinition<?>, Stats>();
-    private final Map<String, ExchangeData> exchanges = new ConcurrentHashMap<String, ExchangeData>();
+    private final AtomicInteger processorCount = new AtomicInteger();
 
     public Profiler() {
         disable();
@@ -76,7 +76,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
                 RouteDefinitionHelper.forceAssignIds(routeContext.getCamelContext(), route);
             }
         }
-        return new ProfilerProcessor(this, proc, getStats(definition), exchanges);
+        return new ProfilerProcessor(this, proc, getStats(definition));
     }
 
     public String dumpStatsAsXml(String routeId) {
@@ -120,6 +120,9 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
             sb.append(" count=\"").append(stats.getCount()).append("\"");
             sb.append(" self=\"").append(stats.getSelf()).append("\"");
             sb.append(" total=\"").append(stats.getTotal()).append("\"");
+            sb.append(" p50=\"").append(stats.getTotalAtPercentile(50)).append("\"");
+            sb.append(" p90=\"").append(stats.getTotalAtPercentile(90)).append("\"");
+            sb.append(" p99=\"").append(stats.getTotalAtPercentile(99)).append("\"");
             sb.append(">");
             for (ProcessorDefinition<?> child : statistics.keySet()) {
                 if (child.getParent() == definition) {
@@ -135,7 +138,7 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
             synchronized (statistics) {
                 Stats stats = statistics.get(definition);
                 if (stats == null) {
-                    stats = new Stats(definition, getStats(definition.getParent()));
+                    stats = new Stats(definition, getStats(definition.getParent()), processorCount.getAndIncrement());
                     statistics.put(definition, stats);
                 }
                 return stats;
@@ -150,6 +153,13 @@ public class Profiler extends SwitchableContainerStrategy implements ProfilerMBe
         }
     }
 
+    /**
+     * @return the number of profiled processors, which is also the next processor ordinal
+     */
+    public int getProcessorCount() {
+        return processorCount.get();
+    }
+
     public Map<ProcessorDefinition<?>, Stats> getStatistics() {
         return statistics;
     }
@@ -21,21 +21,17 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.processor.DelegateAsyncProcessor;
 
-import java.util.Map;
-
 /**
  *
  */
 public class ProfilerProcessor extends DelegateAsyncProcessor {
     private final Profiler profiler;
     private final Stats stats;
-    private final Map<String, ExchangeData> exchanges;
 
-    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats, Map<String, ExchangeData> exchanges) {
+    public ProfilerProcessor(Profiler profiler, Processor processor, Stats stats) {
         super(processor);
         this.profiler = profiler;
         this.stats = stats;
-        this.exchanges = exchanges;
     }
 
     @Override
@@ -43,13 +39,7 @@ public class ProfilerProcessor extends DelegateAsyncProcessor {
         if (!profiler.isEnabled(exchange)) {
             return processor.process(exchange, callback);
         }
-        ExchangeData data = exchanges.get(exchange.getExchangeId());
-        if (data == null) {
-            data = new ExchangeData();
-            exchanges.put(exchange.getExchangeId(), data);
-            exchange.addOnCompletion(data);
-        }
-        final ExchangeData ed = data;
+        final ExchangeData ed = ExchangeData.get(exchange, profiler.getProcessorCount());
         ed.start(stats);
         try {
             return processor.process(exchange, new AsyncCallback() {
@@ -59,16 +49,12 @@ public class ProfilerProcessor extends DelegateAsyncProcessor {
                     try {
                         callback.done(doneSync);
                     } finally {
-                        if (ed.stop(stats)) {
-                            exchanges.remove(exchange.getExchangeId());
-                        }
+                        ed.stop(stats);
                     }
                 }
             });
         } finally {
-            if (ed.stop(stats)) {
-                exchanges.remove(exchange.getExchangeId());
-            }
+            ed.stop(stats);
         }
     }
 
@@ -18,49 +18,67 @@ package org.fusesource.insight.camel.profiler;
 
 import org.apache.camel.model.ProcessorDefinition;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
  *
  */
 public class Stats {
-    final AtomicLong count = new AtomicLong();
-    final AtomicLong self = new AtomicLong();
-    final AtomicLong total = new AtomicLong();
+    final StripedCounter count = new StripedCounter();
+    final StripedCounter self = new StripedCounter();
+    final StripedCounter total = new StripedCounter();
+    final Histogram latencies = new Histogram();
     final Stats parent;
     final ProcessorDefinition definition;
+    final int index;
 
-    public Stats(ProcessorDefinition definition, Stats parent) {
+    /**
+     * @param index the ordinal of the processor, used to keep the timings of an exchange in arrays
+     */
+    public Stats(ProcessorDefinition definition, Stats parent, int index) {
         this.definition = definition;
         this.parent = parent;
+        this.index = index;
     }
 
-    public synchronized void addTime(long self, long total) {
-        this.count.incrementAndGet();
-        this.self.addAndGet(self);
-        this.total.addAndGet(total);
+    public void addTime(long self, long total) {
+        this.count.increment();
+        this.self.add(self);
+        this.total.add(total);
+        this.latencies.record(total);
     }
 
     public Stats getParent() {
         return parent;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
     public long getCount() {
-        return count.get();
+        return count.sum();
     }
 
     public long getSelf() {
-        return self.get();
+        return self.sum();
     }
 
     public long getTotal() {
-        return total.get();
+        return total.sum();
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the total time in nanoseconds spent by an exchange in the processor at the given percentile
+     */
+    public long getTotalAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
     }
 
     public void reset() {
-        count.set(0);
-        self.set(0);
-        total.set(0);
+        count.reset();
+        self.reset();
+        total.reset();
+        latencies.reset();
     }
 
     public String toString() {
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.camel.profiler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spreading its updates over several cells, chosen by thread, so that
+ * concurrent threads seldom contend on the same cache line.
+ * The sum is only consistent when no update is in progress, which is fine for statistics.
+ */
+public class StripedCounter {
+
+    // 8 longs per cell keeps two cells from sharing a 64 bytes cache line
+    private static final int PADDING = 8;
+    private static final int CELLS = cells();
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    public void add(long value) {
+        int cell = (int) (Thread.currentThread().getId() & (CELLS - 1));
+        cells.addAndGet(cell * PADDING, value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < CELLS; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    private static int cells() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int cells = 1;
+        while (cells < processors * 2) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.camel.audit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuditorTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+    private RecordingAuditor auditor;
+
+    @After
+    public void tearDown() {
+        if (auditor != null) {
+            auditor.release.countDown();
+            auditor.stop();
+        }
+    }
+
+    @Test
+    public void testDropOverflow() throws Exception {
+        auditor = new RecordingAuditor("overflow", "drop", "queueSize", "2");
+        auditor.enqueue(event());
+        assertTrue(auditor.entered.await(5, TimeUnit.SECONDS));
+        auditor.enqueue(event());
+        auditor.enqueue(event());
+        auditor.enqueue(event());
+        assertEquals(2, auditor.getPendingEvents());
+        assertEquals(1, auditor.getDroppedEvents());
+
+        auditor.release.countDown();
+        auditor.stop();
+        assertEquals(3, auditor.getProcessedEvents());
+    }
+
+    @Test
+    public void testBlockOverflow() throws Exception {
+        auditor = new RecordingAuditor("overflow", "block", "queueSize", "1");
+        auditor.enqueue(event());
+        assertTrue(auditor.entered.await(5, TimeUnit.SECONDS));
+        auditor.enqueue(event());
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    auditor.enqueue(event());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue("the producer should wait for room in the queue", producer.isAlive());
+
+        auditor.release.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        auditor.stop();
+        assertEquals(3, auditor.getProcessedEvents());
+        assertEquals(0, auditor.getDroppedEvents());
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        auditor = new RecordingAuditor("batchSize", "10");
+        auditor.enqueue(event());
+        assertTrue(auditor.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 25; i++) {
+            auditor.enqueue(event());
+        }
+
+        auditor.release.countDown();
+        auditor.stop();
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (List<AuditEvent> batch : auditor.batches) {
+            sizes.add(batch.size());
+        }
+        assertEquals("batch sizes", Arrays.asList(1, 10, 10, 5), sizes);
+    }
+
+    @Test
+    public void testWorkers() throws Exception {
+        auditor = new RecordingAuditor("workers", "3", "batchSize", "1");
+        // every worker waits for the others so that all of them must be processing at once
+        auditor.barrier = new CyclicBarrier(3);
+        auditor.release.countDown();
+        for (int i = 0; i < 3; i++) {
+            auditor.enqueue(event());
+        }
+        auditor.stop();
+        assertEquals(3, auditor.getProcessedEvents());
+        assertEquals(3, auditor.threads.size());
+    }
+
+    @Test
+    public void testUpdateKeepsQueuedEvents() throws Exception {
+        auditor = new RecordingAuditor("batchSize", "7");
+        auditor.release.countDown();
+        final int count = 2000;
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        auditor.enqueue(event());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; producer.isAlive(); i++) {
+            // a new queue size restarts the pipeline
+            auditor.update(properties("batchSize", "7", "queueSize", Integer.toString(10 + i % 2)));
+        }
+        producer.join();
+        auditor.stop();
+        assertEquals(count, auditor.getProcessedEvents());
+    }
+
+    private AuditEvent event() {
+        return new AuditEvent("Sending", new Date(), new DefaultExchange(context));
+    }
+
+    private static Map<String, String> properties(String... keyValues) {
+        Map<String, String> properties = new HashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put(keyValues[i], keyValues[i + 1]);
+        }
+        return properties;
+    }
+
+    /**
+     * Records the batches instead of storing them, the first batch waiting until released
+     */
+    static class RecordingAuditor extends Auditor {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<List<AuditEvent>> batches = Collections.synchronizedList(new ArrayList<List<AuditEvent>>());
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        volatile CyclicBarrier barrier;
+
+        RecordingAuditor(String... keyValues) {
+            update(properties(keyValues));
+        }
+
+        @Override
+        protected void process(List<AuditEvent> events) {
+            batches.add(new ArrayList<AuditEvent>(events));
+            threads.add(Thread.currentThread().getName());
+            entered.countDown();
+            try {
+                release.await();
+                if (barrier != null) {
+                    barrier.await(5, TimeUnit.SECONDS);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int getProcessedEvents() {
+            int count = 0;
+            synchronized (batches) {
+                for (List<AuditEvent> batch : batches) {
+                    count += batch.size();
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -25,7 +25,8 @@ import org.fusesource.insight.elasticsearch.ElasticRest;
 import org.fusesource.insight.elasticsearch.impl.ElasticRestImpl;
 import org.fusesource.insight.elasticsearch.impl.ElasticSearchServlet;
 import org.fusesource.insight.elasticsearch.impl.ElasticStorageImpl;
-import org.fusesource.insight.storage.StorageService;
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpService;
@@ -41,7 +42,7 @@ import javax.servlet.ServletException;
  * Instead of registering 3 different services, we use a single wrapper which delegate to the
  * three services.  It helps management of service registration.
  */
-public class ExtendedInternalNode implements Node, ElasticRest, StorageService {
+public class ExtendedInternalNode implements Node, ElasticRest, JsonStorageService {
 
     private final BundleContext bundleContext;
     private final ServiceTracker<HttpService, HttpService> httpServiceTracker;
@@ -145,4 +146,9 @@ public class ExtendedInternalNode implements Node, ElasticRest, StorageService {
     public void store(String type, long timestamp, String jsonData) {
         this.storage.store(type, timestamp, jsonData);
     }
+
+    @Override
+    public void store(String type, long timestamp, JsonWriter json) {
+        this.storage.store(type, timestamp, json);
+    }
 }
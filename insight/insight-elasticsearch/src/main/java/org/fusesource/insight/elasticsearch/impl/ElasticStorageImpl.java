@@ -16,89 +16,354 @@
  */
 package org.fusesource.insight.elasticsearch.impl;
 
-import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.node.Node;
-import org.fusesource.insight.storage.StorageService;
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class ElasticStorageImpl implements StorageService, Runnable {
+/**
+ * Stores events in elasticsearch using bulk requests.
+ * <p>
+ * Events are queued in memory up to <code>insight.storage.queue_size</code> and go to a spool
+ * file on local disk once the queue is full, so that a slow or unavailable node neither loses
+ * them nor fills the heap. Several sender threads send bulks of at most
+ * <code>insight.storage.bulk_size</code> events, or whatever has been queued once
+ * <code>insight.storage.flush_interval</code> milliseconds have elapsed. Bulks which could not
+ * be sent are spooled and sent again later, including after a restart.
+ */
+public class ElasticStorageImpl implements JsonStorageService, ElasticStorageMBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticStorageImpl.class);
 
-    private static final SimpleDateFormat indexFormat = new SimpleDateFormat("yyyy.MM.dd");
+    private static final ThreadLocal<SimpleDateFormat> indexFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long RETRY_DELAY = 5000;
 
     private final Node node;
-    private int max = 1000;
-    private Thread thread;
+    private int queueSize = 10000;
+    private int bulkSize = 1000;
+    private long flushInterval = 1000;
+    private int senders = 2;
+    private int segmentSize = 16 * 1024 * 1024;
+    private File spoolDirectory;
+
+    private BlockingQueue<StorageEvent> queue;
+    private Spool spool;
+    private List<Thread> threads = new ArrayList<Thread>();
     private volatile boolean running;
-    private BlockingQueue<ActionRequest> queue = new LinkedBlockingQueue<ActionRequest>();
+    private ObjectName mbeanName;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+    private final AtomicLong bulkErrors = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private volatile long lastLatency;
 
     public ElasticStorageImpl(Node node) {
         this.node = node;
     }
 
     public void init() {
+        Settings settings = node.settings();
+        queueSize = settings.getAsInt("insight.storage.queue_size", queueSize);
+        bulkSize = settings.getAsInt("insight.storage.bulk_size", bulkSize);
+        flushInterval = settings.getAsLong("insight.storage.flush_interval", flushInterval);
+        senders = Math.max(1, settings.getAsInt("insight.storage.senders", senders));
+        segmentSize = settings.getAsInt("insight.storage.spool_segment_size", segmentSize);
+        String dir = settings.get("insight.storage.spool_dir");
+        if (dir == null) {
+            dir = new File(settings.get("path.home", "."), "spool").getPath();
+        }
+        spoolDirectory = new File(dir);
+
+        queue = new ArrayBlockingQueue<StorageEvent>(queueSize);
+        try {
+            spool = new Spool(spoolDirectory, segmentSize);
+        } catch (IOException e) {
+            // keep going with the memory queue only, blocking the callers when full
+            LOGGER.warn("Unable to open the spool in " + spoolDirectory + ", events will not be spooled", e);
+            spool = null;
+        }
         running = true;
-        thread = new Thread(this, "ElasticStorage");
-        thread.start();
+        for (int i = 0; i < senders; i++) {
+            Thread thread = new Thread(new Sender(), "ElasticStorage-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        registerMBean();
     }
 
     public void destroy() {
+        if (!running) {
+            return;
+        }
         running = false;
-        if (thread != null) {
+        unregisterMBean();
+        for (Thread thread : threads) {
             thread.interrupt();
         }
+        for (Thread thread : threads) {
+            try {
+                thread.join(flushInterval + RETRY_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+        // keep the events not sent yet for the next start
+        List<StorageEvent> pending = new ArrayList<StorageEvent>();
+        queue.drainTo(pending);
+        spool(pending);
+        if (spool != null) {
+            spool.close();
+        }
     }
 
-
     @Override
     public void store(String type, long timestamp, String jsonData) {
-        Date ts = new Date(timestamp);
-        Date utc = new Date(ts.getTime() + ts.getTimezoneOffset() * 60000);
-        IndexRequest ir = new IndexRequest()
-                .index("insight-"+ indexFormat.format(utc))
-                .type(type)
-                .source(jsonData)
-                .create(true);
-        queue.add(ir);
+        store(new StorageEvent(type, timestamp, jsonData.getBytes(UTF8)));
+    }
+
+    @Override
+    public void store(String type, long timestamp, JsonWriter json) {
+        store(new StorageEvent(type, timestamp, json.toByteArray()));
     }
 
-    public void run() {
-        while (running) {
+    private void store(StorageEvent event) {
+        // events go through the spool as long as it is not empty to keep them roughly in order
+        if ((spool == null || spool.getCount() == 0) && queue.offer(event)) {
+            return;
+        }
+        if (spool != null) {
+            try {
+                spool.append(event);
+                return;
+            } catch (IOException e) {
+                LOGGER.warn("Unable to spool event", e);
+            }
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+        }
+    }
+
+    private void spool(List<StorageEvent> events) {
+        for (StorageEvent event : events) {
             try {
-                ActionRequest req = queue.take();
-                // Send data
-                BulkRequest bulk = new BulkRequest();
-                int nb = 0;
-                while (req != null && (nb == 0 || nb < max)) {
-                    bulk.add(req);
-                    nb++;
-                    req = queue.poll();
+                if (spool == null) {
+                    throw new IOException("No spool available");
                 }
-                if (bulk.numberOfActions() > 0) {
-                    BulkResponse rep = node.client().bulk(bulk).actionGet();
-                    for (BulkItemResponse bir : rep.items()) {
-                        if (bir.failed()) {
-                            LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
+                spool.append(event);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to spool event, dropping " + events.size() + " events", e);
+                failed.addAndGet(events.size());
+                return;
+            }
+        }
+    }
+
+    private IndexRequest toRequest(StorageEvent event) {
+        return new IndexRequest()
+                .index("insight-" + indexFormat.get().format(new Date(event.getTimestamp())))
+                .type(event.getType())
+                .source(event.getSource())
+                .create(true);
+    }
+
+    private void send(List<StorageEvent> events) throws Exception {
+        BulkRequest bulk = new BulkRequest();
+        for (StorageEvent event : events) {
+            bulk.add(toRequest(event));
+        }
+        long start = System.currentTimeMillis();
+        BulkResponse rep = node.client().bulk(bulk).actionGet();
+        long latency = System.currentTimeMillis() - start;
+        lastLatency = latency;
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+        bulks.incrementAndGet();
+        int nbFailed = 0;
+        for (BulkItemResponse bir : rep.items()) {
+            if (bir.failed()) {
+                nbFailed++;
+                LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
+            }
+        }
+        failed.addAndGet(nbFailed);
+        sent.addAndGet(events.size() - nbFailed);
+    }
+
+    private class Sender implements Runnable {
+        public void run() {
+            List<StorageEvent> batch = new ArrayList<StorageEvent>(bulkSize);
+            while (running) {
+                try {
+                    fill(batch);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        send(batch);
+                    } catch (Exception e) {
+                        bulkErrors.incrementAndGet();
+                        if (running) {
+                            LOGGER.warn("Error while sending requests, spooling " + batch.size() + " events", e);
+                        }
+                        spool(batch);
+                        batch.clear();
+                        if (running) {
+                            Thread.sleep(RETRY_DELAY);
                         }
                     }
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    // stopping
                 }
-            } catch (Exception e) {
-                if (running) {
-                    LOGGER.warn("Error while sending requests", e);
+            }
+            if (!batch.isEmpty()) {
+                spool(batch);
+            }
+        }
+
+        /**
+         * Waits until a full bulk is available or the flush interval elapsed.
+         */
+        private void fill(List<StorageEvent> batch) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + flushInterval;
+            while (batch.size() < bulkSize) {
+                queue.drainTo(batch, bulkSize - batch.size());
+                if (spool != null && batch.size() < bulkSize) {
+                    spool.read(batch, bulkSize - batch.size());
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (batch.size() >= bulkSize || wait <= 0) {
+                    break;
+                }
+                StorageEvent event = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    batch.add(event);
                 }
             }
         }
     }
 
+    // JMX
+    //-------------------------------------------------------------------------
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String name = node.settings().get("name");
+            mbeanName = new ObjectName("org.fusesource.insight:type=ElasticStorage"
+                    + (name != null ? ",name=" + ObjectName.quote(name) : ""));
+            server.registerMBean(this, mbeanName);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register ElasticStorage mbean", e);
+            mbeanName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (Exception e) {
+                LOGGER.debug("Unable to unregister ElasticStorage mbean", e);
+            }
+            mbeanName = null;
+        }
+    }
+
+    public int getQueueSize() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    public long getSpooledEvents() {
+        return spool != null ? spool.getCount() : 0;
+    }
+
+    public long getSpoolSize() {
+        return spool != null ? spool.getSize() : 0;
+    }
+
+    public long getSentEvents() {
+        return sent.get();
+    }
+
+    public long getFailedEvents() {
+        return failed.get();
+    }
+
+    public long getBulkCount() {
+        return bulks.get();
+    }
+
+    public long getBulkErrors() {
+        return bulkErrors.get();
+    }
+
+    public long getLastBulkLatency() {
+        return lastLatency;
+    }
+
+    public long getMeanBulkLatency() {
+        long nb = bulks.get();
+        return nb > 0 ? totalLatency.get() / nb : 0;
+    }
+
+    public long getMaxBulkLatency() {
+        return maxLatency.get();
+    }
+
+    public void resetStatistics() {
+        sent.set(0);
+        failed.set(0);
+        bulks.set(0);
+        bulkErrors.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+        lastLatency = 0;
+    }
+
 }
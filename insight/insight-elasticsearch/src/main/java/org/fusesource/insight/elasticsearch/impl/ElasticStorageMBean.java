@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.elasticsearch.impl;
+
+public interface ElasticStorageMBean {
+
+    /**
+     * @return the number of events waiting in memory
+     */
+    int getQueueSize();
+
+    /**
+     * @return the number of events waiting in the spool
+     */
+    long getSpooledEvents();
+
+    /**
+     * @return the size in bytes of the events waiting in the spool
+     */
+    long getSpoolSize();
+
+    long getSentEvents();
+
+    long getFailedEvents();
+
+    long getBulkCount();
+
+    long getBulkErrors();
+
+    long getLastBulkLatency();
+
+    long getMeanBulkLatency();
+
+    long getMaxBulkLatency();
+
+    void resetStatistics();
+
+}
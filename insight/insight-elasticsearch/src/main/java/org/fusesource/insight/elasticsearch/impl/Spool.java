@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.elasticsearch.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An append-only spool of events on local disk, used when the events come faster than they can be indexed.
+ * <p>
+ * The spool is a sequence of memory mapped segment files. Each segment starts with the position of its
+ * next unread record, followed by records made of their length and content. The length is written last,
+ * so a record is only seen once complete, and a zero length marks the end of the written records.
+ * Fully read segments are deleted, and the remaining ones are read again after a restart.
+ */
+public class Spool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Spool.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".dat";
+    private static final int HEADER = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private long sequence;
+    private long count;
+
+    public Spool(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        directory.mkdirs();
+        if (!directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long s1 = sequenceOf(f1);
+                long s2 = sequenceOf(f2);
+                return s1 < s2 ? -1 : s1 > s2 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            Segment segment = new Segment(file, (int) file.length());
+            if (segment.isFullyRead()) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+                count += segment.records;
+            }
+            sequence = Math.max(sequence, sequenceOf(file) + 1);
+        }
+        if (count > 0) {
+            LOGGER.info("Found " + count + " spooled events in " + directory);
+        }
+    }
+
+    public synchronized void append(StorageEvent event) throws IOException {
+        byte[] type = event.getType().getBytes(UTF8);
+        byte[] json = event.getSource();
+        int length = 4 + type.length + 8 + json.length;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.remaining() < 4 + length) {
+            tail = new Segment(new File(directory, PREFIX + sequence + SUFFIX), Math.max(segmentSize, HEADER + 4 + length));
+            sequence++;
+            segments.add(tail);
+        }
+        tail.append(type, event.getTimestamp(), json, length);
+        count++;
+    }
+
+    /**
+     * Moves at most <code>max</code> events from the spool to the given list.
+     *
+     * @return the number of events read
+     */
+    public synchronized int read(List<StorageEvent> events, int max) {
+        int read = 0;
+        while (read < max && !segments.isEmpty()) {
+            Segment head = segments.getFirst();
+            StorageEvent event = head.read();
+            if (event != null) {
+                events.add(event);
+                count--;
+                read++;
+            } else if (segments.size() > 1) {
+                segments.removeFirst();
+                head.delete();
+            } else {
+                break;
+            }
+        }
+        return read;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the size in bytes of the unread records
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.writePosition - segment.readPosition;
+        }
+        return size;
+    }
+
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+        long records;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid once the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, HEADER));
+            } finally {
+                raf.close();
+            }
+            long header = buffer.getLong(0);
+            readPosition = header >= HEADER && header <= buffer.capacity() ? (int) header : HEADER;
+            // look for the end of the written records
+            writePosition = readPosition;
+            while (writePosition + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(writePosition);
+                if (length <= 0 || writePosition + 4 + length > buffer.capacity()) {
+                    break;
+                }
+                writePosition += 4 + length;
+                records++;
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        boolean isFullyRead() {
+            return records == 0 && remaining() < 4 + 4 + 8;
+        }
+
+        void append(byte[] type, long timestamp, byte[] json, int length) {
+            int position = writePosition + 4;
+            buffer.putInt(position, type.length);
+            position += 4;
+            for (byte b : type) {
+                buffer.put(position++, b);
+            }
+            buffer.putLong(position, timestamp);
+            position += 8;
+            for (byte b : json) {
+                buffer.put(position++, b);
+            }
+            // clear what a record cut short by a crash may have left behind
+            if (position + 4 <= buffer.capacity()) {
+                buffer.putInt(position, 0);
+            }
+            buffer.putInt(writePosition, length);
+            writePosition += 4 + length;
+            records++;
+        }
+
+        StorageEvent read() {
+            if (readPosition >= writePosition) {
+                return null;
+            }
+            int length = buffer.getInt(readPosition);
+            int position = readPosition + 4;
+            int typeLength = buffer.getInt(position);
+            position += 4;
+            byte[] type = new byte[typeLength];
+            for (int i = 0; i < typeLength; i++) {
+                type[i] = buffer.get(position++);
+            }
+            long timestamp = buffer.getLong(position);
+            position += 8;
+            byte[] json = new byte[length - 4 - typeLength - 8];
+            for (int i = 0; i < json.length; i++) {
+                json[i] = buffer.get(position++);
+            }
+            readPosition += 4 + length;
+            buffer.putLong(0, readPosition);
+            records--;
+            return new StorageEvent(new String(type, UTF8), timestamp, json);
+        }
+
+        void delete() {
+            if (!file.delete()) {
+                LOGGER.debug("Unable to delete spool segment " + file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.elasticsearch.impl;
+
+/**
+ * An event waiting to be indexed.
+ */
+public class StorageEvent {
+
+    private final String type;
+    private final long timestamp;
+    private final byte[] source;
+
+    public StorageEvent(String type, long timestamp, byte[] source) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.source = source;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the UTF-8 encoded json document
+     */
+    public byte[] getSource() {
+        return source;
+    }
+
+}
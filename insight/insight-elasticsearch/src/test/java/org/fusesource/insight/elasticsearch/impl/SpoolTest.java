@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.elasticsearch.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpoolTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("spool", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        Spool spool = new Spool(directory, 256);
+        for (int i = 0; i < 20; i++) {
+            spool.append(new StorageEvent("type" + i, i, bytes("{\"value\":\"h\u00e9llo " + i + "\"}")));
+        }
+        assertEquals(20, spool.getCount());
+
+        List<StorageEvent> events = new ArrayList<StorageEvent>();
+        assertEquals(15, spool.read(events, 15));
+        assertEquals(5, spool.read(events, 10));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("type" + i, events.get(i).getType());
+            assertEquals(i, events.get(i).getTimestamp());
+            assertEquals("{\"value\":\"h\u00e9llo " + i + "\"}", new String(events.get(i).getSource(), "UTF-8"));
+        }
+        assertEquals(0, spool.getCount());
+        assertEquals(0, spool.getSize());
+        // read segments are deleted
+        assertEquals(1, directory.listFiles().length);
+        spool.close();
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        Spool spool = new Spool(directory, 256);
+        for (int i = 0; i < 10; i++) {
+            spool.append(new StorageEvent("type", i, bytes("{}")));
+        }
+        List<StorageEvent> events = new ArrayList<StorageEvent>();
+        spool.read(events, 4);
+        spool.close();
+
+        spool = new Spool(directory, 256);
+        assertEquals(6, spool.getCount());
+        spool.append(new StorageEvent("type", 10, bytes("{}")));
+        events.clear();
+        assertEquals(7, spool.read(events, 100));
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i + 4, events.get(i).getTimestamp());
+        }
+        spool.close();
+    }
+
+    @Test
+    public void testIncompleteRecordIsIgnored() throws Exception {
+        Spool spool = new Spool(directory, 256);
+        spool.append(new StorageEvent("type", 1, bytes("{}")));
+        spool.close();
+
+        // a record whose length was not written yet when the process died
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.seek(8 + 4 + 18 + 4);
+            raf.writeInt(6);
+            raf.write("type".getBytes("UTF-8"));
+        } finally {
+            raf.close();
+        }
+
+        spool = new Spool(directory, 256);
+        assertEquals(1, spool.getCount());
+        List<StorageEvent> events = new ArrayList<StorageEvent>();
+        assertEquals(1, spool.read(events, 100));
+        assertEquals(1, events.get(0).getTimestamp());
+        spool.close();
+    }
+
+    private static byte[] bytes(String json) throws Exception {
+        return json.getBytes("UTF-8");
+    }
+
+}
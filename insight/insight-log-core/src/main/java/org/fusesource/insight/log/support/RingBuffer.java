@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.log.support;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free ring buffer keeping the last elements added along with their timestamp.
+ * <p>
+ * Each element gets a sequence number from a single atomic counter, which also tells the
+ * slot it is written to. A slot is published by writing its sequence once the element is
+ * stored, and readers check the sequence before and after reading a slot to skip those being
+ * written or overwritten. A writer only waits when the writer of the previous lap of its slot
+ * has not published yet, which only happens when there are more concurrent writers than slots.
+ * <p>
+ * Elements are expected to be added in roughly chronological order, as log events are, so that
+ * the range of elements between two timestamps is found by a binary search on the sequence.
+ */
+public class RingBuffer<T> {
+
+    private final int capacity;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray timestamps;
+    // the sequence of the element stored in each slot, -1 if none
+    private final AtomicLongArray published;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long cleared;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The size must be greater than 0");
+        }
+        this.capacity = capacity;
+        this.elements = new AtomicReferenceArray<T>(capacity);
+        this.timestamps = new AtomicLongArray(capacity);
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the sequence of the element
+     */
+    public long add(T element, long timestamp) {
+        if (null == element) {
+            throw new NullPointerException("Attempted to add null object to buffer");
+        }
+        long seq = sequence.getAndIncrement();
+        int slot = slot(seq);
+        // claim the slot once the element of the previous lap is published, hiding it while it is written
+        long previous = seq < capacity ? -1 : seq - capacity;
+        while (!published.compareAndSet(slot, previous, -1)) {
+            Thread.yield();
+        }
+        elements.set(slot, element);
+        timestamps.set(slot, timestamp);
+        published.set(slot, seq);
+        return seq;
+    }
+
+    public int size() {
+        return (int) (getEndSequence() - getStartSequence());
+    }
+
+    /**
+     * Forgets all the elements added so far.
+     */
+    public void clear() {
+        cleared = sequence.get();
+    }
+
+    /**
+     * @return the sequence of the oldest element still available
+     */
+    public long getStartSequence() {
+        return Math.max(cleared, getEndSequence() - capacity);
+    }
+
+    /**
+     * @return the sequence of the next element to be added
+     */
+    public long getEndSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * @return the sequence of the first available element with a timestamp strictly after the given one,
+     *         or the end sequence if none
+     */
+    public long searchAfter(long timestamp) {
+        return search(timestamp, true);
+    }
+
+    /**
+     * @return the sequence of the first available element with a timestamp not before the given one,
+     *         or the end sequence if none
+     */
+    public long searchNotBefore(long timestamp) {
+        return search(timestamp, false);
+    }
+
+    private long search(long timestamp, boolean strict) {
+        long end = getEndSequence();
+        long low = Math.max(cleared, end - capacity);
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            int slot = slot(mid);
+            long seq = published.get(slot);
+            long ts = timestamps.get(slot);
+            boolean before;
+            if (seq == mid && published.get(slot) == mid) {
+                before = strict ? ts <= timestamp : ts < timestamp;
+            } else {
+                // an overwritten slot is older than anything else, a slot being written newer
+                before = seq > mid;
+            }
+            if (before) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the available elements from the oldest to the newest
+     */
+    public Iterable<T> getElements() {
+        return getElements(getStartSequence(), getEndSequence());
+    }
+
+    /**
+     * @return the last <code>nb</code> available elements from the oldest to the newest
+     */
+    public Iterable<T> getElements(int nb) {
+        long end = getEndSequence();
+        return getElements(Math.max(getStartSequence(), end - Math.max(0, nb)), end);
+    }
+
+    /**
+     * Iterates without copying over the elements with a sequence in the given range, skipping those
+     * which have been overwritten meanwhile.
+     */
+    public Iterable<T> getElements(final long from, final long to) {
+        return new Iterable<T>() {
+            public Iterator<T> iterator() {
+                return new Itr(from, to);
+            }
+        };
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    private class Itr implements Iterator<T> {
+        private final long to;
+        private long seq;
+        private T next;
+
+        Itr(long from, long to) {
+            this.seq = Math.max(from, Math.max(cleared, getEndSequence() - capacity));
+            this.to = to;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && seq < to) {
+                int slot = slot(seq);
+                if (published.get(slot) == seq) {
+                    T element = elements.get(slot);
+                    if (published.get(slot) == seq) {
+                        next = element;
+                    }
+                }
+                seq++;
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            T answer = next;
+            advance();
+            return answer;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.log.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOverwriteOldest() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+        for (int i = 0; i < 3; i++) {
+            buffer.add(i, i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(list(0, 1, 2), toList(buffer.getElements()));
+
+        for (int i = 3; i < 12; i++) {
+            buffer.add(i, i);
+        }
+        assertEquals(5, buffer.size());
+        assertEquals(list(7, 8, 9, 10, 11), toList(buffer.getElements()));
+        assertEquals(list(10, 11), toList(buffer.getElements(2)));
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        buffer.add(12, 12);
+        assertEquals(list(12), toList(buffer.getElements()));
+    }
+
+    @Test
+    public void testSearch() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(8);
+        for (int i = 0; i < 20; i++) {
+            // two elements per timestamp
+            buffer.add(i, 100 + i / 2);
+        }
+        // elements 12 to 19 are available, with timestamps 106 to 109
+        assertEquals(12, buffer.searchAfter(100));
+        assertEquals(14, buffer.searchAfter(106));
+        assertEquals(16, buffer.searchNotBefore(108));
+        assertEquals(20, buffer.searchAfter(109));
+        assertEquals(list(14, 15), toList(buffer.getElements(buffer.searchAfter(106), buffer.searchNotBefore(108))));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final RingBuffer<Long> buffer = new RingBuffer<Long>(1000);
+        final int threads = 4;
+        final int count = 100000;
+        // the element added with each sequence
+        final AtomicLongArray added = new AtomicLongArray(threads * count);
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long base = (long) t * count;
+            new Thread() {
+                public void run() {
+                    for (long i = 0; i < count; i++) {
+                        added.set((int) buffer.add(base + i, i), base + i);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        while (latch.getCount() > 0) {
+            // the elements of each writer are seen in the order they were added
+            long[] last = new long[threads];
+            Arrays.fill(last, -1);
+            for (Long value : buffer.getElements()) {
+                int writer = (int) (value / count);
+                assertTrue(value > last[writer]);
+                last[writer] = value;
+            }
+        }
+        latch.await();
+        assertEquals(threads * count, buffer.getEndSequence());
+        // each slot holds the element added with its sequence
+        long seq = buffer.getStartSequence();
+        for (Long value : buffer.getElements()) {
+            assertEquals(added.get((int) seq++), value.longValue());
+        }
+        assertEquals(buffer.getEndSequence(), seq);
+    }
+
+    @Test
+    public void testWritersLappingEachOther() throws Exception {
+        // many more writers than slots, so that writers of successive laps of a slot race
+        final RingBuffer<AtomicLong> buffer = new RingBuffer<AtomicLong>(2);
+        final int threads = 4;
+        final int count = 5000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        // the element holds its own sequence once known
+                        AtomicLong element = new AtomicLong(-1);
+                        element.set(buffer.add(element, i));
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        while (latch.getCount() > 0) {
+            long end = buffer.getEndSequence();
+            for (long seq = buffer.getStartSequence(); seq < end; seq++) {
+                for (AtomicLong element : buffer.getElements(seq, seq + 1)) {
+                    long actual = element.get();
+                    assertTrue("Element of sequence " + actual + " found at " + seq, actual == -1 || actual == seq);
+                }
+            }
+            Thread.yield();
+        }
+        latch.await();
+    }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> list = new ArrayList<T>();
+        for (T t : iterable) {
+            list.add(t);
+        }
+        return list;
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+}
@@ -17,6 +17,8 @@
 
 package org.fusesource.insight.log.storage;
 
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.fusesource.insight.storage.StorageService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventConstants;
@@ -24,9 +26,6 @@ import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.fusesource.insight.log.storage.InsightUtils.formatDate;
-import static org.fusesource.insight.log.storage.InsightUtils.quote;
-
 public class InsightEventHandler implements EventHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InsightLogAppender.class);
@@ -55,11 +54,11 @@ public class InsightEventHandler implements EventHandler {
 
     public void handleEvent(final Event event) {
         try {
-            StringBuilder writer = new StringBuilder();
+            JsonWriter writer = JsonWriter.get();
             writer.append("{ \"host\": ");
-            quote(name, writer);
+            writer.quote(name);
             writer.append(", \"topic\": ");
-            quote(event.getTopic(), writer);
+            writer.quote(event.getTopic());
             writer.append(", \"properties\": { ");
             boolean first = true;
 
@@ -71,14 +70,14 @@ public class InsightEventHandler implements EventHandler {
                 } else {
                     writer.append(", ");
                 }
-                quote(name, writer);
+                writer.quote(name);
                 writer.append(": ");
                 Object value = event.getProperty(name);
                 if (value == null) {
                     writer.append("null");
                 } else if (EventConstants.TIMESTAMP.equals(name) && value instanceof Long) {
                     timestamp = (Long) value;
-                    quote(formatDate(timestamp), writer);
+                    writer.quoteDate(timestamp);
                 } else if (value.getClass().isArray()) {
                     writer.append(" [ ");
                     boolean vfirst = true;
@@ -88,11 +87,11 @@ public class InsightEventHandler implements EventHandler {
                         } else {
                             vfirst = false;
                         }
-                        quote(v.toString(), writer);
+                        writer.quote(v.toString());
                     }
                     writer.append(" ] ");
                 } else {
-                    quote(value.toString(), writer);
+                    writer.quote(value.toString());
                 }
             }
             writer.append(" } }");
@@ -100,7 +99,11 @@ public class InsightEventHandler implements EventHandler {
             if (timestamp == 0) {
                 timestamp = System.currentTimeMillis();
             }
-            storage.store(type, timestamp, writer.toString());
+            if (storage instanceof JsonStorageService) {
+                ((JsonStorageService) storage).store(type, timestamp, writer);
+            } else {
+                storage.store(type, timestamp, writer.toString());
+            }
         } catch (Exception e) {
             LOGGER.warn("Error appending log to elastic search", e);
         }
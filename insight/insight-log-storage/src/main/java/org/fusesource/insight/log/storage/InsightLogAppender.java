@@ -17,19 +17,19 @@
 
 package org.fusesource.insight.log.storage;
 
+import org.fusesource.insight.log.service.support.MavenCoordinates;
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.fusesource.insight.storage.StorageService;
 import org.ops4j.pax.logging.spi.PaxAppender;
 import org.ops4j.pax.logging.spi.PaxLoggingEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import static org.fusesource.insight.log.service.support.MavenCoordinates.addMavenCoord;
-import static org.fusesource.insight.log.storage.InsightUtils.formatDate;
-import static org.fusesource.insight.log.storage.InsightUtils.quote;
+import static org.fusesource.insight.log.service.support.MavenCoordinates.getMavenCoordinatesOfLine;
 
 public class InsightLogAppender implements PaxAppender {
 
@@ -52,6 +52,14 @@ public class InsightLogAppender implements PaxAppender {
         this.storage = storage;
     }
 
+    private static String getMavenCoordinates(Object bundleId) {
+        try {
+            return MavenCoordinates.getMavenCoordinates(Long.parseLong(bundleId.toString()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     public void doAppend(final PaxLoggingEvent paxLoggingEvent) {
         try {
 
@@ -60,59 +68,79 @@ public class InsightLogAppender implements PaxAppender {
                   !paxLoggingEvent.getProperties().containsKey("trace-id") ) {
                 return;
             }
-            StringBuilder writer = new StringBuilder();
+            JsonWriter writer = JsonWriter.get();
             writer.append("{ \"host\" : ");
-            quote(name, writer);
+            writer.quote(name);
             writer.append(",\n  \"timestamp\" : ");
-            quote(formatDate(paxLoggingEvent.getTimeStamp()), writer);
+            writer.quoteDate(paxLoggingEvent.getTimeStamp());
             writer.append(",\n  \"level\" : ");
-            quote(paxLoggingEvent.getLevel().toString(), writer);
+            writer.quote(paxLoggingEvent.getLevel().toString());
             writer.append(",\n  \"logger\" : ");
-            quote(paxLoggingEvent.getLoggerName(), writer);
+            writer.quote(paxLoggingEvent.getLoggerName());
             writer.append(",\n  \"thread\" : ");
-            quote(paxLoggingEvent.getThreadName(), writer);
+            writer.quote(paxLoggingEvent.getThreadName());
             writer.append(",\n  \"message\" : ");
-            quote(paxLoggingEvent.getMessage(), writer);
+            writer.quote(paxLoggingEvent.getMessage());
 
             String[] throwable = paxLoggingEvent.getThrowableStrRep();
             if( throwable!=null ) {
-                throwable = addMavenCoord(throwable);
                 writer.append(",\n  \"exception\" : [");
                 for (int i = 0; i < throwable.length; i++) {
                     if(i!=0)
                         writer.append(", ");
-                    quote(throwable[i], writer);
+                    writer.append('"').escape(throwable[i]);
+                    String mvn = getMavenCoordinatesOfLine(throwable[i]);
+                    if (mvn != null) {
+                        writer.append('[').escape(mvn).append(']');
+                    }
+                    writer.append('"');
                 }
                 writer.append("]");
             }
 
             writer.append(",\n  \"properties\" : { ");
             boolean first = true;
-            Map<String, String> properties = new HashMap<String, String>();
+            Object bundleId = null;
+            boolean hasMavenCoordinates = false;
             Set<Map.Entry> set = paxLoggingEvent.getProperties().entrySet();
             for (Map.Entry entry : set) {
                 Object key = entry.getKey();
                 Object value = entry.getValue();
                 if (key != null && value != null) {
-                    properties.put(key.toString(), value.toString());
+                    if (first) {
+                        first = false;
+                    } else {
+                        writer.append(", ");
+                    }
+                    String k = key.toString();
+                    writer.quote(k);
+                    writer.append(": ");
+                    writer.quote(value.toString());
+                    if ("bundle.id".equals(k)) {
+                        bundleId = value;
+                    } else if ("maven.coordinates".equals(k)) {
+                        hasMavenCoordinates = true;
+                    }
                 }
             }
-            addMavenCoord(properties);
-
-            for (Object key : properties.keySet()) {
-                if (first) {
-                    first = false;
-                } else {
-                    writer.append(", ");
+            if (!hasMavenCoordinates && bundleId != null) {
+                String mvn = getMavenCoordinates(bundleId);
+                if (mvn != null && !mvn.isEmpty()) {
+                    if (!first) {
+                        writer.append(", ");
+                    }
+                    writer.append("\"maven.coordinates\": ");
+                    writer.quote(mvn);
                 }
-                quote(key.toString(), writer);
-                writer.append(": ");
-                quote(properties.get(key).toString(), writer);
             }
             writer.append(" }");
             writer.append("\n}");
 
-            storage.store(type, paxLoggingEvent.getTimeStamp(), writer.toString());
+            if (storage instanceof JsonStorageService) {
+                ((JsonStorageService) storage).store(type, paxLoggingEvent.getTimeStamp(), writer);
+            } else {
+                storage.store(type, paxLoggingEvent.getTimeStamp(), writer.toString());
+            }
         } catch (Exception e) {
             LOGGER.warn("Error appending log to storage", e);
         }
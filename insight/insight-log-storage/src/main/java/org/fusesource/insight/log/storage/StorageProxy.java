@@ -17,11 +17,13 @@
 
 package org.fusesource.insight.log.storage;
 
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.fusesource.insight.storage.StorageService;
 import org.osgi.framework.BundleContext;
 import org.osgi.util.tracker.ServiceTracker;
 
-public class StorageProxy implements StorageService {
+public class StorageProxy implements JsonStorageService {
 
     private BundleContext context;
     private ServiceTracker<StorageService, StorageService> tracker;
@@ -47,4 +49,14 @@ public class StorageProxy implements StorageService {
         }
     }
 
+    @Override
+    public void store(String type, long timestamp, JsonWriter json) {
+        StorageService storage = this.tracker.getService();
+        if (storage instanceof JsonStorageService) {
+            ((JsonStorageService) storage).store(type, timestamp, json);
+        } else if (storage != null) {
+            storage.store(type, timestamp, json.toString());
+        }
+    }
+
 }
@@ -28,7 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class MavenCoordinates {
 
-    private static Map<String, String> MAVEN_COORDINATES = new ConcurrentHashMap<String, String>();
+    private static Map<Long, Coordinates> MAVEN_COORDINATES = new ConcurrentHashMap<Long, Coordinates>();
 
     public static void addMavenCoord(Map<String, String> properties) {
         if (properties.get("maven.coordinates") == null) {
@@ -51,21 +51,39 @@ public class MavenCoordinates {
     }
 
     private static String addMavenCoord(String line) {
-        if (line.endsWith("]")) {
-            int index = line.lastIndexOf('[');
-            if (index > 0) {
-                String str = line.substring(index + 1, line.length() - 1);
-                index = str.indexOf(':');
-                if (index > 0) {
-                    String idStr = str.substring(0, index);
-                    String mvn = getMavenCoordinates(idStr);
-                    if (mvn != null) {
-                        return line + "[" + mvn + "]";
-                    }
-                }
+        String mvn = getMavenCoordinatesOfLine(line);
+        return mvn != null ? line + "[" + mvn + "]" : line;
+    }
+
+    /**
+     * Returns the maven coordinates of the bundle of a stack trace line ending with
+     * <code>[bundleId:...]</code>, or null if the line does not tell its bundle.
+     */
+    public static String getMavenCoordinatesOfLine(String line) {
+        int end = line.length() - 1;
+        if (end < 0 || line.charAt(end) != ']') {
+            return null;
+        }
+        int index = line.lastIndexOf('[', end);
+        if (index <= 0) {
+            return null;
+        }
+        long bundleId = 0;
+        int i = index + 1;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == ':') {
+                break;
+            }
+            if (c < '0' || c > '9' || bundleId > Long.MAX_VALUE / 10) {
+                return null;
             }
+            bundleId = bundleId * 10 + (c - '0');
         }
-        return line;
+        if (i == index + 1 || i == end) {
+            return null;
+        }
+        return getMavenCoordinates(bundleId);
     }
 
     private static String getMavenCoordinates(Map props) {
@@ -99,8 +117,8 @@ public class MavenCoordinates {
             // Not sure why can't we find the bundleId?
             return null;
         }
-        String id = Long.toString(bundle.getBundleId()) + ":" + Long.toString(bundle.getLastModified());
-        String maven = MAVEN_COORDINATES.get(id);
+        Coordinates cached = MAVEN_COORDINATES.get(bundleId);
+        String maven = cached != null && cached.lastModified == bundle.getLastModified() ? cached.maven : null;
         if (maven == null) {
             if (bundle.getState() >= Bundle.RESOLVED) {
                 try {
@@ -115,11 +133,22 @@ public class MavenCoordinates {
                     // Ignore
                     maven = "";
                 }
-                MAVEN_COORDINATES.put(id, maven);
+                MAVEN_COORDINATES.put(bundleId, new Coordinates(bundle.getLastModified(), maven));
             } else {
                 maven = "";
             }
         }
         return maven;
     }
+
+    private static class Coordinates {
+        final long lastModified;
+        final String maven;
+
+        Coordinates(long lastModified, String maven) {
+            this.lastModified = lastModified;
+            this.maven = maven;
+        }
+    }
+
 }
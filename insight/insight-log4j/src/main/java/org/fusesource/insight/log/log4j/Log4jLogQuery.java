@@ -29,8 +29,8 @@ import org.fusesource.insight.log.LogEvent;
 import org.fusesource.insight.log.LogFilter;
 import org.fusesource.insight.log.LogResults;
 import org.fusesource.insight.log.support.LogQuerySupport;
-import org.fusesource.insight.log.support.LruList;
 import org.fusesource.insight.log.support.Predicate;
+import org.fusesource.insight.log.support.RingBuffer;
 import org.ops4j.pax.url.maven.commons.MavenConfigurationImpl;
 import org.ops4j.pax.url.maven.commons.MavenSettingsImpl;
 import org.ops4j.pax.url.mvn.ServiceConstants;
@@ -61,7 +61,7 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
     private static final transient Logger LOG = LoggerFactory.getLogger(Log4jLogQuery.class);
 
     private int size = 1000;
-    private LruList<LoggingEvent> events;
+    private RingBuffer<LoggingEvent> events;
     private boolean addMavenCoordinates = true;
     private AetherBasedResolver resolver;
     private Properties properties = new Properties();
@@ -117,10 +117,14 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
     public LogResults queryLogResults(LogFilter filter) {
         Predicate<LogEvent> predicate = createPredicate(filter);
         int maxCount = -1;
+        Long after = null;
+        Long before = null;
         if (filter != null) {
             maxCount = filter.getCount();
+            after = filter.getAfterTimestamp();
+            before = filter.getBeforeTimestamp();
         }
-        return filterLogResults(predicate, maxCount);
+        return filterLogResults(predicate, maxCount, after, before);
     }
 
     private Predicate<LogEvent> createPredicate(LogFilter filter) {
@@ -139,29 +143,6 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
                 }
             });
         }
-        final Long before = filter.getBeforeTimestamp();
-        if (before != null) {
-            final Date date = new Date(before);
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    Date time = event.getTimestamp();
-                    return time != null && time.before(date);
-                }
-            });
-        }
-        final Long after = filter.getAfterTimestamp();
-        if (after != null) {
-            final Date date = new Date(after);
-            predicates.add(new Predicate<LogEvent>() {
-                @Override
-                public boolean matches(LogEvent event) {
-                    Date time = event.getTimestamp();
-                    return time != null && time.after(date);
-                }
-            });
-        }
-
         final String matchesText = filter.getMatchesText();
         if (matchesText != null && matchesText.length() > 0) {
             predicates.add(new Predicate<LogEvent>() {
@@ -208,20 +189,34 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
     }
 
     protected LogResults filterLogResults(Predicate<LogEvent> predicate, int maxCount) {
+        return filterLogResults(predicate, maxCount, null, null);
+    }
+
+    /**
+     * Filters the events logged strictly after and before the given timestamps, if any, which are
+     * looked up in the buffer rather than matched against each event.
+     */
+    protected LogResults filterLogResults(Predicate<LogEvent> predicate, int maxCount, Long after, Long before) {
         int matched = 0;
         long from = Long.MAX_VALUE;
         long to = Long.MIN_VALUE;
         List<LogEvent> list = new ArrayList<LogEvent>();
-        Iterable<LoggingEvent> elements = getEvents().getElements();
-        for (LoggingEvent element : elements) {
-            LogEvent logEvent = toLogEvent(element);
+        RingBuffer<LoggingEvent> events = getEvents();
+        long start = after != null ? events.searchAfter(after) : events.getStartSequence();
+        long end = before != null ? events.searchNotBefore(before) : events.getEndSequence();
+        for (LoggingEvent element : events.getElements(start, end)) {
             long timestamp = element.getTimeStamp();
+            // events logged concurrently may be slightly out of order around the bounds
+            if ((after != null && timestamp <= after) || (before != null && timestamp >= before)) {
+                continue;
+            }
             if (timestamp > to) {
                 to = timestamp;
             }
             if (timestamp < from) {
                 from = timestamp;
             }
+            LogEvent logEvent = toLogEvent(element);
             if (logEvent != null) {
                 if (predicate == null || predicate.matches(logEvent)) {
                     list.add(logEvent);
@@ -355,14 +350,14 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
 
     // Properties
     //-------------------------------------------------------------------------
-    public LruList<LoggingEvent> getEvents() {
+    public RingBuffer<LoggingEvent> getEvents() {
         if (events == null) {
-            events = new LruList<LoggingEvent>(LoggingEvent.class, getSize());
+            events = new RingBuffer<LoggingEvent>(getSize());
         }
         return events;
     }
 
-    public void setEvents(LruList<LoggingEvent> events) {
+    public void setEvents(RingBuffer<LoggingEvent> events) {
         this.events = events;
     }
 
@@ -411,6 +406,6 @@ public class Log4jLogQuery extends LogQuerySupport implements Log4jLogQueryMBean
         if (addMavenCoordinates) {
             appendMavenCoordinates(record);
         }
-		getEvents().add(record);
+		getEvents().add(record, record.getTimeStamp());
 	}
 }
@@ -33,9 +33,13 @@ import org.fusesource.insight.metrics.model.Query;
 import org.fusesource.insight.metrics.model.QueryResult;
 import org.fusesource.insight.metrics.model.Request;
 import org.fusesource.insight.metrics.model.Server;
-import org.fusesource.insight.metrics.support.JmxUtils;
+import org.fusesource.insight.metrics.support.JmxSampler;
+import org.fusesource.insight.metrics.support.MetricsHistory;
 import org.fusesource.insight.metrics.support.Renderer;
 import org.fusesource.insight.metrics.support.ScriptUtils;
+import org.fusesource.insight.metrics.support.TimeSeries;
+import org.fusesource.insight.storage.JsonStorageService;
+import org.fusesource.insight.storage.JsonWriter;
 import org.fusesource.insight.storage.StorageService;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -50,6 +54,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -97,7 +103,10 @@ public class MetricsCollector implements MetricsCollectorMBean {
 
     private ScheduledThreadPoolExecutor executor;
     private Map<Query, QueryState> queries = new ConcurrentHashMap<Query, QueryState>();
+    // one sampling task per query period
+    private Map<Integer, ScheduledFuture<?>> samplers = new ConcurrentHashMap<Integer, ScheduledFuture<?>>();
     private Renderer renderer = new Renderer();
+    private MetricsHistory history = new MetricsHistory();
 
     private ServiceTracker<MBeanServer, MBeanServer> mbeanServer;
     private ServiceTracker<StorageService, StorageService> storage;
@@ -105,9 +114,10 @@ public class MetricsCollector implements MetricsCollectorMBean {
     private int defaultDelay = 60;
     private int threadPoolSize = 5;
     private String type;
+    private boolean historyEnabled;
+    private int historyMaxMetrics = MetricsHistory.DEFAULT_MAX_METRICS;
 
     static class QueryState {
-        ScheduledFuture<?> future;
         Server server;
         Query query;
         QueryResult lastResult;
@@ -117,7 +127,6 @@ public class MetricsCollector implements MetricsCollectorMBean {
         Group<QueryNodeState> lock;
 
         public void close() {
-            future.cancel(false);
             if (lock != null) {
                 try {
                     lock.close();
@@ -162,6 +171,20 @@ public class MetricsCollector implements MetricsCollectorMBean {
         this.type = type;
     }
 
+    /**
+     * Sets whether the collected values are also kept locally, see {@link #queryHistory(String, long, long)}
+     */
+    public void setHistoryEnabled(boolean historyEnabled) {
+        this.historyEnabled = historyEnabled;
+    }
+
+    /**
+     * Sets the maximum number of metrics kept locally, each taking up to 16 kilobytes
+     */
+    public void setHistoryMaxMetrics(int historyMaxMetrics) {
+        this.historyMaxMetrics = historyMaxMetrics;
+    }
+
     public void setFabricService(FabricService fabricService) {
         this.fabricService = fabricService;
     }
@@ -175,7 +198,22 @@ public class MetricsCollector implements MetricsCollectorMBean {
         return ScriptUtils.toJson(meta);
     }
 
+    @Override
+    public String[] getHistoryMetrics() {
+        Set<String> metrics = history.getMetrics();
+        return metrics.toArray(new String[metrics.size()]);
+    }
+
+    @Override
+    public String queryHistory(String metric, long from, long to) {
+        TimeSeries series = history.get(metric);
+        List<Map<String, Object>> points = series != null
+                ? series.query(from, to) : Collections.<Map<String, Object>>emptyList();
+        return ScriptUtils.toJson(points);
+    }
+
     public void start() throws IOException {
+        this.history = new MetricsHistory(historyMaxMetrics);
         this.executor = new ScheduledThreadPoolExecutor(threadPoolSize);
         this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
         this.executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
@@ -237,6 +275,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
         for (QueryState q : queries.values()) {
             q.close();
         }
+        samplers.clear();
     }
 
 
@@ -254,6 +293,7 @@ public class MetricsCollector implements MetricsCollectorMBean {
                 for (Query q : queries.keySet()) {
                     if (!newQueries.remove(q)) {
                         queries.remove(q).close();
+                        history.remove(q.getName());
                     }
                 }
                 Server server = new Server(container.getId());
@@ -286,14 +326,9 @@ public class MetricsCollector implements MetricsCollectorMBean {
                         state.lock.start();
                     }
 
-                    long delay = q.getPeriod() > 0 ? q.getPeriod() : defaultDelay;
-                    state.future = this.executor.scheduleAtFixedRate(
-                            new Task(state),
-                            Math.round(Math.random() * 1000) + 1,
-                            delay * 1000,
-                            TimeUnit.MILLISECONDS);
                     queries.put(q, state);
                 }
+                updateSamplers();
             }
         } catch (RejectedExecutionException t) {
             // Ignore, the thread pool has been shut down
@@ -302,6 +337,34 @@ public class MetricsCollector implements MetricsCollectorMBean {
         }
     }
 
+    /**
+     * Schedules a sampling task for each period used by the queries, and cancels the unused ones
+     */
+    protected void updateSamplers() {
+        Set<Integer> periods = new HashSet<Integer>();
+        for (Query q : queries.keySet()) {
+            periods.add(getPeriod(q));
+        }
+        for (Integer period : samplers.keySet()) {
+            if (!periods.contains(period)) {
+                samplers.remove(period).cancel(false);
+            }
+        }
+        for (Integer period : periods) {
+            if (!samplers.containsKey(period)) {
+                samplers.put(period, this.executor.scheduleAtFixedRate(
+                        new Sampler(period),
+                        Math.round(Math.random() * 1000) + 1,
+                        period * 1000L,
+                        TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    protected int getPeriod(Query q) {
+        return q.getPeriod() > 0 ? q.getPeriod() : defaultDelay;
+    }
+
     protected synchronized String getGroupPath(Query q) {
         if (LOCK_GLOBAL.equals(q.getLock())) {
             return "/fabric/registry/clusters/insight-metrics/global/" + q.getName();
@@ -360,12 +423,16 @@ public class MetricsCollector implements MetricsCollectorMBean {
         }
     }
 
-    class Task implements Runnable {
+    /**
+     * Samples all the queries of a given period in a single pass, so that the mbeans they
+     * share are only read once.
+     */
+    class Sampler implements Runnable {
 
-        private final QueryState query;
+        private final int period;
 
-        public Task(QueryState query) {
-            this.query = query;
+        public Sampler(int period) {
+            this.period = period;
         }
 
         @Override
@@ -374,43 +441,74 @@ public class MetricsCollector implements MetricsCollectorMBean {
                 MBeanServer mbs = mbeanServer.getService();
                 StorageService svc = storage.getService();
                 // Abort if required services aren't available
-                if (mbs == null || svc == null) {
+                if (mbs == null || (svc == null && !historyEnabled)) {
                     return;
                 }
-                // If there's a lock, check we are the master
-                if (query.lock != null && !query.lock.isMaster()) {
+                List<QueryState> states = new ArrayList<QueryState>();
+                List<Query> active = new ArrayList<Query>();
+                for (QueryState state : queries.values()) {
+                    // If there's a lock, check we are the master
+                    if (getPeriod(state.query) == period && (state.lock == null || state.lock.isMaster())) {
+                        states.add(state);
+                        active.add(state.query);
+                    }
+                }
+                if (states.isEmpty()) {
                     return;
                 }
-                QueryResult qrs = JmxUtils.execute(query.server, query.query, mbs);
-                boolean forceSend = query.query.getMinPeriod() == query.query.getPeriod() ||
-                        qrs.getTimestamp().getTime() - query.lastSent >= TimeUnit.SECONDS.toMillis(query.query.getMinPeriod());
-                if (!forceSend && query.lastResult != null) {
-                    if (qrs.getResults().equals(query.lastResult.getResults())) {
-                        query.lastResult = qrs;
-                        query.lastResultSent = false;
-                        return;
-                    }
-                    if (!query.lastResultSent) {
-                        renderAndSend(svc, query.lastResult);
+                JmxSampler sampler = new JmxSampler(mbs, active);
+                for (QueryState state : states) {
+                    try {
+                        QueryResult qrs = sampler.execute(state.server, state.query);
+                        if (historyEnabled) {
+                            history.record(qrs);
+                        }
+                        if (svc != null) {
+                            send(svc, state, qrs);
+                        }
+                    } catch (Throwable e) {
+                        LOG.debug("Error sending metrics", e);
                     }
                 }
-                query.lastResult = qrs;
-                query.lastResultSent = true;
-                query.lastSent = qrs.getTimestamp().getTime();
-                renderAndSend(svc, qrs);
+                if (historyEnabled) {
+                    history.evict(sampler.getTimestamp().getTime());
+                }
             } catch (Throwable e) {
-                LOG.debug("Error sending metrics", e);
+                LOG.debug("Error sampling metrics", e);
+            }
+        }
+
+        private void send(StorageService svc, QueryState query, QueryResult qrs) throws Exception {
+            boolean forceSend = query.query.getMinPeriod() == query.query.getPeriod() ||
+                    qrs.getTimestamp().getTime() - query.lastSent >= TimeUnit.SECONDS.toMillis(query.query.getMinPeriod());
+            if (!forceSend && query.lastResult != null) {
+                if (qrs.getResults().equals(query.lastResult.getResults())) {
+                    query.lastResult = qrs;
+                    query.lastResultSent = false;
+                    return;
+                }
+                if (!query.lastResultSent) {
+                    renderAndSend(svc, query.lastResult);
+                }
             }
+            query.lastResult = qrs;
+            query.lastResultSent = true;
+            query.lastSent = qrs.getTimestamp().getTime();
+            renderAndSend(svc, qrs);
         }
 
         private void renderAndSend(StorageService svc, QueryResult qrs) throws Exception {
-            String output = renderer.render(qrs);
-            if (output == null || output.trim().isEmpty()) {
+            JsonWriter writer = JsonWriter.get();
+            if (!renderer.render(qrs, writer)) {
                 return;
             }
-            svc.store(type + "-" + qrs.getQuery().getName(),
-                    qrs.getTimestamp().getTime(),
-                    output);
+            String docType = type + "-" + qrs.getQuery().getName();
+            long timestamp = qrs.getTimestamp().getTime();
+            if (svc instanceof JsonStorageService) {
+                ((JsonStorageService) svc).store(docType, timestamp, writer);
+            } else {
+                svc.store(docType, timestamp, writer.toString());
+            }
         }
 
     }
@@ -20,4 +20,14 @@ package org.fusesource.insight.metrics;
 public interface MetricsCollectorMBean {
 
     String getMetrics();
+
+    /**
+     * @return the names of the metrics kept locally
+     */
+    String[] getHistoryMetrics();
+
+    /**
+     * @return the values of the given metric between the given timestamps as a json array
+     */
+    String queryHistory(String metric, long from, long to);
 }
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.metrics.support;
+
+import org.fusesource.insight.metrics.model.MBeanAttrResult;
+import org.fusesource.insight.metrics.model.MBeanAttrs;
+import org.fusesource.insight.metrics.model.MBeanAttrsResult;
+import org.fusesource.insight.metrics.model.MBeanOperResult;
+import org.fusesource.insight.metrics.model.MBeanOpers;
+import org.fusesource.insight.metrics.model.MBeanOpersResult;
+import org.fusesource.insight.metrics.model.Query;
+import org.fusesource.insight.metrics.model.QueryResult;
+import org.fusesource.insight.metrics.model.Request;
+import org.fusesource.insight.metrics.model.Result;
+import org.fusesource.insight.metrics.model.Server;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Executes the requests of several queries in a single sampling pass.
+ * <p>
+ * Each mbean is only looked up once, and all the attributes asked by the queries for an mbean
+ * are fetched with a single <code>getAttributes</code> call, so queries sharing mbeans share
+ * the values read. Identical operation invocations are also only done once.
+ * A sampler is meant to be used for a single pass by a single thread, and a failing query
+ * does not prevent the others from being sampled.
+ */
+public class JmxSampler {
+
+    private final MBeanServer mbs;
+    private final Date timestamp = new Date();
+    private final Map<ObjectName, Set<String>> attributesByPattern = new HashMap<ObjectName, Set<String>>();
+    private final Map<String, Set<ObjectName>> names = new HashMap<String, Set<ObjectName>>();
+    private final Map<ObjectName, Map<String, Object>> values = new HashMap<ObjectName, Map<String, Object>>();
+    private final Map<List<Object>, Object> invocations = new HashMap<List<Object>, Object>();
+
+    public JmxSampler(MBeanServer mbs, Collection<Query> queries) {
+        this.mbs = mbs;
+        for (Query query : queries) {
+            for (Request request : query.getRequests()) {
+                if (request instanceof MBeanAttrs) {
+                    MBeanAttrs attrs = (MBeanAttrs) request;
+                    ObjectName pattern;
+                    try {
+                        pattern = new ObjectName(attrs.getObj());
+                    } catch (MalformedObjectNameException e) {
+                        // only the query of this request fails, when it is executed
+                        continue;
+                    }
+                    Set<String> set = attributesByPattern.get(pattern);
+                    if (set == null) {
+                        set = new LinkedHashSet<String>();
+                        attributesByPattern.put(pattern, set);
+                    }
+                    set.addAll(attrs.getAttrs());
+                }
+            }
+        }
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public QueryResult execute(Server server, Query query) throws JMException {
+        Map<String, Result<?>> queryResults = new HashMap<String, Result<?>>();
+        for (Request request : query.getRequests()) {
+            if (request instanceof MBeanAttrs) {
+                queryResults.put(request.getName(), execute((MBeanAttrs) request));
+            } else if (request instanceof MBeanOpers) {
+                queryResults.put(request.getName(), execute((MBeanOpers) request));
+            } else {
+                throw new IllegalArgumentException("Unsupported request " + request);
+            }
+        }
+        return new QueryResult(server, query, timestamp, queryResults);
+    }
+
+    private MBeanAttrsResult execute(MBeanAttrs request) throws JMException {
+        List<MBeanAttrResult> results = new ArrayList<MBeanAttrResult>();
+        for (ObjectName mbean : queryNames(request.getObj())) {
+            Map<String, Object> all = getAttributes(mbean);
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            for (String attr : request.getAttrs()) {
+                if (all.containsKey(attr)) {
+                    attrs.put(attr, all.get(attr));
+                }
+            }
+            results.add(new MBeanAttrResult(mbean, attrs));
+        }
+        return new MBeanAttrsResult(request, results);
+    }
+
+    private MBeanOpersResult execute(MBeanOpers request) throws JMException {
+        List<MBeanOperResult> results = new ArrayList<MBeanOperResult>();
+        for (ObjectName mbean : queryNames(request.getObj())) {
+            List<Object> key = Arrays.<Object>asList(mbean, request.getOper(), request.getArgs(), request.getSig());
+            Object value;
+            if (invocations.containsKey(key)) {
+                value = invocations.get(key);
+            } else {
+                List<Object> args = request.getArgs();
+                List<String> sig = request.getSig();
+                value = JmxUtils.getJmxValue(mbs.invoke(mbean, request.getOper(),
+                        args.toArray(new Object[args.size()]), sig.toArray(new String[sig.size()])));
+                invocations.put(key, value);
+            }
+            results.add(new MBeanOperResult(mbean, value));
+        }
+        return new MBeanOpersResult(request, results);
+    }
+
+    private Set<ObjectName> queryNames(String obj) throws JMException {
+        Set<ObjectName> set = names.get(obj);
+        if (set == null) {
+            set = mbs.queryNames(new ObjectName(obj), null);
+            names.put(obj, set);
+        }
+        return set;
+    }
+
+    private Map<String, Object> getAttributes(ObjectName mbean) throws JMException {
+        Map<String, Object> map = values.get(mbean);
+        if (map == null) {
+            // all the attributes asked for this mbean by any query
+            Set<String> attrs = new LinkedHashSet<String>();
+            for (Map.Entry<ObjectName, Set<String>> entry : attributesByPattern.entrySet()) {
+                if (entry.getKey().apply(mbean)) {
+                    attrs.addAll(entry.getValue());
+                }
+            }
+            AttributeList al = mbs.getAttributes(mbean, attrs.toArray(new String[attrs.size()]));
+            map = new HashMap<String, Object>();
+            for (Attribute attribute : al.asList()) {
+                map.put(attribute.getName(), JmxUtils.getJmxValue(attribute.getValue()));
+            }
+            values.put(mbean, map);
+        }
+        return map;
+    }
+
+}
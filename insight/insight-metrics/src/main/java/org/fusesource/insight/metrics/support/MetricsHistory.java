@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.metrics.support;
+
+import org.fusesource.insight.metrics.model.MBeanAttrResult;
+import org.fusesource.insight.metrics.model.MBeanAttrsResult;
+import org.fusesource.insight.metrics.model.MBeanOperResult;
+import org.fusesource.insight.metrics.model.MBeanOpersResult;
+import org.fusesource.insight.metrics.model.QueryResult;
+import org.fusesource.insight.metrics.model.Result;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local store of the numeric values collected by the queries, so that recent metrics
+ * can be looked at without going to the storage.
+ * <p>
+ * Metrics are named <code>query/request/objectName/attribute</code>, with the keys of
+ * composite values appended after a dot, like <code>HeapMemoryUsage.used</code>.
+ * As each metric can take up to 16 kilobytes, the number of metrics is bounded and the
+ * values of new metrics are dropped once the limit is reached.
+ */
+public class MetricsHistory {
+
+    // series not updated for a day are dropped
+    private static final long RETENTION = 24 * 60 * 60 * 1000L;
+
+    public static final int DEFAULT_MAX_METRICS = 1000;
+
+    private final ConcurrentHashMap<String, TimeSeries> series = new ConcurrentHashMap<String, TimeSeries>();
+    private final int maxMetrics;
+
+    public MetricsHistory() {
+        this(DEFAULT_MAX_METRICS);
+    }
+
+    public MetricsHistory(int maxMetrics) {
+        this.maxMetrics = maxMetrics;
+    }
+
+    public void record(QueryResult qrs) {
+        long timestamp = qrs.getTimestamp().getTime();
+        String prefix = qrs.getQuery().getName() + "/";
+        for (Map.Entry<String, Result<?>> entry : qrs.getResults().entrySet()) {
+            String name = prefix + entry.getKey() + "/";
+            Result<?> result = entry.getValue();
+            if (result instanceof MBeanAttrsResult) {
+                for (MBeanAttrResult r : ((MBeanAttrsResult) result).getResults()) {
+                    String mbean = name + r.getObjectName() + "/";
+                    for (Map.Entry<String, Object> attr : r.getAttrs().entrySet()) {
+                        record(mbean + attr.getKey(), timestamp, attr.getValue());
+                    }
+                }
+            } else if (result instanceof MBeanOpersResult) {
+                for (MBeanOperResult r : ((MBeanOpersResult) result).getResults()) {
+                    record(name + r.getObjectName(), timestamp, r.getValue());
+                }
+            }
+        }
+    }
+
+    public void record(String metric, long timestamp, Object value) {
+        if (value instanceof Number || value instanceof Boolean) {
+            TimeSeries ts = getSeries(metric);
+            if (ts != null) {
+                ts.record(timestamp, value instanceof Number ? ((Number) value).doubleValue() : (Boolean) value ? 1 : 0);
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                record(metric + "." + entry.getKey(), timestamp, entry.getValue());
+            }
+        }
+    }
+
+    public Set<String> getMetrics() {
+        return new TreeSet<String>(series.keySet());
+    }
+
+    public TimeSeries get(String metric) {
+        return series.get(metric);
+    }
+
+    /**
+     * Drops the metrics of the given query.
+     */
+    public void remove(String query) {
+        String prefix = query + "/";
+        for (Iterator<String> iterator = series.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the metrics which have not been updated for a while, such as those of unregistered mbeans.
+     */
+    public void evict(long now) {
+        for (Iterator<TimeSeries> iterator = series.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().getLastUpdate() < now - RETENTION) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the series of the given metric, or null if there are too many metrics already
+     */
+    private TimeSeries getSeries(String metric) {
+        TimeSeries ts = series.get(metric);
+        if (ts == null) {
+            // racy, so the limit may be slightly exceeded
+            if (series.size() >= maxMetrics) {
+                return null;
+            }
+            ts = new TimeSeries();
+            TimeSeries existing = series.putIfAbsent(metric, ts);
+            if (existing != null) {
+                ts = existing;
+            }
+        }
+        return ts;
+    }
+
+}
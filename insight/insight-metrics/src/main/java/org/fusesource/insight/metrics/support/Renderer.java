@@ -16,8 +16,14 @@
  */
 package org.fusesource.insight.metrics.support;
 
+import org.fusesource.insight.metrics.model.MBeanAttrResult;
+import org.fusesource.insight.metrics.model.MBeanAttrsResult;
+import org.fusesource.insight.metrics.model.MBeanOperResult;
+import org.fusesource.insight.metrics.model.MBeanOpersResult;
 import org.fusesource.insight.metrics.model.Query;
 import org.fusesource.insight.metrics.model.QueryResult;
+import org.fusesource.insight.metrics.model.Result;
+import org.fusesource.insight.storage.JsonWriter;
 import org.mvel2.ParserContext;
 import org.mvel2.templates.CompiledTemplate;
 import org.mvel2.templates.TemplateCompiler;
@@ -33,6 +39,7 @@ public class Renderer {
 
     private Map<Query, String> sources = new ConcurrentHashMap<Query, String>();
     private Map<String, CompiledTemplate> templates = new ConcurrentHashMap<String, CompiledTemplate>();
+    private Map<Query, Boolean> defaults = new ConcurrentHashMap<Query, Boolean>();
     private ParserContext context;
 
     public Renderer() {
@@ -51,6 +58,74 @@ public class Renderer {
         return TemplateRuntime.execute(getTemplate(qrs.getQuery()), context, vars).toString();
     }
 
+    /**
+     * Renders the result to the given writer. Queries using the default template are
+     * written directly, which gives the same document without going through mvel.
+     *
+     * @return <code>false</code> if there is nothing to store
+     */
+    public boolean render(QueryResult qrs, JsonWriter writer) throws Exception {
+        getTemplateSource(qrs.getQuery());
+        if (Boolean.TRUE.equals(defaults.get(qrs.getQuery()))) {
+            renderDefault(qrs, writer);
+            return true;
+        }
+        String output = render(qrs);
+        if (output == null || output.trim().isEmpty()) {
+            return false;
+        }
+        writer.append(output);
+        return true;
+    }
+
+    private void renderDefault(QueryResult qrs, JsonWriter writer) {
+        writer.append("{\n  \"host\": ").quote(qrs.getServer().getName());
+        writer.append(",\n  \"timestamp\": ").quoteDate(qrs.getTimestamp().getTime());
+        writer.append(",\n  \"queries\": { ");
+        boolean first = true;
+        for (Map.Entry<String, Result<?>> e : qrs.getResults().entrySet()) {
+            if (!first) {
+                writer.append(", ");
+            }
+            first = false;
+            writer.append("\n    ").quote(e.getKey()).append(": [ ");
+            Result<?> result = e.getValue();
+            if (result instanceof MBeanAttrsResult) {
+                boolean firstResult = true;
+                for (MBeanAttrResult r : ((MBeanAttrsResult) result).getResults()) {
+                    if (!firstResult) {
+                        writer.append(", ");
+                    }
+                    firstResult = false;
+                    writer.append("{\n      \"name\": ").quote(r.getObjectName().toString());
+                    writer.append(",\n      \"attrs\": { ");
+                    boolean firstAttr = true;
+                    for (Map.Entry<String, Object> a : r.getAttrs().entrySet()) {
+                        if (!firstAttr) {
+                            writer.append(", ");
+                        }
+                        firstAttr = false;
+                        writer.append("\n        ").quote(a.getKey()).append(": ").append(ScriptUtils.toJson(a.getValue()));
+                    }
+                    writer.append("\n        }\n      }");
+                }
+            } else if (result instanceof MBeanOpersResult) {
+                boolean firstResult = true;
+                for (MBeanOperResult r : ((MBeanOpersResult) result).getResults()) {
+                    if (!firstResult) {
+                        writer.append(", ");
+                    }
+                    firstResult = false;
+                    writer.append("{\n      \"name\": ").quote(r.getObjectName().toString());
+                    writer.append(",\n      \"value\": ").append(ScriptUtils.toJson(r.getValue()));
+                    writer.append("\n      }");
+                }
+            }
+            writer.append("\n    ]");
+        }
+        writer.append("\n  }\n}\n");
+    }
+
     private CompiledTemplate getTemplate(Query set) throws IOException {
         String source = getTemplateSource(set);
         CompiledTemplate template = templates.get(source);
@@ -67,10 +142,12 @@ public class Renderer {
             if (set.getTemplate() != null) {
                 source = IoUtils.loadFully(new URL(set.getTemplate()));
             }
+            boolean isDefault = false;
             if (source == null) {
                 URL url = getClass().getResource("/org/fusesource/insight/metrics/" + set.getName() + ".mvel");
                 if (url == null) {
                     url = getClass().getResource("/org/fusesource/insight/metrics/default.mvel");
+                    isDefault = true;
                 }
                 if (url != null) {
                     source = IoUtils.loadFully(url);
@@ -78,6 +155,7 @@ public class Renderer {
                     throw new IllegalStateException("Could not find default template");
                 }
             }
+            defaults.put(set, isDefault);
             sources.put(set, source);
         }
         return source;
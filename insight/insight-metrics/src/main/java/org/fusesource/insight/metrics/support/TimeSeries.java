@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.metrics.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The recent values of a numeric metric, kept at decreasing resolutions.
+ * <p>
+ * Each level is a ring buffer of buckets aggregating the values of a fixed time span:
+ * the last samples are kept as is, older values as one minute and then fifteen minutes
+ * averages. The buffers grow as buckets are filled, up to 396 buckets of 40 bytes, so
+ * a day of history takes about 16 kilobytes per metric.
+ */
+public class TimeSeries {
+
+    static final long[] RESOLUTIONS = { 0, 60 * 1000L, 15 * 60 * 1000L };
+    static final int[] CAPACITIES = { 120, 180, 96 };
+    static final int INITIAL_CAPACITY = 8;
+
+    private final Level[] levels = new Level[RESOLUTIONS.length];
+    private long lastUpdate;
+
+    public TimeSeries() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Level(RESOLUTIONS[i], CAPACITIES[i]);
+        }
+    }
+
+    public synchronized void record(long timestamp, double value) {
+        for (Level level : levels) {
+            level.record(timestamp, value);
+        }
+        lastUpdate = timestamp;
+    }
+
+    public synchronized long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * Returns the values recorded between the given timestamps, using the finest
+     * resolution still covering the start of the range.
+     *
+     * @return a list of maps with the <code>timestamp</code>, <code>count</code>,
+     *         <code>avg</code>, <code>min</code> and <code>max</code> of each bucket
+     */
+    public synchronized List<Map<String, Object>> query(long from, long to) {
+        Level level = levels[levels.length - 1];
+        for (Level l : levels) {
+            if (l.size > 0 && l.oldest() <= from) {
+                level = l;
+                break;
+            }
+        }
+        return level.query(from, to);
+    }
+
+    static class Level {
+        final long resolution;
+        final int capacity;
+        long[] timestamps;
+        long[] counts;
+        double[] sums;
+        double[] mins;
+        double[] maxs;
+        int head = -1;
+        int size;
+
+        Level(long resolution, int capacity) {
+            this.resolution = resolution;
+            this.capacity = capacity;
+            allocate(Math.min(INITIAL_CAPACITY, capacity));
+        }
+
+        /**
+         * Resizes the buffers, which must not have wrapped yet
+         */
+        private void allocate(int length) {
+            timestamps = timestamps != null ? Arrays.copyOf(timestamps, length) : new long[length];
+            counts = counts != null ? Arrays.copyOf(counts, length) : new long[length];
+            sums = sums != null ? Arrays.copyOf(sums, length) : new double[length];
+            mins = mins != null ? Arrays.copyOf(mins, length) : new double[length];
+            maxs = maxs != null ? Arrays.copyOf(maxs, length) : new double[length];
+        }
+
+        void record(long timestamp, double value) {
+            long bucket = resolution > 0 ? timestamp - timestamp % resolution : timestamp;
+            if (head < 0 || resolution == 0 || timestamps[head] != bucket) {
+                if (size == timestamps.length && size < capacity) {
+                    allocate(Math.min(size * 2, capacity));
+                }
+                head = (head + 1) % timestamps.length;
+                size = Math.min(size + 1, timestamps.length);
+                timestamps[head] = bucket;
+                counts[head] = 0;
+                sums[head] = 0;
+                mins[head] = value;
+                maxs[head] = value;
+            }
+            counts[head]++;
+            sums[head] += value;
+            mins[head] = Math.min(mins[head], value);
+            maxs[head] = Math.max(maxs[head], value);
+        }
+
+        long oldest() {
+            return timestamps[(head - size + 1 + timestamps.length) % timestamps.length];
+        }
+
+        List<Map<String, Object>> query(long from, long to) {
+            List<Map<String, Object>> points = new ArrayList<Map<String, Object>>();
+            for (int i = size - 1; i >= 0; i--) {
+                int index = (head - i + timestamps.length) % timestamps.length;
+                long timestamp = timestamps[index];
+                // a bucket is included if it overlaps the range
+                if (timestamp + resolution >= from && timestamp <= to) {
+                    Map<String, Object> point = new LinkedHashMap<String, Object>();
+                    point.put("timestamp", timestamp);
+                    point.put("count", counts[index]);
+                    point.put("avg", sums[index] / counts[index]);
+                    point.put("min", mins[index]);
+                    point.put("max", maxs[index]);
+                    points.add(point);
+                }
+            }
+            return points;
+        }
+    }
+
+}
@@ -17,23 +17,40 @@
 package org.fusesource.insight.metrics;
 
 import org.codehaus.jackson.map.ObjectMapper;
+import org.fusesource.insight.metrics.model.MBeanAttrResult;
 import org.fusesource.insight.metrics.model.MBeanAttrs;
+import org.fusesource.insight.metrics.model.MBeanAttrsResult;
+import org.fusesource.insight.metrics.model.MBeanOperResult;
 import org.fusesource.insight.metrics.model.MBeanOpers;
+import org.fusesource.insight.metrics.model.MBeanOpersResult;
 import org.fusesource.insight.metrics.model.Query;
 import org.fusesource.insight.metrics.model.QueryResult;
 import org.fusesource.insight.metrics.model.Request;
+import org.fusesource.insight.metrics.model.Result;
 import org.fusesource.insight.metrics.model.Server;
+import org.fusesource.insight.metrics.support.JmxSampler;
 import org.fusesource.insight.metrics.support.JmxUtils;
+import org.fusesource.insight.metrics.support.MetricsHistory;
 import org.fusesource.insight.metrics.support.Renderer;
+import org.fusesource.insight.metrics.support.TimeSeries;
+import org.fusesource.insight.storage.JsonWriter;
 import org.junit.Test;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MetricsTest {
 
@@ -56,4 +73,144 @@ public class MetricsTest {
         assertEquals("local", map.get("host"));
         assertNotNull(map.get("timestamp"));
     }
+
+    @Test
+    public void testDefaultRenderingMatchesTemplate() throws Exception {
+        Renderer renderer = new Renderer();
+        // find where the attribute value starts in a fresh writer
+        String empty = renderInNewThread(renderer, result(""));
+        int start = empty.indexOf("\"Name\": \"\"") + "\"Name\": ".length();
+
+        // a value whose two byte character makes it overflow the initial 1024 bytes of the writer
+        StringBuilder value = new StringBuilder("\u00e9");
+        while (start + value.length() + 2 < 1024) {
+            value.append('a');
+        }
+        QueryResult qrs = result(value.toString());
+        String direct = renderInNewThread(renderer, qrs);
+
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.readValue(renderer.render(qrs), Map.class), mapper.readValue(direct, Map.class));
+        Map attrs = (Map) ((Map) ((List) ((Map) mapper.readValue(direct, Map.class).get("queries")).get("attrs")).get(0)).get("attrs");
+        assertEquals(value.toString(), attrs.get("Name"));
+    }
+
+    private static QueryResult result(String name) throws Exception {
+        MBeanAttrs attrs = new MBeanAttrs("attrs", "test:type=Attrs", Arrays.asList("Name", "Count"));
+        MBeanOpers opers = new MBeanOpers("opers", "test:type=Opers", "list",
+                Collections.emptyList(), Collections.<String>emptyList());
+        Query query = new Query("test", new HashSet<Request>(Arrays.<Request>asList(attrs, opers)), null, null, null, 0, 0);
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("Name", name);
+        values.put("Count", 42);
+        Map<String, Result<?>> results = new LinkedHashMap<String, Result<?>>();
+        results.put("attrs", new MBeanAttrsResult(attrs, Arrays.asList(
+                new MBeanAttrResult(new ObjectName("test:type=Attrs"), values))));
+        results.put("opers", new MBeanOpersResult(opers, Arrays.asList(
+                new MBeanOperResult(new ObjectName("test:type=Opers,name=Caf\u00e9"), Arrays.asList("\u4e2d", 1, true)))));
+        return new QueryResult(new Server("local"), query, new Date(), results);
+    }
+
+    /**
+     * Renders the result with the default template written directly, on a new thread
+     * so that the writer starts with its initial buffer
+     */
+    private static String renderInNewThread(final Renderer renderer, final QueryResult qrs) throws Exception {
+        final Object[] answer = new Object[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    JsonWriter writer = JsonWriter.get();
+                    renderer.render(qrs, writer);
+                    answer[0] = writer.toString();
+                } catch (Throwable t) {
+                    answer[0] = t;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        if (answer[0] instanceof Throwable) {
+            throw new AssertionError(answer[0]);
+        }
+        return (String) answer[0];
+    }
+
+    @Test
+    public void testSampler() throws Exception {
+        Query heap = new Query("heap", new HashSet<Request>(Arrays.<Request>asList(
+                new MBeanAttrs("memory", "java.lang:type=Memory", Arrays.asList("HeapMemoryUsage"))
+        )), null, null, null, 0, 0);
+        Query threads = new Query("threads", new HashSet<Request>(Arrays.<Request>asList(
+                new MBeanAttrs("memory", "java.lang:type=Memory", Arrays.asList("ObjectPendingFinalizationCount")),
+                new MBeanAttrs("threads", "java.lang:type=Threading", Arrays.asList("ThreadCount", "DaemonThreadCount"))
+        )), null, null, null, 0, 0);
+
+        JmxSampler sampler = new JmxSampler(ManagementFactory.getPlatformMBeanServer(), Arrays.asList(heap, threads));
+        QueryResult heapResult = sampler.execute(new Server("local"), heap);
+        QueryResult threadsResult = sampler.execute(new Server("local"), threads);
+
+        // each query only gets the attributes it asked for
+        MBeanAttrsResult memory = (MBeanAttrsResult) heapResult.getResults().get("memory");
+        assertEquals(1, memory.getResults().size());
+        assertEquals(Collections.singleton("HeapMemoryUsage"), memory.getResults().get(0).getAttrs().keySet());
+        memory = (MBeanAttrsResult) threadsResult.getResults().get("memory");
+        assertEquals(Collections.singleton("ObjectPendingFinalizationCount"), memory.getResults().get(0).getAttrs().keySet());
+        MBeanAttrsResult threading = (MBeanAttrsResult) threadsResult.getResults().get("threads");
+        assertEquals(2, threading.getResults().get(0).getAttrs().size());
+
+        MetricsHistory history = new MetricsHistory();
+        history.record(heapResult);
+        history.record(threadsResult);
+        String metric = "heap/memory/java.lang:type=Memory/HeapMemoryUsage.used";
+        assertTrue(history.getMetrics().contains(metric));
+        assertTrue(history.getMetrics().contains("threads/threads/java.lang:type=Threading/ThreadCount"));
+        long now = heapResult.getTimestamp().getTime();
+        List<Map<String, Object>> points = history.get(metric).query(now - 1000, now + 1000);
+        assertEquals(1, points.size());
+        assertEquals(1L, points.get(0).get("count"));
+
+        history.remove("heap");
+        assertTrue(history.get(metric) == null);
+    }
+
+    @Test
+    public void testSamplerIsolatesFailingQueries() throws Exception {
+        Query broken = new Query("broken", new HashSet<Request>(Arrays.<Request>asList(
+                new MBeanAttrs("memory", "not an object name", Arrays.asList("HeapMemoryUsage"))
+        )), null, null, null, 0, 0);
+        Query heap = new Query("heap", new HashSet<Request>(Arrays.<Request>asList(
+                new MBeanAttrs("memory", "java.lang:type=Memory", Arrays.asList("HeapMemoryUsage"))
+        )), null, null, null, 0, 0);
+
+        JmxSampler sampler = new JmxSampler(ManagementFactory.getPlatformMBeanServer(), Arrays.asList(broken, heap));
+        try {
+            sampler.execute(new Server("local"), broken);
+            fail("Expected the malformed object name to be refused");
+        } catch (MalformedObjectNameException e) {
+            // expected
+        }
+        MBeanAttrsResult memory = (MBeanAttrsResult) sampler.execute(new Server("local"), heap).getResults().get("memory");
+        assertEquals(1, memory.getResults().size());
+    }
+
+    @Test
+    public void testHistoryLimits() throws Exception {
+        MetricsHistory history = new MetricsHistory(2);
+        history.record("a", 0, 1);
+        history.record("b", 0, true);
+        history.record("c", 0, 3);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), history.getMetrics());
+
+        // the buffers grow up to their capacity and then wrap
+        TimeSeries series = history.get("a");
+        for (int i = 1; i < 200; i++) {
+            series.record(i * 1000L, i);
+        }
+        List<Map<String, Object>> points = series.query(80 * 1000L, 200 * 1000L);
+        assertEquals(120, points.size());
+        assertEquals(80 * 1000L, points.get(0).get("timestamp"));
+        assertEquals(199.0, points.get(119).get("avg"));
+    }
+
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.storage;
+
+/**
+ * A {@link StorageService} storing documents written with a {@link JsonWriter}, which saves
+ * building an intermediate string for each of them.
+ */
+public interface JsonStorageService extends StorageService {
+
+    /**
+     * Store an event.
+     * The writer is reused once this method returns, so its content must be copied if needed later.
+     *
+     * @param type the type of document to store
+     * @param timestamp the date of the event
+     * @param json the data to store
+     */
+    void store(String type, long timestamp, JsonWriter json);
+
+}
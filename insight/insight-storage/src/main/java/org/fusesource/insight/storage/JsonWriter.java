@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * A reusable writer of JSON documents encoding directly to UTF-8 bytes.
+ * <p>
+ * Writers are not thread safe: {@link #get()} gives the writer of the calling thread,
+ * which is cleared and reused by the next call, so a document must be fully handled
+ * (usually by {@link JsonStorageService#store(String, long, JsonWriter)}) before the
+ * thread writes the next one.
+ */
+public class JsonWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_SIZE = 1024;
+
+    // bigger buffers are released once the document is written
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+
+    private static final ThreadLocal<JsonWriter> WRITERS = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int count;
+
+    private SimpleDateFormat secondFormat;
+    private SimpleDateFormat zoneFormat;
+    private long cachedSecond = Long.MIN_VALUE;
+    private byte[] cachedPrefix;
+    private byte[] cachedZone;
+
+    /**
+     * @return the empty writer of the calling thread
+     */
+    public static JsonWriter get() {
+        JsonWriter writer = WRITERS.get();
+        writer.reset();
+        return writer;
+    }
+
+    public void reset() {
+        if (buffer.length > MAX_RETAINED_SIZE) {
+            buffer = new byte[INITIAL_SIZE];
+        }
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the internal buffer, of which only the first {@link #size()} bytes are meaningful
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(buffer, 0, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, UTF8);
+    }
+
+    /**
+     * Writes the given ASCII character as is.
+     */
+    public JsonWriter append(char c) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Writes the given text as is, usually some JSON syntax.
+     */
+    public JsonWriter append(String text) {
+        int len = text.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                // the multi byte characters before may have used the room reserved above
+                ensureCapacity(1);
+                buffer[count++] = (byte) c;
+            } else {
+                i = encode(text, i);
+            }
+        }
+        return this;
+    }
+
+    public JsonWriter append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        ensureCapacity(19);
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits were written backwards
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the given string between double quotes, an empty string being written for null.
+     */
+    public JsonWriter quote(String string) {
+        append('"');
+        if (string != null) {
+            escape(string);
+        }
+        return append('"');
+    }
+
+    /**
+     * Writes the given string escaped for JSON but without the surrounding double quotes,
+     * so that a string value can be written in several parts.
+     */
+    public JsonWriter escape(String string) {
+        int len = string.length();
+        ensureCapacity(len);
+        char c = 0;
+        for (int i = 0; i < len; i++) {
+            char b = c;
+            c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    append('\\').append(c);
+                    break;
+                case '/':
+                    // so that the text can be embedded in html
+                    if (b == '<') {
+                        append('\\');
+                    }
+                    append(c);
+                    break;
+                case '\b':
+                    append("\\b");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\f':
+                    append("\\f");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        ensureCapacity(6);
+                        buffer[count++] = '\\';
+                        buffer[count++] = 'u';
+                        buffer[count++] = HEX[(c >> 12) & 0xf];
+                        buffer[count++] = HEX[(c >> 8) & 0xf];
+                        buffer[count++] = HEX[(c >> 4) & 0xf];
+                        buffer[count++] = HEX[c & 0xf];
+                    } else if (c < 0x80) {
+                        ensureCapacity(1);
+                        buffer[count++] = (byte) c;
+                    } else {
+                        i = encode(string, i);
+                    }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the given date between double quotes, in the <code>yyyy-MM-dd'T'HH:mm:ss.SSSX</code> format
+     * of the default time zone.
+     */
+    public JsonWriter quoteDate(long timestamp) {
+        long second = timestamp >= 0 ? timestamp / 1000 : (timestamp - 999) / 1000;
+        int millis = (int) (timestamp - second * 1000);
+        if (second != cachedSecond) {
+            if (secondFormat == null) {
+                secondFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+                zoneFormat = new SimpleDateFormat("X");
+            }
+            Date date = new Date(second * 1000);
+            cachedPrefix = secondFormat.format(date).getBytes(UTF8);
+            cachedZone = zoneFormat.format(date).getBytes(UTF8);
+            cachedSecond = second;
+        }
+        ensureCapacity(cachedPrefix.length + cachedZone.length + 6);
+        buffer[count++] = '"';
+        System.arraycopy(cachedPrefix, 0, buffer, count, cachedPrefix.length);
+        count += cachedPrefix.length;
+        buffer[count++] = '.';
+        buffer[count++] = (byte) ('0' + millis / 100);
+        buffer[count++] = (byte) ('0' + millis / 10 % 10);
+        buffer[count++] = (byte) ('0' + millis % 10);
+        System.arraycopy(cachedZone, 0, buffer, count, cachedZone.length);
+        count += cachedZone.length;
+        buffer[count++] = '"';
+        return this;
+    }
+
+    /**
+     * Encodes the non ASCII character at the given index.
+     *
+     * @return the index of the last character consumed
+     */
+    private int encode(String s, int i) {
+        ensureCapacity(4);
+        char c = s.charAt(i);
+        if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            buffer[count++] = (byte) (0xf0 | (cp >> 18));
+            buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            // a lone surrogate can't be encoded
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) (0xe0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.insight.storage;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonWriterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testMultiByteCharacters() {
+        String text = "a\u00e9\u4e2d\ud83d\ude00b";
+        assertUtf8(text, JsonWriter.get().append(text));
+        assertUtf8("\"" + text + "\"", JsonWriter.get().quote(text));
+        // a lone surrogate can't be encoded
+        assertEquals("a?b", JsonWriter.get().append("a\ud83db").toString());
+        assertEquals("\"a?b\"", JsonWriter.get().quote("a\ude00b").toString());
+    }
+
+    @Test
+    public void testMultiByteCharactersFillingTheBuffer() {
+        StringBuilder builder = new StringBuilder("\u00e9");
+        for (int i = 0; i < 1023; i++) {
+            builder.append('a');
+        }
+        String text = builder.toString();
+        assertUtf8(text, JsonWriter.get().append(text));
+        assertUtf8("\"" + text + "\"", JsonWriter.get().quote(text));
+
+        builder.setLength(0);
+        for (int i = 0; i < 500; i++) {
+            builder.append("\u4e2d\ud83d\ude00a");
+        }
+        text = builder.toString();
+        assertUtf8(text, JsonWriter.get().append(text));
+        assertUtf8("\"" + text + "\"", JsonWriter.get().quote(text));
+    }
+
+    @Test
+    public void testEscapes() {
+        assertEquals("\"a\\\"b\\\\c\\n\\t\\r\\b\\f\\u0001\"",
+                JsonWriter.get().quote("a\"b\\c\n\t\r\b\f\u0001").toString());
+        // "</" is escaped so that the document can be embedded in html
+        assertEquals("\"<\\/script> a/b\"", JsonWriter.get().quote("</script> a/b").toString());
+        assertEquals("\"\\u0085\\u2028\\u2029\"", JsonWriter.get().quote("\u0085\u2028\u2029").toString());
+        assertEquals("\"\\u20ac\"", JsonWriter.get().quote("\u20ac").toString());
+        assertEquals("\"\"", JsonWriter.get().quote(null).toString());
+        assertEquals("{\"a\":\"b\\\"c\"}", JsonWriter.get().append("{\"a\":\"").escape("b\"").escape("c").append("\"}").toString());
+    }
+
+    @Test
+    public void testNumbers() {
+        for (long value : new long[] { 0, 7, -7, 10, -10, 1234567890123L, -1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            assertEquals(Long.toString(value), JsonWriter.get().append(value).toString());
+        }
+        assertEquals("[1,-2]", JsonWriter.get().append('[').append(1).append(',').append(-2).append(']').toString());
+    }
+
+    @Test
+    public void testQuoteDate() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+        JsonWriter writer = JsonWriter.get();
+        // the formatted second is cached so go back and forth across second boundaries
+        long[] timestamps = { 1381000000999L, 1381000001000L, 1381000001001L, 1381000000000L, 1381000001999L,
+                0, -1, -999, -1000, -1001, -86400001L };
+        for (long timestamp : timestamps) {
+            writer.reset();
+            assertEquals("\"" + format.format(new Date(timestamp)) + "\"", writer.quoteDate(timestamp).toString());
+        }
+    }
+
+    @Test
+    public void testBufferGrowthAndRelease() {
+        JsonWriter writer = JsonWriter.get();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10 * 1024; i++) {
+            builder.append('x');
+        }
+        String text = builder.toString();
+        writer.append(text);
+        assertEquals(text.length(), writer.size());
+
+        // buffers up to 64 KB are kept for the next document
+        JsonWriter next = JsonWriter.get();
+        assertSame(writer, next);
+        assertEquals(0, next.size());
+        assertTrue(next.getBuffer().length >= 10 * 1024);
+
+        for (int i = 0; i < 10; i++) {
+            next.append(text);
+        }
+        assertEquals(100 * 1024, next.size());
+        assertEquals(100 * 1024, next.toByteArray().length);
+
+        // bigger ones are released
+        next = JsonWriter.get();
+        assertEquals(0, next.size());
+        assertTrue(next.getBuffer().length <= 64 * 1024);
+    }
+
+    private static void assertUtf8(String expected, JsonWriter writer) {
+        assertArrayEquals(expected.getBytes(UTF8), writer.toByteArray());
+        assertEquals(expected, writer.toString());
+    }
+}